@@ -0,0 +1,88 @@
+package com.pful.pico;
+
+import com.pful.pico.resource.Entity;
+import com.pful.pico.store.Stores;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ServiceScalingBenchmark measures the throughput of GET /entities/:id for a number of Service instances.
+ * The entity is served from EntityCache after the first read, so the HTTP path on the event loops dominates.
+ * With enough client threads, the throughput should grow almost linearly up to the number of the cores,
+ * and the instances beyond them show the cost of sharing the cores.
+ * The entities are kept in the memory engine, so no database is needed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class ServiceScalingBenchmark
+{
+	@Param({"1", "2", "4", "8", "16", "32"})
+	public int instances;
+
+	private Vertx vertx;
+	private URL url;
+
+	@Setup
+	public void setUp()
+			throws Exception
+	{
+		vertx = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(instances));
+
+		final JsonObject config = new JsonObject().put(Service.CONFIG_STORE,
+		                                               new JsonObject().put(Stores.CONFIG_ENGINE, Stores.ENGINE_MEMORY));
+		final CompletableFuture<String> deployed = new CompletableFuture<>();
+		vertx.deployVerticle(Service.class.getName(), new DeploymentOptions().setInstances(instances).setConfig(config),
+		                     res -> deployed.complete(res.result()));
+		deployed.get();
+
+		final Map<String, Object> properties = new HashMap<>();
+		properties.put("name", "benchmark");
+
+		final CompletableFuture<String> created = new CompletableFuture<>();
+		Entity.create("benchmark_scaling", properties, (errorCode, entity) -> created.complete(entity.getId()));
+
+		url = new URL("http://localhost:8080/entities/" + created.get());
+	}
+
+	@TearDown
+	public void tearDown()
+			throws Exception
+	{
+		final CompletableFuture<Void> closed = new CompletableFuture<>();
+		vertx.close(res -> closed.complete(null));
+		closed.get();
+	}
+
+	@Benchmark
+	public int read()
+			throws Exception
+	{
+		// HttpURLConnection keeps the connection alive for each benchmark thread.
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		final byte[] buffer = new byte[4096];
+
+		try (final InputStream in = connection.getInputStream()) {
+			int total = 0;
+			for (int n; (n = in.read(buffer)) > 0; ) {
+				total += n;
+			}
+			return total;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package com.pful.pico.db.querybuilder;
+
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.pful.pico.db.querybuilder.Field.field;
+
+/**
+ * FinderBenchmark builds the queries used by Entity and GroupManipulation with and without the cache of
+ * the compiled skeletons, and the same queries by binding the registered templates. Run it with '-prof gc'
+ * for the allocations per query.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FinderBenchmark
+{
+	@Param({"true", "false"})
+	public boolean planCache;
+
+	private String id = "5673b9c3a5f4a2bd1c1b8e34";
+	private String type = "person";
+	private String group = "5673b9c3a5f4a2bd1c1b8e35";
+
+	private static final String TEMPLATE_AFTER_ID = "benchmark_entities_after_id";
+	private static final String TEMPLATE_EITHER_GROUP = "benchmark_entities_in_either_group";
+
+	static {
+		Finder.registerTemplate(TEMPLATE_AFTER_ID)
+		      .templateField("type").is("type")
+		      .templateField("_id").gt("id");
+
+		Finder.registerTemplate(TEMPLATE_EITHER_GROUP)
+		      .anyOf(TemplateField.field("groups").is("group1"),
+		             TemplateField.field("groups").is("group2"));
+	}
+
+	@Setup
+	public void setUp()
+	{
+		Finder.setPlanCacheEnabled(planCache);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		Finder.setPlanCacheEnabled(true);
+	}
+
+	/**
+	 * Entity.read and Entity.makeQueryById
+	 */
+	@Benchmark
+	public JsonObject entityById()
+	{
+		return Finder.newQuery()
+		             .field("_id").is(id)
+		             .toJson();
+	}
+
+	/**
+	 * Entity.list with a cursor
+	 */
+	@Benchmark
+	public JsonObject entitiesAfterId()
+	{
+		return Finder.newQuery()
+		             .field("type").is(type)
+		             .field("_id").gt(id)
+		             .toJson();
+	}
+
+	/**
+	 * GroupManipulation.create
+	 */
+	@Benchmark
+	public JsonObject entityNotInGroup()
+	{
+		return Finder.newQuery()
+		             .field("_id").is(id)
+		             .field("groups").ninStrings(group)
+		             .toJson();
+	}
+
+	/**
+	 * GroupManipulation.read
+	 */
+	@Benchmark
+	public JsonObject entityWithGroups()
+	{
+		return Finder.newQuery()
+		             .field("_id").is(id)
+		             .field("groups").exists()
+		             .toJson();
+	}
+
+	/**
+	 * GroupSetOperation.union
+	 */
+	@Benchmark
+	public JsonObject entitiesInEitherGroup()
+	{
+		return Finder.newQuery()
+		             .anyOf(field("groups").is(group),
+		                    field("groups").is(id))
+		             .toJson();
+	}
+
+	/**
+	 * entitiesAfterId by a template
+	 */
+	@Benchmark
+	public JsonObject entitiesAfterIdByTemplate()
+			throws QueryBuilderException
+	{
+		return Finder.openQuery(TEMPLATE_AFTER_ID)
+		             .bind("type", type)
+		             .bind("id", id)
+		             .toJson();
+	}
+
+	/**
+	 * entitiesInEitherGroup by a template
+	 */
+	@Benchmark
+	public JsonObject entitiesInEitherGroupByTemplate()
+			throws QueryBuilderException
+	{
+		return Finder.openQuery(TEMPLATE_EITHER_GROUP)
+		             .bind("group1", group)
+		             .bind("group2", id)
+		             .toJson();
+	}
+}
@@ -0,0 +1,63 @@
+package com.pful.pico.http;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JsonBodiesBenchmark compares the body of GET /entities/:id written by JsonBodies with the former
+ * encodePrettily() into a String that end(String) encoded into a Buffer. The entity is about 2 KB in compact JSON.
+ * Run it with '-prof gc' for the allocations per response. The bytes per response are printed by setUp.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonBodiesBenchmark
+{
+	private JsonObject entity;
+
+	@Setup
+	public void setUp()
+	{
+		final JsonObject properties = new JsonObject();
+		for (int i = 0; i < 24; i++) {
+			properties.put("field" + i, new JsonObject().put("sub_field0", "sub_value" + i)
+			                                            .put("sub_field1", i)
+			                                            .put("sub_field2", i % 2 == 0));
+		}
+
+		entity = new JsonObject().put("_id", "5673b9c3a5f4a2bd1c1b8e34")
+		                         .put("type", "person")
+		                         .put("properties", properties)
+		                         .put("created_at", 1450424771L)
+		                         .put("updated_at", 1450424771L)
+		                         .put("groups", new JsonArray().add("group0").add("group1"));
+
+		System.out.println("bytes per response: pretty " + encodePrettilyToString().length()
+		                   + ", compact " + encodeToBuffer().length());
+	}
+
+	@Benchmark
+	public Buffer encodePrettilyToString()
+	{
+		return Buffer.buffer(entity.encodePrettily());
+	}
+
+	@Benchmark
+	public Buffer encodeToString()
+	{
+		return Buffer.buffer(entity.encode());
+	}
+
+	@Benchmark
+	public Buffer encodeToBuffer()
+	{
+		return JsonBodies.encode(entity, false);
+	}
+}
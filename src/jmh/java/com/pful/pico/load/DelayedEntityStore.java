@@ -0,0 +1,143 @@
+package com.pful.pico.load;
+
+import com.pful.pico.db.querybuilder.Finder;
+import com.pful.pico.store.EntityStore;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DelayedEntityStore calls the handlers of another store after a fixed delay, as if the store were a database
+ * on the network. The delay is a timer of Vert.x, so it doesn't block the event loop that made the call.
+ */
+class DelayedEntityStore
+		implements EntityStore
+{
+	private final Vertx vertx;
+	private final EntityStore store;
+	private final long delayMillis;
+
+	/**
+	 * A constructor
+	 *
+	 * @param vertx       A Vert.x instance whose timers delay the handlers
+	 * @param store       A store that does the operations
+	 * @param delayMillis A delay of every operation in milliseconds, or 0 for none
+	 */
+	DelayedEntityStore(final Vertx vertx, final EntityStore store, final long delayMillis)
+	{
+		this.vertx = vertx;
+		this.store = store;
+		this.delayMillis = delayMillis;
+	}
+
+	private <T> Handler<AsyncResult<T>> delayed(final Handler<AsyncResult<T>> handler)
+	{
+		if (delayMillis <= 0) {
+			return handler;
+		}
+		return res -> vertx.setTimer(delayMillis, id -> handler.handle(res));
+	}
+
+	@Override
+	public void insert(final JsonObject document, final Handler<AsyncResult<String>> handler)
+	{
+		store.insert(document, delayed(handler));
+	}
+
+	@Override
+	public void insertBatch(final List<JsonObject> documents, final boolean ordered, final Handler<AsyncResult<Map<Integer, String>>> handler)
+	{
+		store.insertBatch(documents, ordered, delayed(handler));
+	}
+
+	@Override
+	public void read(final String id, final Handler<AsyncResult<JsonObject>> handler)
+	{
+		store.read(id, delayed(handler));
+	}
+
+	@Override
+	public void find(final Finder.Expression query, final Handler<AsyncResult<List<JsonObject>>> handler)
+	{
+		store.find(query, delayed(handler));
+	}
+
+	@Override
+	public void count(final Finder.Query query, final Handler<AsyncResult<Long>> handler)
+	{
+		store.count(query, delayed(handler));
+	}
+
+	@Override
+	public void update(final JsonObject change, final Handler<AsyncResult<Void>> handler)
+	{
+		store.update(change, delayed(handler));
+	}
+
+	@Override
+	public void updateBatch(final List<JsonObject> changes, final boolean ordered, final Handler<AsyncResult<Map<Integer, String>>> handler)
+	{
+		store.updateBatch(changes, ordered, delayed(handler));
+	}
+
+	@Override
+	public void delete(final String id, final Handler<AsyncResult<Void>> handler)
+	{
+		store.delete(id, delayed(handler));
+	}
+
+	@Override
+	public void deleteBatch(final List<String> ids, final boolean ordered, final Handler<AsyncResult<Map<Integer, String>>> handler)
+	{
+		store.deleteBatch(ids, ordered, delayed(handler));
+	}
+
+	@Override
+	public void addGroup(final String id, final String group, final long updatedAt, final Handler<AsyncResult<JsonObject>> handler)
+	{
+		store.addGroup(id, group, updatedAt, delayed(handler));
+	}
+
+	@Override
+	public void replaceGroup(final String id, final String originalGroup, final String newGroup, final long updatedAt,
+	                         final Handler<AsyncResult<JsonObject>> handler)
+	{
+		store.replaceGroup(id, originalGroup, newGroup, updatedAt, delayed(handler));
+	}
+
+	@Override
+	public void removeGroup(final String id, final String group, final long updatedAt, final Handler<AsyncResult<JsonObject>> handler)
+	{
+		store.removeGroup(id, group, updatedAt, delayed(handler));
+	}
+
+	@Override
+	public void renameGroup(final String originalGroup, final String newGroup, final long updatedAt, final Handler<AsyncResult<JsonObject>> handler)
+	{
+		store.renameGroup(originalGroup, newGroup, updatedAt, delayed(handler));
+	}
+
+	@Override
+	public void removeGroupFromAll(final String group, final long updatedAt, final Handler<AsyncResult<JsonObject>> handler)
+	{
+		store.removeGroupFromAll(group, updatedAt, delayed(handler));
+	}
+
+	@Override
+	public void distinctGroups(final Handler<AsyncResult<JsonArray>> handler)
+	{
+		store.distinctGroups(delayed(handler));
+	}
+
+	@Override
+	public void countGroups(final Handler<AsyncResult<JsonObject>> handler)
+	{
+		store.countGroups(delayed(handler));
+	}
+}
@@ -0,0 +1,396 @@
+package com.pful.pico.load;
+
+import com.pful.pico.Service;
+import com.pful.pico.metrics.LatencyHistogram;
+import com.pful.pico.resource.Entity;
+import com.pful.pico.resource.EntityCache;
+import com.pful.pico.store.Stores;
+import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LoadHarness measures the throughput and the tail latency of Service over HTTP without a database.
+ * Service is deployed with the in-memory store, whose operations are delayed by 'latency_millis' like the round trips
+ * to MongoDB, and POST, GET, PUT and DELETE /entities are sent at a fixed rate.
+ * <p>
+ * The load is open-loop: every request has an intended start on the schedule of the rate, and its latency is measured
+ * from that start rather than from the time it was actually sent. A stall of the server then counts against every request
+ * that should have been sent during it, which avoids the coordinated omission of a closed-loop client.
+ * <p>
+ * The percentiles and the requests per second of the measured phase are printed and written to '--report' as JSON.
+ * If '--baseline' is a report of the same load, the run fails when p99 or p999 exceeds the baseline by more than
+ * '--tolerance' times, when the throughput falls below the baseline by as much, or when any request fails.
+ * <p>
+ * Options, each given as '--name value':
+ * rate (requests per second, 2000), duration and warmup (seconds, 30 and 10), latency_millis (1),
+ * connections (32), entities (the entities made before the load, 1000), entity_cache (true), seed (0),
+ * report, baseline and tolerance (2.0).
+ */
+public class LoadHarness
+{
+	private static final String HOST = "localhost";
+	private static final int PORT = 8080;
+	private static final String TYPE = "load";
+	private static final String APP_ID = "load";
+	private static final String APP_TOKEN = "load_token";
+	private static final long REQUEST_TIMEOUT_MILLIS = 30000;
+	private static final long DRAIN_TIMEOUT_SECONDS = 60;
+
+	// The mix of the requests in percent, in the order of POST, GET, PUT and the rest for DELETE.
+	private static final int PERCENT_POST = 10;
+	private static final int PERCENT_GET = 70;
+	private static final int PERCENT_PUT = 15;
+
+	private static final double[] PERCENTILES = {50, 99, 99.9};
+	private static final String[] PERCENTILE_NAMES = {"p50", "p99", "p999"};
+
+	private static final String REPORT_RATE = "rate";
+	private static final String REPORT_DURATION = "duration";
+	private static final String REPORT_LATENCY_MILLIS = "latency_millis";
+	private static final String REPORT_CONNECTIONS = "connections";
+	private static final String REPORT_ENTITY_CACHE = "entity_cache";
+	private static final String REPORT_REQUESTS = "requests";
+	private static final String REPORT_ERRORS = "errors";
+	private static final String REPORT_REQUESTS_PER_SECOND = "requests_per_second";
+	private static final String REPORT_LATENCY = "latency";
+	private static final String REPORT_MAX = "max";
+	private static final String REPORT_METHODS = "methods";
+
+	private final Context context;
+	private final HttpClient client;
+	private final Random random;
+	private final List<String> ids = new ArrayList<>();
+	private final String entityBody;
+	private final String changeBody;
+
+	/**
+	 * Phase counts the requests of a warmup or a measurement, which are recorded on the event loop of the client.
+	 */
+	private static final class Phase
+	{
+		private final LatencyHistogram all = new LatencyHistogram();
+		private final Map<HttpMethod, LatencyHistogram> methods = new EnumMap<>(HttpMethod.class);
+		private final AtomicLong errors = new AtomicLong();
+		private final CountDownLatch done;
+
+		private Phase(final long requests)
+		{
+			done = new CountDownLatch((int) requests);
+			for (final HttpMethod method : new HttpMethod[]{HttpMethod.POST, HttpMethod.GET, HttpMethod.PUT, HttpMethod.DELETE}) {
+				methods.put(method, new LatencyHistogram());
+			}
+		}
+
+		private void completed(final HttpMethod method, final long intendedNanos, final boolean succeeded)
+		{
+			final long nanos = System.nanoTime() - intendedNanos;
+			all.recordNanos(nanos);
+			methods.get(method).recordNanos(nanos);
+			if (!succeeded) {
+				errors.incrementAndGet();
+			}
+			done.countDown();
+		}
+	}
+
+	private LoadHarness(final Vertx vertx, final int connections, final long seed)
+	{
+		this.context = vertx.getOrCreateContext();
+		this.client = vertx.createHttpClient(new HttpClientOptions().setDefaultHost(HOST)
+		                                                            .setDefaultPort(PORT)
+		                                                            .setKeepAlive(true)
+		                                                            .setMaxPoolSize(connections));
+		this.random = new Random(seed);
+
+		// About the size of an entity of the applications, with a nested document and an array.
+		final JsonObject properties = new JsonObject();
+		for (int i = 0; i < 16; i++) {
+			properties.put("field" + i, "value of the field " + i);
+		}
+		properties.put("address", new JsonObject().put("city", "Seoul").put("zip", "06236"))
+		          .put("tags", new JsonArray().add("mobile").add("beta"));
+		this.entityBody = properties.encode();
+		this.changeBody = new JsonObject().put("properties", properties.copy().put("field0", "changed")).encode();
+	}
+
+	/**
+	 * populate makes the entities that the first reads, updates and deletes use. They aren't measured.
+	 *
+	 * @param count The number of the entities
+	 */
+	private void populate(final int count)
+			throws InterruptedException
+	{
+		final Phase phase = new Phase(count);
+		final long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			context.runOnContext(v -> send(phase, HttpMethod.POST, start));
+		}
+		phase.done.await(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * run sends the requests at a rate for a while, and waits for their responses.
+	 *
+	 * @param rate    Requests per second
+	 * @param seconds The length of the schedule
+	 * @return The requests of the run
+	 */
+	private Phase run(final int rate, final int seconds)
+			throws InterruptedException
+	{
+		final long requests = (long) rate * seconds;
+		final long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+		final Phase phase = new Phase(requests);
+
+		final long start = System.nanoTime();
+		for (long i = 0; i < requests; i++) {
+			final long intendedNanos = start + i * intervalNanos;
+			final long waitNanos = intendedNanos - System.nanoTime();
+			if (waitNanos > 0) {
+				LockSupport.parkNanos(waitNanos);
+			}
+			context.runOnContext(v -> send(phase, nextMethod(), intendedNanos));
+		}
+
+		if (!phase.done.await(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+			System.err.println(phase.done.getCount() + " requests weren't answered.");
+		}
+		return phase;
+	}
+
+	private HttpMethod nextMethod()
+	{
+		final int percent = random.nextInt(100);
+		if (percent < PERCENT_POST) {
+			return HttpMethod.POST;
+		}
+		if (percent < PERCENT_POST + PERCENT_GET) {
+			return HttpMethod.GET;
+		}
+		if (percent < PERCENT_POST + PERCENT_GET + PERCENT_PUT) {
+			return HttpMethod.PUT;
+		}
+		return HttpMethod.DELETE;
+	}
+
+	/**
+	 * send sends a request on the event loop of the client. An entity is made instead if there is none to use.
+	 */
+	private void send(final Phase phase, final HttpMethod method, final long intendedNanos)
+	{
+		final HttpMethod actual = ids.isEmpty() ? HttpMethod.POST : method;
+
+		final String uri;
+		if (actual == HttpMethod.POST) {
+			uri = "/entities/" + TYPE;
+		}
+		else if (actual == HttpMethod.DELETE) {
+			// The entity is taken out at once, so that no later request uses it.
+			final int index = random.nextInt(ids.size());
+			final String last = ids.remove(ids.size() - 1);
+			uri = "/entities/" + (index < ids.size() ? ids.set(index, last) : last);
+		}
+		else {
+			uri = "/entities/" + ids.get(random.nextInt(ids.size()));
+		}
+
+		final HttpClientRequest request = client.request(actual, uri, response -> response.bodyHandler(body -> {
+			final boolean succeeded = response.statusCode() / 100 == 2;
+			if (succeeded && actual == HttpMethod.POST) {
+				ids.add(new JsonObject(body.toString()).getString(Entity.FIELD_ID));
+			}
+			phase.completed(actual, intendedNanos, succeeded);
+		}));
+		request.exceptionHandler(e -> phase.completed(actual, intendedNanos, false))
+		       .setTimeout(REQUEST_TIMEOUT_MILLIS)
+		       .putHeader("PICO-App-Id", APP_ID)
+		       .putHeader("PICO-Access-Token", APP_TOKEN);
+
+		if (actual == HttpMethod.POST) {
+			request.putHeader("Content-Type", "application/json").end(entityBody);
+		}
+		else if (actual == HttpMethod.PUT) {
+			request.putHeader("Content-Type", "application/json").end(changeBody);
+		}
+		else {
+			request.end();
+		}
+	}
+
+	private static JsonObject percentilesOf(final Histogram histogram)
+	{
+		final JsonObject percentiles = new JsonObject();
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			percentiles.put(PERCENTILE_NAMES[i], millisOf(histogram.getValueAtPercentile(PERCENTILES[i])));
+		}
+		return percentiles.put(REPORT_MAX, millisOf(histogram.getMaxValue()));
+	}
+
+	private static double millisOf(final long nanos)
+	{
+		return Math.round(nanos / 1000.0) / 1000.0;
+	}
+
+	private static JsonObject reportOf(final JsonObject load, final Phase phase, final long elapsedNanos)
+	{
+		final Histogram all = phase.all.snapshot();
+		final JsonObject methods = new JsonObject();
+		phase.methods.forEach((method, histogram) -> {
+			final Histogram snapshot = histogram.snapshot();
+			methods.put(method.name(), percentilesOf(snapshot).put(REPORT_REQUESTS, snapshot.getTotalCount()));
+		});
+
+		final double requestsPerSecond = all.getTotalCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+		return load.copy()
+		           .put(REPORT_REQUESTS, all.getTotalCount())
+		           .put(REPORT_ERRORS, phase.errors.get())
+		           .put(REPORT_REQUESTS_PER_SECOND, Math.round(requestsPerSecond * 10) / 10.0)
+		           .put(REPORT_LATENCY, percentilesOf(all))
+		           .put(REPORT_METHODS, methods);
+	}
+
+	/**
+	 * regressionsOf compares a report with a baseline of the same load.
+	 *
+	 * @return The descriptions of the regressions, which is empty if there is none
+	 */
+	private static List<String> regressionsOf(final JsonObject report, final JsonObject baseline, final double tolerance)
+	{
+		final List<String> regressions = new ArrayList<>();
+		if (report.getLong(REPORT_ERRORS) > 0) {
+			regressions.add(report.getLong(REPORT_ERRORS) + " requests failed");
+		}
+
+		for (final String percentile : new String[]{"p99", "p999"}) {
+			final double current = report.getJsonObject(REPORT_LATENCY).getDouble(percentile);
+			final double expected = baseline.getJsonObject(REPORT_LATENCY).getDouble(percentile);
+			if (current > expected * tolerance) {
+				regressions.add(percentile + " is " + current + " ms against " + expected + " ms of the baseline");
+			}
+		}
+
+		final double current = report.getDouble(REPORT_REQUESTS_PER_SECOND);
+		final double expected = baseline.getDouble(REPORT_REQUESTS_PER_SECOND);
+		if (current * tolerance < expected) {
+			regressions.add("the throughput is " + current + " requests/s against " + expected + " of the baseline");
+		}
+		return regressions;
+	}
+
+	private static Map<String, String> parse(final String[] args)
+	{
+		final Map<String, String> options = new HashMap<>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (!args[i].startsWith("--")) {
+				throw new IllegalArgumentException("An option should start with '--': " + args[i]);
+			}
+			options.put(args[i].substring(2), args[i + 1]);
+		}
+		return options;
+	}
+
+	public static void main(final String[] args)
+			throws Exception
+	{
+		final Map<String, String> options = parse(args);
+		final int rate = Integer.parseInt(options.getOrDefault("rate", "2000"));
+		final int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+		final int warmup = Integer.parseInt(options.getOrDefault("warmup", "10"));
+		final long latencyMillis = Long.parseLong(options.getOrDefault("latency_millis", "1"));
+		final int connections = Integer.parseInt(options.getOrDefault("connections", "32"));
+		final int entities = Integer.parseInt(options.getOrDefault("entities", "1000"));
+		final boolean entityCache = Boolean.parseBoolean(options.getOrDefault("entity_cache", "true"));
+		final long seed = Long.parseLong(options.getOrDefault("seed", "0"));
+		final double tolerance = Double.parseDouble(options.getOrDefault("tolerance", "2.0"));
+
+		final JsonObject config = new JsonObject().put(Service.CONFIG_STORE, new JsonObject().put(Stores.CONFIG_ENGINE, Stores.ENGINE_MEMORY))
+		                                          .put(Service.CONFIG_ENTITY_CACHE, new JsonObject().put(EntityCache.CONFIG_ENABLED, entityCache));
+
+		final Vertx serviceVertx = Vertx.vertx();
+		final CompletableFuture<String> deployed = new CompletableFuture<>();
+		serviceVertx.deployVerticle(Service.class.getName(), new DeploymentOptions().setConfig(config), res -> {
+			if (res.failed()) {
+				deployed.completeExceptionally(res.cause());
+				return;
+			}
+			deployed.complete(res.result());
+		});
+		deployed.get();
+		Stores.use(new DelayedEntityStore(serviceVertx, Stores.entities(), latencyMillis), Stores.groups());
+
+		final Vertx clientVertx = Vertx.vertx();
+		final LoadHarness harness = new LoadHarness(clientVertx, connections, seed);
+		harness.populate(entities);
+		if (warmup > 0) {
+			harness.run(rate, warmup);
+		}
+
+		final long start = System.nanoTime();
+		final Phase phase = harness.run(rate, duration);
+		final JsonObject load = new JsonObject().put(REPORT_RATE, rate)
+		                                        .put(REPORT_DURATION, duration)
+		                                        .put(REPORT_LATENCY_MILLIS, latencyMillis)
+		                                        .put(REPORT_CONNECTIONS, connections)
+		                                        .put(REPORT_ENTITY_CACHE, entityCache);
+		final JsonObject report = reportOf(load, phase, System.nanoTime() - start);
+		System.out.println(report.encodePrettily());
+
+		if (options.containsKey("report")) {
+			final Path path = Paths.get(options.get("report"));
+			if (path.getParent() != null) {
+				Files.createDirectories(path.getParent());
+			}
+			Files.write(path, report.encodePrettily().getBytes(StandardCharsets.UTF_8));
+		}
+
+		clientVertx.close();
+		serviceVertx.close();
+
+		if (options.containsKey("baseline")) {
+			final JsonObject baseline = readReport(Paths.get(options.get("baseline")));
+			final JsonObject baselineLoad = new JsonObject();
+			load.fieldNames().forEach(name -> baselineLoad.put(name, baseline.getValue(name)));
+			if (!baselineLoad.equals(load)) {
+				System.err.println("The baseline is of another load, so it isn't compared: " + baselineLoad.encode());
+			}
+			else {
+				final List<String> regressions = regressionsOf(report, baseline, tolerance);
+				regressions.forEach(regression -> System.err.println("Regression: " + regression));
+				System.exit(regressions.isEmpty() ? 0 : 1);
+			}
+		}
+		System.exit(0);
+	}
+
+	private static JsonObject readReport(final Path path)
+			throws IOException
+	{
+		return new JsonObject(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+	}
+}
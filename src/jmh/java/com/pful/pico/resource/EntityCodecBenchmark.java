@@ -0,0 +1,67 @@
+package com.pful.pico.resource;
+
+import com.google.gson.Gson;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EntityCodecBenchmark compares EntityCodec with the former Gson path
+ * that went through a string and a new Gson instance on every call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EntityCodecBenchmark
+{
+	private JsonObject document;
+	private Entity entity;
+
+	@Setup
+	public void setUp()
+	{
+		final JsonObject properties = new JsonObject();
+		for (int i = 0; i < 20; i++) {
+			properties.put("field" + i, new JsonObject().put("sub_field0", "sub_value" + i)
+			                                            .put("sub_field1", i));
+		}
+
+		document = new JsonObject().put(Entity.FIELD_ID, "5673b9c3a5f4a2bd1c1b8e34")
+		                           .put(Entity.FIELD_TYPE, "person")
+		                           .put(Entity.FIELD_PROPERTIES, properties)
+		                           .put(Entity.FIELD_CREATED_AT, 1450424771L)
+		                           .put(Entity.FIELD_UPDATED_AT, 1450424771L)
+		                           .put(GroupManipulation.FIELD_GROUPS, new JsonArray().add("group0").add("group1"));
+
+		entity = EntityCodec.decode(document);
+	}
+
+	@Benchmark
+	public Entity decodeWithGson()
+	{
+		return new Gson().fromJson(document.toString(), Entity.class);
+	}
+
+	@Benchmark
+	public Entity decodeWithCodec()
+	{
+		return EntityCodec.decode(document);
+	}
+
+	@Benchmark
+	public JsonObject encodeWithGson()
+	{
+		return new JsonObject(new Gson().toJson(entity));
+	}
+
+	@Benchmark
+	public JsonObject encodeWithCodec()
+	{
+		return EntityCodec.encode(entity);
+	}
+}
@@ -0,0 +1,91 @@
+package com.pful.pico.resource;
+
+import com.pful.pico.Service;
+import com.pful.pico.db.MongoDB;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EntityCreateBenchmark compares creating a batch of entities one by one with creating them by createBatch().
+ * Every invocation creates BATCH_SIZE entities, so the scores are comparable per entity.
+ * It needs a MongoDB at localhost:27017 like the resource tests.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EntityCreateBenchmark
+{
+	private static final String TYPE = "benchmark_create";
+	private static final int BATCH_SIZE = 1000;
+
+	private Vertx vertx;
+	private Map<String, Object> properties = new HashMap<>();
+
+	@Setup
+	public void setUp()
+			throws Exception
+	{
+		vertx = Vertx.vertx();
+
+		final CompletableFuture<String> deployed = new CompletableFuture<>();
+		vertx.deployVerticle(Service.class.getName(), res -> deployed.complete(res.result()));
+		deployed.get();
+
+		properties.put("name", "benchmark");
+		properties.put("age", 20);
+	}
+
+	@TearDown
+	public void tearDown()
+			throws Exception
+	{
+		// The client is the one that Service has made for the Vert.x instance.
+		final MongoClient mongoClient = MongoDB.getInstance(vertx, new JsonObject().put("connection_string", Service.CONNECTION_STRING)
+		                                                                           .put("db_name", Service.DB_NAME));
+		final CompletableFuture<Void> removed = new CompletableFuture<>();
+		mongoClient.remove(MongoDB.COLLECTION_ENTITIES, new JsonObject().put(Entity.FIELD_TYPE, TYPE),
+		                   res -> removed.complete(null));
+		removed.get();
+		vertx.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void createOneByOne()
+			throws Exception
+	{
+		final CountDownLatch latch = new CountDownLatch(BATCH_SIZE);
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			Entity.create(TYPE, properties, (errorCode, entity) -> latch.countDown());
+		}
+		latch.await();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void createBatch()
+			throws Exception
+	{
+		final List<Entity> entities = new ArrayList<>(BATCH_SIZE);
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			entities.add(Entity.prepare(TYPE, properties));
+		}
+
+		final CountDownLatch latch = new CountDownLatch(1);
+		Entity.createBatch(entities, false, (errorCode, results) -> latch.countDown());
+		latch.await();
+	}
+}
@@ -0,0 +1,99 @@
+package com.pful.pico.resource;
+
+import com.pful.pico.Service;
+import com.pful.pico.core.PICOErrorCode;
+import com.pful.pico.db.MongoDB;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EntityReadBenchmark measures the latency distribution of Entity.read with and without EntityCache.
+ * 80% of the reads go to a hot set of 1% of the entities.
+ * It needs a MongoDB at localhost:27017 like the resource tests.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EntityReadBenchmark
+{
+	private static final String TYPE = "benchmark_read";
+	private static final int ENTITY_COUNT = 10000;
+
+	@Param({"true", "false"})
+	public boolean cacheEnabled;
+
+	private Vertx vertx;
+	private List<String> ids = new ArrayList<>();
+
+	@Setup
+	public void setUp()
+			throws Exception
+	{
+		vertx = Vertx.vertx();
+
+		final JsonObject config = new JsonObject().put(Service.CONFIG_ENTITY_CACHE,
+		                                               new JsonObject().put(EntityCache.CONFIG_ENABLED, cacheEnabled));
+		final CompletableFuture<String> deployed = new CompletableFuture<>();
+		vertx.deployVerticle(Service.class.getName(), new DeploymentOptions().setConfig(config),
+		                     res -> deployed.complete(res.result()));
+		deployed.get();
+
+		final Map<String, Object> properties = new HashMap<>();
+		properties.put("name", "benchmark");
+
+		for (int i = 0; i < ENTITY_COUNT; i++) {
+			final CompletableFuture<String> created = new CompletableFuture<>();
+			Entity.create(TYPE, properties, (errorCode, entity) -> created.complete(entity.getId()));
+			ids.add(created.get());
+		}
+	}
+
+	@TearDown
+	public void tearDown()
+			throws Exception
+	{
+		// The client is the one that Service has made for the Vert.x instance.
+		final MongoClient mongoClient = MongoDB.getInstance(vertx, new JsonObject().put("connection_string", Service.CONNECTION_STRING)
+		                                                                           .put("db_name", Service.DB_NAME));
+		final CompletableFuture<Void> removed = new CompletableFuture<>();
+		mongoClient.remove(MongoDB.COLLECTION_ENTITIES,
+		                   new JsonObject().put(Entity.FIELD_TYPE, TYPE),
+		                   res -> removed.complete(null));
+		removed.get();
+		vertx.close();
+	}
+
+	@Benchmark
+	public Entity read()
+			throws Exception
+	{
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final int hotSetSize = ENTITY_COUNT / 100;
+		final String id = random.nextInt(10) < 8 ? ids.get(random.nextInt(hotSetSize))
+		                                         : ids.get(random.nextInt(ENTITY_COUNT));
+
+		final CompletableFuture<Entity> read = new CompletableFuture<>();
+		Entity.read(id, (errorCode, entity) -> {
+			if (errorCode != PICOErrorCode.Success) {
+				read.completeExceptionally(new IllegalStateException(errorCode.toString()));
+				return;
+			}
+			read.complete(entity);
+		});
+		return read.get();
+	}
+}
@@ -0,0 +1,86 @@
+package com.pful.pico.resource;
+
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GroupBitmapIndexBenchmark compares the set operations of GroupBitmapIndex with the same operations on HashSets of ids,
+ * which is what the callers did with the entities read from the database. Two groups of GROUP_SIZE members overlap by half.
+ * It doesn't need the database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GroupBitmapIndexBenchmark
+{
+	private static final int GROUP_SIZE = 1000000;
+
+	private Set<String> group0 = new HashSet<>();
+	private Set<String> group1 = new HashSet<>();
+
+	@Setup
+	public void setUp()
+	{
+		GroupBitmapIndex.enable(true);
+
+		final List<JsonObject> memberships = new ArrayList<>();
+		for (int i = 0; i < GROUP_SIZE; i++) {
+			final String entityId0 = String.format("%024x", i);
+			final String entityId1 = String.format("%024x", i + GROUP_SIZE / 2);
+
+			memberships.add(new JsonObject().put(GroupMembers.FIELD_GROUP, "group0").put(GroupMembers.FIELD_ENTITY_ID, entityId0));
+			memberships.add(new JsonObject().put(GroupMembers.FIELD_GROUP, "group1").put(GroupMembers.FIELD_ENTITY_ID, entityId1));
+			group0.add(entityId0);
+			group1.add(entityId1);
+		}
+
+		final long generation = GroupBitmapIndex.beginLoading();
+		GroupBitmapIndex.loaded(generation, memberships);
+		GroupBitmapIndex.finishLoading(generation);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		GroupBitmapIndex.enable(false);
+	}
+
+	@Benchmark
+	public int intersectionCardinalityWithBitmap()
+	{
+		return GroupBitmapIndex.intersection("group0", "group1").getCardinality();
+	}
+
+	@Benchmark
+	public List<String> intersectionIdsWithBitmap()
+	{
+		return GroupBitmapIndex.evaluateIds(GroupSetExpression.intersection(GroupSetExpression.group("group0"),
+		                                                                    GroupSetExpression.group("group1")));
+	}
+
+	@Benchmark
+	public Set<String> intersectionWithHashSet()
+	{
+		final Set<String> result = new HashSet<>(group0);
+		result.retainAll(group1);
+		return result;
+	}
+
+	@Benchmark
+	public boolean subsetWithBitmap()
+	{
+		return GroupBitmapIndex.subset("group0", "group1");
+	}
+
+	@Benchmark
+	public boolean subsetWithHashSet()
+	{
+		return group0.containsAll(group1);
+	}
+}
@@ -0,0 +1,151 @@
+package com.pful.pico.resource;
+
+import com.pful.pico.Service;
+import com.pful.pico.core.PICOErrorCode;
+import com.pful.pico.db.MongoDB;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GroupListBenchmark compares listing all the groups of the application by GroupManipulation.read
+ * with the former implementation that fetched every entity and deduplicated the groups in the JVM.
+ * The entities have one to three groups out of GROUP_COUNT groups.
+ * It needs a MongoDB at localhost:27017 like the resource tests, and the Entities collection should have no other entities.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GroupListBenchmark
+{
+	private static final String TYPE = "benchmark_group_list";
+	private static final int GROUP_COUNT = 1000;
+
+	@Param({"100000", "1000000"})
+	public int entityCount;
+
+	private Vertx vertx;
+	private MongoClient mongoClient;
+
+	@Setup
+	public void setUp()
+			throws Exception
+	{
+		vertx = Vertx.vertx();
+
+		final CompletableFuture<String> deployed = new CompletableFuture<>();
+		vertx.deployVerticle(Service.class.getName(), res -> deployed.complete(res.result()));
+		deployed.get();
+
+		// The client is the one that Service has made for the Vert.x instance.
+		mongoClient = MongoDB.getInstance(vertx, new JsonObject().put("connection_string", Service.CONNECTION_STRING)
+		                                                         .put("db_name", Service.DB_NAME));
+
+		final Random random = new Random(0);
+		final Map<String, Object> properties = new HashMap<>();
+		properties.put("name", "benchmark");
+
+		for (int created = 0; created < entityCount; created += Entity.MAX_BATCH_SIZE) {
+			final List<Entity> entities = new ArrayList<>(Entity.MAX_BATCH_SIZE);
+			for (int i = 0; i < Entity.MAX_BATCH_SIZE && created + i < entityCount; i++) {
+				entities.add(Entity.prepare(TYPE, properties));
+			}
+
+			final CompletableFuture<Void> batchCreated = new CompletableFuture<>();
+			Entity.createBatch(entities, false, (errorCode, results) -> batchCreated.complete(null));
+			batchCreated.get();
+
+			// The groups are written at once rather than by GroupManipulation.create to keep the setup short.
+			final JsonArray updates = new JsonArray();
+			for (final Entity entity : entities) {
+				final JsonArray groups = new JsonArray();
+				for (int g = random.nextInt(3); g >= 0; g--) {
+					groups.add("group" + random.nextInt(GROUP_COUNT));
+				}
+				updates.add(new JsonObject().put("q", new JsonObject().put(Entity.FIELD_ID, entity.getId()))
+				                            .put("u", new JsonObject().put("$set", new JsonObject().put(GroupManipulation.FIELD_GROUPS,
+				                                                                                        groups))));
+			}
+
+			final CompletableFuture<Void> grouped = new CompletableFuture<>();
+			mongoClient.runCommand("update", new JsonObject().put("update", MongoDB.COLLECTION_ENTITIES)
+			                                                 .put("updates", updates)
+			                                                 .put("ordered", false),
+			                       res -> grouped.complete(null));
+			grouped.get();
+		}
+	}
+
+	@TearDown
+	public void tearDown()
+			throws Exception
+	{
+		final CompletableFuture<Void> removed = new CompletableFuture<>();
+		mongoClient.remove(MongoDB.COLLECTION_ENTITIES, new JsonObject().put(Entity.FIELD_TYPE, TYPE),
+		                   res -> removed.complete(null));
+		removed.get();
+		vertx.close();
+	}
+
+	/**
+	 * scan is the former implementation of GroupManipulation.read(callback).
+	 */
+	@Benchmark
+	public JsonArray scan()
+			throws Exception
+	{
+		final CompletableFuture<JsonArray> read = new CompletableFuture<>();
+		mongoClient.find(MongoDB.COLLECTION_ENTITIES, new JsonObject(), res -> {
+			if (res.failed()) {
+				read.completeExceptionally(res.cause());
+				return;
+			}
+
+			final Set<String> groupsInSet = new HashSet<>();
+			res.result()
+			   .stream()
+			   .filter(e -> e.containsKey(GroupManipulation.FIELD_GROUPS))
+			   .forEach(e -> e.getJsonArray(GroupManipulation.FIELD_GROUPS)
+			                  .forEach(group -> groupsInSet.add((String) group)));
+			read.complete(new JsonArray(new ArrayList<>(groupsInSet)));
+		});
+		return read.get();
+	}
+
+	@Benchmark
+	public JsonObject distinct()
+			throws Exception
+	{
+		return read(false);
+	}
+
+	@Benchmark
+	public JsonObject aggregateWithCounts()
+			throws Exception
+	{
+		return read(true);
+	}
+
+	private JsonObject read(final boolean withCounts)
+			throws Exception
+	{
+		final CompletableFuture<JsonObject> read = new CompletableFuture<>();
+		GroupManipulation.read(withCounts, (errorCode, result) -> {
+			if (errorCode != PICOErrorCode.Success) {
+				read.completeExceptionally(new IllegalStateException(errorCode.toString()));
+				return;
+			}
+			read.complete(result);
+		});
+		return read.get();
+	}
+}
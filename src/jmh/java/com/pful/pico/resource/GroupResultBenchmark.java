@@ -0,0 +1,81 @@
+package com.pful.pico.resource;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GroupResultBenchmark measures the work done in the JVM on the documents returned by a query:
+ * deduplicating the groups for GroupManipulation.read, decoding the entities into the set of a GroupSetOperation,
+ * and comparing the members of two groups for GroupSetOperation.subset when GroupBitmapIndex isn't ready.
+ * The documents are made with a fixed seed, and the entities have one to three groups out of GROUP_COUNT groups.
+ * It doesn't need the database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GroupResultBenchmark
+{
+	private static final int GROUP_COUNT = 100;
+
+	@Param({"100", "10000"})
+	public int documentCount;
+
+	private List<JsonObject> documents;
+	private Set<String> members;
+	private Set<String> halfOfMembers;
+
+	@Setup
+	public void setUp()
+	{
+		final Random random = new Random(0);
+
+		documents = new ArrayList<>(documentCount);
+		members = new HashSet<>();
+		halfOfMembers = new HashSet<>();
+
+		for (int i = 0; i < documentCount; i++) {
+			final String id = String.format("%024x", i);
+			final JsonArray groups = new JsonArray();
+			for (int j = random.nextInt(3); j >= 0; j--) {
+				groups.add("group" + random.nextInt(GROUP_COUNT));
+			}
+
+			documents.add(new JsonObject().put(Entity.FIELD_ID, id)
+			                              .put(Entity.FIELD_TYPE, "person")
+			                              .put(Entity.FIELD_PROPERTIES, new JsonObject().put("rank", i))
+			                              .put(Entity.FIELD_CREATED_AT, 1450424771L)
+			                              .put(Entity.FIELD_UPDATED_AT, 1450424771L)
+			                              .put(GroupManipulation.FIELD_GROUPS, groups));
+
+			members.add(id);
+			if (i % 2 == 0) {
+				halfOfMembers.add(id);
+			}
+		}
+	}
+
+	@Benchmark
+	public JsonArray distinctGroups()
+	{
+		return GroupManipulation.distinctGroups(documents);
+	}
+
+	@Benchmark
+	public Set<Entity> decodeAll()
+	{
+		return GroupSetOperation.decodeAll(documents);
+	}
+
+	@Benchmark
+	public boolean subsetOfMembers()
+	{
+		return members.containsAll(halfOfMembers);
+	}
+}
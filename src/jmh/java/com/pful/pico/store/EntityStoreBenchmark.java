@@ -0,0 +1,150 @@
+package com.pful.pico.store;
+
+import com.pful.pico.Service;
+import com.pful.pico.db.MongoDB;
+import com.pful.pico.db.querybuilder.Finder;
+import com.pful.pico.resource.Entity;
+import com.pful.pico.resource.GroupManipulation;
+import com.pful.pico.resource.GroupSetExpression;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.pful.pico.resource.GroupSetExpression.group;
+
+/**
+ * EntityStoreBenchmark compares InMemoryEntityStore with MongoEntityStore on the operations that the resources use most:
+ * a read by an id, a page of a type, and a count of a set operation between groups.
+ * Every entity is in one of 10 groups and some are in a second one.
+ * The mongodb engine needs a MongoDB at localhost:27017 like the resource tests.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EntityStoreBenchmark
+{
+	private static final String TYPE = "benchmark_store";
+	private static final int ENTITY_COUNT = 10000;
+	private static final int GROUP_COUNT = 10;
+	private static final int PAGE_SIZE = 100;
+
+	@Param({Stores.ENGINE_MEMORY, Stores.ENGINE_MONGODB})
+	public String engine;
+
+	private Vertx vertx;
+	private MongoClient mongoClient;
+	private EntityStore store;
+	private final List<String> ids = new ArrayList<>();
+
+	private static <T> T await(final Consumer<Handler<AsyncResult<T>>> operation)
+			throws Exception
+	{
+		final CompletableFuture<T> done = new CompletableFuture<>();
+		operation.accept(res -> {
+			if (res.failed()) {
+				done.completeExceptionally(res.cause());
+				return;
+			}
+			done.complete(res.result());
+		});
+		return done.get();
+	}
+
+	@Setup
+	public void setUp()
+			throws Exception
+	{
+		if (Stores.ENGINE_MEMORY.equals(engine)) {
+			store = new InMemoryEntityStore();
+		}
+		else {
+			vertx = Vertx.vertx();
+			mongoClient = MongoDB.getInstance(vertx, new JsonObject().put("connection_string", Service.CONNECTION_STRING)
+			                                                         .put("db_name", Service.DB_NAME));
+			store = new MongoEntityStore(mongoClient);
+		}
+
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final List<JsonObject> batch = new ArrayList<>();
+		for (int i = 0; i < ENTITY_COUNT; i++) {
+			final String id = new ObjectId().toHexString();
+			final JsonArray groups = new JsonArray().add("group" + random.nextInt(GROUP_COUNT));
+			if (random.nextBoolean()) {
+				groups.add("group" + random.nextInt(GROUP_COUNT));
+			}
+
+			ids.add(id);
+			batch.add(new JsonObject().put(Entity.FIELD_ID, id)
+			                          .put(Entity.FIELD_TYPE, TYPE)
+			                          .put(Entity.FIELD_PROPERTIES, new JsonObject().put("name", "benchmark").put("rank", i))
+			                          .put(GroupManipulation.FIELD_GROUPS, groups));
+
+			if (batch.size() == Entity.MAX_BATCH_SIZE) {
+				final List<JsonObject> documents = new ArrayList<>(batch);
+				EntityStoreBenchmark.<Map<Integer, String>>await(handler -> store.insertBatch(documents, false, handler));
+				batch.clear();
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown()
+			throws Exception
+	{
+		if (mongoClient != null) {
+			final CompletableFuture<Void> removed = new CompletableFuture<>();
+			mongoClient.remove(MongoDB.COLLECTION_ENTITIES, new JsonObject().put(Entity.FIELD_TYPE, TYPE),
+			                   res -> removed.complete(null));
+			removed.get();
+			vertx.close();
+		}
+	}
+
+	@Benchmark
+	public JsonObject read()
+			throws Exception
+	{
+		final String id = ids.get(ThreadLocalRandom.current().nextInt(ENTITY_COUNT));
+		return await(handler -> store.read(id, handler));
+	}
+
+	@Benchmark
+	public List<JsonObject> listPage()
+			throws Exception
+	{
+		final String afterId = ids.get(ThreadLocalRandom.current().nextInt(ENTITY_COUNT));
+		final Finder.Expression query = Finder.newQuery()
+		                                      .field(Entity.FIELD_TYPE).is(TYPE)
+		                                      .startAfter(Entity.FIELD_ID, afterId)
+		                                      .include(Entity.FIELD_ID, Entity.FIELD_TYPE, Entity.FIELD_PROPERTIES)
+		                                      .limit(PAGE_SIZE);
+		return await(handler -> store.find(query, handler));
+	}
+
+	@Benchmark
+	public Long countIntersection()
+			throws Exception
+	{
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final Finder.Expression query = GroupSetExpression.intersection(group("group" + random.nextInt(GROUP_COUNT)),
+		                                                                group("group" + random.nextInt(GROUP_COUNT)))
+		                                                  .toQuery();
+		return await(handler -> store.count(query, handler));
+	}
+}
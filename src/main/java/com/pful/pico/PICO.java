@@ -1,13 +1,58 @@
 package com.pful.pico;
 
+import com.pful.pico.core.PICOErrorCode;
+import com.pful.pico.resource.GroupMembers;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
 
 public class PICO
 {
+	/**
+	 * A system property for the number of the Service instances. Every instance runs on its own event loop
+	 * and they share the HTTP port. It is the number of the processors by default.
+	 */
+	public static final String PROPERTY_INSTANCES = "pico.instances";
+
+	/**
+	 * A command that rebuilds the GroupMembers collection from the groups of the entities and exits
+	 * instead of running the service. It is used for the existing data, or to repair GroupMembers.
+	 */
+	public static final String COMMAND_REBUILD_GROUP_MEMBERS = "rebuild-group-members";
 
 	public static void main(String[] args)
 	{
-		Vertx vertx = Vertx.vertx();
-		vertx.deployVerticle(Service.class.getName());
+		if (args.length > 0 && COMMAND_REBUILD_GROUP_MEMBERS.equals(args[0])) {
+			rebuildGroupMembers();
+			return;
+		}
+
+		final int instances = Integer.getInteger(PROPERTY_INSTANCES, Runtime.getRuntime().availableProcessors());
+
+		final Vertx vertx = Vertx.vertx();
+		vertx.deployVerticle(Service.class.getName(), new DeploymentOptions().setInstances(instances),
+		                     res -> {
+			                     if (res.failed()) {
+				                     System.err.println("PICO couldn't be started: " + res.cause());
+				                     vertx.close(closed -> System.exit(1));
+			                     }
+		                     });
+	}
+
+	private static void rebuildGroupMembers()
+	{
+		final Vertx vertx = Vertx.vertx();
+		Service.init(vertx, new JsonObject());
+
+		GroupMembers.rebuild((errorCode, result) -> {
+			if (errorCode == PICOErrorCode.Success) {
+				System.out.println("GroupMembers has been rebuilt: " + result);
+			}
+			else {
+				System.err.println("GroupMembers couldn't be rebuilt: " + errorCode);
+			}
+
+			vertx.close(res -> System.exit(errorCode == PICOErrorCode.Success ? 0 : 1));
+		});
 	}
 }
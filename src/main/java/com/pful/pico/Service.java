@@ -1,8 +1,26 @@
 package com.pful.pico;
 
+import com.pful.pico.core.PICOErrorCode;
 import com.pful.pico.db.MongoDB;
+import com.pful.pico.db.SlowQueryLog;
 import com.pful.pico.http.EntityCRUDHandler;
+import com.pful.pico.http.GroupSetHandler;
+import com.pful.pico.http.HttpServerConfig;
+import com.pful.pico.http.MetricsHandler;
+import com.pful.pico.resource.EntityCache;
+import com.pful.pico.resource.GroupBitmapIndex;
+import com.pful.pico.resource.GroupMembers;
+import com.pful.pico.resource.QueryIndexes;
+import com.pful.pico.store.EntityStore;
+import com.pful.pico.store.InMemoryEntityStore;
+import com.pful.pico.store.InMemoryGroupStore;
+import com.pful.pico.store.MongoEntityStore;
+import com.pful.pico.store.MongoGroupStore;
+import com.pful.pico.store.SegmentEntityStore;
+import com.pful.pico.store.Stores;
+import com.pful.pico.store.WriteAheadEntityStore;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.mongo.MongoClient;
@@ -15,27 +33,104 @@ public class Service
 	//	public static final String CONNECTION_STRING = "mongodb://104.155.221.148:8282";
 	public static final String CONNECTION_STRING = "mongodb://localhost:27017";
 	public static final String DB_NAME = "pico";
-	public static MongoClient mongoClient;
+	public static final String CONFIG_ENTITY_CACHE = "entity_cache";
+	public static final String CONFIG_GROUP_INDEX = "group_index";
+	public static final String CONFIG_INDEXES = "indexes";
+	public static final String CONFIG_STORE = "store";
+	public static final String CONFIG_HTTP = "http";
+
+	/**
+	 * initializedVertx is the Vert.x instance for which the shared resources have been initialized.
+	 */
+	private static Vertx initializedVertx;
 
 	@Override
-	public void start()
+	public void start(final Future<Void> startFuture)
 	{
-		init(vertx);
+		init(vertx, config());
 
 		final Router router = Router.router(vertx);
 
+		MetricsHandler.installRouters(router);
 		EntityCRUDHandler.installRouters(router);
+		GroupSetHandler.installRouters(router);
+
+		if (!QueryIndexes.isFailFast()) {
+			listen(router, startFuture);
+			return;
+		}
 
-		vertx.createHttpServer()
+		// The callback may be called on the event loop of the database client.
+		QueryIndexes.await(errorCode -> context.runOnContext(v -> {
+			if (errorCode != PICOErrorCode.Success) {
+				startFuture.fail("The indexes couldn't be provisioned.");
+				return;
+			}
+			listen(router, startFuture);
+		}));
+	}
+
+	private void listen(final Router router, final Future<Void> startFuture)
+	{
+		vertx.createHttpServer(HttpServerConfig.toOptions(config().getJsonObject(CONFIG_HTTP, new JsonObject())))
 		     .requestHandler(router::accept)
-		     .listen(8080);
+		     .listen(res -> {
+			     if (res.failed()) {
+				     startFuture.fail(res.cause());
+				     return;
+			     }
+			     startFuture.complete();
+		     });
 	}
 
 
-	private void init(final Vertx vertx)
+	/**
+	 * init prepares the resources shared by every instance of the verticle in the Vert.x instance.
+	 * Only the first instance initializes them, and the others wait for it and reuse them.
+	 *
+	 * @param vertx  A Vert.x instance
+	 * @param config A configuration of the verticle
+	 */
+	static synchronized void init(final Vertx vertx, final JsonObject config)
 	{
-		mongoClient = MongoDB.getInstance(vertx, new JsonObject().put("connection_string", CONNECTION_STRING)
-		                                                         .put("db_name", DB_NAME));
+		if (initializedVertx == vertx) {
+			return;
+		}
+
+		final JsonObject storeConfig = config.getJsonObject(CONFIG_STORE, new JsonObject());
+		final String engine = storeConfig.getString(Stores.CONFIG_ENGINE, Stores.DEFAULT_ENGINE);
+		if (Stores.ENGINE_MEMORY.equals(engine) || Stores.ENGINE_SEGMENT.equals(engine)) {
+			// Nothing is kept in MongoDB, so neither the indexes nor the profiler are needed.
+			final InMemoryEntityStore entityStore = Stores.ENGINE_SEGMENT.equals(engine) ? new SegmentEntityStore(storeConfig)
+			                                                                             : new InMemoryEntityStore();
+			Stores.use(entityStore, new InMemoryGroupStore(entityStore));
+		}
+		else {
+			final MongoClient mongoClient = MongoDB.getInstance(vertx, new JsonObject().put("connection_string", CONNECTION_STRING)
+			                                                                           .put("db_name", DB_NAME));
+			final JsonObject writeAheadConfig = storeConfig.getJsonObject(Stores.CONFIG_WRITE_AHEAD, new JsonObject());
+			final EntityStore entityStore =
+					writeAheadConfig.getBoolean(WriteAheadEntityStore.CONFIG_ENABLED, WriteAheadEntityStore.DEFAULT_ENABLED)
+					? new WriteAheadEntityStore(new MongoEntityStore(mongoClient), writeAheadConfig)
+					: new MongoEntityStore(mongoClient);
+			Stores.use(entityStore, new MongoGroupStore(mongoClient));
+
+			final JsonObject indexesConfig = config.getJsonObject(CONFIG_INDEXES, new JsonObject());
+			QueryIndexes.provision(mongoClient, indexesConfig);
+			SlowQueryLog.start(vertx, mongoClient, indexesConfig);
+		}
+
+		EntityCache.configure(config.getJsonObject(CONFIG_ENTITY_CACHE, new JsonObject()));
+		GroupBitmapIndex.configure(config.getJsonObject(CONFIG_GROUP_INDEX, new JsonObject()));
+
+		// The members of the groups are read from the entities until the memberships are known to be complete.
+		GroupMembers.load((errorCode, result) -> {
+			if (errorCode != PICOErrorCode.Success) {
+				System.err.println("GroupMembers couldn't be rebuilt: " + errorCode);
+			}
+		});
+
+		initializedVertx = vertx;
 	}
 
 }
@@ -7,7 +7,8 @@ public enum PICOErrorCode
 	Unauthorized(2),
 	Unexpected(3),
 	NotFound(4),
-	InternalError(5);
+	InternalError(5),
+	NotProcessed(6);
 
 	private int errorCode;
 
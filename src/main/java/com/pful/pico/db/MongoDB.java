@@ -4,26 +4,55 @@ import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.mongo.MongoClient;
 
+/**
+ * MongoDB holds the MongoClient shared by every instance of the Service verticle in a Vert.x instance.
+ * The operations of the client are timed by TimedMongoClient.
+ */
 public class MongoDB
 {
 	public static final String COLLECTION_ENTITIES = "Entities";
-	public static MongoClient mongoClientSingleton;
+	public static final String COLLECTION_GROUP_MEMBERS = "GroupMembers";
+	public static final String COLLECTION_STATES = "States";
 
-	public static MongoClient getInstance(final Vertx vertx, final JsonObject config)
+	private static MongoClient client;
+
+	/**
+	 * owner is the Vert.x instance that the client belongs to.
+	 */
+	private static Vertx owner;
+
+	/**
+	 * getInstance gives the MongoClient for the Vert.x instance. The client is created only once
+	 * even if several verticle instances call this concurrently from their own event loops.
+	 *
+	 * @param vertx  A Vert.x instance
+	 * @param config A configuration for MongoClient
+	 * @return The MongoClient shared in the Vert.x instance
+	 */
+	public static synchronized MongoClient getInstance(final Vertx vertx, final JsonObject config)
 	{
-		if (mongoClientSingleton == null) {
-
-			mongoClientSingleton = MongoClient.createShared(vertx, config);
-
-			mongoClientSingleton.createCollection(COLLECTION_ENTITIES, response -> {
-				if (response.succeeded()) {
-					System.out.println(COLLECTION_ENTITIES + " has been created.");
-				}
-				else {
-					System.err.println(response.cause());
-				}
-			});
+		if (client == null || owner != vertx) {
+
+			final MongoClient mongoClient = new TimedMongoClient(MongoClient.createShared(vertx, config));
+
+			createCollection(mongoClient, COLLECTION_ENTITIES);
+			createCollection(mongoClient, COLLECTION_GROUP_MEMBERS);
+
+			owner = vertx;
+			client = mongoClient;
 		}
-		return mongoClientSingleton;
+		return client;
+	}
+
+	private static void createCollection(final MongoClient mongoClient, final String collection)
+	{
+		mongoClient.createCollection(collection, response -> {
+			if (response.succeeded()) {
+				System.out.println(collection + " has been created.");
+			}
+			else {
+				System.err.println(response.cause());
+			}
+		});
 	}
 }
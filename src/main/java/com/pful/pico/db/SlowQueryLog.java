@@ -0,0 +1,138 @@
+package com.pful.pico.db;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.mongo.MongoClient;
+
+import java.time.Instant;
+
+/**
+ * SlowQueryLog logs the slow queries that scanned a whole collection instead of using an index.
+ * The database profiler records the operations slower than 'slow_query_millis' into system.profile,
+ * and the records newer than the last check whose plan has a collection scan are logged periodically.
+ * <p>
+ * The profiler is enabled on the database of the client. If it can't be enabled, for example because the user
+ * has no privilege for it, the slow queries aren't logged and the service runs as usual.
+ */
+public class SlowQueryLog
+{
+	public static final String CONFIG_SLOW_QUERY_MILLIS = "slow_query_millis";
+	public static final String CONFIG_CHECK_SECONDS = "slow_query_check_seconds";
+	public static final long DEFAULT_SLOW_QUERY_MILLIS = 100;
+	public static final long DEFAULT_CHECK_SECONDS = 60;
+
+	private static final String COLLECTION_PROFILE = "system.profile";
+	private static final String DB_METHOD_PROFILE = "profile";
+	private static final String PROFILE_FIELD_SLOW_MS = "slowms";
+	private static final int PROFILE_LEVEL_SLOW = 1;
+
+	private static final String FIELD_TS = "ts";
+	private static final String FIELD_NS = "ns";
+	private static final String FIELD_MILLIS = "millis";
+	private static final String FIELD_PLAN_SUMMARY = "planSummary";
+	private static final String FIELD_QUERY = "query";
+	private static final String FIELD_COMMAND = "command";
+	private static final String PLAN_COLLECTION_SCAN = "COLLSCAN";
+
+	private static final int CHECK_LIMIT = 100;
+
+	private static long timerId = -1;
+
+	/**
+	 * lastSeen is the time of the last record that has been checked, which is a date in the extended JSON.
+	 */
+	private static JsonObject lastSeen;
+
+	/**
+	 * A constructor
+	 */
+	private SlowQueryLog()
+	{
+	}
+
+	/**
+	 * start enables the profiler and starts checking the records periodically. It replaces the checks started before.
+	 *
+	 * @param vertx       A Vert.x instance that runs the checks
+	 * @param mongoClient A client of the database that is profiled
+	 * @param config      A configuration that has 'slow_query_millis' and 'slow_query_check_seconds'.
+	 *                    The slow queries aren't logged if 'slow_query_millis' isn't positive.
+	 */
+	public static synchronized void start(final Vertx vertx, final MongoClient mongoClient, final JsonObject config)
+	{
+		if (timerId >= 0) {
+			vertx.cancelTimer(timerId);
+			timerId = -1;
+		}
+
+		final long slowQueryMillis = config.getLong(CONFIG_SLOW_QUERY_MILLIS, DEFAULT_SLOW_QUERY_MILLIS);
+		final long checkSeconds = config.getLong(CONFIG_CHECK_SECONDS, DEFAULT_CHECK_SECONDS);
+		if (slowQueryMillis <= 0 || checkSeconds <= 0) {
+			return;
+		}
+
+		final JsonObject command = new JsonObject().put(DB_METHOD_PROFILE, PROFILE_LEVEL_SLOW)
+		                                           .put(PROFILE_FIELD_SLOW_MS, slowQueryMillis);
+
+		mongoClient.runCommand(DB_METHOD_PROFILE, command,
+		                       res -> {
+			                       if (res.failed()) {
+				                       System.err.println("Slow queries aren't logged, since the profiler couldn't be enabled: " + res.cause());
+				                       return;
+			                       }
+
+			                       synchronized (SlowQueryLog.class) {
+				                       lastSeen = new JsonObject().put("$date", Instant.now().toString());
+				                       timerId = vertx.setPeriodic(checkSeconds * 1000, id -> check(mongoClient));
+			                       }
+		                       });
+	}
+
+	private static void check(final MongoClient mongoClient)
+	{
+		final JsonObject since;
+		synchronized (SlowQueryLog.class) {
+			since = lastSeen;
+		}
+
+		final JsonObject query = new JsonObject().put(FIELD_TS, new JsonObject().put("$gt", since))
+		                                         .put(FIELD_PLAN_SUMMARY, new JsonObject().put("$regex", PLAN_COLLECTION_SCAN));
+		final FindOptions options = new FindOptions().setSort(new JsonObject().put(FIELD_TS, 1))
+		                                             .setLimit(CHECK_LIMIT);
+
+		mongoClient.findWithOptions(COLLECTION_PROFILE, query, options,
+		                            res -> {
+			                            if (res.failed()) {
+				                            System.err.println(COLLECTION_PROFILE + " couldn't be read: " + res.cause());
+				                            return;
+			                            }
+
+			                            for (final JsonObject record : res.result()) {
+				                            System.err.println(describe(record));
+			                            }
+
+			                            if (!res.result().isEmpty()) {
+				                            synchronized (SlowQueryLog.class) {
+					                            lastSeen = res.result().get(res.result().size() - 1).getJsonObject(FIELD_TS);
+				                            }
+			                            }
+		                            });
+	}
+
+	/**
+	 * describe makes a line of the log from a record of the profiler.
+	 * The filter is in 'query' before MongoDB 3.6, and in 'command' after that.
+	 *
+	 * @param record A record of system.profile
+	 * @return A line of the log
+	 */
+	static String describe(final JsonObject record)
+	{
+		final Object query = record.containsKey(FIELD_QUERY) ? record.getValue(FIELD_QUERY) : record.getValue(FIELD_COMMAND);
+
+		return "Slow query without an index on " + record.getString(FIELD_NS)
+				       + " took " + record.getValue(FIELD_MILLIS) + " ms"
+				       + " (" + record.getString(FIELD_PLAN_SUMMARY) + "): " + query;
+	}
+}
@@ -0,0 +1,284 @@
+package com.pful.pico.db;
+
+import com.pful.pico.metrics.LatencyHistogram;
+import com.pful.pico.metrics.Metrics;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.mongo.UpdateOptions;
+import io.vertx.ext.mongo.WriteOption;
+
+import java.util.List;
+
+/**
+ * TimedMongoClient is a MongoClient that records the latency of every operation of another client into Metrics,
+ * from the call until its handler is called. The operations of runCommand are recorded by their commands as well,
+ * such as 'findAndModify' or 'aggregate'.
+ * A batch operation such as findBatch is recorded whenever a document or the end is given to the handler.
+ */
+public class TimedMongoClient
+		implements MongoClient
+{
+	private static final String OP_SAVE = "save";
+	private static final String OP_INSERT = "insert";
+	private static final String OP_UPDATE = "update";
+	private static final String OP_REPLACE = "replace";
+	private static final String OP_FIND = "find";
+	private static final String OP_FIND_BATCH = "findBatch";
+	private static final String OP_FIND_ONE = "findOne";
+	private static final String OP_COUNT = "count";
+	private static final String OP_REMOVE = "remove";
+	private static final String OP_REMOVE_ONE = "removeOne";
+	private static final String OP_CREATE_COLLECTION = "createCollection";
+	private static final String OP_GET_COLLECTIONS = "getCollections";
+	private static final String OP_DROP_COLLECTION = "dropCollection";
+	private static final String OP_RUN_COMMAND = "runCommand";
+	private static final String OP_DISTINCT = "distinct";
+	private static final String OP_DISTINCT_BATCH = "distinctBatch";
+
+	private final MongoClient mongoClient;
+
+	/**
+	 * A constructor
+	 *
+	 * @param mongoClient A client that does the operations
+	 */
+	public TimedMongoClient(final MongoClient mongoClient)
+	{
+		this.mongoClient = mongoClient;
+	}
+
+	@Override
+	public MongoClient save(final String collection, final JsonObject document, final Handler<AsyncResult<String>> resultHandler)
+	{
+		mongoClient.save(collection, document, timed(OP_SAVE, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient saveWithOptions(final String collection,
+	                                   final JsonObject document,
+	                                   final WriteOption writeOption,
+	                                   final Handler<AsyncResult<String>> resultHandler)
+	{
+		mongoClient.saveWithOptions(collection, document, writeOption, timed(OP_SAVE, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient insert(final String collection, final JsonObject document, final Handler<AsyncResult<String>> resultHandler)
+	{
+		mongoClient.insert(collection, document, timed(OP_INSERT, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient insertWithOptions(final String collection,
+	                                     final JsonObject document,
+	                                     final WriteOption writeOption,
+	                                     final Handler<AsyncResult<String>> resultHandler)
+	{
+		mongoClient.insertWithOptions(collection, document, writeOption, timed(OP_INSERT, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient update(final String collection,
+	                          final JsonObject query,
+	                          final JsonObject update,
+	                          final Handler<AsyncResult<Void>> resultHandler)
+	{
+		mongoClient.update(collection, query, update, timed(OP_UPDATE, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient updateWithOptions(final String collection,
+	                                     final JsonObject query,
+	                                     final JsonObject update,
+	                                     final UpdateOptions options,
+	                                     final Handler<AsyncResult<Void>> resultHandler)
+	{
+		mongoClient.updateWithOptions(collection, query, update, options, timed(OP_UPDATE, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient replace(final String collection,
+	                           final JsonObject query,
+	                           final JsonObject replace,
+	                           final Handler<AsyncResult<Void>> resultHandler)
+	{
+		mongoClient.replace(collection, query, replace, timed(OP_REPLACE, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient replaceWithOptions(final String collection,
+	                                      final JsonObject query,
+	                                      final JsonObject replace,
+	                                      final UpdateOptions options,
+	                                      final Handler<AsyncResult<Void>> resultHandler)
+	{
+		mongoClient.replaceWithOptions(collection, query, replace, options, timed(OP_REPLACE, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient find(final String collection,
+	                        final JsonObject query,
+	                        final Handler<AsyncResult<List<JsonObject>>> resultHandler)
+	{
+		mongoClient.find(collection, query, timed(OP_FIND, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient findBatch(final String collection, final JsonObject query, final Handler<AsyncResult<JsonObject>> resultHandler)
+	{
+		mongoClient.findBatch(collection, query, timed(OP_FIND_BATCH, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient findWithOptions(final String collection,
+	                                   final JsonObject query,
+	                                   final FindOptions options,
+	                                   final Handler<AsyncResult<List<JsonObject>>> resultHandler)
+	{
+		mongoClient.findWithOptions(collection, query, options, timed(OP_FIND, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient findBatchWithOptions(final String collection,
+	                                        final JsonObject query,
+	                                        final FindOptions options,
+	                                        final Handler<AsyncResult<JsonObject>> resultHandler)
+	{
+		mongoClient.findBatchWithOptions(collection, query, options, timed(OP_FIND_BATCH, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient findOne(final String collection,
+	                           final JsonObject query,
+	                           final JsonObject fields,
+	                           final Handler<AsyncResult<JsonObject>> resultHandler)
+	{
+		mongoClient.findOne(collection, query, fields, timed(OP_FIND_ONE, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient count(final String collection, final JsonObject query, final Handler<AsyncResult<Long>> resultHandler)
+	{
+		mongoClient.count(collection, query, timed(OP_COUNT, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient remove(final String collection, final JsonObject query, final Handler<AsyncResult<Void>> resultHandler)
+	{
+		mongoClient.remove(collection, query, timed(OP_REMOVE, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient removeWithOptions(final String collection,
+	                                     final JsonObject query,
+	                                     final WriteOption writeOption,
+	                                     final Handler<AsyncResult<Void>> resultHandler)
+	{
+		mongoClient.removeWithOptions(collection, query, writeOption, timed(OP_REMOVE, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient removeOne(final String collection, final JsonObject query, final Handler<AsyncResult<Void>> resultHandler)
+	{
+		mongoClient.removeOne(collection, query, timed(OP_REMOVE_ONE, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient removeOneWithOptions(final String collection,
+	                                        final JsonObject query,
+	                                        final WriteOption writeOption,
+	                                        final Handler<AsyncResult<Void>> resultHandler)
+	{
+		mongoClient.removeOneWithOptions(collection, query, writeOption, timed(OP_REMOVE_ONE, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient createCollection(final String collectionName, final Handler<AsyncResult<Void>> resultHandler)
+	{
+		mongoClient.createCollection(collectionName, timed(OP_CREATE_COLLECTION, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient getCollections(final Handler<AsyncResult<List<String>>> resultHandler)
+	{
+		mongoClient.getCollections(timed(OP_GET_COLLECTIONS, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient dropCollection(final String collection, final Handler<AsyncResult<Void>> resultHandler)
+	{
+		mongoClient.dropCollection(collection, timed(OP_DROP_COLLECTION, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient runCommand(final String commandName, final JsonObject command, final Handler<AsyncResult<JsonObject>> resultHandler)
+	{
+		mongoClient.runCommand(commandName, command, timed(Metrics.mongoOperation(OP_RUN_COMMAND, commandName), resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient distinct(final String collection,
+	                            final String fieldName,
+	                            final String resultClassname,
+	                            final Handler<AsyncResult<JsonArray>> resultHandler)
+	{
+		mongoClient.distinct(collection, fieldName, resultClassname, timed(OP_DISTINCT, resultHandler));
+		return this;
+	}
+
+	@Override
+	public MongoClient distinctBatch(final String collection,
+	                                 final String fieldName,
+	                                 final String resultClassname,
+	                                 final Handler<AsyncResult<JsonObject>> resultHandler)
+	{
+		mongoClient.distinctBatch(collection, fieldName, resultClassname, timed(OP_DISTINCT_BATCH, resultHandler));
+		return this;
+	}
+
+	@Override
+	public void close()
+	{
+		mongoClient.close();
+	}
+
+	private static <T> Handler<AsyncResult<T>> timed(final String operation, final Handler<AsyncResult<T>> handler)
+	{
+		return timed(Metrics.mongoOperation(operation, Metrics.NO_COMMAND), handler);
+	}
+
+	private static <T> Handler<AsyncResult<T>> timed(final LatencyHistogram histogram, final Handler<AsyncResult<T>> handler)
+	{
+		final long start = System.nanoTime();
+		return res -> {
+			histogram.record(start);
+			handler.handle(res);
+		};
+	}
+}
@@ -83,6 +83,30 @@ public class FieldOperation
 		return new Finder.Statement(addOperationField("$lte", value));
 	}
 
+	@Override
+	public Finder.Statement gt(final String value)
+	{
+		return new Finder.Statement(addOperationField("$gt", value));
+	}
+
+	@Override
+	public Finder.Statement gte(final String value)
+	{
+		return new Finder.Statement(addOperationField("$gte", value));
+	}
+
+	@Override
+	public Finder.Statement lt(final String value)
+	{
+		return new Finder.Statement(addOperationField("$lt", value));
+	}
+
+	@Override
+	public Finder.Statement lte(final String value)
+	{
+		return new Finder.Statement(addOperationField("$lte", value));
+	}
+
 	@Override
 	public Finder.Statement inStringCollection(final Collection<String> collection)
 	{
@@ -1,25 +1,78 @@
 package com.pful.pico.db.querybuilder;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Multimap;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.FindOptions;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.pful.pico.db.querybuilder.TemplateFieldOperation.convertNameToVariable;
 import static com.pful.pico.db.querybuilder.Util.makeArrayToJsonArrayObject;
 import static com.pful.pico.db.querybuilder.Util.makeCollectionToJsonArrayObject;
 
+/**
+ * Finder builds the queries of MongoDB.
+ * <p>
+ * A query is recorded as its shape, which is the sequence of the operators and the field names, and its literals,
+ * which are the values compared with the fields. The JSON skeleton of a shape is compiled into a QueryTemplate once,
+ * and the literals of every query of the same shape are filled into its slots, so that building a query on
+ * the hot path neither makes the intermediate conditions nor merges them.
+ * <p>
+ * An expression also carries the projection, the sort, and the skip and limit of a find, which are given to
+ * MongoDB by toFindOptions. They aren't a part of the shape, so they don't change the query or its skeleton.
+ */
 public class Finder
 {
-	private static Map<String, TemplateBuilder> templates = new HashMap<>();
+	/**
+	 * MAX_PLANS bounds the number of the cached shapes. The shapes come from the code mostly, but an expression
+	 * given by a client, such as GroupSetExpression, can make any number of shapes.
+	 */
+	static final int MAX_PLANS = 1024;
+
+	private static final String OP_VALUE = "=";
+	private static final String OP_EXISTS = "$exists";
+	private static final String OP_AND = "$and";
+	private static final String OP_OR = "$or";
+	private static final String OP_NOR = "$nor";
+	private static final String OP_EXPRESSION = "(";
+	private static final String OP_END = ")";
+	private static final String OP_QUERY = "{}";
+	private static final String OP_RAW = "raw";
+
+	/**
+	 * templates is the registry of the templates, which are opened by any event loop.
+	 */
+	private static final Map<String, TemplateBuilder> templates = new ConcurrentHashMap<>();
+
+	/**
+	 * plans is the cache of the compiled skeletons by the shapes of the queries.
+	 */
+	private static final Map<Shape, Plan> plans = new ConcurrentHashMap<>();
+
+	private static volatile boolean planCacheEnabled = true;
 
 	private Expression root = new Expression();
-	private List<JsonObject> conditionList = new ArrayList<>();
+	private final List<Object> shape = new ArrayList<>(8);
+	private final List<Object> literals = new ArrayList<>(4);
+	private int shapeHash = 1;
+	private boolean cacheable = true;
 
+	private JsonObject projection;
+	private JsonObject sort;
+	private int skip = 0;
+	private int limit = -1;
+
+	/**
+	 * registerTemplate registers a template under an alias. The template is compiled when it is opened first,
+	 * so it should be completed before then.
+	 *
+	 * @param alias The alias of the template
+	 * @return The root expression of the template
+	 */
 	public static TemplateBuilder.TemplateExpression registerTemplate(final String alias)
 	{
 		final Finder finder = new Finder();
@@ -28,17 +81,25 @@ public class Finder
 		return builder.root;
 	}
 
+	/**
+	 * openQuery opens a template to bind its variables. Every binder makes its own query,
+	 * so a template can be opened by any number of threads at once.
+	 *
+	 * @param alias The alias of the template
+	 * @return A binder of the variables
+	 * @throws QueryBuilderException if no template is registered under the alias
+	 */
 	public static TemplateBuilder.VariableBinder openQuery(final String alias)
 			throws QueryBuilderException
 	{
 		checkArgument(!alias.isEmpty());
 
-		if (!templates.containsKey(alias)) {
+		final TemplateBuilder builder = templates.get(alias);
+		if (builder == null) {
 			throw new QueryBuilderException("No exists such query.");
 		}
 
-		final TemplateBuilder builder = templates.get(alias);
-		return builder.new VariableBinder();
+		return builder.new VariableBinder(builder.compile());
 	}
 
 
@@ -48,20 +109,299 @@ public class Finder
 		return finder.root;
 	}
 
+	/**
+	 * setPlanCacheEnabled turns the cache of the compiled skeletons on or off, which is for the benchmarks.
+	 *
+	 * @param enabled Whether the queries are rendered from the cached skeletons
+	 */
+	static void setPlanCacheEnabled(final boolean enabled)
+	{
+		planCacheEnabled = enabled;
+		if (!enabled) {
+			plans.clear();
+		}
+	}
+
+	/**
+	 * @return The number of the cached shapes
+	 */
+	static int planCount()
+	{
+		return plans.size();
+	}
+
 	private JsonObject makeJson()
 	{
-		final JsonObject rootNode = new JsonObject();
+		if (!cacheable || !planCacheEnabled) {
+			return new ShapeReader(this, false).read();
+		}
+
+		// The key of a lookup refers to the tokens of the query, and the key of a new plan has a copy of them.
+		Plan plan = plans.get(new Shape(shape, shapeHash));
+		if (plan == null) {
+			// A shape that can't be cached any more is read directly, since compiling it would only be thrown away.
+			if (plans.size() >= MAX_PLANS) {
+				return new ShapeReader(this, false).read();
+			}
+
+			plan = new Plan(QueryTemplate.compile(new ShapeReader(this, true).read()), literals.size());
+			plans.putIfAbsent(new Shape(Arrays.asList(shape.toArray()), shapeHash), plan);
+		}
+		return plan.render(literals);
+	}
+
+	private void token(final Object token)
+	{
+		shape.add(token);
+		shapeHash = 31 * shapeHash + token.hashCode();
+	}
+
+	private void addCondition(final String operator, final String name, final Object literal)
+	{
+		addField(operator, name);
+		literals.add(literal);
+	}
+
+	private void addField(final String operator, final String name)
+	{
+		// A field name in the form of a variable would be taken for a slot of the skeleton.
+		if (name.startsWith("<#")) {
+			cacheable = false;
+		}
+		token(operator);
+		token(name);
+	}
+
+	private void addRaw(final JsonObject condition)
+	{
+		cacheable = false;
+		token(OP_RAW);
+		literals.add(condition);
+	}
+
+	private void addProjection(final String[] names, final int include)
+	{
+		checkArgument(names.length > 0, "names shouldn't be empty.");
+
+		if (projection == null) {
+			projection = new JsonObject();
+		}
+		for (final String name : names) {
+			checkArgument(!Strings.isNullOrEmpty(name), "name shouldn't be null or empty.");
+			projection.put(name, include);
+		}
+	}
+
+	private void addSort(final String name, final int order)
+	{
+		checkArgument(!Strings.isNullOrEmpty(name), "name shouldn't be null or empty.");
 
-		conditionList.stream().forEach(
-				e -> e.forEach(
-						entry -> rootNode.put(entry.getKey(), entry.getValue())));
+		if (sort == null) {
+			sort = new JsonObject();
+		}
+		sort.put(name, order);
+	}
+
+	private FindOptions makeFindOptions()
+	{
+		final FindOptions options = new FindOptions().setSkip(skip)
+		                                             .setLimit(limit);
+		if (projection != null) {
+			options.setFields(projection.copy());
+		}
+		if (sort != null) {
+			options.setSort(sort.copy());
+		}
+		return options;
+	}
+
+	private void addLogical(final String operator, final Query[] queries)
+	{
+		token(operator);
+		token(queries.length);
+
+		for (final Query query : queries) {
+			if (query instanceof Expression) {
+				final Finder nested = ((Expression) query).finder();
+				// The sizes are fixed first, since an expression may be nested into itself.
+				final int shapeSize = nested.shape.size();
+				final int literalCount = nested.literals.size();
+
+				token(OP_EXPRESSION);
+				for (int i = 0; i < shapeSize; i++) {
+					token(nested.shape.get(i));
+				}
+				token(OP_END);
 
-		return rootNode;
+				for (int i = 0; i < literalCount; i++) {
+					literals.add(nested.literals.get(i));
+				}
+				cacheable &= nested.cacheable;
+			}
+			else {
+				token(OP_QUERY);
+				literals.add(query.toJson());
+			}
+		}
+	}
+
+	/**
+	 * Shape is the key of a cached skeleton, which is the sequence of the tokens of a query.
+	 */
+	private static final class Shape
+	{
+		private final List<Object> tokens;
+		private final int hash;
+
+		Shape(final List<Object> tokens, final int hash)
+		{
+			this.tokens = tokens;
+			this.hash = hash;
+		}
+
+		@Override
+		public boolean equals(final Object o)
+		{
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Shape) || hash != ((Shape) o).hash) {
+				return false;
+			}
+
+			final List<Object> others = ((Shape) o).tokens;
+			if (tokens.size() != others.size()) {
+				return false;
+			}
+			for (int i = 0; i < tokens.size(); i++) {
+				if (!tokens.get(i).equals(others.get(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+	}
+
+	/**
+	 * Plan is a compiled skeleton with the slot positions of the literals.
+	 * A literal that is overwritten by a later condition on the same field has no slot.
+	 */
+	private static final class Plan
+	{
+		private final QueryTemplate template;
+		private final int[] slots;
+
+		Plan(final QueryTemplate template, final int literalCount)
+		{
+			this.template = template;
+			this.slots = new int[literalCount];
+			for (int i = 0; i < literalCount; i++) {
+				slots[i] = template.slot(String.valueOf(i));
+			}
+		}
+
+		JsonObject render(final List<Object> literals)
+		{
+			final Object[] values = new Object[template.size()];
+			for (int i = 0; i < slots.length; i++) {
+				if (slots[i] >= 0) {
+					values[slots[i]] = literals.get(i);
+				}
+			}
+			return template.render(values);
+		}
+	}
+
+	/**
+	 * ShapeReader makes the JSON of a query from its shape. The literals are given either as they are,
+	 * or as the variables named by their positions, which make the skeleton of the shape.
+	 */
+	private static final class ShapeReader
+	{
+		private final List<Object> shape;
+		private final List<Object> literals;
+		private final boolean placeholders;
+		private int position;
+		private int literalPosition;
+
+		ShapeReader(final Finder finder, final boolean placeholders)
+		{
+			this.shape = finder.shape;
+			this.literals = finder.literals;
+			this.placeholders = placeholders;
+		}
+
+		JsonObject read()
+		{
+			final JsonObject jsonObject = new JsonObject();
+
+			while (position < shape.size()) {
+				final String operator = (String) shape.get(position++);
+
+				switch (operator) {
+				case OP_END:
+					return jsonObject;
+
+				case OP_VALUE:
+					jsonObject.put((String) shape.get(position++), literal());
+					break;
+
+				case OP_EXISTS:
+					jsonObject.put((String) shape.get(position++), new JsonObject().put(OP_EXISTS, true));
+					break;
+
+				case OP_RAW:
+					((JsonObject) literals.get(literalPosition++)).forEach(entry -> jsonObject.put(entry.getKey(), entry.getValue()));
+					break;
+
+				case OP_AND:
+				case OP_OR:
+				case OP_NOR:
+					final int count = (Integer) shape.get(position++);
+					final JsonArray jsonArray = new JsonArray();
+					for (int i = 0; i < count; i++) {
+						jsonArray.add(OP_EXPRESSION.equals(shape.get(position++)) ? read() : literal());
+					}
+					jsonObject.put(operator, jsonArray);
+					break;
+
+				default:
+					final String name = (String) shape.get(position++);
+					jsonObject.put(name, new JsonObject().put(operator, literal()));
+					break;
+				}
+			}
+
+			return jsonObject;
+		}
+
+		private Object literal()
+		{
+			final int i = literalPosition++;
+			return placeholders ? convertNameToVariable(String.valueOf(i)) : literals.get(i);
+		}
 	}
 
 	public interface Query
 	{
 		JsonObject toJson();
+
+		/**
+		 * toPredicate compiles the query into a predicate, which filters documents in the JVM as MongoDB does.
+		 *
+		 * @return A predicate that is true for the documents matched by the query
+		 * @see QueryPredicate
+		 */
+		default Predicate<JsonObject> toPredicate()
+		{
+			return QueryPredicate.compile(toJson());
+		}
 	}
 
 	public static class TemplateStatement
@@ -99,36 +439,19 @@ public class Finder
 	{
 		public Expression allOf(final Query... queries)
 		{
-			final JsonObject jsonObject = new JsonObject();
-			jsonObject.put("$and", makeJsonArray(queries));
-			conditionList.add(jsonObject);
+			addLogical(OP_AND, queries);
 			return this;
 		}
 
-		private JsonArray makeJsonArray(final Query[] queries)
-		{
-			final JsonArray jsonArray = new JsonArray();
-
-			for (final Query query : queries) {
-				jsonArray.add(query.toJson());
-			}
-
-			return jsonArray;
-		}
-
 		public Expression anyOf(final Query... queries)
 		{
-			final JsonObject jsonObject = new JsonObject();
-			jsonObject.put("$or", makeJsonArray(queries));
-			conditionList.add(jsonObject);
+			addLogical(OP_OR, queries);
 			return this;
 		}
 
 		public Expression noneOf(final Query... queries)
 		{
-			final JsonObject jsonObject = new JsonObject();
-			jsonObject.put("$nor", makeJsonArray(queries));
-			conditionList.add(jsonObject);
+			addLogical(OP_NOR, queries);
 			return this;
 		}
 
@@ -141,6 +464,131 @@ public class Finder
 		{
 			return makeJson();
 		}
+
+		/**
+		 * include projects the documents found by the query on the fields.
+		 * '_id' is included unless it is excluded explicitly.
+		 *
+		 * @param names The names of the fields
+		 * @return This expression
+		 */
+		public Expression include(final String... names)
+		{
+			addProjection(names, 1);
+			return this;
+		}
+
+		/**
+		 * exclude leaves the fields out of the documents found by the query.
+		 * MongoDB doesn't allow to exclude the fields other than '_id' in a projection that includes fields.
+		 *
+		 * @param names The names of the fields
+		 * @return This expression
+		 */
+		public Expression exclude(final String... names)
+		{
+			addProjection(names, 0);
+			return this;
+		}
+
+		/**
+		 * sortAscending sorts the documents by the field. The fields are applied in the order that they are given.
+		 *
+		 * @param name The name of a field
+		 * @return This expression
+		 */
+		public Expression sortAscending(final String name)
+		{
+			addSort(name, 1);
+			return this;
+		}
+
+		/**
+		 * sortDescending sorts the documents by the field in the reverse order.
+		 *
+		 * @param name The name of a field
+		 * @return This expression
+		 */
+		public Expression sortDescending(final String name)
+		{
+			addSort(name, -1);
+			return this;
+		}
+
+		/**
+		 * startAfter reads the documents in the order of the field, starting right after the value.
+		 * Unlike skip, the database seeks the value with the index on the field instead of walking the skipped documents.
+		 *
+		 * @param name  The name of a field, whose values are unique
+		 * @param value The value of the field in the last document that has been read, or null to start from the first one
+		 * @return This expression
+		 */
+		public Expression startAfter(final String name, final String value)
+		{
+			if (value != null) {
+				addCondition("$gt", name, value);
+			}
+			return sortAscending(name);
+		}
+
+		/**
+		 * @param skip The number of the documents to skip
+		 * @return This expression
+		 */
+		public Expression skip(final int skip)
+		{
+			checkArgument(skip >= 0, "skip should greater than equal to zero.");
+			Finder.this.skip = skip;
+			return this;
+		}
+
+		/**
+		 * @param limit The maximum number of the documents
+		 * @return This expression
+		 */
+		public Expression limit(final int limit)
+		{
+			checkArgument(limit > 0, "limit should greater than zero.");
+			Finder.this.limit = limit;
+			return this;
+		}
+
+		/**
+		 * toFindOptions gives the projection, the sort, and the skip and limit of the expression.
+		 * The options of the expressions nested in this expression are ignored, since they don't apply to a part of a query.
+		 *
+		 * @return New options for findWithOptions
+		 */
+		public FindOptions toFindOptions()
+		{
+			return makeFindOptions();
+		}
+
+		/**
+		 * toProjection gives the projection alone, for the commands that take the fields to return, such as findAndModify.
+		 *
+		 * @return A new projection, which is empty if no field is included or excluded
+		 */
+		public JsonObject toProjection()
+		{
+			return projection == null ? new JsonObject() : projection.copy();
+		}
+
+		/**
+		 * shapeHash is the hash of the structure of the query, which ignores the values compared with the fields.
+		 * For example, { 'type' : 'user' } and { 'type' : 'device' } have the same shape.
+		 *
+		 * @return The hash of the shape
+		 */
+		public int shapeHash()
+		{
+			return shapeHash;
+		}
+
+		private Finder finder()
+		{
+			return Finder.this;
+		}
 	}
 
 	public class ExpressionOperation
@@ -158,18 +606,14 @@ public class Finder
 		@Override
 		public Expression is(final String value)
 		{
-			final JsonObject jsonObject = new JsonObject();
-			jsonObject.put(name, value);
-			conditionList.add(jsonObject);
+			addCondition(OP_VALUE, name, value);
 			return parentExpression;
 		}
 
 		@Override
 		public Expression is(final Number value)
 		{
-			final JsonObject jsonObject = new JsonObject();
-			jsonObject.put(name, value);
-			conditionList.add(jsonObject);
+			addCondition(OP_VALUE, name, value);
 			return parentExpression;
 		}
 
@@ -221,6 +665,30 @@ public class Finder
 			return addOperationField("$lte", value);
 		}
 
+		@Override
+		public Expression gt(final String value)
+		{
+			return addOperationField("$gt", value);
+		}
+
+		@Override
+		public Expression gte(final String value)
+		{
+			return addOperationField("$gte", value);
+		}
+
+		@Override
+		public Expression lt(final String value)
+		{
+			return addOperationField("$lt", value);
+		}
+
+		@Override
+		public Expression lte(final String value)
+		{
+			return addOperationField("$lte", value);
+		}
+
 		@Override
 		public Expression inStringCollection(final Collection<String> collection)
 		{
@@ -263,10 +731,8 @@ public class Finder
 
 		private Expression in(final JsonArray jsonArray)
 		{
-			final JsonObject operationNode = new JsonObject();
-			operationNode.put("$in", jsonArray);
-
-			return makeField(operationNode);
+			addCondition("$in", name, jsonArray);
+			return parentExpression;
 		}
 
 		@Override
@@ -311,18 +777,15 @@ public class Finder
 
 		private Expression nin(final JsonArray jsonArray)
 		{
-			final JsonObject jsonObject = new JsonObject();
-			jsonObject.put("$nin", jsonArray);
-
-			return makeField(jsonObject);
+			addCondition("$nin", name, jsonArray);
+			return parentExpression;
 		}
 
 		@Override
 		public Expression exists()
 		{
-			final JsonObject jsonObject = new JsonObject();
-			jsonObject.put("$exists", true);
-			return makeField(jsonObject);
+			addField(OP_EXISTS, name);
+			return parentExpression;
 		}
 
 		@Override
@@ -363,35 +826,13 @@ public class Finder
 
 		private Expression all(final JsonArray conditions)
 		{
-			final JsonObject jsonObject = new JsonObject();
-			jsonObject.put("$all", conditions);
-
-			return makeField(jsonObject);
-		}
-
-		private Expression addOperationField(final String operationName, final Number value)
-		{
-			final JsonObject jsonObject = new JsonObject();
-			jsonObject.put(operationName, value);
-
-			return makeField(jsonObject);
-		}
-
-		private Expression addOperationField(final String operationName, final String value)
-		{
-			final JsonObject jsonObject = new JsonObject();
-			jsonObject.put(operationName, value);
-
-			return makeField(jsonObject);
+			addCondition("$all", name, conditions);
+			return parentExpression;
 		}
 
-
-		private Expression makeField(final JsonObject jsonElement)
+		private Expression addOperationField(final String operationName, final Object value)
 		{
-			final JsonObject jsonObject = new JsonObject();
-			jsonObject.put(name, jsonElement);
-
-			conditionList.add(jsonObject);
+			addCondition(operationName, name, value);
 			return parentExpression;
 		}
 	}
@@ -401,72 +842,33 @@ public class Finder
 	 */
 	public class TemplateBuilder
 	{
-		private final Multimap<String, TemplateVariable> variables = ArrayListMultimap.create();
 		private Finder finder;
 		private TemplateExpression root = new TemplateExpression();
+		private volatile QueryTemplate template;
 
 		public TemplateBuilder(final Finder finder)
 		{
 			this.finder = finder;
 		}
 
-		private class TemplateVariable
-		{
-			public String fieldName;
-			public JsonObject jsonObject;
-
-			public TemplateVariable(final String name, final JsonObject jsonObject)
-			{
-				this.fieldName = name;
-				this.jsonObject = jsonObject;
-			}
-
-			public void transform(final String variableName, final String value)
-			{
-				jsonObject.put(fieldName, value);
-			}
-
-			public void transform(final String variableName, final Number value)
-			{
-				jsonObject.put(fieldName, value);
-			}
-
-			public void transform(final String variableName, final JsonArray jsonArray)
-			{
-				jsonObject.put(fieldName, jsonArray);
-			}
-		}
-
-		private class ExistsTemplateVariable
-				extends TemplateVariable
+		/**
+		 * compile compiles the template into a plan once, and the plan is shared by all the binders.
+		 *
+		 * @return The plan of the template
+		 */
+		private QueryTemplate compile()
 		{
-			public ExistsTemplateVariable(final String name, final JsonObject jsonObject)
-			{
-				super(name, jsonObject);
-			}
-
-			@Override
-			public void transform(final String variableName, final String value)
-			{
-				jsonObject.remove(fieldName);
-
-				final JsonObject existsObject = new JsonObject();
-				existsObject.put("$exists", true);
-
-				jsonObject.put(value, existsObject);
-			}
-
-			@Override
-			public void transform(final String variableName, final Number value)
-			{
-				System.out.println(variableName);
-			}
-
-			@Override
-			public void transform(final String variableName, final JsonArray jsonArray)
-			{
-				System.out.println(variableName);
+			QueryTemplate compiled = template;
+			if (compiled == null) {
+				synchronized (this) {
+					compiled = template;
+					if (compiled == null) {
+						compiled = QueryTemplate.compile(finder.makeJson());
+						template = compiled;
+					}
+				}
 			}
+			return compiled;
 		}
 
 		public class TemplateExpression
@@ -475,39 +877,18 @@ public class Finder
 			@Override
 			public TemplateExpression allOf(final Query... queries)
 			{
-				for (final Query query : queries) {
-					if (query instanceof TemplateStatement) {
-						final TemplateStatement statement = (TemplateStatement) query;
-						variables.put(statement.fieldName, new TemplateVariable(statement.variableName, statement.jsonObject));
-					}
-				}
-
 				return (TemplateExpression) super.allOf(queries);
 			}
 
 			@Override
 			public TemplateExpression anyOf(final Query... queries)
 			{
-				for (final Query query : queries) {
-					if (query instanceof TemplateStatement) {
-						final TemplateStatement statement = (TemplateStatement) query;
-						variables.put(statement.fieldName, new TemplateVariable(statement.variableName, statement.jsonObject));
-					}
-				}
-
 				return (TemplateExpression) super.anyOf(queries);
 			}
 
 			@Override
 			public TemplateExpression noneOf(final Query... queries)
 			{
-				for (final Query query : queries) {
-					if (query instanceof TemplateStatement) {
-						final TemplateStatement statement = (TemplateStatement) query;
-						variables.put(statement.fieldName, new TemplateVariable(statement.variableName, statement.jsonObject));
-					}
-				}
-
 				return (TemplateExpression) super.noneOf(queries);
 			}
 
@@ -542,8 +923,7 @@ public class Finder
 				final JsonObject jsonObject = new JsonObject();
 				jsonObject.put(name, convertNameToVariable(variableName));
 
-				finder.conditionList.add(jsonObject);
-				variables.put(variableName, new TemplateVariable(name, jsonObject));
+				finder.addRaw(jsonObject);
 				return parentExpression;
 			}
 
@@ -658,9 +1038,7 @@ public class Finder
 				final JsonObject parentObject = new JsonObject();
 				parentObject.put(convertNameToVariable(variableName), jsonObject);
 
-				finder.conditionList.add(parentObject);
-				variables.put(variableName, new ExistsTemplateVariable(convertNameToVariable(variableName), parentObject));
-
+				finder.addRaw(parentObject);
 				return parentExpression;
 			}
 
@@ -668,26 +1046,38 @@ public class Finder
 			{
 				final JsonObject jsonObject = new JsonObject();
 				jsonObject.put(operationName, convertNameToVariable(variableName));
-				return makeField(operationName, variableName, jsonObject);
+				return makeField(jsonObject);
 			}
 
-			private TemplateExpression makeField(final String fieldName, final String variableName, final JsonObject jsonObject)
+			private TemplateExpression makeField(final JsonObject jsonObject)
 			{
 				final JsonObject parentObject = new JsonObject();
 				parentObject.put(name, jsonObject);
 
-				finder.conditionList.add(parentObject);
-				variables.put(variableName, new TemplateVariable(fieldName, jsonObject));
+				finder.addRaw(parentObject);
 				return parentExpression;
 			}
 		}
 
+		/**
+		 * VariableBinder holds the values bound to the variables of a template, and is used by a single thread.
+		 * The values are kept apart from the template, which is never changed by binding.
+		 */
 		public class VariableBinder
 		{
+			private final QueryTemplate template;
+			private final Object[] values;
+
+			private VariableBinder(final QueryTemplate template)
+			{
+				this.template = template;
+				this.values = new Object[template.size()];
+				Arrays.fill(values, QueryTemplate.UNBOUND);
+			}
+
 			public VariableBinder bind(final String variableName, final String value)
 			{
-				variables.get(variableName).stream().forEach(e -> e.transform(variableName, value));
-				return this;
+				return set(variableName, value);
 			}
 
 			public VariableBinder bind(final String variableName, final Number value)
@@ -695,8 +1085,7 @@ public class Finder
 				checkArgument(!Strings.isNullOrEmpty(variableName));
 				checkArgument(value != null);
 
-				variables.get(variableName).stream().forEach(e -> e.transform(variableName, value));
-				return this;
+				return set(variableName, value);
 			}
 
 			public VariableBinder bindStringCollection(final String variableName, final Collection<String> strings)
@@ -704,8 +1093,7 @@ public class Finder
 				final JsonArray elementArray = new JsonArray();
 				strings.stream().forEach(elementArray::add);
 
-				variables.get(variableName).stream().forEach(e -> e.transform(variableName, elementArray));
-				return this;
+				return set(variableName, elementArray);
 			}
 
 			public VariableBinder bindNumberCollection(final String variableName, final Collection<Number> numbers)
@@ -713,14 +1101,36 @@ public class Finder
 				final JsonArray jsonArray = new JsonArray();
 				numbers.stream().forEach(jsonArray::add);
 
-				variables.get(variableName).stream().forEach(e -> e.transform(variableName, jsonArray));
+				return set(variableName, jsonArray);
+			}
+
+			private VariableBinder set(final String variableName, final Object value)
+			{
+				final int slot = template.slot(variableName);
+				if (slot < 0) {
+					return this;
+				}
+
+				checkArgument(!template.isFieldName(slot) || value instanceof String,
+				              "the variable of a field name should be bound to a string.");
+				values[slot] = value;
 				return this;
 			}
 
+			/**
+			 * @return A new query with the values bound so far
+			 */
 			public JsonObject toJson()
 			{
-				return finder.makeJson();
+				// The bound arrays are copied, so that the queries made by a binder don't share them.
+				final Object[] copies = values.clone();
+				for (int i = 0; i < copies.length; i++) {
+					if (copies[i] instanceof JsonArray) {
+						copies[i] = ((JsonArray) copies[i]).copy();
+					}
+				}
+				return template.render(copies);
 			}
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,625 @@
+package com.pful.pico.db.querybuilder;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * QueryPredicate compiles a query into a predicate over documents, which evaluates the query in the JVM
+ * the way MongoDB does for the supported operators:
+ * $eq, $ne, $gt, $gte, $lt, $lte, $in, $nin, $all, $exists, $and, $or, and $nor.
+ * <p>
+ * The query is walked only once, when it is compiled. The result is a tree of small evaluators whose field paths
+ * are split and whose operands are normalized in advance, so a test doesn't look at the JSON of the query.
+ * <ul>
+ * <li>A field path may have dots, and it goes through nested documents, array indexes, and arrays of documents.</li>
+ * <li>An array field matches if the array itself or any of its elements matches, except for $exists and $all.</li>
+ * <li>Numbers are compared by their values whatever their types are, and a comparison between a number and a string
+ * is false.</li>
+ * <li>{ field : null } matches a missing field as well.</li>
+ * </ul>
+ */
+public final class QueryPredicate
+{
+	private static final Object MISSING = new Object();
+
+	private QueryPredicate()
+	{
+	}
+
+	/**
+	 * compile compiles a query into a predicate. The predicate keeps no state, so it can be shared by threads.
+	 *
+	 * @param query A query of MongoDB
+	 * @return A predicate that is true for the documents matched by the query
+	 * @throws IllegalArgumentException if the query has an operator that isn't supported
+	 */
+	public static Predicate<JsonObject> compile(final JsonObject query)
+	{
+		checkArgument(query != null, "query shouldn't be null.");
+		return compileDocument(query);
+	}
+
+	private static DocumentTest compileDocument(final JsonObject query)
+	{
+		final List<DocumentTest> tests = new ArrayList<>(query.size());
+		for (final Map.Entry<String, Object> entry : query) {
+			tests.add(compileEntry(entry.getKey(), entry.getValue()));
+		}
+		return tests.size() == 1 ? tests.get(0) : new AllOf(toArray(tests));
+	}
+
+	private static DocumentTest compileEntry(final String key, final Object condition)
+	{
+		switch (key) {
+		case "$and":
+			return new AllOf(compileDocuments(key, condition));
+
+		case "$or":
+			return new AnyOf(compileDocuments(key, condition));
+
+		case "$nor":
+			return new NoneOf(compileDocuments(key, condition));
+
+		default:
+			checkArgument(!key.startsWith("$"), "unsupported operator: " + key);
+			return compileField(key.split("\\."), condition);
+		}
+	}
+
+	private static DocumentTest[] compileDocuments(final String operator, final Object queries)
+	{
+		checkArgument(queries instanceof JsonArray && !((JsonArray) queries).isEmpty(),
+		              operator + " should have a non-empty array.");
+
+		final JsonArray array = (JsonArray) queries;
+		final DocumentTest[] tests = new DocumentTest[array.size()];
+		for (int i = 0; i < tests.length; i++) {
+			final Object query = array.getValue(i);
+			checkArgument(query instanceof JsonObject, operator + " should have documents.");
+			tests[i] = compileDocument((JsonObject) query);
+		}
+		return tests;
+	}
+
+	/**
+	 * compileField compiles the condition of a field. The operators of a field are tested independently,
+	 * and $ne and $nin are the negations of $eq and $in, which is how MongoDB treats arrays.
+	 */
+	private static DocumentTest compileField(final String[] path, final Object condition)
+	{
+		if (!isOperatorDocument(condition)) {
+			return new FieldTest(path, new Equal(condition));
+		}
+
+		final JsonObject operators = (JsonObject) condition;
+		final List<DocumentTest> tests = new ArrayList<>(operators.size());
+		for (final String operator : operators.fieldNames()) {
+			final Object operand = operators.getValue(operator);
+			switch (operator) {
+			case "$ne":
+				tests.add(new Not(new FieldTest(path, new Equal(operand))));
+				break;
+
+			case "$nin":
+				tests.add(new Not(new FieldTest(path, new In(toOperands(operator, operand)))));
+				break;
+
+			default:
+				tests.add(new FieldTest(path, compileOperator(operator, operand)));
+				break;
+			}
+		}
+		return tests.size() == 1 ? tests.get(0) : new AllOf(toArray(tests));
+	}
+
+	/**
+	 * A document is a set of operators if its first key is an operator, otherwise it is a value to be equal to.
+	 */
+	private static boolean isOperatorDocument(final Object condition)
+	{
+		if (!(condition instanceof JsonObject) || ((JsonObject) condition).isEmpty()) {
+			return false;
+		}
+		return ((JsonObject) condition).fieldNames().iterator().next().startsWith("$");
+	}
+
+	private static ValueTest compileOperator(final String operator, final Object operand)
+	{
+		switch (operator) {
+		case "$eq":
+			return new Equal(operand);
+
+		case "$gt":
+			return new Compare(operand, Compare.GT);
+
+		case "$gte":
+			return new Compare(operand, Compare.GTE);
+
+		case "$lt":
+			return new Compare(operand, Compare.LT);
+
+		case "$lte":
+			return new Compare(operand, Compare.LTE);
+
+		case "$in":
+			return new In(toOperands(operator, operand));
+
+		case "$all":
+			return new All(toOperands(operator, operand));
+
+		case "$exists":
+			checkArgument(operand instanceof Boolean || operand instanceof Number, "$exists should have a boolean.");
+			return new Exists(operand instanceof Boolean ? (Boolean) operand : ((Number) operand).doubleValue() != 0);
+
+		default:
+			throw new IllegalArgumentException("unsupported operator: " + operator);
+		}
+	}
+
+	private static List<?> toOperands(final String operator, final Object operand)
+	{
+		checkArgument(operand instanceof JsonArray, operator + " should have an array.");
+		return ((JsonArray) operand).getList();
+	}
+
+	private static DocumentTest[] toArray(final List<DocumentTest> tests)
+	{
+		return tests.toArray(new DocumentTest[tests.size()]);
+	}
+
+	/**
+	 * normalize makes the values that MongoDB regards as equal equal in Java.
+	 * An integral number becomes a Long, and the other numbers become Doubles.
+	 * Maps and Lists, which are the forms of the documents and the arrays kept in a JsonObject, become JsonObjects
+	 * and JsonArrays.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Object normalize(final Object value)
+	{
+		if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+			return ((Number) value).longValue();
+		}
+		if (value instanceof Number) {
+			final double d = ((Number) value).doubleValue();
+			return d == Math.rint(d) && Math.abs(d) < 0x1p63 ? (Object) (long) d : (Object) d;
+		}
+		if (value instanceof Map) {
+			return new JsonObject((Map<String, Object>) value);
+		}
+		if (value instanceof List) {
+			return new JsonArray((List) value);
+		}
+		return value;
+	}
+
+	private static boolean equal(final Object normalizedOperand, final Object value)
+	{
+		if (normalizedOperand instanceof JsonArray && value instanceof JsonArray) {
+			return equalArrays((JsonArray) normalizedOperand, (JsonArray) value);
+		}
+		if (normalizedOperand instanceof JsonObject && value instanceof JsonObject) {
+			return equalDocuments((JsonObject) normalizedOperand, (JsonObject) value);
+		}
+		return Objects.equals(normalizedOperand, normalize(value));
+	}
+
+	private static boolean equalArrays(final JsonArray a, final JsonArray b)
+	{
+		if (a.size() != b.size()) {
+			return false;
+		}
+		for (int i = 0; i < a.size(); i++) {
+			if (!equal(normalize(a.getValue(i)), b.getValue(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean equalDocuments(final JsonObject a, final JsonObject b)
+	{
+		if (a.size() != b.size()) {
+			return false;
+		}
+
+		final Iterator<String> aFields = a.fieldNames().iterator();
+		final Iterator<String> bFields = b.fieldNames().iterator();
+		while (aFields.hasNext()) {
+			final String field = aFields.next();
+			// The order of the fields matters to MongoDB.
+			if (!field.equals(bFields.next()) || !equal(normalize(a.getValue(field)), b.getValue(field))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * DocumentTest is a node of a compiled query, which tests a document.
+	 */
+	private interface DocumentTest
+			extends Predicate<JsonObject>
+	{
+	}
+
+	/**
+	 * ValueTest tests the value of a field, which is MISSING if the document doesn't have the field.
+	 */
+	private interface ValueTest
+	{
+		boolean test(final Object value);
+
+		/**
+		 * @return Whether an array matches if any of its elements matches
+		 */
+		default boolean matchesElements()
+		{
+			return true;
+		}
+	}
+
+	private static final class AllOf
+			implements DocumentTest
+	{
+		private final DocumentTest[] tests;
+
+		AllOf(final DocumentTest[] tests)
+		{
+			this.tests = tests;
+		}
+
+		@Override
+		public boolean test(final JsonObject document)
+		{
+			for (final DocumentTest test : tests) {
+				if (!test.test(document)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static final class AnyOf
+			implements DocumentTest
+	{
+		private final DocumentTest[] tests;
+
+		AnyOf(final DocumentTest[] tests)
+		{
+			this.tests = tests;
+		}
+
+		@Override
+		public boolean test(final JsonObject document)
+		{
+			for (final DocumentTest test : tests) {
+				if (test.test(document)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static final class NoneOf
+			implements DocumentTest
+	{
+		private final DocumentTest[] tests;
+
+		NoneOf(final DocumentTest[] tests)
+		{
+			this.tests = tests;
+		}
+
+		@Override
+		public boolean test(final JsonObject document)
+		{
+			for (final DocumentTest test : tests) {
+				if (test.test(document)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * FieldTest resolves the path of a field and tests its value.
+	 */
+	private static final class FieldTest
+			implements DocumentTest
+	{
+		private final String[] path;
+		private final ValueTest test;
+
+		FieldTest(final String[] path, final ValueTest test)
+		{
+			this.path = path;
+			this.test = test;
+		}
+
+		@Override
+		public boolean test(final JsonObject document)
+		{
+			return testAt(document, 0);
+		}
+
+		private boolean testAt(final Object current, final int depth)
+		{
+			if (depth == path.length) {
+				return testValue(current);
+			}
+
+			final String name = path[depth];
+			if (current instanceof JsonObject) {
+				final JsonObject jsonObject = (JsonObject) current;
+				return testAt(jsonObject.containsKey(name) ? jsonObject.getValue(name) : MISSING, depth + 1);
+			}
+			if (current instanceof JsonArray) {
+				final JsonArray jsonArray = (JsonArray) current;
+				final int index = toIndex(name);
+				if (index >= 0) {
+					return testAt(index < jsonArray.size() ? jsonArray.getValue(index) : MISSING, depth + 1);
+				}
+				// A field of an array of documents is the field of any of the documents.
+				boolean found = false;
+				for (int i = 0; i < jsonArray.size(); i++) {
+					final Object element = jsonArray.getValue(i);
+					if (element instanceof JsonObject) {
+						found = true;
+						if (testAt(element, depth)) {
+							return true;
+						}
+					}
+				}
+				return !found && test.test(MISSING);
+			}
+			return test.test(MISSING);
+		}
+
+		private boolean testValue(final Object value)
+		{
+			if (test.test(value)) {
+				return true;
+			}
+			if (value instanceof JsonArray && test.matchesElements()) {
+				final JsonArray jsonArray = (JsonArray) value;
+				for (int i = 0; i < jsonArray.size(); i++) {
+					if (test.test(jsonArray.getValue(i))) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		private static int toIndex(final String name)
+		{
+			if (name.isEmpty() || name.length() > 9) {
+				return -1;
+			}
+			for (int i = 0; i < name.length(); i++) {
+				if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+					return -1;
+				}
+			}
+			return Integer.parseInt(name);
+		}
+	}
+
+	private static final class Equal
+			implements ValueTest
+	{
+		private final Object operand;
+
+		Equal(final Object operand)
+		{
+			this.operand = normalize(operand);
+		}
+
+		@Override
+		public boolean test(final Object value)
+		{
+			if (value == MISSING) {
+				return operand == null;
+			}
+			return equal(operand, value);
+		}
+	}
+
+	private static final class Not
+			implements DocumentTest
+	{
+		private final DocumentTest test;
+
+		Not(final DocumentTest test)
+		{
+			this.test = test;
+		}
+
+		@Override
+		public boolean test(final JsonObject document)
+		{
+			return !test.test(document);
+		}
+	}
+
+	private static final class Compare
+			implements ValueTest
+	{
+		static final int GT = 0;
+		static final int GTE = 1;
+		static final int LT = 2;
+		static final int LTE = 3;
+
+		private final Object operand;
+		private final int operator;
+
+		Compare(final Object operand, final int operator)
+		{
+			checkArgument(operand instanceof Number || operand instanceof String,
+			              "a comparison should have a number or a string.");
+			this.operand = normalize(operand);
+			this.operator = operator;
+		}
+
+		@Override
+		public boolean test(final Object value)
+		{
+			final int c;
+			if (operand instanceof String) {
+				if (!(value instanceof String)) {
+					return false;
+				}
+				c = ((String) value).compareTo((String) operand);
+			}
+			else {
+				if (!(value instanceof Number)) {
+					return false;
+				}
+				final Object normalized = normalize(value);
+				if (normalized instanceof Long && operand instanceof Long) {
+					c = Long.compare((Long) normalized, (Long) operand);
+				}
+				else {
+					c = Double.compare(((Number) normalized).doubleValue(), ((Number) operand).doubleValue());
+				}
+			}
+
+			switch (operator) {
+			case GT:
+				return c > 0;
+			case GTE:
+				return c >= 0;
+			case LT:
+				return c < 0;
+			default:
+				return c <= 0;
+			}
+		}
+	}
+
+	/**
+	 * In keeps the scalar operands in a hash set, and the documents and the arrays in a list.
+	 */
+	private static final class In
+			implements ValueTest
+	{
+		private final Set<Object> scalars = new HashSet<>();
+		private final List<Object> others = new ArrayList<>();
+		private final boolean hasNull;
+
+		In(final List<?> operands)
+		{
+			boolean hasNull = false;
+			for (final Object operand : operands) {
+				final Object normalized = normalize(operand);
+				if (normalized == null) {
+					hasNull = true;
+				}
+				else if (normalized instanceof JsonObject || normalized instanceof JsonArray) {
+					others.add(normalized);
+				}
+				else {
+					scalars.add(normalized);
+				}
+			}
+			this.hasNull = hasNull;
+		}
+
+		@Override
+		public boolean test(final Object value)
+		{
+			if (value == MISSING || value == null) {
+				return hasNull;
+			}
+			if (value instanceof JsonObject || value instanceof JsonArray) {
+				for (final Object other : others) {
+					if (equal(other, value)) {
+						return true;
+					}
+				}
+				return false;
+			}
+			return scalars.contains(normalize(value));
+		}
+	}
+
+	private static final class All
+			implements ValueTest
+	{
+		private final Equal[] operands;
+
+		All(final List<?> operands)
+		{
+			this.operands = new Equal[operands.size()];
+			for (int i = 0; i < this.operands.length; i++) {
+				this.operands[i] = new Equal(operands.get(i));
+			}
+		}
+
+		@Override
+		public boolean test(final Object value)
+		{
+			// MongoDB matches nothing with an empty $all.
+			if (operands.length == 0 || value == MISSING) {
+				return false;
+			}
+
+			for (final Equal operand : operands) {
+				if (operand.test(value)) {
+					continue;
+				}
+				if (!(value instanceof JsonArray) || !contains((JsonArray) value, operand)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static boolean contains(final JsonArray jsonArray, final Equal operand)
+		{
+			for (int i = 0; i < jsonArray.size(); i++) {
+				if (operand.test(jsonArray.getValue(i))) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public boolean matchesElements()
+		{
+			return false;
+		}
+	}
+
+	private static final class Exists
+			implements ValueTest
+	{
+		private final boolean exists;
+
+		Exists(final boolean exists)
+		{
+			this.exists = exists;
+		}
+
+		@Override
+		public boolean test(final Object value)
+		{
+			return (value != MISSING) == exists;
+		}
+
+		@Override
+		public boolean matchesElements()
+		{
+			return false;
+		}
+	}
+}
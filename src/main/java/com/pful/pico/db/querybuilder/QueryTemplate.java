@@ -0,0 +1,254 @@
+package com.pful.pico.db.querybuilder;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.*;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * QueryTemplate is an immutable plan compiled from a registered template.
+ * The variables of the template, which are the strings in the form of '&lt;#name&gt;' given by
+ * TemplateFieldOperation.convertNameToVariable, are replaced by slots, and every variable has a slot position.
+ * A query is rendered from the plan and the values bound to the slots, so the plan is never changed
+ * and can be shared by any number of threads.
+ * <p>
+ * A variable may be a value, such as { 'age' : { '$gt' : &lt;#age&gt; } }, or a field name,
+ * such as { &lt;#field&gt; : { '$exists' : true } }. A slot without a value is rendered as the variable itself.
+ */
+final class QueryTemplate
+{
+	/**
+	 * UNBOUND is the value of a slot that isn't bound, since null is a value of a query.
+	 */
+	static final Object UNBOUND = new Object();
+
+	private static final String VARIABLE_PREFIX = "<#";
+	private static final String VARIABLE_SUFFIX = ">";
+
+	private final Node root;
+	private final Map<String, Integer> slots;
+	private final String[] variables;
+	private final boolean[] fieldNames;
+
+	private QueryTemplate(final Node root, final Map<String, Integer> slots, final boolean[] fieldNames)
+	{
+		this.root = root;
+		this.slots = Collections.unmodifiableMap(slots);
+		this.variables = new String[slots.size()];
+		slots.forEach((variable, slot) -> variables[slot] = variable);
+		this.fieldNames = fieldNames;
+	}
+
+	/**
+	 * compile makes a plan from the JSON of a template. The JSON isn't referenced by the plan.
+	 *
+	 * @param json The JSON of a template
+	 * @return A plan
+	 */
+	static QueryTemplate compile(final JsonObject json)
+	{
+		final Map<String, Integer> slots = new LinkedHashMap<>();
+		final Set<String> fieldNameVariables = new HashSet<>();
+		final Node root = compileObject(json, slots, fieldNameVariables);
+
+		final boolean[] fieldNames = new boolean[slots.size()];
+		fieldNameVariables.forEach(variable -> fieldNames[slots.get(variable)] = true);
+
+		return new QueryTemplate(root, slots, fieldNames);
+	}
+
+	private static Node compileObject(final JsonObject json, final Map<String, Integer> slots, final Set<String> fieldNameVariables)
+	{
+		final int size = json.size();
+		final String[] keys = new String[size];
+		final int[] keySlots = new int[size];
+		final Node[] values = new Node[size];
+
+		int i = 0;
+		for (final Map.Entry<String, Object> entry : json) {
+			final String variable = toVariable(entry.getKey());
+			if (variable != null) {
+				fieldNameVariables.add(variable);
+				keySlots[i] = slotOf(variable, slots);
+			}
+			else {
+				keySlots[i] = -1;
+			}
+			keys[i] = entry.getKey();
+			values[i] = compileValue(entry.getValue(), slots, fieldNameVariables);
+			i++;
+		}
+
+		return Node.object(keys, keySlots, values);
+	}
+
+	private static Node compileValue(final Object value, final Map<String, Integer> slots, final Set<String> fieldNameVariables)
+	{
+		if (value instanceof JsonObject) {
+			return compileObject((JsonObject) value, slots, fieldNameVariables);
+		}
+		if (value instanceof Map) {
+			return compileObject(new JsonObject(castMap(value)), slots, fieldNameVariables);
+		}
+		if (value instanceof JsonArray || value instanceof List) {
+			final List<?> list = value instanceof JsonArray ? ((JsonArray) value).getList() : (List<?>) value;
+			final Node[] elements = new Node[list.size()];
+			for (int i = 0; i < elements.length; i++) {
+				elements[i] = compileValue(list.get(i), slots, fieldNameVariables);
+			}
+			return Node.array(elements);
+		}
+
+		final String variable = value instanceof String ? toVariable((String) value) : null;
+		if (variable != null) {
+			return Node.slot(slotOf(variable, slots), (String) value);
+		}
+		return Node.constant(value);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> castMap(final Object value)
+	{
+		return (Map<String, Object>) value;
+	}
+
+	private static String toVariable(final String s)
+	{
+		if (s.length() > VARIABLE_PREFIX.length() + VARIABLE_SUFFIX.length()
+		    && s.startsWith(VARIABLE_PREFIX) && s.endsWith(VARIABLE_SUFFIX)) {
+			return s.substring(VARIABLE_PREFIX.length(), s.length() - VARIABLE_SUFFIX.length());
+		}
+		return null;
+	}
+
+	private static int slotOf(final String variable, final Map<String, Integer> slots)
+	{
+		return slots.computeIfAbsent(variable, v -> slots.size());
+	}
+
+	/**
+	 * @return The number of the slots
+	 */
+	int size()
+	{
+		return variables.length;
+	}
+
+	/**
+	 * @param variable The name of a variable
+	 * @return The slot position of the variable, or -1 if the template doesn't have the variable
+	 */
+	int slot(final String variable)
+	{
+		final Integer slot = slots.get(variable);
+		return slot == null ? -1 : slot;
+	}
+
+	/**
+	 * @param slot A slot position
+	 * @return Whether the variable of the slot is used as a field name
+	 */
+	boolean isFieldName(final int slot)
+	{
+		return fieldNames[slot];
+	}
+
+	/**
+	 * render makes a new query. Only the objects and arrays of the template are created,
+	 * and the values are put into the query as they are.
+	 *
+	 * @param values The values bound to the slots, which are indexed by the slot positions, or UNBOUND
+	 * @return A new query
+	 */
+	JsonObject render(final Object[] values)
+	{
+		checkArgument(values.length == variables.length, "values should have a value for every slot.");
+		return (JsonObject) root.render(values);
+	}
+
+	/**
+	 * Node is a node of a plan. The kinds of the nodes share a class, so that rendering doesn't dispatch
+	 * through an interface with many implementations.
+	 */
+	private static final class Node
+	{
+		private static final int OBJECT = 0;
+		private static final int ARRAY = 1;
+		private static final int SLOT = 2;
+		private static final int CONSTANT = 3;
+
+		private final int kind;
+		private final String[] keys;
+		private final int[] keySlots;
+		private final Node[] children;
+		private final int slot;
+		private final Object value;
+
+		private Node(final int kind, final String[] keys, final int[] keySlots, final Node[] children, final int slot, final Object value)
+		{
+			this.kind = kind;
+			this.keys = keys;
+			this.keySlots = keySlots;
+			this.children = children;
+			this.slot = slot;
+			this.value = value;
+		}
+
+		static Node object(final String[] keys, final int[] keySlots, final Node[] values)
+		{
+			return new Node(OBJECT, keys, keySlots, values, -1, null);
+		}
+
+		static Node array(final Node[] elements)
+		{
+			return new Node(ARRAY, null, null, elements, -1, null);
+		}
+
+		/**
+		 * @param slot     A slot position
+		 * @param variable The variable, which is rendered if the slot isn't bound
+		 */
+		static Node slot(final int slot, final String variable)
+		{
+			return new Node(SLOT, null, null, null, slot, variable);
+		}
+
+		/**
+		 * @param value A string, a number, a boolean, or null, which is immutable and shared by the queries
+		 */
+		static Node constant(final Object value)
+		{
+			return new Node(CONSTANT, null, null, null, -1, value);
+		}
+
+		Object render(final Object[] slotValues)
+		{
+			switch (kind) {
+			case OBJECT:
+				final JsonObject jsonObject = new JsonObject(new LinkedHashMap<>(keys.length * 2));
+				for (int i = 0; i < keys.length; i++) {
+					final int keySlot = keySlots[i];
+					final String key = keySlot >= 0 && slotValues[keySlot] != UNBOUND ? (String) slotValues[keySlot] : keys[i];
+					jsonObject.put(key, children[i].render(slotValues));
+				}
+				return jsonObject;
+
+			case ARRAY:
+				final List<Object> list = new ArrayList<>(children.length);
+				for (final Node element : children) {
+					list.add(element.render(slotValues));
+				}
+				return new JsonArray(list);
+
+			case SLOT:
+				final Object bound = slotValues[slot];
+				return bound == UNBOUND ? value : bound;
+
+			default:
+				return value;
+			}
+		}
+	}
+}
@@ -26,7 +26,7 @@ public class TemplateFieldOperation
 	{
 		final JsonObject jsonObject = new JsonObject();
 		jsonObject.put(name, convertNameToVariable(variableName));
-		return makeField(variableName, jsonObject);
+		return new Finder.TemplateStatement(name, variableName, jsonObject);
 	}
 
 	@Override
@@ -134,7 +134,12 @@ public class TemplateFieldOperation
 	@Override
 	public Finder.TemplateStatement exists(final String variableName)
 	{
-		return addOperationField("$exists", variableName);
+		final JsonObject jsonObject = new JsonObject();
+		jsonObject.put("$exists", true);
+
+		final JsonObject parentObject = new JsonObject();
+		parentObject.put(convertNameToVariable(variableName), jsonObject);
+		return new Finder.TemplateStatement(name, variableName, parentObject);
 	}
 
 	public static String convertNameToVariable(final String name)
@@ -145,7 +150,7 @@ public class TemplateFieldOperation
 	private Finder.TemplateStatement addOperationField(final String operationName, final String variableName)
 	{
 		final JsonObject jsonObject = new JsonObject();
-		jsonObject.put(operationName, variableName);
+		jsonObject.put(operationName, convertNameToVariable(variableName));
 		return makeField(variableName, jsonObject);
 	}
 
@@ -153,6 +158,6 @@ public class TemplateFieldOperation
 	{
 		final JsonObject parentObject = new JsonObject();
 		parentObject.put(name, jsonObject);
-		return new Finder.TemplateStatement(name, variableName, jsonObject);
+		return new Finder.TemplateStatement(name, variableName, parentObject);
 	}
 }
@@ -27,6 +27,14 @@ public interface ValueOperator<TReturn>
 
 	TReturn lte(final Number value);
 
+	TReturn gt(final String value);
+
+	TReturn gte(final String value);
+
+	TReturn lt(final String value);
+
+	TReturn lte(final String value);
+
 	TReturn inStringCollection(final Collection<String> collection);
 
 	TReturn inStringArray(final String[] strings);
@@ -1,12 +1,16 @@
 package com.pful.pico.http;
 
-import com.google.gson.Gson;
+import com.google.common.base.Strings;
 import com.pful.pico.core.ApplicationContext;
 import com.pful.pico.core.PICOErrorCode;
 import com.pful.pico.core.PICOException;
 import com.pful.pico.core.PICOResponseBuilder;
 import com.pful.pico.resource.Entity;
+import com.pful.pico.resource.EntityBatchCallback;
+import com.pful.pico.resource.EntityBatchResult;
+import com.pful.pico.resource.EntityListCursor;
 import com.pful.pico.resource.EntityManipulationCallback;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -14,6 +18,9 @@ import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -29,6 +36,23 @@ public class EntityCRUDHandler
 	private static final String DATA_FIELD_PROPERTIES = "properties";
 	private static final String PARAM_OFFSET = "offset";
 	private static final String PARAM_LIMIT = "limit";
+	private static final String PARAM_CURSOR = "cursor";
+	private static final String HEADER_NEXT_CURSOR = "PICO-Next-Cursor";
+	private static final String HEADER_CONTENT_TYPE = "Content-Type";
+	private static final String CONTENT_TYPE_NDJSON = "application/x-ndjson";
+	private static final byte NDJSON_DELIMITER = '\n';
+	static final int LIST_BATCH_SIZE = 1000;
+	private static final String DATA_FIELD_OPERATION = "operation";
+	private static final String DATA_FIELD_ORDERED = "ordered";
+	private static final String DATA_FIELD_ENTITIES = "entities";
+	private static final String DATA_FIELD_ID = "id";
+	private static final String DATA_FIELD_RESULTS = "results";
+	private static final String DATA_FIELD_INDEX = "index";
+	private static final String DATA_FIELD_ERROR_CODE = "error_code";
+	private static final String DATA_FIELD_ERROR_DESCRIPTION = "error_description";
+	private static final String OPERATION_CREATE = "create";
+	private static final String OPERATION_UPDATE = "update";
+	private static final String OPERATION_DELETE = "delete";
 
 	/**
 	 * Installs the routers for the Entity class.
@@ -39,6 +63,7 @@ public class EntityCRUDHandler
 	{
 		router.route().handler(BodyHandler.create());
 
+		router.post("/entities/_bulk").handler(EntityCRUDHandler::handleBulk);
 		router.post("/entities/:type").handler(EntityCRUDHandler::handle);
 		router.get("/entities/:id").handler(EntityCRUDHandler::handle);
 		router.put("/entities/:id").handler(EntityCRUDHandler::handle);
@@ -60,7 +85,12 @@ public class EntityCRUDHandler
 				return;
 
 			case GET:
-				read(routingContext);
+				if (routingContext.request().getParam(PARAM_ENTITY_ID) == null) {
+					list(routingContext);
+				}
+				else {
+					read(routingContext);
+				}
 				return;
 
 			case PUT:
@@ -81,6 +111,107 @@ public class EntityCRUDHandler
 		}
 	}
 
+	/**
+	 * Entry method for handling bulk requests.
+	 * A request body is as follows, and 'ordered' is true by default.
+	 * <pre>
+	 * { "operation" : "create", "ordered" : true, "entities" : [ { "type" : ..., "properties" : { ... } }, ... ] }
+	 * { "operation" : "update", "ordered" : true, "entities" : [ { "id" : ..., "type" : ..., "properties" : { ... } }, ... ] }
+	 * { "operation" : "delete", "ordered" : true, "entities" : [ { "id" : ... }, ... ] }
+	 * </pre>
+	 *
+	 * @param routingContext RoutingContext instance provided by Vert.x
+	 */
+	public static void handleBulk(final RoutingContext routingContext)
+	{
+		try {
+			bulk(routingContext);
+		}
+		catch (Exception e) {
+			handleException(routingContext.response(), e);
+		}
+	}
+
+	/**
+	 * bulk method creates, updates, or deletes entities with a single write to the database.
+	 *
+	 * @param routingContext RoutingContext instance provided by Vert.x
+	 * @throws PICOException
+	 * @throws RuntimeException
+	 */
+	private static void bulk(final RoutingContext routingContext)
+			throws PICOException
+	{
+		final JsonObject body = routingContext.getBodyAsJson();
+		final String operation = body.getString(DATA_FIELD_OPERATION);
+		final boolean ordered = body.getBoolean(DATA_FIELD_ORDERED, true);
+		final JsonArray items = body.getJsonArray(DATA_FIELD_ENTITIES);
+		checkArgument(items != null && !items.isEmpty(), "entities shouldn't be null or empty.");
+
+		final HttpServerResponse response = routingContext.response();
+		final EntityBatchCallback callback = (errorCode, results) -> {
+			if (errorCode != PICOErrorCode.Success) {
+				respondForError(response, 500, errorCode);
+				return;
+			}
+
+			final JsonArray resultsInJsonArray = new JsonArray();
+			for (final EntityBatchResult result : results) {
+				final JsonObject resultInJson = new JsonObject().put(DATA_FIELD_INDEX, result.getIndex())
+				                                                .put(DATA_FIELD_ERROR_CODE, result.getErrorCode().toString())
+				                                                .put(Entity.FIELD_ID, result.getEntity().getId());
+
+				if (result.getErrorDescription() != null) {
+					resultInJson.put(DATA_FIELD_ERROR_DESCRIPTION, result.getErrorDescription());
+				}
+				if (result.getErrorCode() == PICOErrorCode.Success && !OPERATION_DELETE.equals(operation)) {
+					resultInJson.put(Entity.FIELD_UPDATED_AT, result.getEntity().getUpdatedAt());
+				}
+				resultsInJsonArray.add(resultInJson);
+			}
+
+			new PICOResponseBuilder(response).forSuccess()
+			                                 .end(JsonBodies.encode(new JsonObject().put(DATA_FIELD_RESULTS, resultsInJsonArray),
+			                                                        JsonBodies.isPretty(routingContext)));
+		};
+
+		if (OPERATION_CREATE.equals(operation)) {
+			final List<Entity> entities = new ArrayList<>(items.size());
+			for (int i = 0; i < items.size(); i++) {
+				final JsonObject item = items.getJsonObject(i);
+				entities.add(Entity.prepare(item.getString(DATA_FILED_TYPE), getProperties(item)));
+			}
+			Entity.createBatch(entities, ordered, callback);
+		}
+		else if (OPERATION_UPDATE.equals(operation)) {
+			final List<Entity> entities = new ArrayList<>(items.size());
+			for (int i = 0; i < items.size(); i++) {
+				final JsonObject item = items.getJsonObject(i);
+				final String type = item.getString(DATA_FILED_TYPE);
+				final Map<String, Object> properties = getProperties(item);
+				checkArgument(type != null || properties != null, "at least, type or properties should be given.");
+
+				entities.add(Entity.bind(item.getString(DATA_FIELD_ID), type, properties));
+			}
+			Entity.updateBatch(entities, ordered, callback);
+		}
+		else if (OPERATION_DELETE.equals(operation)) {
+			final List<String> ids = new ArrayList<>(items.size());
+			for (int i = 0; i < items.size(); i++) {
+				ids.add(items.getJsonObject(i).getString(DATA_FIELD_ID));
+			}
+			Entity.deleteBatch(ids, ordered, callback);
+		}
+		else {
+			throw new PICOException(PICOErrorCode.BadRequest, "operation should be one of create, update, and delete.");
+		}
+	}
+
+	private static Map<String, Object> getProperties(final JsonObject item)
+	{
+		return item.containsKey(DATA_FIELD_PROPERTIES) ? item.getJsonObject(DATA_FIELD_PROPERTIES).getMap() : null;
+	}
+
 	/**
 	 * create method makes an entity
 	 *
@@ -103,7 +234,7 @@ public class EntityCRUDHandler
 				                                                      .put(Entity.FIELD_CREATED_AT, entity.getCreatedAt());
 
 				              new PICOResponseBuilder(routingContext.response()).forSuccess()
-				                                                                .end(body.encodePrettily());
+				                                                                .end(JsonBodies.encode(body, JsonBodies.isPretty(routingContext)));
 			              }
 		              });
 	}
@@ -126,7 +257,7 @@ public class EntityCRUDHandler
 			            public void manipulated(final Entity entity)
 			            {
 				            new PICOResponseBuilder(routingContext.response()).forSuccess()
-				                                                              .end(entity.toJson().encodePrettily());
+				                                                              .end(JsonBodies.encode(entity.toJson(), JsonBodies.isPretty(routingContext)));
 			            }
 		            });
 	}
@@ -176,7 +307,7 @@ public class EntityCRUDHandler
 						final JsonObject body = new JsonObject().put(Entity.FIELD_UPDATED_AT, entity.getUpdatedAt());
 
 						new PICOResponseBuilder(routingContext.response()).forSuccess()
-						                                                  .end(body.encodePrettily());
+						                                                  .end(JsonBodies.encode(body, JsonBodies.isPretty(routingContext)));
 					}
 				});
 	}
@@ -212,6 +343,7 @@ public class EntityCRUDHandler
 
 	/**
 	 * handleException is an entry to process any exceptions raised in PICO.
+	 * A PICOException of BadRequest is answered with 400 as GroupSetHandler does, and the others with 500.
 	 *
 	 * @param response An instance of HttpServerResponse object provided by Vert.x
 	 * @param e        A raised exception
@@ -219,7 +351,8 @@ public class EntityCRUDHandler
 	private static void handleException(final HttpServerResponse response, final Exception e)
 	{
 		if (e instanceof PICOException) {
-			handlePICOException(response, 500, (PICOException) e);
+			final PICOException picoException = (PICOException) e;
+			handlePICOException(response, picoException.getErrorCode() == PICOErrorCode.BadRequest ? 400 : 500, picoException);
 		}
 		else {
 			handleCheckedAndUncheckedException(response, e);
@@ -266,44 +399,93 @@ public class EntityCRUDHandler
 	}
 
 	/**
-	 * list method makes a list of the given type of an entity.
+	 * list method makes a list of the given type of an entity in newline-delimited JSON.
+	 * <ul>
+	 * <li>Without 'limit', all the entities are streamed batch by batch, and the next batch is requested
+	 * only after the previous one has been handed over to the connection.</li>
+	 * <li>With 'limit', a page is given. The cursor for the next page is given in the PICO-Next-Cursor header,
+	 * and it is passed with the 'cursor' parameter to get the next page.</li>
+	 * <li>With 'offset' and 'limit', a page is given by skipping 'offset' entities. This is kept for the backward compatibility,
+	 * and it gets slower as the offset goes deeper.</li>
+	 * </ul>
 	 *
 	 * @param routingContext RoutingContext instance provided by Vert.x
 	 * @throws PICOException
 	 * @throws RuntimeException
 	 */
-	public static void list(RoutingContext routingContext)
+	public static void list(final RoutingContext routingContext)
 			throws PICOException
 	{
 //		final ApplicationContext appContext = ApplicationContext.defaultContext(routingContext);
 
 		final String type = routingContext.request().getParam(PARAM_TYPE);
-		final int offset = Integer.parseInt(routingContext.request().getParam(PARAM_OFFSET));
-		final int limit = Integer.parseInt(routingContext.request().getParam(PARAM_LIMIT));
-
-		Entity.list(//appContext,
-		            type, offset, limit,
-		            (errorCode, typePassed, entityList) -> {
-			            if (errorCode != PICOErrorCode.Success) {
-				            respondForError(routingContext.response(), 500, errorCode);
-				            return;
-			            }
+		final String cursor = routingContext.request().getParam(PARAM_CURSOR);
+		final String offset = routingContext.request().getParam(PARAM_OFFSET);
+		final String limit = routingContext.request().getParam(PARAM_LIMIT);
+		checkArgument(!Strings.isNullOrEmpty(type), "type shouldn't be null or empty.");
+		checkArgument(offset == null || cursor == null, "offset and cursor shouldn't be given together.");
+		checkArgument(offset == null || limit != null, "limit should be given with offset.");
 
+		final HttpServerResponse response = routingContext.response();
 
-			            // FIXME keep converting json to object and vice versa... -_-..
-			            Gson gson = new Gson();
-			            JsonArray responseBody = null;
-			            if (errorCode.equals(PICOErrorCode.Success)) {
-				            for (Entity e : entityList) {
-					            responseBody.add(gson.toJson(e));
+		if (limit == null) {
+			new EntityListStreamer(type, cursor == null ? null : EntityListCursor.decode(type, cursor), response).start();
+		}
+		else if (offset != null) {
+			Entity.list(//appContext,
+			            type, Integer.parseInt(offset), Integer.parseInt(limit),
+			            (errorCode, typePassed, entityList) -> {
+				            if (errorCode != PICOErrorCode.Success) {
+					            respondForError(response, 500, errorCode);
+					            return;
 				            }
-			            }
 
-			            // FIXME responseBody.add and encodePrettily have a possibility to raise an NullpointerException
+				            endWithEntities(response, entityList);
+			            });
+		}
+		else {
+			Entity.list(type, cursor, Integer.parseInt(limit),
+			            (errorCode, typePassed, entityList, nextCursor) -> {
+				            if (errorCode != PICOErrorCode.Success) {
+					            respondForError(response, 500, errorCode);
+					            return;
+				            }
 
-			            new PICOResponseBuilder(routingContext.response()).forSuccess()
-			                                                              .end(responseBody.encodePrettily());
-		            });
+				            if (nextCursor != null) {
+					            response.putHeader(HEADER_NEXT_CURSOR, nextCursor);
+				            }
+				            endWithEntities(response, entityList);
+			            });
+		}
+	}
+
+	/**
+	 * endWithEntities ends a response with the entities in newline-delimited JSON.
+	 *
+	 * @param response   An instance of HttpServerResponse object provided by Vert.x
+	 * @param entityList A list of entities
+	 */
+	private static void endWithEntities(final HttpServerResponse response, final Collection<Entity> entityList)
+	{
+		new PICOResponseBuilder(response).forSuccess()
+		                                 .putHeader(HEADER_CONTENT_TYPE, CONTENT_TYPE_NDJSON)
+		                                 .end(appendEntities(Buffer.buffer(), entityList));
+	}
+
+	/**
+	 * appendEntities writes the entities to a buffer in newline-delimited JSON.
+	 *
+	 * @param buffer     A buffer to be written
+	 * @param entityList A list of entities
+	 * @return The buffer given
+	 */
+	private static Buffer appendEntities(final Buffer buffer, final Collection<Entity> entityList)
+	{
+		for (final Entity entity : entityList) {
+			JsonBodies.append(buffer, entity.toJson(), false)
+			          .appendByte(NDJSON_DELIMITER);
+		}
+		return buffer;
 	}
 
 	/**
@@ -348,5 +530,92 @@ public class EntityCRUDHandler
 		 */
 		public abstract void manipulated(final Entity entity);
 	}
-}
 
+	/**
+	 * EntityListStreamer writes the entities in a type to a response in newline-delimited JSON.
+	 * It keeps only one batch in memory and waits for the write queue of the response to be drained
+	 * before reading the next batch, so the memory used doesn't depend on the number of the entities.
+	 */
+	static class EntityListStreamer
+	{
+		private final String type;
+		private final HttpServerResponse response;
+		private String lastId;
+		private boolean headerWritten = false;
+		private boolean closed = false;
+
+		public EntityListStreamer(final String type, final String afterId, final HttpServerResponse response)
+		{
+			this.type = type;
+			this.lastId = afterId;
+			this.response = response;
+		}
+
+		public void start()
+				throws PICOException
+		{
+			response.closeHandler(v -> closed = true);
+			Entity.list(type, lastId, LIST_BATCH_SIZE, this::listed);
+		}
+
+		private void next()
+		{
+			try {
+				Entity.list(type, lastId, LIST_BATCH_SIZE, this::listed);
+			}
+			catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		private void listed(final PICOErrorCode errorCode, final String type, final Collection<Entity> entityList)
+		{
+			if (closed) {
+				return;
+			}
+			else if (errorCode != PICOErrorCode.Success) {
+				fail(new PICOException(errorCode));
+				return;
+			}
+
+			if (!headerWritten) {
+				new PICOResponseBuilder(response).forSuccess()
+				                                 .setChunked(true)
+				                                 .putHeader(HEADER_CONTENT_TYPE, CONTENT_TYPE_NDJSON);
+				headerWritten = true;
+			}
+
+			final Buffer buffer = appendEntities(Buffer.buffer(), entityList);
+			entityList.forEach(e -> lastId = e.getId());
+
+			if (entityList.size() < LIST_BATCH_SIZE) {
+				response.end(buffer);
+				return;
+			}
+
+			response.write(buffer);
+
+			if (response.writeQueueFull()) {
+				response.drainHandler(v -> {
+					response.drainHandler(null);
+					next();
+				});
+			}
+			else {
+				next();
+			}
+		}
+
+		private void fail(final Exception e)
+		{
+			if (headerWritten) {
+				// The status has been sent already, so closing the connection is the only way to tell the client
+				// that the list is incomplete.
+				response.close();
+			}
+			else {
+				handleException(response, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.pful.pico.http;
+
+import com.pful.pico.core.PICOErrorCode;
+import com.pful.pico.core.PICOException;
+import com.pful.pico.core.PICOResponseBuilder;
+import com.pful.pico.resource.GroupSetExpression;
+import com.pful.pico.resource.GroupSetOperation;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * GroupSetHandler is a handler that evaluates set expressions over groups.
+ */
+public class GroupSetHandler
+{
+	private static final String DATA_FIELD_EXPRESSION = "expression";
+	private static final String DATA_FIELD_RESULT = "result";
+	private static final String DATA_FIELD_IDS = "ids";
+	private static final String DATA_FIELD_COUNT = "count";
+	private static final String DATA_FIELD_ENTITIES = "entities";
+	private static final String RESULT_IDS = "ids";
+	private static final String RESULT_COUNT = "count";
+	private static final String RESULT_ENTITIES = "entities";
+
+	/**
+	 * Installs the routers for the set expressions over groups.
+	 * The body of a request is read by the BodyHandler installed by EntityCRUDHandler.
+	 *
+	 * @param router router is a Router instance provided by Vert.x
+	 */
+	public static void installRouters(final Router router)
+	{
+		router.post("/groups/_evaluate").handler(GroupSetHandler::handleEvaluate);
+	}
+
+	/**
+	 * Entry method for evaluating a set expression.
+	 * A request body is as follows, and 'result' is one of ids, count, and entities, which is ids by default.
+	 * <pre>
+	 * { "expression" : { "difference" : [ { "intersection" : [ { "union" : [ { "group" : "A" }, { "group" : "B" } ] },
+	 *                                                          { "group" : "C" } ] },
+	 *                                     { "group" : "D" } ] },
+	 *   "result" : "count" }
+	 * </pre>
+	 * The response is { "ids" : [ ... ] }, { "count" : ... }, or { "entities" : [ ... ] } respectively.
+	 *
+	 * @param routingContext RoutingContext instance provided by Vert.x
+	 */
+	public static void handleEvaluate(final RoutingContext routingContext)
+	{
+		try {
+			evaluate(routingContext);
+		}
+		catch (PICOException e) {
+			respondForError(routingContext.response(), e.getErrorCode() == PICOErrorCode.BadRequest ? 400 : 500,
+			                e.getErrorCode(), e.getMessage());
+		}
+		catch (DecodeException | ClassCastException | IllegalArgumentException e) {
+			respondForError(routingContext.response(), 400, PICOErrorCode.BadRequest, e.getMessage());
+		}
+		catch (Exception e) {
+			respondForError(routingContext.response(), 500, PICOErrorCode.Unexpected, e.getMessage());
+		}
+	}
+
+	private static void evaluate(final RoutingContext routingContext)
+			throws PICOException
+	{
+		final JsonObject body = routingContext.getBodyAsJson();
+		final GroupSetExpression expression = GroupSetExpression.fromJson(body.getJsonObject(DATA_FIELD_EXPRESSION));
+		final String result = body.getString(DATA_FIELD_RESULT, RESULT_IDS);
+
+		final HttpServerResponse response = routingContext.response();
+		final boolean pretty = JsonBodies.isPretty(routingContext);
+
+		switch (result) {
+		case RESULT_IDS:
+			GroupSetOperation.evaluateIds(expression, (errorCode, entityIds) -> {
+				if (errorCode != PICOErrorCode.Success) {
+					respondForError(response, 500, errorCode, null);
+					return;
+				}
+
+				new PICOResponseBuilder(response).forSuccess()
+				                                 .end(JsonBodies.encode(new JsonObject().put(DATA_FIELD_IDS, new JsonArray(entityIds)), pretty));
+			});
+			return;
+
+		case RESULT_COUNT:
+			GroupSetOperation.evaluateCount(expression, (errorCode, count) -> {
+				if (errorCode != PICOErrorCode.Success) {
+					respondForError(response, 500, errorCode, null);
+					return;
+				}
+
+				new PICOResponseBuilder(response).forSuccess()
+				                                 .end(JsonBodies.encode(new JsonObject().put(DATA_FIELD_COUNT, count), pretty));
+			});
+			return;
+
+		case RESULT_ENTITIES:
+			GroupSetOperation.evaluate(expression, (errorCode, entities) -> {
+				if (errorCode != PICOErrorCode.Success) {
+					respondForError(response, 500, errorCode, null);
+					return;
+				}
+
+				final JsonArray entitiesInJsonArray = new JsonArray();
+				entities.forEach(e -> entitiesInJsonArray.add(e.toJson()));
+
+				new PICOResponseBuilder(response).forSuccess()
+				                                 .end(JsonBodies.encode(new JsonObject().put(DATA_FIELD_ENTITIES, entitiesInJsonArray), pretty));
+			});
+			return;
+
+		default:
+			throw new PICOException(PICOErrorCode.BadRequest, "result should be one of ids, count, and entities.");
+		}
+	}
+
+	/**
+	 * respondForError produces a response for an error
+	 *
+	 * @param response         An instance of HttpServerResponse object provided by Vert.x
+	 * @param httpStatusCode   A state of HTTP protocol, refers to https://en.wikipedia.org/wiki/List_of_HTTP_status_codes
+	 * @param errorCode        An error-code
+	 * @param errorDescription A description for the error-code
+	 */
+	private static void respondForError(final HttpServerResponse response,
+	                                    final int httpStatusCode,
+	                                    final PICOErrorCode errorCode,
+	                                    final String errorDescription)
+	{
+		new PICOResponseBuilder(response).forFailure(httpStatusCode, errorCode, errorDescription).end();
+	}
+}
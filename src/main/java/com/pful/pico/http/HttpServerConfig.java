@@ -0,0 +1,60 @@
+package com.pful.pico.http;
+
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * HttpServerConfig makes the options of the HTTP server from the 'http' configuration of Service.
+ * Every option that isn't configured keeps the default of Vert.x, except the port, which is 8080.
+ * <p>
+ * 'compression' turns on gzip and deflate for the clients that accept them. Every body is compressed
+ * at the default level of Netty, because Vert.x 3.2 has neither a level nor a minimum size for the compression.
+ * The sizes of the socket buffers are in bytes, and they are left to the operating system unless configured.
+ */
+public class HttpServerConfig
+{
+	public static final String CONFIG_HOST = "host";
+	public static final String CONFIG_PORT = "port";
+	public static final String CONFIG_COMPRESSION = "compression";
+	public static final String CONFIG_TCP_NO_DELAY = "tcp_no_delay";
+	public static final String CONFIG_TCP_KEEP_ALIVE = "tcp_keep_alive";
+	public static final String CONFIG_SEND_BUFFER_SIZE = "send_buffer_size";
+	public static final String CONFIG_RECEIVE_BUFFER_SIZE = "receive_buffer_size";
+	public static final String CONFIG_ACCEPT_BACKLOG = "accept_backlog";
+	public static final String CONFIG_IDLE_TIMEOUT_SECONDS = "idle_timeout_seconds";
+	public static final String CONFIG_POOLED_BUFFERS = "pooled_buffers";
+	public static final int DEFAULT_PORT = 8080;
+
+	private HttpServerConfig()
+	{
+	}
+
+	/**
+	 * @param config A configuration of the HTTP server
+	 * @return The options of the HTTP server
+	 * @throws IllegalArgumentException if the port or a size is out of its range
+	 */
+	public static HttpServerOptions toOptions(final JsonObject config)
+	{
+		final HttpServerOptions options =
+				new HttpServerOptions().setHost(config.getString(CONFIG_HOST, HttpServerOptions.DEFAULT_HOST))
+				                       .setPort(config.getInteger(CONFIG_PORT, DEFAULT_PORT))
+				                       .setCompressionSupported(config.getBoolean(CONFIG_COMPRESSION,
+				                                                                  HttpServerOptions.DEFAULT_COMPRESSION_SUPPORTED))
+				                       .setTcpNoDelay(config.getBoolean(CONFIG_TCP_NO_DELAY, HttpServerOptions.DEFAULT_TCP_NO_DELAY))
+				                       .setTcpKeepAlive(config.getBoolean(CONFIG_TCP_KEEP_ALIVE, HttpServerOptions.DEFAULT_TCP_KEEP_ALIVE))
+				                       .setAcceptBacklog(config.getInteger(CONFIG_ACCEPT_BACKLOG, HttpServerOptions.DEFAULT_ACCEPT_BACKLOG))
+				                       .setIdleTimeout(config.getInteger(CONFIG_IDLE_TIMEOUT_SECONDS, HttpServerOptions.DEFAULT_IDLE_TIMEOUT))
+				                       .setUsePooledBuffers(config.getBoolean(CONFIG_POOLED_BUFFERS,
+				                                                              HttpServerOptions.DEFAULT_USE_POOLED_BUFFERS));
+
+		// The sizes of the socket buffers can only be set to positive values, so they are left alone unless configured.
+		if (config.containsKey(CONFIG_SEND_BUFFER_SIZE)) {
+			options.setSendBufferSize(config.getInteger(CONFIG_SEND_BUFFER_SIZE));
+		}
+		if (config.containsKey(CONFIG_RECEIVE_BUFFER_SIZE)) {
+			options.setReceiveBufferSize(config.getInteger(CONFIG_RECEIVE_BUFFER_SIZE));
+		}
+		return options;
+	}
+}
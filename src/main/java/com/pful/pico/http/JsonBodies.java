@@ -0,0 +1,94 @@
+package com.pful.pico.http;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.EncodeException;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * JsonBodies encodes the bodies of the responses. A body is written by Jackson straight into the Buffer given to
+ * the response as UTF-8, instead of being encoded into a String that end(String) encodes again.
+ * The bodies are compact unless the request has 'pretty=true'.
+ */
+public class JsonBodies
+{
+	public static final String PARAM_PRETTY = "pretty";
+
+	private static final int INITIAL_SIZE = 256;
+
+	/**
+	 * BufferOutputStream appends the bytes written by Jackson, which are given in chunks, to a Buffer.
+	 */
+	private static final class BufferOutputStream
+			extends OutputStream
+	{
+		private final Buffer buffer;
+
+		private BufferOutputStream(final Buffer buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		public void write(final int b)
+		{
+			buffer.appendByte((byte) b);
+		}
+
+		@Override
+		public void write(final byte[] bytes, final int offset, final int length)
+		{
+			buffer.appendBytes(bytes, offset, length);
+		}
+	}
+
+	private JsonBodies()
+	{
+	}
+
+	/**
+	 * @param routingContext RoutingContext instance provided by Vert.x
+	 * @return Whether the request asks for the indented JSON
+	 */
+	public static boolean isPretty(final RoutingContext routingContext)
+	{
+		return Boolean.parseBoolean(routingContext.request().getParam(PARAM_PRETTY));
+	}
+
+	/**
+	 * @param json   A JsonObject
+	 * @param pretty Whether the JSON is indented
+	 * @return A new buffer that has the JSON
+	 * @throws EncodeException if the JsonObject has a value that can't be encoded
+	 */
+	public static Buffer encode(final JsonObject json, final boolean pretty)
+	{
+		return append(Buffer.buffer(INITIAL_SIZE), json, pretty);
+	}
+
+	/**
+	 * append writes a JsonObject at the end of a buffer.
+	 *
+	 * @param buffer A buffer to be written
+	 * @param json   A JsonObject
+	 * @param pretty Whether the JSON is indented
+	 * @return The buffer given
+	 * @throws EncodeException if the JsonObject has a value that can't be encoded
+	 */
+	public static Buffer append(final Buffer buffer, final JsonObject json, final boolean pretty)
+	{
+		final ObjectMapper mapper = pretty ? Json.prettyMapper : Json.mapper;
+		try {
+			mapper.writeValue(new BufferOutputStream(buffer), json.getMap());
+		}
+		catch (IOException e) {
+			throw new EncodeException("Failed to encode as JSON: " + e.getMessage());
+		}
+		return buffer;
+	}
+}
@@ -0,0 +1,59 @@
+package com.pful.pico.http;
+
+import com.pful.pico.metrics.Metrics;
+import io.vertx.ext.web.Route;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * MetricsHandler times every request by its route and status, and gives the metrics to Prometheus.
+ */
+public class MetricsHandler
+{
+	private static final String HEADER_CONTENT_TYPE = "Content-Type";
+	private static final String CONTENT_TYPE_PROMETHEUS = "text/plain; version=0.0.4; charset=utf-8";
+	private static final String ROUTE_UNMATCHED = "unmatched";
+
+	/**
+	 * Installs the routers for the metrics. It should be called before the other handlers install theirs,
+	 * so that the timing handler sees every request first.
+	 *
+	 * @param router router is a Router instance provided by Vert.x
+	 */
+	public static void installRouters(final Router router)
+	{
+		router.route().handler(MetricsHandler::handleTiming);
+		router.get("/metrics").handler(MetricsHandler::handleMetrics);
+	}
+
+	/**
+	 * Entry method for timing a request, which is recorded when the response has been written.
+	 * The route is the path of the route that was handling the request at that time, such as '/entities/:id',
+	 * so that the requests for different entities are recorded together.
+	 *
+	 * @param routingContext RoutingContext instance provided by Vert.x
+	 */
+	public static void handleTiming(final RoutingContext routingContext)
+	{
+		final long start = System.nanoTime();
+		routingContext.addBodyEndHandler(v -> {
+			final Route route = routingContext.currentRoute();
+			final String path = route == null || route.getPath() == null ? ROUTE_UNMATCHED : route.getPath();
+			Metrics.request(routingContext.request().method().name(), path, routingContext.response().getStatusCode())
+			       .record(start);
+		});
+		routingContext.next();
+	}
+
+	/**
+	 * Entry method for the metrics in the text format of Prometheus.
+	 *
+	 * @param routingContext RoutingContext instance provided by Vert.x
+	 */
+	public static void handleMetrics(final RoutingContext routingContext)
+	{
+		routingContext.response()
+		              .putHeader(HEADER_CONTENT_TYPE, CONTENT_TYPE_PROMETHEUS)
+		              .end(Metrics.render());
+	}
+}
@@ -0,0 +1,196 @@
+package com.pful.pico.metrics;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * LatencyFamily is a metric that has a LatencyHistogram for every combination of its label values.
+ * The histograms are kept in a tree with a level for each label, so a histogram that has been made before
+ * is found by its label values without making a key, and nothing is allocated.
+ * <p>
+ * It is written in the text format of Prometheus as a summary of the quantiles in seconds.
+ */
+public class LatencyFamily
+{
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+	private static final double NANOS_PER_SECOND = 1e9;
+
+	private final String name;
+	private final String help;
+	private final String[] labels;
+	private final Node root = new Node(false);
+
+	/**
+	 * Node has the children by the values of the next label, or a histogram if it is at the last level.
+	 */
+	private static final class Node
+	{
+		private final ConcurrentMap<String, Node> children = new ConcurrentHashMap<>();
+		private final LatencyHistogram histogram;
+
+		private Node(final boolean leaf)
+		{
+			histogram = leaf ? new LatencyHistogram() : null;
+		}
+
+		private Node child(final String value, final boolean leaf)
+		{
+			final Node child = children.get(value);
+			if (child != null) {
+				return child;
+			}
+
+			final Node created = new Node(leaf);
+			final Node previous = children.putIfAbsent(value, created);
+			return previous == null ? created : previous;
+		}
+	}
+
+	/**
+	 * A constructor
+	 *
+	 * @param name   A name of the metric
+	 * @param help   A description of the metric
+	 * @param labels The names of the labels
+	 */
+	public LatencyFamily(final String name, final String help, final String... labels)
+	{
+		checkArgument(labels.length >= 1 && labels.length <= 3, "a family should have 1 to 3 labels.");
+
+		this.name = name;
+		this.help = help;
+		this.labels = labels.clone();
+	}
+
+	/**
+	 * @param value A value of the label
+	 * @return The histogram of the value
+	 */
+	public LatencyHistogram get(final String value)
+	{
+		checkLabelCount(1);
+		return root.child(value, true).histogram;
+	}
+
+	/**
+	 * @param value1 A value of the first label
+	 * @param value2 A value of the second label
+	 * @return The histogram of the values
+	 */
+	public LatencyHistogram get(final String value1, final String value2)
+	{
+		checkLabelCount(2);
+		return root.child(value1, false).child(value2, true).histogram;
+	}
+
+	/**
+	 * @param value1 A value of the first label
+	 * @param value2 A value of the second label
+	 * @param value3 A value of the third label
+	 * @return The histogram of the values
+	 */
+	public LatencyHistogram get(final String value1, final String value2, final String value3)
+	{
+		checkLabelCount(3);
+		return root.child(value1, false).child(value2, false).child(value3, true).histogram;
+	}
+
+	/**
+	 * checkLabelCount is called for every lookup, so the message is made only if the count is wrong.
+	 * The template overload of checkArgument would still allocate its array of arguments.
+	 *
+	 * @param count The number of the label values given
+	 * @throws IllegalArgumentException if the family has another number of labels
+	 */
+	private void checkLabelCount(final int count)
+	{
+		if (labels.length != count) {
+			throw new IllegalArgumentException(String.format("the family has %s labels.", labels.length));
+		}
+	}
+
+	/**
+	 * writeTo writes the family in the text format of Prometheus. The series are sorted by their label values.
+	 *
+	 * @param builder A builder to which the text is appended
+	 */
+	public void writeTo(final StringBuilder builder)
+	{
+		builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		builder.append("# TYPE ").append(name).append(" summary\n");
+		writeTo(builder, root, 0, new String[labels.length]);
+	}
+
+	private void writeTo(final StringBuilder builder, final Node node, final int level, final String[] values)
+	{
+		if (level == labels.length) {
+			writeSeries(builder, values, node.histogram.snapshot());
+			return;
+		}
+
+		for (final Map.Entry<String, Node> entry : new TreeMap<>(node.children).entrySet()) {
+			values[level] = entry.getKey();
+			writeTo(builder, entry.getValue(), level + 1, values);
+		}
+	}
+
+	private void writeSeries(final StringBuilder builder, final String[] values, final Histogram histogram)
+	{
+		for (final double quantile : QUANTILES) {
+			builder.append(name);
+			appendLabels(builder, values, quantile);
+			builder.append(' ').append(histogram.getValueAtPercentile(quantile * 100) / NANOS_PER_SECOND).append('\n');
+		}
+
+		// The sum is made of the recorded values, so it has the precision of the histogram.
+		builder.append(name).append("_sum");
+		appendLabels(builder, values, -1);
+		builder.append(' ').append(histogram.getMean() * histogram.getTotalCount() / NANOS_PER_SECOND).append('\n');
+
+		builder.append(name).append("_count");
+		appendLabels(builder, values, -1);
+		builder.append(' ').append(histogram.getTotalCount()).append('\n');
+	}
+
+	/**
+	 * appendLabels appends the labels, and the quantile unless it is negative.
+	 */
+	private void appendLabels(final StringBuilder builder, final String[] values, final double quantile)
+	{
+		builder.append('{');
+		for (int i = 0; i < labels.length; i++) {
+			if (i > 0) {
+				builder.append(',');
+			}
+			builder.append(labels[i]).append("=\"");
+			escape(builder, values[i]);
+			builder.append('"');
+		}
+		if (quantile >= 0) {
+			builder.append(",quantile=\"").append(quantile).append('"');
+		}
+		builder.append('}');
+	}
+
+	private static void escape(final StringBuilder builder, final String value)
+	{
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '\\' || c == '"') {
+				builder.append('\\').append(c);
+			}
+			else if (c == '\n') {
+				builder.append("\\n");
+			}
+			else {
+				builder.append(c);
+			}
+		}
+	}
+}
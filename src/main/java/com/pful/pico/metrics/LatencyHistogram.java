@@ -0,0 +1,51 @@
+package com.pful.pico.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LatencyHistogram records the latencies of an operation in nanoseconds into an HDR histogram.
+ * A record is wait-free and allocates nothing, so it can be done on an event loop for every request.
+ * The latencies recorded since the last snapshot are added to the total when a snapshot is taken.
+ * <p>
+ * The latencies over a minute are recorded as a minute, and the values are kept with two significant digits.
+ */
+public class LatencyHistogram
+{
+	static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+	private static final int SIGNIFICANT_DIGITS = 2;
+
+	private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+	private final Histogram total = new Histogram(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+	private Histogram interval;
+
+	/**
+	 * record records the time elapsed since a start.
+	 *
+	 * @param startNanos A start given by System.nanoTime()
+	 */
+	public void record(final long startNanos)
+	{
+		recordNanos(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * @param nanos A latency in nanoseconds
+	 */
+	public void recordNanos(final long nanos)
+	{
+		recorder.recordValue(Math.max(0, Math.min(nanos, HIGHEST_TRACKABLE_NANOS)));
+	}
+
+	/**
+	 * @return A copy of every latency recorded so far
+	 */
+	public synchronized Histogram snapshot()
+	{
+		interval = recorder.getIntervalHistogram(interval);
+		total.add(interval);
+		return total.copy();
+	}
+}
@@ -0,0 +1,83 @@
+package com.pful.pico.metrics;
+
+/**
+ * Metrics holds the latency histograms of the service, which are shared by every event loop.
+ * <ul>
+ * <li>pico_http_request_duration_seconds by the method, the route and the status of a request</li>
+ * <li>pico_mongo_operation_duration_seconds by the operation of MongoClient and the command of runCommand</li>
+ * <li>pico_group_set_operation_duration_seconds by the operator and the result of a set operation between groups</li>
+ * </ul>
+ * They are written by render() in the text format of Prometheus.
+ */
+public class Metrics
+{
+	public static final String NO_COMMAND = "";
+
+	private static final int MAX_STATUS = 600;
+	private static final String[] STATUS_LABELS = new String[MAX_STATUS];
+
+	private static final LatencyFamily requests =
+			new LatencyFamily("pico_http_request_duration_seconds", "The latencies of the HTTP requests.", "method", "route", "status");
+	private static final LatencyFamily mongoOperations =
+			new LatencyFamily("pico_mongo_operation_duration_seconds", "The latencies of the MongoDB operations.", "operation", "command");
+	private static final LatencyFamily setOperations =
+			new LatencyFamily("pico_group_set_operation_duration_seconds", "The latencies of the set operations between groups.",
+			                  "operator", "result");
+
+	static {
+		for (int i = 0; i < MAX_STATUS; i++) {
+			STATUS_LABELS[i] = Integer.toString(i);
+		}
+	}
+
+	/**
+	 * A constructor
+	 */
+	private Metrics()
+	{
+	}
+
+	/**
+	 * @param method A method of a request
+	 * @param route  A path of the route that handled the request, such as '/entities/:id'
+	 * @param status A status of the response
+	 * @return The histogram of the requests
+	 */
+	public static LatencyHistogram request(final String method, final String route, final int status)
+	{
+		final String statusLabel = status >= 0 && status < MAX_STATUS ? STATUS_LABELS[status] : Integer.toString(status);
+		return requests.get(method, route, statusLabel);
+	}
+
+	/**
+	 * @param operation A method of MongoClient
+	 * @param command   A command of runCommand, or NO_COMMAND for the other methods
+	 * @return The histogram of the operations
+	 */
+	public static LatencyHistogram mongoOperation(final String operation, final String command)
+	{
+		return mongoOperations.get(operation, command);
+	}
+
+	/**
+	 * @param operator An operator such as 'union' or 'subset'
+	 * @param result   What the operation gives, such as 'entities', 'ids' or 'count'
+	 * @return The histogram of the operations
+	 */
+	public static LatencyHistogram setOperation(final String operator, final String result)
+	{
+		return setOperations.get(operator, result);
+	}
+
+	/**
+	 * @return Every metric in the text format of Prometheus
+	 */
+	public static String render()
+	{
+		final StringBuilder builder = new StringBuilder();
+		requests.writeTo(builder);
+		mongoOperations.writeTo(builder);
+		setOperations.writeTo(builder);
+		return builder.toString();
+	}
+}
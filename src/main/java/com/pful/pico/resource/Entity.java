@@ -1,18 +1,18 @@
 package com.pful.pico.resource;
 
 import com.google.common.base.Strings;
-import com.google.gson.Gson;
 import com.google.gson.annotations.SerializedName;
-import com.pful.pico.Service;
 import com.pful.pico.core.PICOErrorCode;
 import com.pful.pico.core.PICOException;
-import com.pful.pico.db.MongoDB;
 import com.pful.pico.db.querybuilder.Finder;
+import com.pful.pico.store.Stores;
+import io.vertx.core.AsyncResult;
 import io.vertx.core.json.JsonObject;
-import io.vertx.ext.mongo.FindOptions;
+import org.bson.types.ObjectId;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -31,6 +31,11 @@ public class Entity
 	public static final String FIELD_UPDATED_AT = "updated_at";
 	public static final String FIELD_CREATED_AT = "created_at";
 
+	/**
+	 * MAX_BATCH_SIZE is the maximum number of the entities in a batch, which every version of MongoDB accepts in a write command.
+	 */
+	public static final int MAX_BATCH_SIZE = 1000;
+
 	/**
 	 * appId is an identifier to recognize which an application have the entity.
 	 */
@@ -129,6 +134,32 @@ public class Entity
 		this.dirty = false;
 	}
 
+	/**
+	 * A constructor that is used by EntityCodec to restore an entity from the database.
+	 *
+	 * @param entityId   An entity-id
+	 * @param type       A type of an entity
+	 * @param properties Properties of an entity
+	 * @param createdAt  A unix timestamp when the entity was created
+	 * @param updatedAt  A unix timestamp when the entity was updated
+	 * @param groups     Groups where the entity is included
+	 */
+	Entity(final String entityId,
+	       final String type,
+	       final Map<String, Object> properties,
+	       final long createdAt,
+	       final long updatedAt,
+	       final List<String> groups)
+	{
+		this.id = entityId;
+		this.type = type;
+		this.properties = properties;
+		this.createdAt = createdAt;
+		this.updatedAt = updatedAt;
+		this.groups = groups;
+		this.dirty = false;
+	}
+
 	/**
 	 * bind make an entity instance depending on the parameters 'appId' and 'entityId'.
 	 * But the bound entity have only appId and entityId so that it must be synchronized from the database.
@@ -227,7 +258,7 @@ public class Entity
 		entity.createdAt = createdAt;
 		entity.updatedAt = createdAt;
 
-		Service.mongoClient.save(MongoDB.COLLECTION_ENTITIES, entity.toJson(),
+		Stores.entities().insert(entity.toJson(),
 		                         res -> {
 			                         if (res.failed()) {
 				                         callback.manipulated(PICOErrorCode.InternalError, null);
@@ -239,9 +270,12 @@ public class Entity
 		                         });
 	}
 
+	/**
+	 * @return JsonObject representing this entity
+	 */
 	public JsonObject toJson()
 	{
-		return new JsonObject(new Gson().toJson(this));
+		return EntityCodec.encode(this);
 	}
 
 	/**
@@ -265,28 +299,30 @@ public class Entity
 //		final JsonObject query = new JsonObject().put(FIELD_APP_ID, context.getAppId())
 //		                                         .put(FIELD_ID, id);
 
-		final JsonObject query = Finder.newQuery()
-//		                               .field(FIELD_APP_ID).is(context.getAppId())
-                                       .field(FIELD_ID).is(id)
-                                       .toJson();
+		final JsonObject cached = EntityCache.get(id);
+		if (cached != null) {
+			callback.manipulated(PICOErrorCode.Success, EntityCodec.decode(cached));
+			return;
+		}
 
-		Service.mongoClient.find(MongoDB.COLLECTION_ENTITIES,
-		                         query,
-		                         res -> {
-			                         if (res.failed()) {
-				                         callback.manipulated(PICOErrorCode.InternalError, null);
-				                         return;
-			                         }
-			                         else if (res.result().isEmpty()) {
-				                         callback.manipulated(PICOErrorCode.NotFound, null);
-				                         return;
-			                         }
+		final long cacheVersion = EntityCache.version(id);
 
-			                         final String entityInString = res.result().get(0).toString();
-			                         final Entity entityFound = new Gson().fromJson(entityInString, Entity.class);
+		Stores.entities().read(id,
+		                       res -> {
+			                       if (res.failed()) {
+				                       callback.manipulated(PICOErrorCode.InternalError, null);
+				                       return;
+			                       }
+			                       else if (res.result() == null) {
+				                       callback.manipulated(PICOErrorCode.NotFound, null);
+				                       return;
+			                       }
 
-			                         callback.manipulated(PICOErrorCode.Success, entityFound);
-		                         });
+			                       EntityCache.put(res.result(), cacheVersion);
+			                       final Entity entityFound = EntityCodec.decode(res.result());
+
+			                       callback.manipulated(PICOErrorCode.Success, entityFound);
+		                       });
 	}
 
 	/**
@@ -317,30 +353,117 @@ public class Entity
 //		final JsonObject query = new JsonObject().put(FIELD_APP_ID, context.getAppId())
 //		                                         .put(FIELD_TYPE, type);
 
-		final JsonObject query = Finder.newQuery()
-//		                               .field(FIELD_APP_ID).is(context.getAppId())
-                                       .field(FIELD_TYPE).is(type)
-                                       .toJson();
+		final Finder.Expression expression = Finder.newQuery()
+//		                                           .field(FIELD_APP_ID).is(context.getAppId())
+                                                   .field(FIELD_TYPE).is(type)
+                                                   .include(EntityCodec.FIELDS)
+                                                   .skip(offset)
+                                                   .limit(limit);
+
+		Stores.entities().find(expression,
+		                       res -> {
+			                       if (res.failed()) {
+				                       callback.listed(PICOErrorCode.InternalError, null, null);
+				                       return;
+			                       }
+
+			                       final List<Entity> entityList = new ArrayList<>(res.result().size());
+
+			                       for (final JsonObject entity : res.result()) {
+				                       entityList.add(EntityCodec.decode(entity));
+			                       }
+
+			                       callback.listed(PICOErrorCode.Success, type, entityList);
+		                       });
+	}
+
+	/**
+	 * List entities in the order of their ids, starting right after the given id.
+	 * Unlike the offset-based list, the database doesn't walk the skipped entities,
+	 * so it is suitable for reading all the entities in the type batch by batch.
+	 *
+	 * @param type     an entity type in any string.
+	 * @param afterId  An id of the last entity that has been read already, or null to start from the first entity
+	 * @param limit    An maximum number of entities that should be included into the list
+	 * @param callback callback is an object that be called when the request has been completed. In any cases PICO calls with an valid List instance even there is no entity.
+	 * @throws PICOException
+	 * @throws RuntimeException
+	 */
+	public static void list(final String type,
+	                        final String afterId,
+	                        final int limit,
+	                        final EntityListCallback callback)
+			throws PICOException
+	{
+		checkArgument(!Strings.isNullOrEmpty(type), "type shouldn't be null and empty.");
+		checkArgument(limit > 0, "limit should greater than zero.");
+		checkArgument(callback != null, "callback shouldn't be null.");
+
+		final Finder.Expression expression = Finder.newQuery()
+		                                           .field(FIELD_TYPE).is(type)
+		                                           .startAfter(FIELD_ID, afterId)
+		                                           .include(EntityCodec.FIELDS)
+		                                           .limit(limit);
+
+		Stores.entities().find(expression,
+		                       res -> {
+			                       if (res.failed()) {
+				                       callback.listed(PICOErrorCode.InternalError, null, null);
+				                       return;
+			                       }
+
+			                       final List<Entity> entityList = new ArrayList<>(res.result().size());
+
+			                       for (final JsonObject entity : res.result()) {
+				                       entityList.add(EntityCodec.decode(entity));
+			                       }
+
+			                       callback.listed(PICOErrorCode.Success, type, entityList);
+		                       });
+	}
+
+	/**
+	 * List a page of entities with a cursor.
+	 * Every page costs the same because the page starts right after the position that the cursor points,
+	 * instead of skipping the entities of the previous pages.
+	 *
+	 * @param type     an entity type in any string.
+	 * @param cursor   A cursor given with the previous page, or null for the first page
+	 * @param limit    An maximum number of entities that should be included into the page
+	 * @param callback callback is an object that be called when the request has been completed. PICO calls with a cursor for the next page if there are more entities.
+	 * @throws PICOException BadRequest if the cursor isn't valid for the type
+	 * @throws RuntimeException
+	 */
+	public static void list(final String type,
+	                        final String cursor,
+	                        final int limit,
+	                        final EntityPageCallback callback)
+			throws PICOException
+	{
+		checkArgument(!Strings.isNullOrEmpty(type), "type shouldn't be null and empty.");
+		checkArgument(limit > 0 && limit < Integer.MAX_VALUE, "limit should greater than zero.");
+		checkArgument(callback != null, "callback shouldn't be null.");
 
-		final FindOptions option = new FindOptions().setSkip(offset)
-		                                            .setLimit(limit);
+		final String afterId = cursor == null ? null : EntityListCursor.decode(type, cursor);
 
-		Service.mongoClient.findWithOptions(MongoDB.COLLECTION_ENTITIES, query, option,
-		                                    res -> {
-			                                    if (res.failed()) {
-				                                    callback.listed(PICOErrorCode.InternalError, null, null);
-				                                    return;
-			                                    }
+		// One more entity is read to know whether the next page exists.
+		list(type, afterId, limit + 1,
+		     (errorCode, typePassed, entityList) -> {
+			     if (errorCode != PICOErrorCode.Success) {
+				     callback.listed(errorCode, type, null, null);
+				     return;
+			     }
 
-			                                    final List<Entity> entityList = new ArrayList<>();
+			     final List<Entity> page = new ArrayList<>(entityList);
+			     String nextCursor = null;
 
-			                                    final Gson gson = new Gson();
-			                                    for (final JsonObject entity : res.result()) {
-				                                    entityList.add(gson.fromJson(String.valueOf(entity), Entity.class));
-			                                    }
+			     if (page.size() > limit) {
+				     page.remove(limit);
+				     nextCursor = EntityListCursor.encode(type, page.get(limit - 1).getId());
+			     }
 
-			                                    callback.listed(PICOErrorCode.Success, type, entityList);
-		                                    });
+			     callback.listed(PICOErrorCode.Success, type, page, nextCursor);
+		     });
 	}
 
 	/**
@@ -357,67 +480,250 @@ public class Entity
 
 		final long newUpdatedAt = Instant.now().getEpochSecond();
 
-		final JsonObject fields = new JsonObject();
-		fields.put(FIELD_UPDATED_AT, newUpdatedAt);
+		Stores.entities().update(makeChange(newUpdatedAt),
+		                         res -> {
+			                         EntityCache.invalidate(id);
+
+			                         if (res.failed()) {
+				                         callback.manipulated(PICOErrorCode.InternalError, Entity.this);
+				                         return;
+			                         }
+
+			                         Entity.this.updatedAt = newUpdatedAt;
+			                         callback.manipulated(PICOErrorCode.Success, Entity.this);
+		                         });
+
+	}
+
+	/**
+	 * @param newUpdatedAt A unix timestamp when the entity is updated
+	 * @return A change that has the id and the fields given in this entity
+	 */
+	private JsonObject makeChange(final long newUpdatedAt)
+	{
+		final JsonObject change = new JsonObject();
+		change.put(FIELD_ID, id);
+		change.put(FIELD_UPDATED_AT, newUpdatedAt);
 
 		if (!Strings.isNullOrEmpty(type)) {
-			fields.put(FIELD_TYPE, type);
+			change.put(FIELD_TYPE, type);
 		}
 
 		if (properties != null) {
-			fields.put(FIELD_PROPERTIES, properties);
+			change.put(FIELD_PROPERTIES, properties);
 		}
 
-		final JsonObject update = new JsonObject();
-		update.put("$set", fields);
+		return change;
+	}
 
-		Service.mongoClient.update(MongoDB.COLLECTION_ENTITIES,
-		                           getDBQuery(),
-		                           update,
-		                           res -> {
-			                           if (res.failed()) {
-				                           callback.manipulated(PICOErrorCode.InternalError, Entity.this);
-				                           return;
-			                           }
+	/**
+	 * Delete the entity. After PICO called the callback object, The entity will be unable to use.
+	 *
+	 * @param callback callback is an object that be called when the request has been completed. In any cases PICO calls with 'this' entity.
+	 * @throws PICOException
+	 * @throws RuntimeException
+	 */
+	public void delete(final EntityManipulationCallback callback)
+			throws PICOException
+	{
+		checkArgument(callback != null, "callback shouldn't be null.");
 
-			                           Entity.this.updatedAt = newUpdatedAt;
-			                           callback.manipulated(PICOErrorCode.Success, Entity.this);
-		                           });
+		Stores.entities().delete(id,
+		                         res -> {
+			                         EntityCache.invalidate(id);
+
+			                         if (res.failed()) {
+				                         callback.manipulated(PICOErrorCode.InternalError, Entity.this);
+				                         return;
+			                         }
 
+			                         GroupMembers.removeEntities(Collections.singletonList(id),
+			                                                     errorCode -> callback.manipulated(errorCode, Entity.this));
+		                         });
 	}
 
-	private JsonObject getDBQuery()
+	/**
+	 * prepare makes an entity that isn't stored yet. It is stored by createBatch().
+	 *
+	 * @param type       An entity type in any string.
+	 * @param properties The properties of the entity or null.
+	 * @return An entity that has no id yet
+	 */
+	public static Entity prepare(final String type, final Map<String, Object> properties)
 	{
-//		return new JsonObject().put(FIELD_APP_ID, appId)
-//		                       .put(FIELD_ID, id);
-		return Finder.newQuery()
-//		             .field(FIELD_APP_ID).is(appId)
-                     .field(FIELD_ID).is(id)
-                     .toJson();
+		checkArgument(!Strings.isNullOrEmpty(type), "type shouldn't be null and empty.");
+
+		final Entity entity = new Entity();
+		entity.type = type;
+		entity.properties = properties;
+		return entity;
 	}
 
 	/**
-	 * Delete the entity. After PICO called the callback object, The entity will be unable to use.
+	 * Create entities with a single write to the database.
 	 *
-	 * @param callback callback is an object that be called when the request has been completed. In any cases PICO calls with 'this' entity.
+	 * @param entities Entities made by prepare(). The ids are given to them before they are written.
+	 * @param ordered  If true, the entities are created in order and the ones after the first failure are not processed.
+	 *                 If false, every entity is tried regardless of the others, and the database may create them in parallel.
+	 * @param callback callback is an object that is called with a result for every entity.
 	 * @throws PICOException
 	 * @throws RuntimeException
 	 */
-	public void delete(final EntityManipulationCallback callback)
+	public static void createBatch(final List<Entity> entities,
+	                               final boolean ordered,
+	                               final EntityBatchCallback callback)
 			throws PICOException
 	{
+		checkBatch(entities, callback);
+
+		final long createdAt = Instant.now().getEpochSecond();
+		final List<JsonObject> documents = new ArrayList<>(entities.size());
+
+		for (final Entity entity : entities) {
+			checkArgument(entity.id == null && !Strings.isNullOrEmpty(entity.type),
+			              "entities should be made by prepare().");
+
+			// The ids are made here rather than by the database, so that every result can carry its id.
+			entity.id = new ObjectId().toHexString();
+			entity.createdAt = createdAt;
+			entity.updatedAt = createdAt;
+			documents.add(entity.toJson());
+		}
+
+		Stores.entities().insertBatch(documents, ordered,
+		                              res -> deliverBatch(res, entities, ordered, false, callback));
+	}
+
+	/**
+	 * Update the fields in the entities with a single write to the database.
+	 *
+	 * @param entities Entities bound by bind() with the fields to be changed
+	 * @param ordered  If true, the entities are updated in order and the ones after the first failure are not processed.
+	 * @param callback callback is an object that is called with a result for every entity.
+	 *                 A Success result doesn't tell whether the entity existed, because the database doesn't report it for each item.
+	 * @throws PICOException
+	 * @throws RuntimeException
+	 */
+	public static void updateBatch(final List<Entity> entities,
+	                               final boolean ordered,
+	                               final EntityBatchCallback callback)
+			throws PICOException
+	{
+		checkBatch(entities, callback);
+
+		final long newUpdatedAt = Instant.now().getEpochSecond();
+		final List<JsonObject> changes = new ArrayList<>(entities.size());
+
+		for (final Entity entity : entities) {
+			checkArgument(!Strings.isNullOrEmpty(entity.id), "entities should be made by bind().");
+
+			changes.add(entity.makeChange(newUpdatedAt));
+		}
+
+		Stores.entities().updateBatch(changes, ordered,
+		                              res -> deliverBatch(res, entities, ordered, true,
+		                                                  (errorCode, results) -> {
+			                                                  if (errorCode == PICOErrorCode.Success) {
+				                                                  results.stream()
+				                                                         .filter(e -> e.getErrorCode() == PICOErrorCode.Success)
+				                                                         .forEach(e -> e.getEntity().updatedAt = newUpdatedAt);
+			                                                  }
+			                                                  callback.processed(errorCode, results);
+		                                                  }));
+	}
+
+	/**
+	 * Delete entities with a single write to the database.
+	 *
+	 * @param ids      Ids of the entities
+	 * @param ordered  If true, the entities are deleted in order and the ones after the first failure are not processed.
+	 * @param callback callback is an object that is called with a result for every entity.
+	 *                 A Success result doesn't tell whether the entity existed, because the database doesn't report it for each item.
+	 * @throws PICOException
+	 * @throws RuntimeException
+	 */
+	public static void deleteBatch(final List<String> ids,
+	                               final boolean ordered,
+	                               final EntityBatchCallback callback)
+			throws PICOException
+	{
+		checkArgument(ids != null, "ids shouldn't be null.");
+
+		final List<Entity> entities = new ArrayList<>(ids.size());
+		ids.forEach(id -> entities.add(bind(id)));
+
+		checkBatch(entities, callback);
+
+		Stores.entities().deleteBatch(ids, ordered,
+		                              res -> deliverBatch(res, entities, ordered, true,
+		                                                  (errorCode, results) -> {
+			                                                  if (errorCode != PICOErrorCode.Success) {
+				                                                  callback.processed(errorCode, results);
+				                                                  return;
+			                                                  }
+
+			                                                  final List<String> deletedIds = new ArrayList<>(results.size());
+			                                                  results.stream()
+			                                                         .filter(e -> e.getErrorCode() == PICOErrorCode.Success)
+			                                                         .forEach(e -> deletedIds.add(e.getEntity().getId()));
+
+			                                                  GroupMembers.removeEntities(deletedIds,
+			                                                                              membershipErrorCode -> callback.processed(membershipErrorCode, results));
+		                                                  }));
+	}
+
+	private static void checkBatch(final List<Entity> entities, final EntityBatchCallback callback)
+	{
+		checkArgument(entities != null && !entities.isEmpty(), "entities shouldn't be null or empty.");
+		checkArgument(entities.size() <= MAX_BATCH_SIZE, "a batch shouldn't have more than " + MAX_BATCH_SIZE + " entities.");
 		checkArgument(callback != null, "callback shouldn't be null.");
+	}
 
-		Service.mongoClient.removeOne(MongoDB.COLLECTION_ENTITIES,
-		                              getDBQuery(),
-		                              res -> {
-			                              if (res.failed()) {
-				                              callback.manipulated(PICOErrorCode.InternalError, Entity.this);
-				                              return;
-			                              }
+	/**
+	 * deliverBatch makes the result for every item of a batch from the write errors given by the store.
+	 *
+	 * @param res        A result of the batch, which has the error messages by the positions of the failed items
+	 * @param entities   Entities in the same order as the items in the batch
+	 * @param ordered    Whether the batch is ordered
+	 * @param invalidate Whether the entities should be invalidated in the cache
+	 * @param callback   A callback for the batch
+	 */
+	private static void deliverBatch(final AsyncResult<Map<Integer, String>> res,
+	                                 final List<Entity> entities,
+	                                 final boolean ordered,
+	                                 final boolean invalidate,
+	                                 final EntityBatchCallback callback)
+	{
+		if (invalidate) {
+			entities.forEach(e -> EntityCache.invalidate(e.id));
+		}
 
-			                              callback.manipulated(PICOErrorCode.Success, Entity.this);
-		                              });
+		if (res.failed()) {
+			callback.processed(PICOErrorCode.InternalError, null);
+			return;
+		}
+
+		final Map<Integer, String> writeErrors = res.result();
+		final int firstFailure = writeErrors.isEmpty() ? entities.size()
+		                                               : Collections.min(writeErrors.keySet());
+
+		final List<EntityBatchResult> results = new ArrayList<>(entities.size());
+		for (int i = 0; i < entities.size(); i++) {
+			final PICOErrorCode errorCode;
+			if (writeErrors.containsKey(i)) {
+				errorCode = PICOErrorCode.InternalError;
+			}
+			else if (ordered && i > firstFailure) {
+				errorCode = PICOErrorCode.NotProcessed;
+			}
+			else {
+				errorCode = PICOErrorCode.Success;
+			}
+
+			results.add(new EntityBatchResult(i, errorCode, writeErrors.get(i), entities.get(i)));
+		}
+
+		callback.processed(PICOErrorCode.Success, results);
 	}
 
 	public String getId()
@@ -459,4 +765,9 @@ public class Entity
 	{
 		this.properties = properties;
 	}
+
+	public List<String> getGroups()
+	{
+		return groups;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,17 @@
+package com.pful.pico.resource;
+
+import com.pful.pico.core.PICOErrorCode;
+
+import java.util.List;
+
+/**
+ * EntityBatchCallback is used to notify the result of a batch of entity operations.
+ */
+public interface EntityBatchCallback
+{
+	/**
+	 * @param errorCode error-code for the batch itself. If it isn't Success, no result is given.
+	 * @param results   results for every item in the batch, in the same order as the items
+	 */
+	void processed(final PICOErrorCode errorCode, final List<EntityBatchResult> results);
+}
@@ -0,0 +1,58 @@
+package com.pful.pico.resource;
+
+import com.pful.pico.core.PICOErrorCode;
+
+/**
+ * EntityBatchResult is the result of an item in a batch of entity operations.
+ */
+public class EntityBatchResult
+{
+	/**
+	 * index is the position of the item in the batch.
+	 */
+	private final int index;
+
+	/**
+	 * errorCode is Success if the item has been processed.
+	 * In an ordered batch, the items after the first failed one are NotProcessed.
+	 */
+	private final PICOErrorCode errorCode;
+
+	/**
+	 * errorDescription is a null-able description given by the database for the failure.
+	 */
+	private final String errorDescription;
+
+	/**
+	 * entity is the entity of the item. For deleteBatch(), it is bound with the id only.
+	 */
+	private final Entity entity;
+
+	public EntityBatchResult(final int index, final PICOErrorCode errorCode, final String errorDescription, final Entity entity)
+	{
+		this.index = index;
+		this.errorCode = errorCode;
+		this.errorDescription = errorDescription;
+		this.entity = entity;
+	}
+
+	public int getIndex()
+	{
+		return index;
+	}
+
+	public PICOErrorCode getErrorCode()
+	{
+		return errorCode;
+	}
+
+	public String getErrorDescription()
+	{
+		return errorDescription;
+	}
+
+	public Entity getEntity()
+	{
+		return entity;
+	}
+}
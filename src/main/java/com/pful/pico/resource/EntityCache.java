@@ -0,0 +1,183 @@
+package com.pful.pico.resource;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * EntityCache keeps the recently read entities in memory so that Entity.read doesn't need to query the database for them.
+ * The cache holds the documents rather than Entity instances, because an Entity can be changed by the caller.
+ * It is shared by every event loop and is bounded by the number of the entities.
+ * <p>
+ * Any operation that changes an entity in the database must invalidate it in the cache.
+ */
+public class EntityCache
+{
+	public static final String CONFIG_ENABLED = "enabled";
+	public static final String CONFIG_MAXIMUM_SIZE = "maximum_size";
+	public static final String CONFIG_EXPIRE_AFTER_WRITE_SECONDS = "expire_after_write_seconds";
+
+	public static final boolean DEFAULT_ENABLED = true;
+	public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+	public static final long DEFAULT_EXPIRE_AFTER_WRITE_SECONDS = 0;
+
+	/**
+	 * cache is null when the cache is disabled.
+	 */
+	private static volatile Cache<String, JsonObject> cache = build(new JsonObject());
+
+	/**
+	 * VERSION_STRIPES is the number of the versions that the ids are hashed to.
+	 */
+	private static final int VERSION_STRIPES = 4096;
+
+	/**
+	 * versions are increased on the invalidation of an id hashed to them, and generation on the invalidation of all.
+	 * A document read from the database is put into the cache only if its id wasn't invalidated while it was being read,
+	 * otherwise the document may be older than the one in the database. The reads of the other ids are cached
+	 * unless their ids share the version, which only costs a miss.
+	 */
+	private static final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+	private static final AtomicLong generation = new AtomicLong();
+
+	/**
+	 * A constructor
+	 */
+	private EntityCache()
+	{
+	}
+
+	/**
+	 * configure replaces the cache with a new one made by the configuration. All the cached entities are dropped.
+	 *
+	 * @param config A configuration that has 'enabled', 'maximum_size', and 'expire_after_write_seconds'. Missing fields have the default values.
+	 */
+	public static void configure(final JsonObject config)
+	{
+		generation.incrementAndGet();
+		cache = build(config);
+	}
+
+	private static Cache<String, JsonObject> build(final JsonObject config)
+	{
+		if (!config.getBoolean(CONFIG_ENABLED, DEFAULT_ENABLED)) {
+			return null;
+		}
+
+		final CacheBuilder<Object, Object> builder =
+				CacheBuilder.newBuilder()
+				            .maximumSize(config.getLong(CONFIG_MAXIMUM_SIZE, DEFAULT_MAXIMUM_SIZE))
+				            .recordStats();
+
+		final long expireAfterWrite = config.getLong(CONFIG_EXPIRE_AFTER_WRITE_SECONDS, DEFAULT_EXPIRE_AFTER_WRITE_SECONDS);
+		if (expireAfterWrite > 0) {
+			builder.expireAfterWrite(expireAfterWrite, TimeUnit.SECONDS);
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * @return true if the cache is enabled
+	 */
+	public static boolean isEnabled()
+	{
+		return cache != null;
+	}
+
+	/**
+	 * @param id An entity-id
+	 * @return A cached document of the entity, or null if it isn't cached
+	 */
+	static JsonObject get(final String id)
+	{
+		final Cache<String, JsonObject> current = cache;
+		return current == null ? null : current.getIfPresent(id);
+	}
+
+	/**
+	 * @param id An entity-id
+	 * @return The current version of the id that should be passed to put() after the document has been read from the database
+	 */
+	static long version(final String id)
+	{
+		// Both only increase, so the sum changes whenever either of them does.
+		return generation.get() + versions.get(stripeOf(id));
+	}
+
+	private static int stripeOf(final String id)
+	{
+		return (id.hashCode() & Integer.MAX_VALUE) % VERSION_STRIPES;
+	}
+
+	/**
+	 * put caches a document that was read from the database.
+	 *
+	 * @param document       A document of an entity
+	 * @param versionAtQuery The version of its id taken before the document was queried
+	 */
+	static void put(final JsonObject document, final long versionAtQuery)
+	{
+		final Cache<String, JsonObject> current = cache;
+		final String id = document.getString(Entity.FIELD_ID);
+		if (current == null || versionAtQuery != version(id)) {
+			return;
+		}
+
+		current.put(id, document);
+
+		// An invalidation may have happened just before the document was put.
+		if (versionAtQuery != version(id)) {
+			current.invalidate(id);
+		}
+	}
+
+	/**
+	 * @param id An entity-id whose document has been changed or removed in the database
+	 */
+	static void invalidate(final String id)
+	{
+		versions.incrementAndGet(stripeOf(id));
+
+		final Cache<String, JsonObject> current = cache;
+		if (current != null) {
+			current.invalidate(id);
+		}
+	}
+
+	/**
+	 * invalidateAll is used when an operation changes an unknown number of entities in the database.
+	 */
+	static void invalidateAll()
+	{
+		generation.incrementAndGet();
+
+		final Cache<String, JsonObject> current = cache;
+		if (current != null) {
+			current.invalidateAll();
+		}
+	}
+
+	/**
+	 * @return The statistics of the cache such as hits, misses, and evictions
+	 */
+	public static JsonObject stats()
+	{
+		final Cache<String, JsonObject> current = cache;
+		if (current == null) {
+			return new JsonObject().put(CONFIG_ENABLED, false);
+		}
+
+		final CacheStats stats = current.stats();
+		return new JsonObject().put(CONFIG_ENABLED, true)
+		                       .put("size", current.size())
+		                       .put("hit_count", stats.hitCount())
+		                       .put("miss_count", stats.missCount())
+		                       .put("eviction_count", stats.evictionCount());
+	}
+}
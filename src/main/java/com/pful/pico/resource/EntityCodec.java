@@ -0,0 +1,146 @@
+package com.pful.pico.resource;
+
+import com.pful.pico.db.querybuilder.Finder;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * EntityCodec converts an entity into a JsonObject and vice versa without going through an intermediate string.
+ * It keeps no state, so the same codec is shared by every event loop.
+ */
+public class EntityCodec
+{
+	/**
+	 * FIELDS are the fields read by decode. The queries that read entities are projected on them,
+	 * so that the fields that don't belong to an entity, such as the ones left by the older versions, aren't transferred.
+	 */
+	static final String[] FIELDS = {Entity.FIELD_ID,
+	                                Entity.FIELD_TYPE,
+	                                Entity.FIELD_PROPERTIES,
+	                                Entity.FIELD_CREATED_AT,
+	                                Entity.FIELD_UPDATED_AT,
+	                                GroupManipulation.FIELD_GROUPS};
+
+	/**
+	 * A constructor
+	 */
+	private EntityCodec()
+	{
+	}
+
+	/**
+	 * encode makes a JsonObject that represents the entity in the database.
+	 * Fields that have no value are omitted so that the database may assign them, such as the id of a new entity.
+	 *
+	 * @param entity An entity
+	 * @return A JsonObject representing the entity
+	 */
+	public static JsonObject encode(final Entity entity)
+	{
+		final JsonObject json = new JsonObject();
+
+		if (entity.getId() != null) {
+			json.put(Entity.FIELD_ID, entity.getId());
+		}
+		if (entity.getType() != null) {
+			json.put(Entity.FIELD_TYPE, entity.getType());
+		}
+		if (entity.getProperties() != null) {
+			json.put(Entity.FIELD_PROPERTIES, new JsonObject(entity.getProperties()));
+		}
+
+		json.put(Entity.FIELD_CREATED_AT, entity.getCreatedAt());
+		json.put(Entity.FIELD_UPDATED_AT, entity.getUpdatedAt());
+
+		if (entity.getGroups() != null) {
+			json.put(GroupManipulation.FIELD_GROUPS, new JsonArray(entity.getGroups()));
+		}
+
+		return json;
+	}
+
+	/**
+	 * predicate compiles a query into a predicate over entities, which is tested on the encoded form of an entity.
+	 * So the fields of the query are the ones in the database, such as 'properties.name'.
+	 *
+	 * @param query A query on the entities
+	 * @return A predicate that is true for the entities matched by the query
+	 */
+	public static Predicate<Entity> predicate(final Finder.Query query)
+	{
+		final Predicate<JsonObject> predicate = query.toPredicate();
+		return entity -> predicate.test(encode(entity));
+	}
+
+	/**
+	 * decode makes an entity from a JsonObject that was produced by encode() or read from the database.
+	 * Nested objects and arrays in properties are converted into Map and List instances.
+	 *
+	 * @param json A JsonObject representing an entity
+	 * @return An entity
+	 */
+	public static Entity decode(final JsonObject json)
+	{
+		final Object properties = json.getMap().get(Entity.FIELD_PROPERTIES);
+		final Object groups = json.getMap().get(GroupManipulation.FIELD_GROUPS);
+
+		return new Entity(json.getString(Entity.FIELD_ID),
+		                  json.getString(Entity.FIELD_TYPE),
+		                  properties == null ? null : toMap(properties),
+		                  toLong(json.getValue(Entity.FIELD_CREATED_AT)),
+		                  toLong(json.getValue(Entity.FIELD_UPDATED_AT)),
+		                  groups == null ? null : toStringList(groups));
+	}
+
+	private static long toLong(final Object value)
+	{
+		return value instanceof Number ? ((Number) value).longValue() : 0L;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> toMap(final Object value)
+	{
+		final Map<String, Object> source = value instanceof JsonObject ? ((JsonObject) value).getMap()
+		                                                               : (Map<String, Object>) value;
+
+		final Map<String, Object> map = new LinkedHashMap<>(source.size() * 2);
+		source.forEach((k, v) -> map.put(k, toJavaValue(v)));
+		return map;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Object> toList(final Object value)
+	{
+		final List<Object> source = value instanceof JsonArray ? ((JsonArray) value).getList() : (List<Object>) value;
+
+		final List<Object> list = new ArrayList<>(source.size());
+		source.forEach(e -> list.add(toJavaValue(e)));
+		return list;
+	}
+
+	private static List<String> toStringList(final Object value)
+	{
+		final List<Object> source = toList(value);
+
+		final List<String> list = new ArrayList<>(source.size());
+		source.forEach(e -> list.add(String.valueOf(e)));
+		return list;
+	}
+
+	private static Object toJavaValue(final Object value)
+	{
+		if (value instanceof JsonObject || value instanceof Map) {
+			return toMap(value);
+		}
+		else if (value instanceof JsonArray || value instanceof List) {
+			return toList(value);
+		}
+		return value;
+	}
+}
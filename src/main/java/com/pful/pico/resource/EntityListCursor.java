@@ -0,0 +1,70 @@
+package com.pful.pico.resource;
+
+import com.google.common.base.Strings;
+import com.pful.pico.core.PICOErrorCode;
+import com.pful.pico.core.PICOException;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * EntityListCursor makes and reads the opaque cursor that points a position in the list of entities in a type.
+ * The cursor holds the type and the id of the last entity in a page, so the next page starts right after the id
+ * no matter how deep the page is.
+ */
+public class EntityListCursor
+{
+	private static final String FIELD_TYPE = "t";
+	private static final String FIELD_LAST_ID = "k";
+
+	/**
+	 * A constructor
+	 */
+	private EntityListCursor()
+	{
+	}
+
+	/**
+	 * @param type   An entity type in a string
+	 * @param lastId An id of the last entity in a page
+	 * @return An opaque cursor that is safe to be used in an URL
+	 */
+	public static String encode(final String type, final String lastId)
+	{
+		final String json = new JsonObject().put(FIELD_TYPE, type)
+		                                    .put(FIELD_LAST_ID, lastId)
+		                                    .encode();
+
+		return Base64.getUrlEncoder()
+		             .withoutPadding()
+		             .encodeToString(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param type   An entity type that the cursor should be made for
+	 * @param cursor A cursor made by encode()
+	 * @return An id of the last entity in the previous page
+	 * @throws PICOException BadRequest if the cursor is malformed or is made for another type
+	 */
+	public static String decode(final String type, final String cursor)
+			throws PICOException
+	{
+		final JsonObject json;
+
+		try {
+			json = new JsonObject(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+		}
+		catch (RuntimeException e) {
+			throw new PICOException(PICOErrorCode.BadRequest, "cursor is malformed.", e);
+		}
+
+		final String lastId = json.getValue(FIELD_LAST_ID) instanceof String ? json.getString(FIELD_LAST_ID) : null;
+
+		if (!type.equals(json.getValue(FIELD_TYPE)) || Strings.isNullOrEmpty(lastId)) {
+			throw new PICOException(PICOErrorCode.BadRequest, "cursor isn't valid for the type.");
+		}
+
+		return lastId;
+	}
+}
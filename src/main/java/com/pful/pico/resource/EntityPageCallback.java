@@ -0,0 +1,19 @@
+package com.pful.pico.resource;
+
+import com.pful.pico.core.PICOErrorCode;
+
+import java.util.Collection;
+
+/**
+ * EntityPageCallback is used to give back a page of entities with a cursor for the next page
+ */
+public interface EntityPageCallback
+{
+	/**
+	 * @param errorCode  error-code
+	 * @param type       An entity type in a string
+	 * @param entityList a list of the entities in the page
+	 * @param nextCursor an opaque cursor for the next page, or null if this is the last page
+	 */
+	void listed(final PICOErrorCode errorCode, final String type, final Collection<Entity> entityList, final String nextCursor);
+}
@@ -0,0 +1,521 @@
+package com.pful.pico.resource;
+
+import com.pful.pico.store.Stores;
+import io.vertx.core.json.JsonObject;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * GroupBitmapIndex keeps the members of every group in memory as a compressed bitmap of entity ordinals,
+ * so that the set operations between groups are done by bit operations and only the resulting ids are made.
+ * An entity is given a dense ordinal when it is first seen, and the ordinal is never given to another entity.
+ * A deleted entity leaves an empty slot of its ordinal until the next reload, which gives the ordinals densely again.
+ * <p>
+ * The index is optional. When it is enabled it is loaded from the GroupStore at the start,
+ * and then it follows every change that GroupMembers writes. Until it has been loaded, isReady() is false and
+ * the callers should use the database instead. The changes made while loading are queued and applied after the load,
+ * so that they aren't overwritten by older memberships in the loaded pages.
+ * <p>
+ * It is shared by every event loop. The reads take a read lock, and the changes take a write lock.
+ * A reload gives the entities new ordinals, so the ordinals of a result are made into ids under the same read lock
+ * in which the result is computed. The answers are null if the index isn't ready when the lock is taken,
+ * and the callers should use the database then, even if isReady() was true just before.
+ */
+public class GroupBitmapIndex
+{
+	public static final String CONFIG_ENABLED = "enabled";
+	public static final boolean DEFAULT_ENABLED = false;
+
+	private static final int LOAD_PAGE_SIZE = 10000;
+
+	private static final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private static final Map<String, Integer> ordinals = new HashMap<>();
+	private static final List<String> ids = new ArrayList<>();
+	private static final Map<String, RoaringBitmap> groups = new HashMap<>();
+
+	/**
+	 * groupsOf has the groups of each ordinal, so that a deleted entity is removed only from its own groups.
+	 */
+	private static final List<List<String>> groupsOf = new ArrayList<>();
+
+	private static boolean enabled = DEFAULT_ENABLED;
+	private static volatile boolean ready;
+
+	/**
+	 * pending has the changes made while loading. It is null when the index isn't being loaded.
+	 */
+	private static List<Runnable> pending;
+
+	/**
+	 * loadGeneration is increased whenever a new load starts, so that the pages of an older load are dropped.
+	 */
+	private static long loadGeneration;
+
+	/**
+	 * A constructor
+	 */
+	private GroupBitmapIndex()
+	{
+	}
+
+	/**
+	 * configure enables or disables the index. If it is enabled, it is loaded from the GroupMembers collection.
+	 *
+	 * @param config A configuration that has 'enabled'. It is disabled by default.
+	 */
+	public static void configure(final JsonObject config)
+	{
+		if (enable(config.getBoolean(CONFIG_ENABLED, DEFAULT_ENABLED))) {
+			reload();
+		}
+	}
+
+	/**
+	 * enable enables or disables the index without loading it. The index is dropped in any case.
+	 *
+	 * @param enabled true to enable the index
+	 * @return enabled
+	 */
+	static boolean enable(final boolean enabled)
+	{
+		lock.writeLock().lock();
+		try {
+			GroupBitmapIndex.enabled = enabled;
+			clear();
+			return enabled;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return true if the index has been loaded and can answer the set operations
+	 */
+	public static boolean isReady()
+	{
+		return ready;
+	}
+
+	/**
+	 * reload drops the index and loads it again from the GroupStore, page by page in the order of {group, entity_id}.
+	 * The index isn't loaded while the GroupStore isn't complete, and GroupMembers reloads it after a rebuild.
+	 */
+	static void reload()
+	{
+		final long generation = beginLoading();
+		if (generation < 0) {
+			return;
+		}
+
+		if (!Stores.groups().isComplete()) {
+			abortLoading(generation);
+			return;
+		}
+
+		loadPage(generation, null);
+	}
+
+	private static void loadPage(final long generation, final JsonObject last)
+	{
+		Stores.groups().page(last, LOAD_PAGE_SIZE,
+		                     res -> {
+			                     if (res.failed()) {
+				                     System.err.println("GroupBitmapIndex couldn't be loaded: " + res.cause());
+				                     abortLoading(generation);
+				                     return;
+			                     }
+
+			                     final List<JsonObject> page = res.result();
+			                     if (!loaded(generation, page)) {
+				                     return;
+			                     }
+
+			                     if (page.size() < LOAD_PAGE_SIZE) {
+				                     finishLoading(generation);
+				                     return;
+			                     }
+
+			                     loadPage(generation, page.get(page.size() - 1));
+		                     });
+	}
+
+	/**
+	 * beginLoading drops the index and starts queueing the changes.
+	 *
+	 * @return The generation of the new load, or -1 if the index is disabled
+	 */
+	static long beginLoading()
+	{
+		lock.writeLock().lock();
+		try {
+			if (!enabled) {
+				return -1;
+			}
+
+			clear();
+			pending = new ArrayList<>();
+			return ++loadGeneration;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * loaded adds a page of memberships to the index being loaded.
+	 *
+	 * @param generation  The generation of the load
+	 * @param memberships Documents of {group, entity_id}
+	 * @return false if the load has been replaced by a newer one
+	 */
+	static boolean loaded(final long generation, final List<JsonObject> memberships)
+	{
+		lock.writeLock().lock();
+		try {
+			if (generation != loadGeneration || pending == null) {
+				return false;
+			}
+
+			memberships.forEach(e -> addMember(e.getString(GroupMembers.FIELD_GROUP), e.getString(GroupMembers.FIELD_ENTITY_ID)));
+			return true;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * finishLoading applies the changes queued while loading, and makes the index ready.
+	 *
+	 * @param generation The generation of the load
+	 */
+	static void finishLoading(final long generation)
+	{
+		lock.writeLock().lock();
+		try {
+			if (generation != loadGeneration || pending == null) {
+				return;
+			}
+
+			pending.forEach(Runnable::run);
+			pending = null;
+			groups.values().forEach(RoaringBitmap::runOptimize);
+			ready = true;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private static void abortLoading(final long generation)
+	{
+		lock.writeLock().lock();
+		try {
+			if (generation == loadGeneration) {
+				clear();
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private static void clear()
+	{
+		ready = false;
+		pending = null;
+		ordinals.clear();
+		ids.clear();
+		groups.clear();
+		groupsOf.clear();
+	}
+
+	/**
+	 * change applies a change to the index, or queues it while loading.
+	 */
+	private static void change(final Runnable change)
+	{
+		lock.writeLock().lock();
+		try {
+			if (!enabled) {
+				return;
+			}
+
+			if (pending != null) {
+				pending.add(change);
+			}
+			else if (ready) {
+				change.run();
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @param group    A group
+	 * @param entityId An entity-id that has joined the group
+	 */
+	static void add(final String group, final String entityId)
+	{
+		change(() -> addMember(group, entityId));
+	}
+
+	/**
+	 * @param group    A group
+	 * @param entityId An entity-id that has left the group
+	 */
+	static void remove(final String group, final String entityId)
+	{
+		change(() -> {
+			final Integer ordinal = ordinals.get(entityId);
+			final RoaringBitmap members = groups.get(group);
+			if (ordinal != null && members != null) {
+				members.remove(ordinal);
+				groupsOf.get(ordinal).remove(group);
+			}
+		});
+	}
+
+	/**
+	 * @param group A group that has been removed from every entity
+	 */
+	static void removeGroup(final String group)
+	{
+		change(() -> dropGroup(group));
+	}
+
+	/**
+	 * @param group     A group
+	 * @param entityIds All the entity-ids in the group
+	 */
+	static void replaceGroup(final String group, final Collection<String> entityIds)
+	{
+		change(() -> {
+			dropGroup(group);
+			entityIds.forEach(e -> addMember(group, e));
+		});
+	}
+
+	/**
+	 * @param entityIds Entity-ids that have been deleted
+	 */
+	static void removeEntities(final Collection<String> entityIds)
+	{
+		change(() -> entityIds.forEach(e -> {
+			final Integer ordinal = ordinals.remove(e);
+			if (ordinal != null) {
+				groupsOf.get(ordinal).forEach(group -> groups.get(group).remove(ordinal));
+				groupsOf.set(ordinal, null);
+				ids.set(ordinal, null);
+			}
+		}));
+	}
+
+	private static void dropGroup(final String group)
+	{
+		final RoaringBitmap members = groups.remove(group);
+		if (members == null) {
+			return;
+		}
+
+		final IntIterator iterator = members.getIntIterator();
+		while (iterator.hasNext()) {
+			groupsOf.get(iterator.next()).remove(group);
+		}
+	}
+
+	private static void addMember(final String group, final String entityId)
+	{
+		Integer ordinal = ordinals.get(entityId);
+		if (ordinal == null) {
+			ordinal = ids.size();
+			ordinals.put(entityId, ordinal);
+			ids.add(entityId);
+			groupsOf.add(new ArrayList<>(1));
+		}
+
+		RoaringBitmap members = groups.get(group);
+		if (members == null) {
+			members = new RoaringBitmap();
+			groups.put(group, members);
+		}
+		if (members.checkedAdd(ordinal)) {
+			groupsOf.get(ordinal).add(group);
+		}
+	}
+
+	private static RoaringBitmap members(final String group)
+	{
+		final RoaringBitmap members = groups.get(group);
+		return members == null ? new RoaringBitmap() : members;
+	}
+
+	/**
+	 * @return The members of either group
+	 */
+	static RoaringBitmap union(final String group1, final String group2)
+	{
+		lock.readLock().lock();
+		try {
+			return RoaringBitmap.or(members(group1), members(group2));
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return The members of both groups
+	 */
+	static RoaringBitmap intersection(final String group1, final String group2)
+	{
+		lock.readLock().lock();
+		try {
+			return RoaringBitmap.and(members(group1), members(group2));
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return The members of group1 that aren't in group2
+	 */
+	static RoaringBitmap difference(final String group1, final String group2)
+	{
+		lock.readLock().lock();
+		try {
+			return RoaringBitmap.andNot(members(group1), members(group2));
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * evaluate computes an expression at once under a single read lock.
+	 *
+	 * @param expression An expression over groups
+	 * @return The members in the result of the expression, which can be changed by the caller
+	 */
+	static RoaringBitmap evaluate(final GroupSetExpression expression)
+	{
+		// The bitmaps of the groups are used as they are, so the result is copied if it is one of them.
+		final Set<RoaringBitmap> used = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		lock.readLock().lock();
+		try {
+			final RoaringBitmap result = expression.evaluate(group -> {
+				final RoaringBitmap members = members(group);
+				used.add(members);
+				return members;
+			});
+			return used.contains(result) ? result.clone() : result;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * evaluateIds computes an expression and makes the entity-ids of the result under a single read lock.
+	 *
+	 * @param expression An expression over groups
+	 * @return The entity-ids in the order of the ordinals, or null if the index isn't ready
+	 */
+	static List<String> evaluateIds(final GroupSetExpression expression)
+	{
+		lock.readLock().lock();
+		try {
+			if (!ready) {
+				return null;
+			}
+			return toIds(expression.evaluate(GroupBitmapIndex::members));
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param expression An expression over groups
+	 * @return The number of the entities in the result of the expression, or null if the index isn't ready
+	 */
+	static Integer evaluateCardinality(final GroupSetExpression expression)
+	{
+		lock.readLock().lock();
+		try {
+			if (!ready) {
+				return null;
+			}
+			return expression.evaluate(GroupBitmapIndex::members).getCardinality();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return true if every member of group2 is in group1, or null if the index isn't ready
+	 */
+	static Boolean subset(final String group1, final String group2)
+	{
+		lock.readLock().lock();
+		try {
+			if (!ready) {
+				return null;
+			}
+			return RoaringBitmap.andNot(members(group2), members(group1)).isEmpty();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return The number of the members of the group, or null if the index isn't ready
+	 */
+	static Integer cardinality(final String group)
+	{
+		lock.readLock().lock();
+		try {
+			if (!ready) {
+				return null;
+			}
+			return members(group).getCardinality();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * toIds makes the entity-ids of the ordinals in a bitmap. It should be called under the lock
+	 * in which the bitmap has been computed.
+	 *
+	 * @param bitmap A bitmap computed from the groups
+	 * @return The entity-ids in the order of the ordinals
+	 */
+	private static List<String> toIds(final RoaringBitmap bitmap)
+	{
+		final List<String> entityIds = new ArrayList<>(bitmap.getCardinality());
+
+		final IntIterator iterator = bitmap.getIntIterator();
+		while (iterator.hasNext()) {
+			final String entityId = ids.get(iterator.next());
+			if (entityId != null) {
+				entityIds.add(entityId);
+			}
+		}
+
+		return entityIds;
+	}
+}
@@ -1,16 +1,14 @@
 package com.pful.pico.resource;
 
 import com.google.common.base.Strings;
-import com.pful.pico.Service;
 import com.pful.pico.core.PICOErrorCode;
 import com.pful.pico.core.PICOException;
-import com.pful.pico.db.MongoDB;
 import com.pful.pico.db.querybuilder.Finder;
+import com.pful.pico.store.Stores;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -23,18 +21,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 public class GroupManipulation
 {
 	public static final String FIELD_GROUPS = "groups";
-
-	private static final String DB_METHOD_FIND_AND_MODIFY = "findAndModify";
-	private static final String DB_METHOD_UPDATE = "update";
-	private static final String FIND_AND_MODIFY_FIELD_QUERY = "query";
-	private static final String FIND_AND_MODIFY_FIELD_UPDATE = "update";
-	private static final String FIND_AND_MODIFY_FIELD_REMOVE = "remove";
-	private static final String FIND_AND_MODIFY_FIELD_NEW = "new";
-
-	private static final String UPDATE_FIELD_UPDATES = "updates";
-	private static final String UPDATE_UPDATES_FIELD_QUERY = "q";
-	private static final String UPDATE_UPDATES_FIELD_UPDATE = "u";
-	private static final String UPDATE_UPDATES_FIELD_MULTI = "multi";
+	public static final String FIELD_COUNTS = "counts";
 
 	/**
 	 * Create a group in the specified entity
@@ -57,46 +44,22 @@ public class GroupManipulation
 		              "entityId, and group shouldn't be null or empty.");
 		checkArgument(callback != null, "callback shouldn't be null.");
 
-		final JsonObject condition = Finder.newQuery()
-//		                                   .field(Entity.FIELD_APP_ID).is(context.getAppId())
-                                           .field(Entity.FIELD_ID).is(entityId)
-                                           .field(FIELD_GROUPS).ninStrings(group)
-                                           .toJson();
-
-//		final JsonObject condition = new JsonObject().put(Entity.FIELD_APP_ID, appId)
-//		                                             .put(Entity.FIELD_ID, entityId)
-//		                                             .put(FIELD_GROUPS, new JsonObject().put("$nin", new ArrayList(Arrays.asList(group))));
-
-		final JsonObject update = new JsonObject().put("$push", new JsonObject().put(FIELD_GROUPS, group))
-		                                          .put("$set",
-		                                               new JsonObject().put(Entity.FIELD_UPDATED_AT, Instant.now().getEpochSecond()));
-
-		final JsonObject command = new JsonObject().put(DB_METHOD_FIND_AND_MODIFY, MongoDB.COLLECTION_ENTITIES)
-		                                           .put(FIND_AND_MODIFY_FIELD_QUERY, condition)
-		                                           .put(FIND_AND_MODIFY_FIELD_UPDATE, update)
-		                                           .put(FIND_AND_MODIFY_FIELD_NEW, true);
-
-		Service.mongoClient.runCommand(DB_METHOD_FIND_AND_MODIFY, command,
-		                               res -> {
-			                               if (res.failed()) {
-				                               callback.manipulated(PICOErrorCode.InternalError, null);
-				                               return;
-			                               }
-			                               else if (res.result()
-			                                           .getJsonObject("value") == null) {
-				                               callback.manipulated(PICOErrorCode.Unexpected, null); //
-				                               return;
-			                               }
-
-			                               // TODO
-			                               // res.result() - {value : updated doc, lastErrorObject: {updatedExisting: true, n: 1}, ok: 1.0}
-			                               final JsonObject lastErrorObject = res.result()
-			                                                                     .getJsonObject("lastErrorObject");
-			                               // success : lastErrorObject - { updatedExisting: true, n : 1 }
-			                               callback.manipulated(PICOErrorCode.Success,
-			                                                    res.result()
-			                                                       .getJsonObject("value"));
-		                               });
+		Stores.entities().addGroup(entityId, group, Instant.now().getEpochSecond(),
+		                           res -> {
+			                           EntityCache.invalidate(entityId);
+
+			                           if (res.failed()) {
+				                           callback.manipulated(PICOErrorCode.InternalError, null);
+				                           return;
+			                           }
+			                           else if (res.result() == null) {
+				                           callback.manipulated(PICOErrorCode.Unexpected, null); //
+				                           return;
+			                           }
+
+			                           GroupMembers.add(group, entityId,
+			                                            errorCode -> callback.manipulated(errorCode, res.result()));
+		                           });
 	}
 
 	/**
@@ -118,35 +81,46 @@ public class GroupManipulation
 		              "entityId shouldn't be null or empty.");
 		checkArgument(callback != null, "callback shouldn't be null.");
 
-		final JsonObject query = Finder.newQuery()
-//		                               .field(Entity.FIELD_APP_ID).is(context.getAppId())
-                                       .field(Entity.FIELD_ID).is(entityId)
-                                       .field(FIELD_GROUPS).exists()
-                                       .toJson();
+		final Finder.Expression query = Finder.newQuery()
+//		                                      .field(Entity.FIELD_APP_ID).is(context.getAppId())
+                                              .field(Entity.FIELD_ID).is(entityId)
+                                              .field(FIELD_GROUPS).exists()
+                                              .include(FIELD_GROUPS)
+                                              .exclude(Entity.FIELD_ID);
 
 //		final JsonObject query = new JsonObject().put(Entity.FIELD_APP_ID, appId)
 //		                                         .put(Entity.FIELD_ID, entityId)
 //		                                         .put(FIELD_GROUPS, new JsonObject().put("$exists", true));
 
-		Service.mongoClient.find(MongoDB.COLLECTION_ENTITIES, query,
-		                         res -> {
-			                         if (res.failed()) {
-				                         callback.manipulated(PICOErrorCode.InternalError, null);
-				                         return;
-			                         }
-
-			                         final Set groupsInSet = new HashSet();
-			                         final JsonArray groupsInJsonArray = new JsonArray();
-
-			                         res.result()
-			                            .stream()
-			                            .forEach(e -> groupsInSet.addAll(e.getJsonArray(FIELD_GROUPS)
-			                                                              .getList()));
-			                         groupsInSet.stream()
-			                                    .forEach(e -> groupsInJsonArray.add(e));
-
-			                         callback.manipulated(PICOErrorCode.Success, new JsonObject().put(FIELD_GROUPS, groupsInJsonArray));
-		                         });
+		Stores.entities().find(query,
+		                       res -> {
+			                       if (res.failed()) {
+				                       callback.manipulated(PICOErrorCode.InternalError, null);
+				                       return;
+			                       }
+
+			                       callback.manipulated(PICOErrorCode.Success, new JsonObject().put(FIELD_GROUPS, distinctGroups(res.result())));
+		                       });
+	}
+
+	/**
+	 * distinctGroups gives the groups of the documents without duplicates.
+	 *
+	 * @param documents The documents that have 'groups'
+	 * @return The distinct groups
+	 */
+	static JsonArray distinctGroups(final List<JsonObject> documents)
+	{
+		final Set groupsInSet = new HashSet();
+		final JsonArray groupsInJsonArray = new JsonArray();
+
+		documents.stream()
+		         .forEach(e -> groupsInSet.addAll(e.getJsonArray(FIELD_GROUPS)
+		                                           .getList()));
+		groupsInSet.stream()
+		           .forEach(e -> groupsInJsonArray.add(e));
+
+		return groupsInJsonArray;
 	}
 
 	/**
@@ -171,49 +145,21 @@ public class GroupManipulation
 		              "entityId and groups shouldn't be null or empty.");
 		checkArgument(callback != null, "callback shouldn't be null.");
 
-		final JsonObject condition = Finder.newQuery()
-//		                                   .field(Entity.FIELD_APP_ID).is(context.getAppId())
-                                           .field(Entity.FIELD_ID).is(entityId)
-                                           .field(FIELD_GROUPS).inStrings(originalGroup)
-                                           .toJson();
-
-//		final JsonObject condition = new JsonObject().put(Entity.FIELD_APP_ID, appId)
-//		                                             .put(Entity.FIELD_ID, entityId)
-//		                                             .put(FIELD_GROUPS,
-//		                                                  new JsonObject().put("$in", new ArrayList(Arrays.asList(originalGroup))));
-
-		final JsonObject update = new JsonObject().put("$set",
-		                                               new JsonObject().put(FIELD_GROUPS + ".$", newGroup)
-		                                                               .put(Entity.FIELD_UPDATED_AT,
-		                                                                    Instant.now()
-		                                                                           .getEpochSecond()));
-
-		final JsonObject command = new JsonObject().put(DB_METHOD_FIND_AND_MODIFY, MongoDB.COLLECTION_ENTITIES)
-		                                           .put(FIND_AND_MODIFY_FIELD_QUERY, condition)
-		                                           .put(FIND_AND_MODIFY_FIELD_UPDATE, update)
-		                                           .put(FIND_AND_MODIFY_FIELD_NEW, false)
-		                                           .put(FIND_AND_MODIFY_FIELD_NEW, true);
-
-		Service.mongoClient.runCommand(DB_METHOD_FIND_AND_MODIFY, command,
+		Stores.entities().replaceGroup(entityId, originalGroup, newGroup, Instant.now().getEpochSecond(),
 		                               res -> {
+			                               EntityCache.invalidate(entityId);
+
 			                               if (res.failed()) {
 				                               callback.manipulated(PICOErrorCode.InternalError, null);
 				                               return;
 			                               }
-			                               else if (res.result()
-			                                           .getJsonObject("value") == null) {
+			                               else if (res.result() == null) {
 				                               callback.manipulated(PICOErrorCode.Unexpected, null); //
 				                               return;
 			                               }
 
-			                               // TODO
-			                               // res.result() - {value : updated doc, lastErrorObject: {updatedExisting: true, n: 1}, ok: 1.0}
-			                               final JsonObject lastErrorObject = res.result()
-			                                                                     .getJsonObject("lastErrorObject");
-			                               // success : lastErrorObject - { updatedExisting: true, n : 1 }
-			                               callback.manipulated(PICOErrorCode.Success,
-			                                                    res.result()
-			                                                       .getJsonObject("value"));
+			                               GroupMembers.replace(originalGroup, newGroup, entityId,
+			                                                    errorCode -> callback.manipulated(errorCode, res.result()));
 		                               });
 	}
 
@@ -237,38 +183,19 @@ public class GroupManipulation
 		              "entityId and group shouldn't be null or empty.");
 		checkArgument(callback != null, "callback shouldn't be null.");
 
-		final JsonObject condition = Finder.newQuery()
-//		                                   .field(Entity.FIELD_APP_ID).is(context.getAppId())
-                                           .field(Entity.FIELD_ID).is(entityId)
-                                           .toJson();
-
-//		final JsonObject condition = new JsonObject().put(Entity.FIELD_APP_ID, appId)
-//		                                             .put(Entity.FIELD_ID, entityId);
+		Stores.entities().removeGroup(entityId, group, Instant.now().getEpochSecond(),
+		                              res -> {
+			                              EntityCache.invalidate(entityId);
 
-		final JsonObject update = new JsonObject().put("$pull",
-		                                               new JsonObject().put(FIELD_GROUPS, group))
-		                                          .put("$set",
-		                                               new JsonObject().put(Entity.FIELD_UPDATED_AT,
-		                                                                    Instant.now()
-		                                                                           .getEpochSecond()));
+			                              if (res.failed()) {
+				                              callback.manipulated(PICOErrorCode.InternalError, null);
+				                              return;
+			                              }
 
-		final JsonObject query = new JsonObject().put(DB_METHOD_FIND_AND_MODIFY, MongoDB.COLLECTION_ENTITIES)
-		                                         .put(FIND_AND_MODIFY_FIELD_QUERY, condition)
-		                                         .put(FIND_AND_MODIFY_FIELD_UPDATE, update)
-		                                         .put(FIND_AND_MODIFY_FIELD_NEW, true);
-
-		Service.mongoClient.runCommand(DB_METHOD_FIND_AND_MODIFY, query,
-		                               res -> {
-			                               if (res.failed()) {
-				                               callback.manipulated(PICOErrorCode.InternalError, null);
-				                               return;
-			                               }
-
-			                               // res.result() - {value : modified Object in JsonObject, lastErrorObject: {}, ok: 1.0}
-			                               callback.manipulated(PICOErrorCode.Success,
-			                                                    res.result()
-			                                                       .getJsonObject("lastErrorObject"));
-		                               });
+			                              // res.result() - lastErrorObject: { updatedExisting: true, n : 1 }
+			                              GroupMembers.remove(group, entityId,
+			                                                  errorCode -> callback.manipulated(errorCode, res.result()));
+		                              });
 	}
 
 	//Application-level manipulators below
@@ -294,30 +221,59 @@ public class GroupManipulation
 		              "group shouldn't be null or empty.");
 		checkArgument(callback != null, "callback shouldn't be null.");
 
-		final JsonObject query = Finder.newQuery()
-//		                               .field(Entity.FIELD_APP_ID).is(context.getAppId())
-                                       .field(FIELD_GROUPS).inStrings(group)
-                                       .toJson();
-
-//		final JsonObject query = new JsonObject().put(Entity.FIELD_APP_ID, appId)
-//		                                         .put(FIELD_GROUPS,
-//		                                              new JsonObject().put("$in", new ArrayList<>(Arrays.asList(group))));
-
-		Service.mongoClient.find(MongoDB.COLLECTION_ENTITIES, query,
-		                         res -> {
-			                         if (res.failed()) {
-				                         callback.manipulated(PICOErrorCode.InternalError, null);
-				                         return;
-			                         }
+		// The index answers null if it isn't ready.
+		final List<String> indexedIds = GroupBitmapIndex.evaluateIds(GroupSetExpression.group(group));
+		if (indexedIds != null) {
+			final JsonArray entitiesInJsonArray = new JsonArray();
+			indexedIds.forEach(entitiesInJsonArray::add);
+
+			callback.manipulated(PICOErrorCode.Success, new JsonObject().put("elemsInGroup", entitiesInJsonArray));
+			return;
+		}
+
+		// The ids are read from the GroupMembers index, which reads the entities until it is complete.
+		GroupMembers.read(group,
+		                  (errorCode, entityIds) -> {
+			                  if (errorCode != PICOErrorCode.Success) {
+				                  callback.manipulated(errorCode, null);
+				                  return;
+			                  }
+
+			                  final JsonArray entitiesInJsonArray = new JsonArray();
+			                  entityIds.forEach(entitiesInJsonArray::add);
+
+			                  callback.manipulated(PICOErrorCode.Success, new JsonObject().put("elemsInGroup", entitiesInJsonArray));
+		                  });
+	}
 
-			                         final JsonArray entitiesInJsonArray = new JsonArray();
+	/**
+	 * Count the entities included in the specified group of the application-id
+	 * It returns the json object result in the format of {count: the number of the entities}.
+	 * <p>
+	 * //	 * @param context
+	 *
+	 * @param group    A group name
+	 * @param callback
+	 * @throws PICOException
+	 */
+	public static void countEntities(//final ApplicationContext context,
+	                                 final String group,
+	                                 final GroupManipulationCallback callback)
+			throws PICOException
+	{
+//		checkArgument(context != null && !Strings.isNullOrEmpty(context.getAppId()),
+//		              "context shouldn't be null and valid.");
+		checkArgument(!Strings.isNullOrEmpty(group),
+		              "group shouldn't be null or empty.");
+		checkArgument(callback != null, "callback shouldn't be null.");
 
-			                         res.result()
-			                            .stream()
-			                            .forEach(e -> entitiesInJsonArray.add(e.getString(Entity.FIELD_ID)));
+		final Integer indexedCount = GroupBitmapIndex.cardinality(group);
+		if (indexedCount != null) {
+			callback.manipulated(PICOErrorCode.Success, new JsonObject().put(GroupMembers.FIELD_COUNT, indexedCount));
+			return;
+		}
 
-			                         callback.manipulated(PICOErrorCode.Success, new JsonObject().put("elemsInGroup", entitiesInJsonArray));
-		                         });
+		GroupMembers.count(group, callback);
 	}
 
 	/**
@@ -332,42 +288,54 @@ public class GroupManipulation
 	                        final GroupManipulationCallback callback)
 			throws PICOException
 	{
+		read(false, callback);
+	}
+
+	/**
+	 * Get all the groups contained in the specified application-id, optionally with the number of the entities in each group.
+	 * The groups are collected by the database, so only the distinct group names or the counts are transferred.
+	 * <p>
+	 * The result is {groups: [group...]} and, if withCounts is true, {groups: [group...], counts: {group: count...}}.
+	 * <p>
+	 * //	 * @param context  An application-id
+	 *
+	 * @param withCounts true if the number of the entities in each group should be returned as well
+	 * @param callback
+	 * @throws PICOException
+	 */
+	public static void read(//final ApplicationContext context,
+	                        final boolean withCounts,
+	                        final GroupManipulationCallback callback)
+			throws PICOException
+	{
 //		checkArgument(context != null && !Strings.isNullOrEmpty(context.getAppId()),
 //		              "context shouldn't be null and valid.");
 		checkArgument(callback != null, "callback shouldn't be null.");
 
-//		final JsonObject query = new JsonObject().put(Entity.FIELD_APP_ID, appId);
-
-		final JsonObject query = Finder.newQuery()
-//		                               .field(Entity.FIELD_APP_ID).is(context.getAppId())
-                                       .toJson();
-
-		Service.mongoClient.find(MongoDB.COLLECTION_ENTITIES, query,
-		                         res -> {
-			                         if (res.failed()) {
-				                         callback.manipulated(PICOErrorCode.InternalError, null);
-				                         return;
-			                         }
-
-			                         final List<String> groupsInList = new ArrayList<>();
-
-			                         res.result()
-			                            .stream()
-			                            .filter(e -> e.containsKey(FIELD_GROUPS))
-			                            .forEach(e -> {
-				                            groupsInList.addAll(e.getJsonArray(FIELD_GROUPS)
-				                                                 .getList());
-			                            });
-
-			                         final Set<String> groupsInSet = new HashSet<>(groupsInList);
-
-			                         final JsonArray groupsInJsonArray = new JsonArray();
-
-			                         groupsInSet.stream()
-			                                    .forEach(e -> groupsInJsonArray.add(e));
-
-			                         callback.manipulated(PICOErrorCode.Success, new JsonObject().put(FIELD_GROUPS, groupsInJsonArray));
-		                         });
+		if (!withCounts) {
+			Stores.entities().distinctGroups(res -> {
+				if (res.failed()) {
+					callback.manipulated(PICOErrorCode.InternalError, null);
+					return;
+				}
+
+				callback.manipulated(PICOErrorCode.Success, new JsonObject().put(FIELD_GROUPS, res.result()));
+			});
+			return;
+		}
+
+		Stores.entities().countGroups(res -> {
+			if (res.failed()) {
+				callback.manipulated(PICOErrorCode.InternalError, null);
+				return;
+			}
+
+			final JsonArray groups = new JsonArray();
+			res.result().fieldNames().forEach(groups::add);
+
+			callback.manipulated(PICOErrorCode.Success, new JsonObject().put(FIELD_GROUPS, groups)
+			                                                            .put(FIELD_COUNTS, res.result()));
+		});
 	}
 
 	/**
@@ -389,43 +357,33 @@ public class GroupManipulation
 		              "groups shouldn't be null or empty.");
 		checkArgument(callback != null, "callback shouldn't be null.");
 
-		final JsonObject condition = Finder.newQuery()
-//		                                   .field(Entity.FIELD_APP_ID).is(context.getAppId())
-                                           .field(FIELD_GROUPS).is(originalGroup)
-                                           .toJson();
-
-//		final JsonObject condition = new JsonObject().put(Entity.FIELD_APP_ID, appId)
-//		                                             .put(FIELD_GROUPS, originalGroup);
-
-		final JsonObject update = new JsonObject().put("$set",
-		                                               new JsonObject().put(FIELD_GROUPS + ".$", newGroup)
-		                                                               .put(Entity.FIELD_UPDATED_AT,
-		                                                                    Instant.now()
-		                                                                           .getEpochSecond()));
-
-		final JsonArray updates = new JsonArray().add(new JsonObject().put(UPDATE_UPDATES_FIELD_QUERY, condition)
-		                                                              .put(UPDATE_UPDATES_FIELD_UPDATE, update)
-		                                                              .put(UPDATE_UPDATES_FIELD_MULTI, true));
-
-		final JsonObject query = new JsonObject().put(DB_METHOD_UPDATE, MongoDB.COLLECTION_ENTITIES)
-		                                         .put(UPDATE_FIELD_UPDATES, updates);
-
-		Service.mongoClient.runCommand(DB_METHOD_UPDATE, query,
-		                               res -> {
-			                               if (res.failed()) {
-				                               callback.manipulated(PICOErrorCode.InternalError, null);
-				                               return;
-			                               }
-			                               else if (!res.result()
-			                                            .getInteger("nModified")
-			                                            .equals(res.result()
-			                                                       .getInteger("n"))) {
-				                               callback.manipulated(PICOErrorCode.Unexpected, null); // TODO
-				                               return;
-			                               }
-
-			                               callback.manipulated(PICOErrorCode.Success, res.result());
-		                               });
+		Stores.entities().renameGroup(originalGroup, newGroup, Instant.now().getEpochSecond(),
+		                              res -> {
+			                              EntityCache.invalidateAll();
+
+			                              if (res.failed()) {
+				                              callback.manipulated(PICOErrorCode.InternalError, null);
+				                              return;
+			                              }
+
+			                              // Some entities may have had the new group already, so its memberships are made again.
+			                              GroupMembers.removeGroup(originalGroup, removedErrorCode -> GroupMembers.rebuild(newGroup, errorCode -> {
+				                              if (removedErrorCode != PICOErrorCode.Success || errorCode != PICOErrorCode.Success) {
+					                              callback.manipulated(PICOErrorCode.InternalError, res.result());
+					                              return;
+				                              }
+
+				                              if (!res.result()
+				                                      .getInteger("nModified")
+				                                      .equals(res.result()
+				                                                 .getInteger("n"))) {
+					                              callback.manipulated(PICOErrorCode.Unexpected, null); // TODO
+					                              return;
+				                              }
+
+				                              callback.manipulated(PICOErrorCode.Success, res.result());
+			                              }));
+		                              });
 	}
 
 	/**
@@ -445,40 +403,17 @@ public class GroupManipulation
 		              "group shouldn't be null or empty.");
 		checkArgument(callback != null, "callback shouldn't be null.");
 
-		final JsonObject condition = Finder.newQuery()
-//		                                   .field(Entity.FIELD_APP_ID).is(context.getAppId())
-                                           .field(FIELD_GROUPS).inStrings(group)
-                                           .toJson();
-
-//		final JsonObject condition = new JsonObject().put(Entity.FIELD_APP_ID, appId)
-//		                                             .put(FIELD_GROUPS,
-//		                                                  new JsonObject().put("$in",
-//		                                                                       new ArrayList(Arrays.asList(group))));
-
-		final JsonObject update = new JsonObject().put("$pull",
-		                                               new JsonObject().put(FIELD_GROUPS, group))
-		                                          .put("$set",
-		                                               new JsonObject().put(Entity.FIELD_UPDATED_AT,
-		                                                                    Instant.now()
-		                                                                           .getEpochSecond()));
-
-		final JsonObject updatesInJsonObject = new JsonObject().put(UPDATE_UPDATES_FIELD_QUERY, condition)
-		                                                       .put(UPDATE_UPDATES_FIELD_UPDATE, update)
-		                                                       .put(UPDATE_UPDATES_FIELD_MULTI, true);
-		final JsonArray updates = new JsonArray().add(updatesInJsonObject);
-
-		final JsonObject query = new JsonObject().put(DB_METHOD_UPDATE, MongoDB.COLLECTION_ENTITIES)
-		                                         .put(UPDATE_FIELD_UPDATES, updates);
+		Stores.entities().removeGroupFromAll(group, Instant.now().getEpochSecond(),
+		                                     res -> {
+			                                     EntityCache.invalidateAll();
 
-		Service.mongoClient.runCommand(DB_METHOD_UPDATE, query,
-		                               res -> {
-			                               if (res.failed()) {
-				                               callback.manipulated(PICOErrorCode.InternalError, null);
-				                               return;
-			                               }
+			                                     if (res.failed()) {
+				                                     callback.manipulated(PICOErrorCode.InternalError, null);
+				                                     return;
+			                                     }
 
-			                               callback.manipulated(PICOErrorCode.Success, res.result());
-		                               });
+			                                     GroupMembers.removeGroup(group, errorCode -> callback.manipulated(errorCode, res.result()));
+		                                     });
 	}
 
 }
@@ -0,0 +1,13 @@
+package com.pful.pico.resource;
+
+import com.pful.pico.core.PICOErrorCode;
+
+import java.util.Set;
+
+/**
+ * GroupMemberListCallback is called with the ids of the entities in a group.
+ */
+public interface GroupMemberListCallback
+{
+	void listed(final PICOErrorCode errorCode, final Set<String> entityIds);
+}
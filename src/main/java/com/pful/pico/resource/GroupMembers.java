@@ -0,0 +1,342 @@
+package com.pful.pico.resource;
+
+import com.pful.pico.core.PICOErrorCode;
+import com.pful.pico.db.querybuilder.Finder;
+import com.pful.pico.store.Stores;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * GroupMembers maintains the memberships {group, entity_id} in the GroupStore for every group of every entity.
+ * They are the index of the groups fields of the entities, so that the members of a group can be read or counted
+ * without the entities, and they are written whenever GroupManipulation or Entity changes the groups of the entities.
+ * <p>
+ * The groups fields are the source of truth. The memberships are used only while the GroupStore is complete,
+ * which it isn't until they have been rebuilt, and the members are read from the groups fields until then.
+ * The two stores can't be written atomically, so a failed write is reported to the caller and makes the GroupStore
+ * incomplete until the next rebuild. A change is made in GroupBitmapIndex only after it has been written,
+ * and the index is dropped when a write fails.
+ */
+public class GroupMembers
+{
+	public static final String FIELD_GROUP = "group";
+	public static final String FIELD_ENTITY_ID = "entity_id";
+	public static final String FIELD_COUNT = "count";
+
+	public static final String INDEX_GROUP_ENTITY_ID = FIELD_GROUP + "_1_" + FIELD_ENTITY_ID + "_1";
+	public static final String INDEX_ENTITY_ID_GROUP = FIELD_ENTITY_ID + "_1_" + FIELD_GROUP + "_1";
+
+	/**
+	 * rebuilding has the callbacks of the rebuild that is running. It is null when no rebuild is running.
+	 */
+	private static List<GroupManipulationCallback> rebuilding;
+
+	/**
+	 * A constructor
+	 */
+	private GroupMembers()
+	{
+	}
+
+	/**
+	 * load reads from the GroupStore whether it was left complete, and rebuilds it if it wasn't.
+	 * Otherwise GroupBitmapIndex is loaded, which it isn't while the GroupStore isn't known to be complete.
+	 * <p>
+	 * The result is the one of rebuild, or null if the GroupStore was complete.
+	 *
+	 * @param callback
+	 */
+	public static void load(final GroupManipulationCallback callback)
+	{
+		final boolean wasComplete = Stores.groups().isComplete();
+
+		Stores.groups().load(res -> {
+			if (res.failed()) {
+				System.err.println(res.cause());
+			}
+
+			if (res.failed() || !res.result()) {
+				rebuild(callback);
+				return;
+			}
+
+			if (!wasComplete) {
+				GroupBitmapIndex.reload();
+			}
+			callback.manipulated(PICOErrorCode.Success, null);
+		});
+	}
+
+	/**
+	 * rebuild replaces all the memberships with the ones in the groups fields of the entities.
+	 * Service starts it when it uses a GroupStore that wasn't left complete, and it is also meant for repairs.
+	 * A rebuild requested while another is running is answered by the running one.
+	 * <p>
+	 * The result is {count: the number of the memberships}.
+	 *
+	 * @param callback
+	 */
+	public static void rebuild(final GroupManipulationCallback callback)
+	{
+		synchronized (GroupMembers.class) {
+			if (rebuilding != null) {
+				rebuilding.add(callback);
+				return;
+			}
+			rebuilding = new ArrayList<>();
+			rebuilding.add(callback);
+		}
+
+		Stores.groups().rebuild(res -> {
+			final List<GroupManipulationCallback> callbacks;
+			synchronized (GroupMembers.class) {
+				callbacks = rebuilding;
+				rebuilding = null;
+			}
+
+			if (res.failed()) {
+				System.err.println(res.cause());
+				callbacks.forEach(e -> e.manipulated(PICOErrorCode.InternalError, null));
+				return;
+			}
+
+			GroupBitmapIndex.reload();
+			callbacks.forEach(e -> e.manipulated(PICOErrorCode.Success, new JsonObject().put(FIELD_COUNT, res.result())));
+		});
+	}
+
+	/**
+	 * rebuild replaces the memberships of a group with the ones in the groups fields of the entities.
+	 *
+	 * @param group    A group
+	 * @param callback callback is called when the memberships have been written, or with InternalError if they couldn't be.
+	 */
+	static void rebuild(final String group, final GroupMembershipCallback callback)
+	{
+		Stores.groups().removeGroup(group, res -> {
+			if (res.failed()) {
+				fail(group, res.cause(), callback);
+				return;
+			}
+			GroupBitmapIndex.removeGroup(group);
+
+			final Finder.Expression query = Finder.newQuery()
+			                                      .field(GroupManipulation.FIELD_GROUPS).is(group)
+			                                      .include(Entity.FIELD_ID);
+
+			Stores.entities().find(query, resFound -> {
+				if (resFound.failed()) {
+					fail(group, resFound.cause(), callback);
+					return;
+				}
+
+				final List<String> entityIds = new ArrayList<>();
+				resFound.result()
+				        .forEach(e -> entityIds.add(e.getString(Entity.FIELD_ID)));
+
+				Stores.groups().addAll(group, entityIds, resAdded -> {
+					if (resAdded.failed()) {
+						fail(group, resAdded.cause(), callback);
+						return;
+					}
+
+					GroupBitmapIndex.replaceGroup(group, entityIds);
+					callback.written(PICOErrorCode.Success);
+				});
+			});
+		});
+	}
+
+	/**
+	 * add records that the entity is in the group.
+	 *
+	 * @param group    A group
+	 * @param entityId An entity-id
+	 * @param callback callback is called when the membership has been written, or with InternalError if it couldn't be.
+	 */
+	static void add(final String group, final String entityId, final GroupMembershipCallback callback)
+	{
+		Stores.groups().add(group, entityId, res -> {
+			if (res.failed()) {
+				fail(group, res.cause(), callback);
+				return;
+			}
+
+			GroupBitmapIndex.add(group, entityId);
+			callback.written(PICOErrorCode.Success);
+		});
+	}
+
+	/**
+	 * remove records that the entity isn't in the group anymore.
+	 *
+	 * @param group    A group
+	 * @param entityId An entity-id
+	 * @param callback callback is called when the membership has been removed, or with InternalError if it couldn't be.
+	 */
+	static void remove(final String group, final String entityId, final GroupMembershipCallback callback)
+	{
+		Stores.groups().remove(group, entityId, res -> {
+			if (res.failed()) {
+				fail(group, res.cause(), callback);
+				return;
+			}
+
+			GroupBitmapIndex.remove(group, entityId);
+			callback.written(PICOErrorCode.Success);
+		});
+	}
+
+	/**
+	 * replace records that the entity has moved from a group to another.
+	 *
+	 * @param originalGroup A group that the entity has left
+	 * @param newGroup      A group that the entity has joined
+	 * @param entityId      An entity-id
+	 * @param callback      callback is called when the memberships have been written, or with InternalError if they couldn't be.
+	 */
+	static void replace(final String originalGroup,
+	                    final String newGroup,
+	                    final String entityId,
+	                    final GroupMembershipCallback callback)
+	{
+		remove(originalGroup, entityId, errorCode -> {
+			if (errorCode != PICOErrorCode.Success) {
+				callback.written(errorCode);
+				return;
+			}
+
+			add(newGroup, entityId, callback);
+		});
+	}
+
+	/**
+	 * removeGroup removes every membership of the group.
+	 *
+	 * @param group    A group
+	 * @param callback callback is called when the memberships have been removed, or with InternalError if they couldn't be.
+	 */
+	static void removeGroup(final String group, final GroupMembershipCallback callback)
+	{
+		Stores.groups().removeGroup(group, res -> {
+			if (res.failed()) {
+				fail(group, res.cause(), callback);
+				return;
+			}
+
+			GroupBitmapIndex.removeGroup(group);
+			callback.written(PICOErrorCode.Success);
+		});
+	}
+
+	/**
+	 * removeEntities removes every membership of the entities, which have been deleted.
+	 *
+	 * @param entityIds Entity-ids
+	 * @param callback  callback is called when the memberships have been removed, or with InternalError if they couldn't be.
+	 */
+	static void removeEntities(final Collection<String> entityIds, final GroupMembershipCallback callback)
+	{
+		if (entityIds.isEmpty()) {
+			callback.written(PICOErrorCode.Success);
+			return;
+		}
+
+		Stores.groups().removeEntities(entityIds, res -> {
+			if (res.failed()) {
+				fail(entityIds.toString(), res.cause(), callback);
+				return;
+			}
+
+			GroupBitmapIndex.removeEntities(entityIds);
+			callback.written(PICOErrorCode.Success);
+		});
+	}
+
+	/**
+	 * read gives the ids of the entities in the group. It is answered by the {group, entity_id} index only
+	 * if the GroupStore is complete, and by the groups fields of the entities otherwise.
+	 *
+	 * @param group    A group
+	 * @param callback
+	 */
+	static void read(final String group, final GroupMemberListCallback callback)
+	{
+		if (!Stores.groups().isComplete()) {
+			Stores.entities().find(makeQuery(group).include(Entity.FIELD_ID), res -> {
+				if (res.failed()) {
+					callback.listed(PICOErrorCode.InternalError, null);
+					return;
+				}
+
+				final Set<String> entityIds = new HashSet<>();
+				res.result()
+				   .forEach(e -> entityIds.add(e.getString(Entity.FIELD_ID)));
+
+				callback.listed(PICOErrorCode.Success, entityIds);
+			});
+			return;
+		}
+
+		Stores.groups().read(group, res -> {
+			if (res.failed()) {
+				callback.listed(PICOErrorCode.InternalError, null);
+				return;
+			}
+
+			callback.listed(PICOErrorCode.Success, new HashSet<>(res.result()));
+		});
+	}
+
+	/**
+	 * count gives the number of the entities in the group. It is answered by the {group, entity_id} index only
+	 * if the GroupStore is complete, and by the groups fields of the entities otherwise.
+	 * The result is {count: the number of the entities}.
+	 *
+	 * @param group    A group
+	 * @param callback
+	 */
+	static void count(final String group, final GroupManipulationCallback callback)
+	{
+		final Handler<AsyncResult<Long>> handler = res -> {
+			if (res.failed()) {
+				callback.manipulated(PICOErrorCode.InternalError, null);
+				return;
+			}
+
+			callback.manipulated(PICOErrorCode.Success, new JsonObject().put(FIELD_COUNT, res.result()));
+		};
+
+		if (!Stores.groups().isComplete()) {
+			Stores.entities().count(makeQuery(group), handler);
+			return;
+		}
+
+		Stores.groups().count(group, handler);
+	}
+
+	private static Finder.Expression makeQuery(final String group)
+	{
+		return Finder.newQuery()
+		             .field(GroupManipulation.FIELD_GROUPS).is(group);
+	}
+
+	/**
+	 * fail reports a write that has failed. GroupBitmapIndex is dropped, since it has missed the change
+	 * and the GroupStore it is loaded from is incomplete now.
+	 */
+	private static void fail(final String target, final Throwable cause, final GroupMembershipCallback callback)
+	{
+		System.err.println("The memberships are out of date for " + target
+				                   + ", and needs to be rebuilt: " + cause);
+		GroupBitmapIndex.reload();
+		callback.written(PICOErrorCode.InternalError);
+	}
+}
@@ -0,0 +1,11 @@
+package com.pful.pico.resource;
+
+import com.pful.pico.core.PICOErrorCode;
+
+/**
+ * GroupMembershipCallback is called when the memberships of the changed groups have been written to the GroupStore.
+ */
+public interface GroupMembershipCallback
+{
+	void written(final PICOErrorCode errorCode);
+}
@@ -0,0 +1,11 @@
+package com.pful.pico.resource;
+
+import com.pful.pico.core.PICOErrorCode;
+
+/**
+ * GroupSetCountCallback is called with the number of the entities in the result of a set operation.
+ */
+public interface GroupSetCountCallback
+{
+	void counted(final PICOErrorCode errorCode, final long count);
+}
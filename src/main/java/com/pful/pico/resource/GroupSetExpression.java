@@ -0,0 +1,310 @@
+package com.pful.pico.resource;
+
+import com.google.common.base.Strings;
+import com.pful.pico.core.PICOErrorCode;
+import com.pful.pico.core.PICOException;
+import com.pful.pico.db.querybuilder.Finder;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.*;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * GroupSetExpression is an immutable tree of set operations over groups, such as ((A or B) and C) but not D.
+ * It is compiled into a single query on the groups field of the entities, or evaluated at once by GroupBitmapIndex.
+ * <p>
+ * In JSON, a node is one of the following, and the operands are nodes as well.
+ * <pre>
+ * { "group" : "A" }
+ * { "union" : [ operand, ... ] }
+ * { "intersection" : [ operand, ... ] }
+ * { "difference" : [ minuend, subtrahend, ... ] }
+ * </pre>
+ */
+public class GroupSetExpression
+{
+	public static final String FIELD_GROUP = "group";
+	public static final String FIELD_UNION = "union";
+	public static final String FIELD_INTERSECTION = "intersection";
+	public static final String FIELD_DIFFERENCE = "difference";
+
+	/**
+	 * MAX_DEPTH bounds the nesting of an expression given in JSON.
+	 */
+	public static final int MAX_DEPTH = 32;
+
+	/**
+	 * MAX_GROUPS bounds the number of the groups in an expression given in JSON.
+	 */
+	public static final int MAX_GROUPS = 1000;
+
+	private enum Operator
+	{
+		Group(FIELD_GROUP),
+		Union(FIELD_UNION),
+		Intersection(FIELD_INTERSECTION),
+		Difference(FIELD_DIFFERENCE);
+
+		private final String field;
+
+		Operator(final String field)
+		{
+			this.field = field;
+		}
+	}
+
+	private final Operator operator;
+	private final String group;
+	private final List<GroupSetExpression> operands;
+
+	private GroupSetExpression(final Operator operator, final String group, final List<GroupSetExpression> operands)
+	{
+		this.operator = operator;
+		this.group = group;
+		this.operands = operands;
+	}
+
+	/**
+	 * @param group A group
+	 * @return An expression for the members of the group
+	 */
+	public static GroupSetExpression group(final String group)
+	{
+		checkArgument(!Strings.isNullOrEmpty(group), "group shouldn't be null or empty.");
+		return new GroupSetExpression(Operator.Group, group, Collections.emptyList());
+	}
+
+	/**
+	 * @param operands One or more expressions
+	 * @return An expression for the members of any operand
+	 */
+	public static GroupSetExpression union(final GroupSetExpression... operands)
+	{
+		return make(Operator.Union, operands);
+	}
+
+	/**
+	 * @param operands One or more expressions
+	 * @return An expression for the members of every operand
+	 */
+	public static GroupSetExpression intersection(final GroupSetExpression... operands)
+	{
+		return make(Operator.Intersection, operands);
+	}
+
+	/**
+	 * @param minuend     An expression
+	 * @param subtrahends Expressions whose members are excluded from the minuend
+	 * @return An expression for the members of the minuend that aren't in any subtrahend
+	 */
+	public static GroupSetExpression difference(final GroupSetExpression minuend, final GroupSetExpression... subtrahends)
+	{
+		checkArgument(minuend != null, "minuend shouldn't be null.");
+		checkArgument(subtrahends != null, "subtrahends shouldn't be null.");
+
+		final GroupSetExpression[] operands = new GroupSetExpression[subtrahends.length + 1];
+		operands[0] = minuend;
+		System.arraycopy(subtrahends, 0, operands, 1, subtrahends.length);
+		return make(Operator.Difference, operands);
+	}
+
+	private static GroupSetExpression make(final Operator operator, final GroupSetExpression[] operands)
+	{
+		checkArgument(operands != null && operands.length > 0, "operands shouldn't be null or empty.");
+		for (final GroupSetExpression operand : operands) {
+			checkArgument(operand != null, "operands shouldn't have null.");
+		}
+		return new GroupSetExpression(operator, null, Collections.unmodifiableList(new ArrayList<>(Arrays.asList(operands))));
+	}
+
+	/**
+	 * fromJson makes an expression from its JSON form.
+	 *
+	 * @param json An expression in JSON
+	 * @return An expression
+	 * @throws PICOException BadRequest if the JSON isn't a valid expression
+	 */
+	public static GroupSetExpression fromJson(final JsonObject json)
+			throws PICOException
+	{
+		final int[] groupCount = new int[1];
+		return fromJson(json, 0, groupCount);
+	}
+
+	private static GroupSetExpression fromJson(final JsonObject json, final int depth, final int[] groupCount)
+			throws PICOException
+	{
+		if (json == null || json.size() != 1) {
+			throw new PICOException(PICOErrorCode.BadRequest, "an expression should have exactly one of group, union, intersection, and difference.");
+		}
+		if (depth >= MAX_DEPTH) {
+			throw new PICOException(PICOErrorCode.BadRequest, "an expression shouldn't be nested deeper than " + MAX_DEPTH + ".");
+		}
+
+		try {
+			if (json.containsKey(FIELD_GROUP)) {
+				if (++groupCount[0] > MAX_GROUPS) {
+					throw new PICOException(PICOErrorCode.BadRequest, "an expression shouldn't have more than " + MAX_GROUPS + " groups.");
+				}
+				return group(json.getString(FIELD_GROUP));
+			}
+
+			for (final Operator operator : Operator.values()) {
+				if (operator == Operator.Group || !json.containsKey(operator.field)) {
+					continue;
+				}
+
+				final JsonArray operandsInJson = json.getJsonArray(operator.field);
+				if (operandsInJson == null) {
+					break;
+				}
+
+				final GroupSetExpression[] operands = new GroupSetExpression[operandsInJson.size()];
+				for (int i = 0; i < operands.length; i++) {
+					operands[i] = fromJson(operandsInJson.getJsonObject(i), depth + 1, groupCount);
+				}
+				return make(operator, operands);
+			}
+		}
+		catch (ClassCastException | IllegalArgumentException e) {
+			throw new PICOException(PICOErrorCode.BadRequest, e.getMessage(), e);
+		}
+
+		throw new PICOException(PICOErrorCode.BadRequest, "an expression should have exactly one of group, union, intersection, and difference.");
+	}
+
+	/**
+	 * @return The JSON form of the expression
+	 */
+	public JsonObject toJson()
+	{
+		if (operator == Operator.Group) {
+			return new JsonObject().put(FIELD_GROUP, group);
+		}
+
+		final JsonArray operandsInJson = new JsonArray();
+		operands.forEach(e -> operandsInJson.add(e.toJson()));
+		return new JsonObject().put(operator.field, operandsInJson);
+	}
+
+	/**
+	 * toQuery compiles the expression into a query on the groups field of the entities.
+	 * The operands that are plain groups are merged into a single $in, $all, or $nin.
+	 *
+	 * @return A query that matches the entities in the result of the expression
+	 */
+	public Finder.Expression toQuery()
+	{
+		if (operator == Operator.Group) {
+			return Finder.newQuery()
+			             .field(GroupManipulation.FIELD_GROUPS).is(group);
+		}
+
+		final List<String> groups = new ArrayList<>();
+		final List<Finder.Expression> queries = new ArrayList<>();
+		// The minuend of a difference isn't merged with the subtrahends.
+		final List<GroupSetExpression> merged = operator == Operator.Difference ? operands.subList(1, operands.size()) : operands;
+		for (final GroupSetExpression operand : merged) {
+			if (operand.operator == Operator.Group) {
+				groups.add(operand.group);
+			}
+			else {
+				queries.add(operand.toQuery());
+			}
+		}
+
+		switch (operator) {
+		case Union:
+			if (!groups.isEmpty()) {
+				queries.add(Finder.newQuery().field(GroupManipulation.FIELD_GROUPS).inStringCollection(groups));
+			}
+			return queries.size() == 1 ? queries.get(0) : Finder.newQuery().anyOf(toArray(queries));
+
+		case Intersection:
+			if (!groups.isEmpty()) {
+				queries.add(Finder.newQuery().field(GroupManipulation.FIELD_GROUPS).allInStringCollection(groups));
+			}
+			return queries.size() == 1 ? queries.get(0) : Finder.newQuery().allOf(toArray(queries));
+
+		default:
+			final List<Finder.Expression> conditions = new ArrayList<>();
+			conditions.add(operands.get(0).toQuery());
+			if (!groups.isEmpty()) {
+				conditions.add(Finder.newQuery().field(GroupManipulation.FIELD_GROUPS).ninStringCollection(groups));
+			}
+			if (!queries.isEmpty()) {
+				conditions.add(Finder.newQuery().noneOf(toArray(queries)));
+			}
+			return conditions.size() == 1 ? conditions.get(0) : Finder.newQuery().allOf(toArray(conditions));
+		}
+	}
+
+	private static Finder.Query[] toArray(final List<Finder.Expression> queries)
+	{
+		return queries.toArray(new Finder.Query[queries.size()]);
+	}
+
+	/**
+	 * evaluate computes the expression on bitmaps. The bitmaps given by 'members' aren't changed,
+	 * but the result may be one of them if the expression is a single group.
+	 *
+	 * @param members A function that gives the members of a group
+	 * @return The members in the result of the expression
+	 */
+	RoaringBitmap evaluate(final Function<String, RoaringBitmap> members)
+	{
+		if (operator == Operator.Group) {
+			return members.apply(group);
+		}
+
+		final RoaringBitmap[] bitmaps = new RoaringBitmap[operands.size()];
+		for (int i = 0; i < bitmaps.length; i++) {
+			bitmaps[i] = operands.get(i).evaluate(members);
+		}
+
+		switch (operator) {
+		case Union:
+			return bitmaps.length == 1 ? bitmaps[0] : FastAggregation.or(bitmaps);
+
+		case Intersection:
+			return bitmaps.length == 1 ? bitmaps[0] : FastAggregation.and(bitmaps);
+
+		default:
+			if (bitmaps.length == 1) {
+				return bitmaps[0];
+			}
+			return RoaringBitmap.andNot(bitmaps[0], FastAggregation.or(Arrays.copyOfRange(bitmaps, 1, bitmaps.length)));
+		}
+	}
+
+	@Override
+	public boolean equals(final Object o)
+	{
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof GroupSetExpression)) {
+			return false;
+		}
+
+		final GroupSetExpression that = (GroupSetExpression) o;
+		return operator == that.operator && Objects.equals(group, that.group) && operands.equals(that.operands);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return Objects.hash(operator, group, operands);
+	}
+
+	@Override
+	public String toString()
+	{
+		return toJson().encode();
+	}
+}
@@ -0,0 +1,13 @@
+package com.pful.pico.resource;
+
+import com.pful.pico.core.PICOErrorCode;
+
+import java.util.List;
+
+/**
+ * GroupSetIdListCallback is called with the ids of the entities in the result of a set operation.
+ */
+public interface GroupSetIdListCallback
+{
+	void listed(final PICOErrorCode errorCode, final List<String> entityIds);
+}
@@ -1,15 +1,16 @@
 package com.pful.pico.resource;
 
 import com.google.common.base.Strings;
-import com.google.gson.Gson;
-import com.pful.pico.Service;
 import com.pful.pico.core.PICOErrorCode;
-import com.pful.pico.db.MongoDB;
 import com.pful.pico.db.querybuilder.Finder;
+import com.pful.pico.metrics.LatencyHistogram;
+import com.pful.pico.metrics.Metrics;
+import com.pful.pico.store.Stores;
 import io.vertx.core.json.JsonObject;
 
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -22,6 +23,18 @@ public class GroupSetOperation
 {
 //	private static final String QUERY_GETTING_TWO_GROUPS = "QUERY_GETTING_TWO_GROUPS";
 
+	private static final int READ_CHUNK_SIZE = 1000;
+
+	private static final String OPERATOR_UNION = "union";
+	private static final String OPERATOR_INTERSECTION = "intersection";
+	private static final String OPERATOR_DIFFERENCE = "difference";
+	private static final String OPERATOR_SUBSET = "subset";
+	private static final String OPERATOR_EVALUATE = "evaluate";
+	private static final String RESULT_ENTITIES = "entities";
+	private static final String RESULT_IDS = "ids";
+	private static final String RESULT_COUNT = "count";
+	private static final String RESULT_BOOLEAN = "boolean";
+
 	/**
 	 //	 * @param context
 	 * @param group1   group id referencing an entity
@@ -40,35 +53,98 @@ public class GroupSetOperation
 
 //		Query -> { 'app_id' : <#app_id>, $or : [ { 'groups' : <#group_1> }, { 'groups' : <#group_2> }}]}
 
-		final JsonObject query = Finder.newQuery()
-//		                               .field(Entity.FIELD_APP_ID).is(context.getAppId())
-                                       .anyOf(field(GroupManipulation.FIELD_GROUPS).is(group1),
-		                                      field(GroupManipulation.FIELD_GROUPS).is(group2))
-                                       .toJson();
+		final Finder.Expression query = Finder.newQuery()
+//		                                      .field(Entity.FIELD_APP_ID).is(context.getAppId())
+                                              .anyOf(field(GroupManipulation.FIELD_GROUPS).is(group1),
+		                                             field(GroupManipulation.FIELD_GROUPS).is(group2));
+
+		final GroupSetOperationCallback timedCallback = timedEntities(OPERATOR_UNION, callback);
+
+		if (readAndDeliver(timedCallback, GroupSetExpression.union(GroupSetExpression.group(group1),
+		                                                           GroupSetExpression.group(group2)))) {
+			return;
+		}
 
-		performQueryAndDeliver(callback, query);
+		performQueryAndDeliver(timedCallback, query);
 	}
 
-	private static void performQueryAndDeliver(final GroupSetOperationCallback callback, final JsonObject query)
+	private static void performQueryAndDeliver(final GroupSetOperationCallback callback, final Finder.Expression query)
 	{
-		Service.mongoClient.find(MongoDB.COLLECTION_ENTITIES, query,
-		                         res -> {
-			                         if (res.failed()) {
-				                         callback.manipulated(PICOErrorCode.BadRequest, null);
-				                         return;
-			                         }
+		query.include(EntityCodec.FIELDS);
 
-			                         final Set<Entity> elements = new HashSet<>();
+		Stores.entities().find(query,
+		                       res -> {
+			                       if (res.failed()) {
+				                       callback.manipulated(PICOErrorCode.BadRequest, null);
+				                       return;
+			                       }
 
-			                         final Gson gson = new Gson();
+			                       callback.manipulated(PICOErrorCode.Success, decodeAll(res.result()));
+		                       });
+	}
+
+	/**
+	 * decodeAll decodes the documents of a query into the set of the result.
+	 *
+	 * @param documents The documents of the entities
+	 * @return The entities
+	 */
+	static Set<Entity> decodeAll(final List<JsonObject> documents)
+	{
+		final Set<Entity> elements = new HashSet<>();
 
-			                         // TODO Is that better to convert the res to Entity from JsonObject?
-			                         res.result()
-			                            .stream()
-			                            .forEach(e -> elements.add(gson.fromJson(e.toString(), Entity.class)));
+		documents.stream()
+		         .forEach(e -> elements.add(EntityCodec.decode(e)));
 
-			                         callback.manipulated(PICOErrorCode.Success, elements);
-		                         });
+		return elements;
+	}
+
+	/**
+	 * readAndDeliver reads the entities of the ids computed by GroupBitmapIndex.
+	 * The ids are queried in chunks, so that a query doesn't exceed the size limit of a document.
+	 *
+	 * @param callback
+	 * @param expression An expression over groups
+	 * @return false if GroupBitmapIndex isn't ready, in which case the callback isn't called
+	 */
+	private static boolean readAndDeliver(final GroupSetOperationCallback callback, final GroupSetExpression expression)
+	{
+		final List<String> entityIds = GroupBitmapIndex.evaluateIds(expression);
+		if (entityIds == null) {
+			return false;
+		}
+
+		readAndDeliver(callback, entityIds, 0, new HashSet<>(entityIds.size() * 2));
+		return true;
+	}
+
+	private static void readAndDeliver(final GroupSetOperationCallback callback,
+	                                   final List<String> entityIds,
+	                                   final int from,
+	                                   final Set<Entity> elements)
+	{
+		if (from >= entityIds.size()) {
+			callback.manipulated(PICOErrorCode.Success, elements);
+			return;
+		}
+
+		final int to = Math.min(from + READ_CHUNK_SIZE, entityIds.size());
+		final Finder.Expression query = Finder.newQuery()
+		                                      .field(Entity.FIELD_ID).inStringCollection(entityIds.subList(from, to))
+		                                      .include(EntityCodec.FIELDS);
+
+		Stores.entities().find(query,
+		                       res -> {
+			                       if (res.failed()) {
+				                       callback.manipulated(PICOErrorCode.BadRequest, null);
+				                       return;
+			                       }
+
+			                       res.result()
+			                          .forEach(e -> elements.add(EntityCodec.decode(e)));
+
+			                       readAndDeliver(callback, entityIds, to, elements);
+		                       });
 	}
 
 	/**
@@ -89,12 +165,18 @@ public class GroupSetOperation
 
 //		Query -> { 'app_id' : <#app_id>, 'groups' : { $all : [ <#group_1>, <#group_2> ]}}
 
-		final JsonObject query = Finder.newQuery()
-//		                               .field(Entity.FIELD_APP_ID).is(context.getAppId())
-                                       .field(GroupManipulation.FIELD_GROUPS).allInStrings(group1, group2)
-                                       .toJson();
+		final Finder.Expression query = Finder.newQuery()
+//		                                      .field(Entity.FIELD_APP_ID).is(context.getAppId())
+                                              .field(GroupManipulation.FIELD_GROUPS).allInStrings(group1, group2);
+
+		final GroupSetOperationCallback timedCallback = timedEntities(OPERATOR_INTERSECTION, callback);
+
+		if (readAndDeliver(timedCallback, GroupSetExpression.intersection(GroupSetExpression.group(group1),
+		                                                                  GroupSetExpression.group(group2)))) {
+			return;
+		}
 
-		performQueryAndDeliver(callback, query);
+		performQueryAndDeliver(timedCallback, query);
 	}
 
 	/**
@@ -115,13 +197,123 @@ public class GroupSetOperation
 
 		// Query -> { '$and' : [ { 'groups' : <#group1> } , { 'groups' : { $ne : <#groups2> }}]}
 
-		final JsonObject query = Finder.newQuery()
-//		                               .field(Entity.FIELD_APP_ID).is(context.getAppId())
-                                       .allOf(field(GroupManipulation.FIELD_GROUPS).is(group1),
-		                                      field(GroupManipulation.FIELD_GROUPS).ne(group2))
-                                       .toJson();
+		final Finder.Expression query = Finder.newQuery()
+//		                                      .field(Entity.FIELD_APP_ID).is(context.getAppId())
+                                              .allOf(field(GroupManipulation.FIELD_GROUPS).is(group1),
+		                                             field(GroupManipulation.FIELD_GROUPS).ne(group2));
+
+		final GroupSetOperationCallback timedCallback = timedEntities(OPERATOR_DIFFERENCE, callback);
+
+		if (readAndDeliver(timedCallback, GroupSetExpression.difference(GroupSetExpression.group(group1),
+		                                                                GroupSetExpression.group(group2)))) {
+			return;
+		}
+
+		performQueryAndDeliver(timedCallback, query);
+	}
+
+	/**
+	 * unionIds is the same as union, but gives only the ids of the entities, which are projected on _id.
+	 *
+	 * @param group1   group id referencing an entity
+	 * @param group2   group id referencing an entity
+	 * @param callback
+	 */
+	public static void unionIds(final String group1,
+	                            final String group2,
+	                            final GroupSetIdListCallback callback)
+	{
+		checkGroups(group1, group2);
+		deliverIds(GroupSetExpression.union(GroupSetExpression.group(group1), GroupSetExpression.group(group2)),
+		           timedIds(OPERATOR_UNION, callback));
+	}
+
+	/**
+	 * unionCount is the same as union, but gives only the number of the entities, which are counted by the database.
+	 *
+	 * @param group1   group id referencing an entity
+	 * @param group2   group id referencing an entity
+	 * @param callback
+	 */
+	public static void unionCount(final String group1,
+	                              final String group2,
+	                              final GroupSetCountCallback callback)
+	{
+		checkGroups(group1, group2);
+		deliverCount(GroupSetExpression.union(GroupSetExpression.group(group1), GroupSetExpression.group(group2)),
+		             timedCount(OPERATOR_UNION, callback));
+	}
 
-		performQueryAndDeliver(callback, query);
+	/**
+	 * intersectionIds is the same as intersection, but gives only the ids of the entities, which are projected on _id.
+	 *
+	 * @param group1   group id referencing an entity
+	 * @param group2   group id referencing an entity
+	 * @param callback
+	 */
+	public static void intersectionIds(final String group1,
+	                                   final String group2,
+	                                   final GroupSetIdListCallback callback)
+	{
+		checkGroups(group1, group2);
+		deliverIds(GroupSetExpression.intersection(GroupSetExpression.group(group1), GroupSetExpression.group(group2)),
+		           timedIds(OPERATOR_INTERSECTION, callback));
+	}
+
+	/**
+	 * intersectionCount is the same as intersection, but gives only the number of the entities,
+	 * which are counted by the database.
+	 *
+	 * @param group1   group id referencing an entity
+	 * @param group2   group id referencing an entity
+	 * @param callback
+	 */
+	public static void intersectionCount(final String group1,
+	                                     final String group2,
+	                                     final GroupSetCountCallback callback)
+	{
+		checkGroups(group1, group2);
+		deliverCount(GroupSetExpression.intersection(GroupSetExpression.group(group1), GroupSetExpression.group(group2)),
+		             timedCount(OPERATOR_INTERSECTION, callback));
+	}
+
+	/**
+	 * differenceIds is the same as difference, but gives only the ids of the entities, which are projected on _id.
+	 *
+	 * @param group1   group id referencing an entity
+	 * @param group2   group id referencing an entity
+	 * @param callback
+	 */
+	public static void differenceIds(final String group1,
+	                                 final String group2,
+	                                 final GroupSetIdListCallback callback)
+	{
+		checkGroups(group1, group2);
+		deliverIds(GroupSetExpression.difference(GroupSetExpression.group(group1), GroupSetExpression.group(group2)),
+		           timedIds(OPERATOR_DIFFERENCE, callback));
+	}
+
+	/**
+	 * differenceCount is the same as difference, but gives only the number of the entities,
+	 * which are counted by the database.
+	 *
+	 * @param group1   group id referencing an entity
+	 * @param group2   group id referencing an entity
+	 * @param callback
+	 */
+	public static void differenceCount(final String group1,
+	                                   final String group2,
+	                                   final GroupSetCountCallback callback)
+	{
+		checkGroups(group1, group2);
+		deliverCount(GroupSetExpression.difference(GroupSetExpression.group(group1), GroupSetExpression.group(group2)),
+		             timedCount(OPERATOR_DIFFERENCE, callback));
+	}
+
+	private static void checkGroups(final String group1, final String group2)
+	{
+		checkArgument(!Strings.isNullOrEmpty(group1) && !Strings.isNullOrEmpty(group2),
+		              "groups shouldn't be null or empty.");
 	}
 
 	/**
@@ -140,66 +332,172 @@ public class GroupSetOperation
 		checkArgument(!Strings.isNullOrEmpty(group1) && !Strings.isNullOrEmpty(group2),
 		              "groups shouldn't be null or empty.");
 
-		getElements(//context,
-		            group1,
-		            entitiesInGroup1 -> {
-			            getElements(//context,
-			                        group2,
-			                        entitiesInGroup2 -> {
-				                        if (entitiesInGroup1 == null || entitiesInGroup2 == null) {
-					                        callback.manipulated(PICOErrorCode.BadRequest, false);
-					                        return;
-				                        }
+		final GroupLogicalSetOperationCallback timedCallback = timedBoolean(OPERATOR_SUBSET, callback);
+
+		final Boolean indexedSubset = GroupBitmapIndex.subset(group1, group2);
+		if (indexedSubset != null) {
+			timedCallback.manipulated(PICOErrorCode.Success, indexedSubset);
+			return;
+		}
+
+		// Only the ids are compared, so they are read from the GroupMembers index while it is complete.
+		GroupMembers.read(group1,
+		                  (errorCode1, entityIdsInGroup1) -> {
+			                  GroupMembers.read(group2,
+			                                    (errorCode2, entityIdsInGroup2) -> {
+				                                    if (errorCode1 != PICOErrorCode.Success || errorCode2 != PICOErrorCode.Success) {
+					                                    timedCallback.manipulated(PICOErrorCode.BadRequest, false);
+					                                    return;
+				                                    }
+
+				                                    timedCallback.manipulated(PICOErrorCode.Success,
+				                                                              entityIdsInGroup1.containsAll(entityIdsInGroup2));
+			                                    });
+		                  });
+	}
 
-				                        // because of comparing entity-objects itself, containsAll returns "false".
-				                        final Gson gson = new Gson();
-				                        final Collection<String> groupSet1 = new HashSet<>();
-				                        final Collection<String> groupSet2 = new HashSet<>();
+	/**
+	 * evaluate gives the entities in the result of an expression over any number of groups.
+	 * The expression is computed by GroupBitmapIndex if it is ready, otherwise by a single query.
+	 *
+	 * @param expression An expression over groups
+	 * @param callback
+	 */
+	public static void evaluate(final GroupSetExpression expression,
+	                            final GroupSetOperationCallback callback)
+	{
+		checkArgument(expression != null, "expression shouldn't be null.");
+		checkArgument(callback != null, "callback shouldn't be null.");
+
+		final GroupSetOperationCallback timedCallback = timedEntities(OPERATOR_EVALUATE, callback);
 
-				                        entitiesInGroup1.stream().forEach(e -> groupSet1.add(gson.toJson(e)));
-				                        entitiesInGroup2.stream().forEach(e -> groupSet2.add(gson.toJson(e)));
+		if (readAndDeliver(timedCallback, expression)) {
+			return;
+		}
 
-				                        callback.manipulated(PICOErrorCode.Success, groupSet1.containsAll(groupSet2));
-			                        });
-		            });
+		performQueryAndDeliver(timedCallback, expression.toQuery());
 	}
 
 	/**
-	 //	 * @param context
-	 * @param group group id referencing an entity
-	 * @return
+	 * evaluateIds gives the ids of the entities in the result of an expression over any number of groups.
+	 * Without GroupBitmapIndex only the ids are read from the database.
+	 *
+	 * @param expression An expression over groups
+	 * @param callback
+	 */
+	public static void evaluateIds(final GroupSetExpression expression,
+	                               final GroupSetIdListCallback callback)
+	{
+		checkArgument(expression != null, "expression shouldn't be null.");
+		checkArgument(callback != null, "callback shouldn't be null.");
+
+		deliverIds(expression, timedIds(OPERATOR_EVALUATE, callback));
+	}
+
+	private static void deliverIds(final GroupSetExpression expression, final GroupSetIdListCallback callback)
+	{
+		final List<String> indexedIds = GroupBitmapIndex.evaluateIds(expression);
+		if (indexedIds != null) {
+			callback.listed(PICOErrorCode.Success, indexedIds);
+			return;
+		}
+
+		final Finder.Expression query = expression.toQuery()
+		                                          .include(Entity.FIELD_ID);
+
+		Stores.entities().find(query,
+		                       res -> {
+			                       if (res.failed()) {
+				                       callback.listed(PICOErrorCode.BadRequest, null);
+				                       return;
+			                       }
+
+			                       final List<String> entityIds = new ArrayList<>(res.result().size());
+			                       res.result()
+			                          .forEach(e -> entityIds.add(e.getString(Entity.FIELD_ID)));
+
+			                       callback.listed(PICOErrorCode.Success, entityIds);
+		                       });
+	}
+
+	/**
+	 * evaluateCount gives the number of the entities in the result of an expression over any number of groups.
+	 * Without GroupBitmapIndex the entities are counted by the database.
+	 *
+	 * @param expression An expression over groups
+	 * @param callback
 	 */
-	// TODO : extract this as a general function for getting Entities in a specfic group
-	private static void getElements(//final ApplicationContext context,
-	                                final String group,
-	                                final GroupElementListCallback callback)
+	public static void evaluateCount(final GroupSetExpression expression,
+	                                 final GroupSetCountCallback callback)
 	{
-		final JsonObject query = Finder.newQuery()
-//		                               .field(Entity.FIELD_APP_ID).is(context.getAppId())
-                                       .field(GroupManipulation.FIELD_GROUPS).inStrings(group)
-                                       .toJson();
+		checkArgument(expression != null, "expression shouldn't be null.");
+		checkArgument(callback != null, "callback shouldn't be null.");
 
-//		final JsonObject query = new JsonObject().put(Entity.FIELD_APP_ID, appId)
-//		                                         .put(GroupManipulation.FIELD_GROUPS,
-//		                                              new JsonObject().put("$in", Arrays.asList(group)));
+		deliverCount(expression, timedCount(OPERATOR_EVALUATE, callback));
+	}
 
-		Service.mongoClient.find(MongoDB.COLLECTION_ENTITIES, query,
-		                         res -> {
-			                         if (res.failed()) {
-				                         callback.listed(null);
-				                         return;
-			                         }
+	private static void deliverCount(final GroupSetExpression expression, final GroupSetCountCallback callback)
+	{
+		final Integer indexedCount = GroupBitmapIndex.evaluateCardinality(expression);
+		if (indexedCount != null) {
+			callback.counted(PICOErrorCode.Success, indexedCount);
+			return;
+		}
+
+		Stores.entities().count(expression.toQuery(),
+		                        res -> {
+			                        if (res.failed()) {
+				                        callback.counted(PICOErrorCode.BadRequest, 0);
+				                        return;
+			                        }
+
+			                        callback.counted(PICOErrorCode.Success, res.result());
+		                        });
+	}
 
-			                         final Collection<Entity> elemsInCollection = new HashSet<>();
+	/**
+	 * timedEntities, timedIds, timedCount and timedBoolean wrap a callback of each kind of the result,
+	 * so that the latency of an operation is recorded into Metrics when the callback is called.
+	 * The operation is regarded as started when it is wrapped.
+	 */
+	private static GroupSetOperationCallback timedEntities(final String operator, final GroupSetOperationCallback callback)
+	{
+		final LatencyHistogram histogram = Metrics.setOperation(operator, RESULT_ENTITIES);
+		final long start = System.nanoTime();
+		return (errorCode, result) -> {
+			histogram.record(start);
+			callback.manipulated(errorCode, result);
+		};
+	}
 
-			                         final Gson gson = new Gson();
+	private static GroupSetIdListCallback timedIds(final String operator, final GroupSetIdListCallback callback)
+	{
+		final LatencyHistogram histogram = Metrics.setOperation(operator, RESULT_IDS);
+		final long start = System.nanoTime();
+		return (errorCode, entityIds) -> {
+			histogram.record(start);
+			callback.listed(errorCode, entityIds);
+		};
+	}
 
-			                         res.result()
-			                            .stream()
-			                            .forEach(e -> elemsInCollection.add(gson.fromJson(e.toString(), Entity.class)));
+	private static GroupSetCountCallback timedCount(final String operator, final GroupSetCountCallback callback)
+	{
+		final LatencyHistogram histogram = Metrics.setOperation(operator, RESULT_COUNT);
+		final long start = System.nanoTime();
+		return (errorCode, count) -> {
+			histogram.record(start);
+			callback.counted(errorCode, count);
+		};
+	}
 
-			                         callback.listed(elemsInCollection);
-		                         });
+	private static GroupLogicalSetOperationCallback timedBoolean(final String operator, final GroupLogicalSetOperationCallback callback)
+	{
+		final LatencyHistogram histogram = Metrics.setOperation(operator, RESULT_BOOLEAN);
+		final long start = System.nanoTime();
+		return (errorCode, isTrue) -> {
+			histogram.record(start);
+			callback.manipulated(errorCode, isTrue);
+		};
 	}
 
 	static {
@@ -7,7 +7,7 @@ import java.util.Collection;
 /**
  * Created by youngdocho on 12/8/15.
  */
-interface GroupSetOperationCallback
+public interface GroupSetOperationCallback
 {
 	void manipulated(final PICOErrorCode errorCode, final Collection<Entity> result);
 }
@@ -0,0 +1,11 @@
+package com.pful.pico.resource;
+
+import com.pful.pico.core.PICOErrorCode;
+
+/**
+ * IndexProvisionCallback is called when the declared indexes have been created or verified.
+ */
+public interface IndexProvisionCallback
+{
+	void provisioned(final PICOErrorCode errorCode);
+}
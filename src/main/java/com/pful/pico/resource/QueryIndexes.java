@@ -0,0 +1,206 @@
+package com.pful.pico.resource;
+
+import com.pful.pico.core.PICOErrorCode;
+import com.pful.pico.db.MongoDB;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+
+import java.util.*;
+
+/**
+ * QueryIndexes declares the indexes that the queries of PICO need, and creates them at the start.
+ * Creating an index that exists already does nothing, so the indexes are verified at every start as well.
+ * An index that exists under the same name with other keys or options fails, which is reported.
+ * <p>
+ * The indexes are created in the background by default, and the service runs on whatever indexes exist meanwhile.
+ * With 'fail_fast', the service doesn't start until the indexes are provisioned, and doesn't start at all if they can't be.
+ */
+public class QueryIndexes
+{
+	public static final String CONFIG_FAIL_FAST = "fail_fast";
+	public static final boolean DEFAULT_FAIL_FAST = false;
+
+	private static final String DB_METHOD_CREATE_INDEXES = "createIndexes";
+	private static final String CREATE_INDEXES_FIELD_INDEXES = "indexes";
+	private static final String INDEX_FIELD_KEY = "key";
+	private static final String INDEX_FIELD_NAME = "name";
+	private static final String INDEX_FIELD_UNIQUE = "unique";
+	private static final String INDEX_FIELD_BACKGROUND = "background";
+	private static final String RESULT_FIELD_BEFORE = "numIndexesBefore";
+	private static final String RESULT_FIELD_AFTER = "numIndexesAfter";
+
+	/**
+	 * declared has the indexes of every collection, which are the arguments of createIndexes.
+	 */
+	private static final Map<String, JsonArray> declared = new LinkedHashMap<>();
+
+	private static boolean failFast = DEFAULT_FAIL_FAST;
+
+	/**
+	 * result is the result of the last provisioning. It is null while the indexes are being provisioned.
+	 */
+	private static PICOErrorCode result = PICOErrorCode.Success;
+	private static List<IndexProvisionCallback> waiting = new ArrayList<>();
+
+	static {
+		// {type, _id} serves listing the entities of a type, by an offset or in the order of the ids after a cursor.
+		declare(MongoDB.COLLECTION_ENTITIES, new JsonObject().put(Entity.FIELD_TYPE, 1)
+		                                                     .put(Entity.FIELD_ID, 1), false);
+		// {groups} serves the set operations between groups and the application-level group manipulations.
+		declare(MongoDB.COLLECTION_ENTITIES, new JsonObject().put(GroupManipulation.FIELD_GROUPS, 1), false);
+
+		// {group, entity_id} serves the members and the count of a group, and makes a membership unique.
+		declare(MongoDB.COLLECTION_GROUP_MEMBERS, new JsonObject().put(GroupMembers.FIELD_GROUP, 1)
+		                                                          .put(GroupMembers.FIELD_ENTITY_ID, 1), true);
+		// {entity_id, group} serves removing the memberships of an entity.
+		declare(MongoDB.COLLECTION_GROUP_MEMBERS, new JsonObject().put(GroupMembers.FIELD_ENTITY_ID, 1)
+		                                                          .put(GroupMembers.FIELD_GROUP, 1), false);
+	}
+
+	/**
+	 * A constructor
+	 */
+	private QueryIndexes()
+	{
+	}
+
+	private static void declare(final String collection, final JsonObject key, final boolean unique)
+	{
+		final JsonObject index = new JsonObject().put(INDEX_FIELD_KEY, key)
+		                                         .put(INDEX_FIELD_NAME, nameOf(key))
+		                                         .put(INDEX_FIELD_BACKGROUND, true);
+		if (unique) {
+			index.put(INDEX_FIELD_UNIQUE, true);
+		}
+
+		declared.computeIfAbsent(collection, c -> new JsonArray()).add(index);
+	}
+
+	/**
+	 * nameOf gives the name that MongoDB gives an index by default, such as 'type_1__id_1',
+	 * so that the indexes created by hand with the same keys are taken for the declared ones.
+	 *
+	 * @param key The key of an index
+	 * @return The default name of the index
+	 */
+	static String nameOf(final JsonObject key)
+	{
+		final StringBuilder name = new StringBuilder();
+		for (final String field : key.fieldNames()) {
+			if (name.length() > 0) {
+				name.append('_');
+			}
+			name.append(field).append('_').append(key.getValue(field));
+		}
+		return name.toString();
+	}
+
+	/**
+	 * @param collection A collection
+	 * @return The indexes declared for the collection, which are the arguments of createIndexes
+	 */
+	static JsonArray declaredIndexes(final String collection)
+	{
+		final JsonArray indexes = declared.get(collection);
+		return indexes == null ? new JsonArray() : indexes.copy();
+	}
+
+	/**
+	 * provision creates the declared indexes of every collection unless they exist.
+	 *
+	 * @param mongoClient A client of the database that has the collections
+	 * @param config      A configuration that has 'fail_fast'. It is false by default.
+	 */
+	public static void provision(final MongoClient mongoClient, final JsonObject config)
+	{
+		synchronized (QueryIndexes.class) {
+			failFast = config.getBoolean(CONFIG_FAIL_FAST, DEFAULT_FAIL_FAST);
+			result = null;
+		}
+
+		provision(mongoClient, new ArrayList<>(declared.keySet()), 0, PICOErrorCode.Success);
+	}
+
+	private static void provision(final MongoClient mongoClient,
+	                              final List<String> collections,
+	                              final int from,
+	                              final PICOErrorCode errorCode)
+	{
+		if (from >= collections.size()) {
+			finish(errorCode);
+			return;
+		}
+
+		ensure(mongoClient, collections.get(from),
+		       ensured -> provision(mongoClient, collections, from + 1, ensured == PICOErrorCode.Success ? errorCode : ensured));
+	}
+
+	/**
+	 * ensure creates the declared indexes of a collection unless they exist.
+	 *
+	 * @param mongoClient A client of the database that has the collection
+	 * @param collection  A collection
+	 * @param callback
+	 */
+	public static void ensure(final MongoClient mongoClient, final String collection, final IndexProvisionCallback callback)
+	{
+		final JsonObject command = new JsonObject().put(DB_METHOD_CREATE_INDEXES, collection)
+		                                           .put(CREATE_INDEXES_FIELD_INDEXES, declaredIndexes(collection));
+
+		mongoClient.runCommand(DB_METHOD_CREATE_INDEXES, command,
+		                       res -> {
+			                       if (res.failed()) {
+				                       System.err.println("The indexes of " + collection + " couldn't be provisioned: " + res.cause());
+				                       callback.provisioned(PICOErrorCode.InternalError);
+				                       return;
+			                       }
+
+			                       final Integer before = res.result().getInteger(RESULT_FIELD_BEFORE);
+			                       final Integer after = res.result().getInteger(RESULT_FIELD_AFTER);
+			                       if (before != null && after != null && after > before) {
+				                       System.out.println((after - before) + " indexes of " + collection + " have been created.");
+			                       }
+			                       callback.provisioned(PICOErrorCode.Success);
+		                       });
+	}
+
+	private static void finish(final PICOErrorCode errorCode)
+	{
+		final List<IndexProvisionCallback> callbacks;
+		synchronized (QueryIndexes.class) {
+			result = errorCode;
+			callbacks = waiting;
+			waiting = new ArrayList<>();
+		}
+
+		callbacks.forEach(callback -> callback.provisioned(errorCode));
+	}
+
+	/**
+	 * @return true if the service shouldn't start without the indexes
+	 */
+	public static synchronized boolean isFailFast()
+	{
+		return failFast;
+	}
+
+	/**
+	 * await calls the callback when the indexes have been provisioned, or at once if they have been already.
+	 *
+	 * @param callback A callback that is called with Success if all the indexes exist
+	 */
+	public static void await(final IndexProvisionCallback callback)
+	{
+		final PICOErrorCode provisioned;
+		synchronized (QueryIndexes.class) {
+			provisioned = result;
+			if (provisioned == null) {
+				waiting.add(callback);
+				return;
+			}
+		}
+
+		callback.provisioned(provisioned);
+	}
+}
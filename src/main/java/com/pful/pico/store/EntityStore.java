@@ -0,0 +1,153 @@
+package com.pful.pico.store;
+
+import com.pful.pico.db.querybuilder.Finder;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * EntityStore is the storage of the entities, which are the documents encoded by EntityCodec.
+ * Every operation is asynchronous, and the handler may be called on any thread, including the calling one.
+ * <p>
+ * The queries are the ones of Finder, so every store understands the query language of MongoDB that Finder builds.
+ * A store that isn't MongoDB can evaluate them with QueryPredicate.
+ * <p>
+ * The batch operations give the errors of the items by their positions in the batch. An ordered batch stops
+ * at the first failure, and an unordered one tries every item.
+ */
+public interface EntityStore
+{
+	/**
+	 * insert stores a new entity. The store gives it an id unless the document has one.
+	 *
+	 * @param document A document of an entity
+	 * @param handler  A handler called with the id of the entity
+	 */
+	void insert(final JsonObject document, final Handler<AsyncResult<String>> handler);
+
+	/**
+	 * @param documents Documents of new entities, which have their ids
+	 * @param ordered   Whether the batch stops at the first failure
+	 * @param handler   A handler called with the error messages by the positions of the failed items
+	 */
+	void insertBatch(final List<JsonObject> documents, final boolean ordered, final Handler<AsyncResult<Map<Integer, String>>> handler);
+
+	/**
+	 * read gives the entity of the id.
+	 *
+	 * @param id      An entity-id
+	 * @param handler A handler called with the document of the entity, or null if there is no such entity
+	 */
+	void read(final String id, final Handler<AsyncResult<JsonObject>> handler);
+
+	/**
+	 * find gives the entities matched by the query, with the projection, the sort, the skip and the limit of the query.
+	 *
+	 * @param query   A query
+	 * @param handler A handler called with the documents of the entities
+	 */
+	void find(final Finder.Expression query, final Handler<AsyncResult<List<JsonObject>>> handler);
+
+	/**
+	 * @param query   A query
+	 * @param handler A handler called with the number of the entities matched by the query
+	 */
+	void count(final Finder.Query query, final Handler<AsyncResult<Long>> handler);
+
+	/**
+	 * update sets the fields of an entity. It succeeds even if there is no such entity.
+	 *
+	 * @param change  A document that has the id of an entity and the fields to be set
+	 * @param handler A handler
+	 */
+	void update(final JsonObject change, final Handler<AsyncResult<Void>> handler);
+
+	/**
+	 * @param changes Documents that have the ids of entities and the fields to be set
+	 * @param ordered Whether the batch stops at the first failure
+	 * @param handler A handler called with the error messages by the positions of the failed items
+	 */
+	void updateBatch(final List<JsonObject> changes, final boolean ordered, final Handler<AsyncResult<Map<Integer, String>>> handler);
+
+	/**
+	 * delete removes an entity. It succeeds even if there is no such entity.
+	 *
+	 * @param id      An entity-id
+	 * @param handler A handler
+	 */
+	void delete(final String id, final Handler<AsyncResult<Void>> handler);
+
+	/**
+	 * @param ids     Entity-ids
+	 * @param ordered Whether the batch stops at the first failure
+	 * @param handler A handler called with the error messages by the positions of the failed items
+	 */
+	void deleteBatch(final List<String> ids, final boolean ordered, final Handler<AsyncResult<Map<Integer, String>>> handler);
+
+	/**
+	 * addGroup adds a group to the groups of an entity unless the entity has it.
+	 *
+	 * @param id        An entity-id
+	 * @param group     A group
+	 * @param updatedAt A unix timestamp set to the entity
+	 * @param handler   A handler called with {_id, groups} of the changed entity,
+	 *                  or null if there is no such entity or it has the group already
+	 */
+	void addGroup(final String id, final String group, final long updatedAt, final Handler<AsyncResult<JsonObject>> handler);
+
+	/**
+	 * replaceGroup replaces a group of an entity with another group.
+	 *
+	 * @param id            An entity-id
+	 * @param originalGroup A group of the entity
+	 * @param newGroup      A group that replaces the original group
+	 * @param updatedAt     A unix timestamp set to the entity
+	 * @param handler       A handler called with {_id, groups} of the changed entity,
+	 *                      or null if there is no such entity or it doesn't have the original group
+	 */
+	void replaceGroup(final String id, final String originalGroup, final String newGroup, final long updatedAt,
+	                  final Handler<AsyncResult<JsonObject>> handler);
+
+	/**
+	 * removeGroup removes a group from the groups of an entity.
+	 *
+	 * @param id        An entity-id
+	 * @param group     A group
+	 * @param updatedAt A unix timestamp set to the entity
+	 * @param handler   A handler called with {n: 1 if the entity exists or 0, updatedExisting: whether the entity exists}
+	 */
+	void removeGroup(final String id, final String group, final long updatedAt, final Handler<AsyncResult<JsonObject>> handler);
+
+	/**
+	 * renameGroup replaces a group with another group in every entity.
+	 *
+	 * @param originalGroup A group
+	 * @param newGroup      A group that replaces the original group
+	 * @param updatedAt     A unix timestamp set to the changed entities
+	 * @param handler       A handler called with {n: the number of the entities matched, nModified: the number of the entities changed}
+	 */
+	void renameGroup(final String originalGroup, final String newGroup, final long updatedAt, final Handler<AsyncResult<JsonObject>> handler);
+
+	/**
+	 * removeGroupFromAll removes a group from every entity.
+	 *
+	 * @param group     A group
+	 * @param updatedAt A unix timestamp set to the changed entities
+	 * @param handler   A handler called with {n: the number of the entities matched, nModified: the number of the entities changed}
+	 */
+	void removeGroupFromAll(final String group, final long updatedAt, final Handler<AsyncResult<JsonObject>> handler);
+
+	/**
+	 * @param handler A handler called with every group of the entities, each of which appears once
+	 */
+	void distinctGroups(final Handler<AsyncResult<JsonArray>> handler);
+
+	/**
+	 * @param handler A handler called with {group: the number of the entities in the group...} of every group
+	 */
+	void countGroups(final Handler<AsyncResult<JsonObject>> handler);
+}
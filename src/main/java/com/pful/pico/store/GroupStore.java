@@ -0,0 +1,98 @@
+package com.pful.pico.store;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * GroupStore is the storage of the memberships, which are the pairs of a group and an entity-id in it.
+ * The memberships follow the groups fields of the entities, so that the members of a group are read without the entities.
+ * Every operation is asynchronous, and the handler may be called on any thread, including the calling one.
+ */
+public interface GroupStore
+{
+	/**
+	 * add records that an entity is in a group. It succeeds if the membership exists already.
+	 *
+	 * @param group    A group
+	 * @param entityId An entity-id
+	 * @param handler  A handler
+	 */
+	void add(final String group, final String entityId, final Handler<AsyncResult<Void>> handler);
+
+	/**
+	 * addAll records that the entities are in a group.
+	 *
+	 * @param group     A group
+	 * @param entityIds Entity-ids that aren't in the group
+	 * @param handler   A handler
+	 */
+	void addAll(final String group, final List<String> entityIds, final Handler<AsyncResult<Void>> handler);
+
+	/**
+	 * @param group    A group
+	 * @param entityId An entity-id
+	 * @param handler  A handler
+	 */
+	void remove(final String group, final String entityId, final Handler<AsyncResult<Void>> handler);
+
+	/**
+	 * removeGroup removes every membership of a group.
+	 *
+	 * @param group   A group
+	 * @param handler A handler
+	 */
+	void removeGroup(final String group, final Handler<AsyncResult<Void>> handler);
+
+	/**
+	 * removeEntities removes every membership of the entities.
+	 *
+	 * @param entityIds Entity-ids
+	 * @param handler   A handler
+	 */
+	void removeEntities(final Collection<String> entityIds, final Handler<AsyncResult<Void>> handler);
+
+	/**
+	 * @param group   A group
+	 * @param handler A handler called with the ids of the entities in the group
+	 */
+	void read(final String group, final Handler<AsyncResult<List<String>>> handler);
+
+	/**
+	 * @param group   A group
+	 * @param handler A handler called with the number of the entities in the group
+	 */
+	void count(final String group, final Handler<AsyncResult<Long>> handler);
+
+	/**
+	 * page gives the memberships in the order of {group, entity_id}, starting right after a membership.
+	 *
+	 * @param after   A membership {group, entity_id}, or null to start from the first one
+	 * @param limit   The maximum number of the memberships
+	 * @param handler A handler called with the memberships {group, entity_id}
+	 */
+	void page(final JsonObject after, final int limit, final Handler<AsyncResult<List<JsonObject>>> handler);
+
+	/**
+	 * rebuild replaces every membership with the ones in the groups fields of the entities.
+	 *
+	 * @param handler A handler called with the number of the memberships
+	 */
+	void rebuild(final Handler<AsyncResult<Long>> handler);
+
+	/**
+	 * load reads whether the store is complete from where the store keeps it, as it was left by the last process.
+	 *
+	 * @param handler A handler called with isComplete()
+	 */
+	void load(final Handler<AsyncResult<Boolean>> handler);
+
+	/**
+	 * @return true if the store has every membership in the groups fields of the entities.
+	 * Until then the members of a group should be read from the entities.
+	 */
+	boolean isComplete();
+}
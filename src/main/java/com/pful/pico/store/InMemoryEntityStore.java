@@ -0,0 +1,939 @@
+package com.pful.pico.store;
+
+import com.pful.pico.db.querybuilder.Finder;
+import com.pful.pico.db.querybuilder.QueryPredicate;
+import com.pful.pico.resource.Entity;
+import com.pful.pico.resource.GroupManipulation;
+import com.pful.pico.resource.GroupMembers;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.FindOptions;
+import org.bson.types.ObjectId;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * InMemoryEntityStore keeps the entities in the JVM, for the deployments without a database and for the tests.
+ * Nothing is persisted unless a subclass keeps the documents elsewhere, as SegmentEntityStore does.
+ * <p>
+ * The documents are kept by their ids, and every entity is given a dense ordinal when it is first stored.
+ * The ordinal is never given to another entity. The type and each group have a compressed bitmap of the ordinals,
+ * which narrows a query down to the candidates before the query is evaluated on them by QueryPredicate.
+ * The groups fields are indexed here already, so InMemoryGroupStore answers the memberships from these bitmaps.
+ * <p>
+ * A stored document is never changed. A change makes a new document, so a read by an id takes no lock.
+ * The other reads take a read lock, and the changes take a write lock. Every handler is called on the calling thread
+ * after the lock has been released.
+ */
+public class InMemoryEntityStore
+		implements EntityStore
+{
+	private static final String FIELD_N = "n";
+	private static final String FIELD_N_MODIFIED = "nModified";
+	private static final String FIELD_UPDATED_EXISTING = "updatedExisting";
+	private static final String FIELD_OK = "ok";
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final Map<String, JsonObject> documents;
+	private final Map<String, Integer> ordinals = new HashMap<>();
+	private final List<String> ids = new ArrayList<>();
+
+	private final RoaringBitmap all = new RoaringBitmap();
+	private final Map<String, RoaringBitmap> types = new HashMap<>();
+	private final Map<String, RoaringBitmap> groups = new HashMap<>();
+
+	/**
+	 * A constructor
+	 */
+	public InMemoryEntityStore()
+	{
+		this(new ConcurrentHashMap<>());
+	}
+
+	/**
+	 * A constructor for a store whose documents are kept by the map, such as SegmentEntityStore.
+	 * The documents already in the map are indexed at once.
+	 *
+	 * @param documents A map of the stored documents by their ids, which can be read while it is written
+	 */
+	protected InMemoryEntityStore(final Map<String, JsonObject> documents)
+	{
+		this.documents = documents;
+
+		for (final JsonObject document : documents.values()) {
+			final String id = document.getString(Entity.FIELD_ID);
+			ordinals.put(id, ids.size());
+			ids.add(id);
+			reindex(ordinals.get(id), null, document);
+		}
+	}
+
+	@Override
+	public void insert(final JsonObject document, final Handler<AsyncResult<String>> handler)
+	{
+		final JsonObject stored = document.copy();
+		if (stored.getString(Entity.FIELD_ID) == null) {
+			stored.put(Entity.FIELD_ID, new ObjectId().toHexString());
+		}
+
+		lock.writeLock().lock();
+		try {
+			put(stored);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+
+		handler.handle(Future.succeededFuture(stored.getString(Entity.FIELD_ID)));
+	}
+
+	@Override
+	public void insertBatch(final List<JsonObject> documents,
+	                        final boolean ordered,
+	                        final Handler<AsyncResult<Map<Integer, String>>> handler)
+	{
+		final Map<Integer, String> writeErrors = new HashMap<>();
+
+		lock.writeLock().lock();
+		try {
+			for (int i = 0; i < documents.size(); i++) {
+				final JsonObject stored = documents.get(i).copy();
+				if (stored.getString(Entity.FIELD_ID) == null) {
+					stored.put(Entity.FIELD_ID, new ObjectId().toHexString());
+				}
+
+				final String id = stored.getString(Entity.FIELD_ID);
+				if (this.documents.containsKey(id)) {
+					writeErrors.put(i, "E11000 duplicate key error dup key: { : \"" + id + "\" }");
+					if (ordered) {
+						break;
+					}
+					continue;
+				}
+
+				put(stored);
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+
+		handler.handle(Future.succeededFuture(writeErrors));
+	}
+
+	@Override
+	public void read(final String id, final Handler<AsyncResult<JsonObject>> handler)
+	{
+		final JsonObject document = documents.get(id);
+		handler.handle(Future.succeededFuture(document == null ? null : document.copy()));
+	}
+
+	@Override
+	public void find(final Finder.Expression query, final Handler<AsyncResult<List<JsonObject>>> handler)
+	{
+		final FindOptions options = query.toFindOptions();
+		final List<JsonObject> found;
+		try {
+			found = select(query.toJson(), options);
+		}
+		catch (IllegalArgumentException e) {
+			handler.handle(Future.failedFuture(e));
+			return;
+		}
+
+		final List<JsonObject> result = new ArrayList<>(found.size());
+		for (final JsonObject document : found) {
+			result.add(project(document, options.getFields()));
+		}
+
+		handler.handle(Future.succeededFuture(result));
+	}
+
+	@Override
+	public void count(final Finder.Query query, final Handler<AsyncResult<Long>> handler)
+	{
+		final List<JsonObject> found;
+		try {
+			found = select(query.toJson(), new FindOptions());
+		}
+		catch (IllegalArgumentException e) {
+			handler.handle(Future.failedFuture(e));
+			return;
+		}
+
+		handler.handle(Future.succeededFuture((long) found.size()));
+	}
+
+	@Override
+	public void update(final JsonObject change, final Handler<AsyncResult<Void>> handler)
+	{
+		lock.writeLock().lock();
+		try {
+			set(change);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+
+		handler.handle(Future.succeededFuture());
+	}
+
+	@Override
+	public void updateBatch(final List<JsonObject> changes,
+	                        final boolean ordered,
+	                        final Handler<AsyncResult<Map<Integer, String>>> handler)
+	{
+		lock.writeLock().lock();
+		try {
+			changes.forEach(this::set);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+
+		handler.handle(Future.succeededFuture(new HashMap<>()));
+	}
+
+	@Override
+	public void delete(final String id, final Handler<AsyncResult<Void>> handler)
+	{
+		lock.writeLock().lock();
+		try {
+			remove(id);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+
+		handler.handle(Future.succeededFuture());
+	}
+
+	@Override
+	public void deleteBatch(final List<String> ids,
+	                        final boolean ordered,
+	                        final Handler<AsyncResult<Map<Integer, String>>> handler)
+	{
+		lock.writeLock().lock();
+		try {
+			ids.forEach(this::remove);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+
+		handler.handle(Future.succeededFuture(new HashMap<>()));
+	}
+
+	@Override
+	public void addGroup(final String id, final String group, final long updatedAt, final Handler<AsyncResult<JsonObject>> handler)
+	{
+		JsonObject result = null;
+
+		lock.writeLock().lock();
+		try {
+			final JsonObject document = documents.get(id);
+			if (document != null && !groupsOf(document).contains(group)) {
+				final JsonArray newGroups = groupsOf(document).copy().add(group);
+				put(document.copy()
+				            .put(GroupManipulation.FIELD_GROUPS, newGroups)
+				            .put(Entity.FIELD_UPDATED_AT, updatedAt));
+				result = makeGroupsResult(id, newGroups);
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+
+		handler.handle(Future.succeededFuture(result));
+	}
+
+	@Override
+	public void replaceGroup(final String id,
+	                         final String originalGroup,
+	                         final String newGroup,
+	                         final long updatedAt,
+	                         final Handler<AsyncResult<JsonObject>> handler)
+	{
+		JsonObject result = null;
+
+		lock.writeLock().lock();
+		try {
+			final JsonObject document = documents.get(id);
+			if (document != null && groupsOf(document).contains(originalGroup)) {
+				final JsonArray newGroups = replaceFirst(groupsOf(document), originalGroup, newGroup);
+				put(document.copy()
+				            .put(GroupManipulation.FIELD_GROUPS, newGroups)
+				            .put(Entity.FIELD_UPDATED_AT, updatedAt));
+				result = makeGroupsResult(id, newGroups);
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+
+		handler.handle(Future.succeededFuture(result));
+	}
+
+	@Override
+	public void removeGroup(final String id, final String group, final long updatedAt, final Handler<AsyncResult<JsonObject>> handler)
+	{
+		boolean exists = false;
+
+		lock.writeLock().lock();
+		try {
+			final JsonObject document = documents.get(id);
+			if (document != null) {
+				put(document.copy()
+				            .put(GroupManipulation.FIELD_GROUPS, removeAll(groupsOf(document), group))
+				            .put(Entity.FIELD_UPDATED_AT, updatedAt));
+				exists = true;
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+
+		handler.handle(Future.succeededFuture(new JsonObject().put(FIELD_N, exists ? 1 : 0)
+		                                                      .put(FIELD_UPDATED_EXISTING, exists)));
+	}
+
+	@Override
+	public void renameGroup(final String originalGroup,
+	                        final String newGroup,
+	                        final long updatedAt,
+	                        final Handler<AsyncResult<JsonObject>> handler)
+	{
+		int n = 0;
+
+		lock.writeLock().lock();
+		try {
+			for (final JsonObject document : documentsOf(groups.get(originalGroup))) {
+				put(document.copy()
+				            .put(GroupManipulation.FIELD_GROUPS, replaceFirst(groupsOf(document), originalGroup, newGroup))
+				            .put(Entity.FIELD_UPDATED_AT, updatedAt));
+				n++;
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+
+		handler.handle(Future.succeededFuture(makeUpdateResult(n)));
+	}
+
+	@Override
+	public void removeGroupFromAll(final String group, final long updatedAt, final Handler<AsyncResult<JsonObject>> handler)
+	{
+		int n = 0;
+
+		lock.writeLock().lock();
+		try {
+			for (final JsonObject document : documentsOf(groups.get(group))) {
+				put(document.copy()
+				            .put(GroupManipulation.FIELD_GROUPS, removeAll(groupsOf(document), group))
+				            .put(Entity.FIELD_UPDATED_AT, updatedAt));
+				n++;
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+
+		handler.handle(Future.succeededFuture(makeUpdateResult(n)));
+	}
+
+	@Override
+	public void distinctGroups(final Handler<AsyncResult<JsonArray>> handler)
+	{
+		final JsonArray result = new JsonArray();
+
+		lock.readLock().lock();
+		try {
+			new TreeSet<>(groups.keySet()).forEach(result::add);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+
+		handler.handle(Future.succeededFuture(result));
+	}
+
+	/**
+	 * countGroups counts an entity once even if it has a group more than once.
+	 */
+	@Override
+	public void countGroups(final Handler<AsyncResult<JsonObject>> handler)
+	{
+		final JsonObject result = new JsonObject();
+
+		lock.readLock().lock();
+		try {
+			new TreeMap<>(groups).forEach((group, members) -> result.put(group, (long) members.getCardinality()));
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+
+		handler.handle(Future.succeededFuture(result));
+	}
+
+	/**
+	 * @param group A group
+	 * @return The ids of the entities in the group
+	 */
+	List<String> members(final String group)
+	{
+		lock.readLock().lock();
+		try {
+			final RoaringBitmap members = groups.get(group);
+			if (members == null) {
+				return new ArrayList<>();
+			}
+
+			final List<String> result = new ArrayList<>(members.getCardinality());
+			final IntIterator iterator = members.getIntIterator();
+			while (iterator.hasNext()) {
+				result.add(ids.get(iterator.next()));
+			}
+			return result;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param group A group
+	 * @return The number of the entities in the group
+	 */
+	long cardinality(final String group)
+	{
+		lock.readLock().lock();
+		try {
+			final RoaringBitmap members = groups.get(group);
+			return members == null ? 0 : members.getCardinality();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return The number of the pairs of a group and an entity in it
+	 */
+	long membershipCount()
+	{
+		lock.readLock().lock();
+		try {
+			long count = 0;
+			for (final RoaringBitmap members : groups.values()) {
+				count += members.getCardinality();
+			}
+			return count;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * memberships gives the memberships in the order of {group, entity_id}, starting right after a membership.
+	 * The ids in a group aren't kept in order, so the ids of every group in the page are sorted here.
+	 *
+	 * @param after A membership {group, entity_id}, or null to start from the first one
+	 * @param limit The maximum number of the memberships
+	 * @return Documents of {group, entity_id}
+	 */
+	List<JsonObject> memberships(final JsonObject after, final int limit)
+	{
+		final String afterGroup = after == null ? null : after.getString(GroupMembers.FIELD_GROUP);
+		final String afterEntityId = after == null ? null : after.getString(GroupMembers.FIELD_ENTITY_ID);
+		final List<JsonObject> result = new ArrayList<>();
+
+		lock.readLock().lock();
+		try {
+			final NavigableSet<String> sortedGroups = new TreeSet<>(groups.keySet());
+			for (final String group : afterGroup == null ? sortedGroups : sortedGroups.tailSet(afterGroup, true)) {
+				final List<String> entityIds = new ArrayList<>();
+				final IntIterator iterator = groups.get(group).getIntIterator();
+				while (iterator.hasNext()) {
+					final String id = ids.get(iterator.next());
+					if (!group.equals(afterGroup) || afterEntityId == null || id.compareTo(afterEntityId) > 0) {
+						entityIds.add(id);
+					}
+				}
+				Collections.sort(entityIds);
+
+				for (final String entityId : entityIds) {
+					if (result.size() >= limit) {
+						return result;
+					}
+					result.add(new JsonObject().put(GroupMembers.FIELD_GROUP, group)
+					                           .put(GroupMembers.FIELD_ENTITY_ID, entityId));
+				}
+			}
+			return result;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * select gives the stored documents matched by the query, sorted, skipped and limited by the options.
+	 *
+	 * @throws IllegalArgumentException if the query has an operator that isn't supported
+	 */
+	private List<JsonObject> select(final JsonObject query, final FindOptions options)
+	{
+		final Predicate<JsonObject> predicate = QueryPredicate.compile(query);
+		final JsonObject sort = options.getSort();
+		final boolean sorted = sort != null && !sort.isEmpty();
+		final int skip = Math.max(options.getSkip(), 0);
+		final int limit = options.getLimit() > 0 ? options.getLimit() : Integer.MAX_VALUE;
+
+		final List<JsonObject> matched = new ArrayList<>();
+
+		lock.readLock().lock();
+		try {
+			final RoaringBitmap candidates = candidates(query);
+			final IntIterator iterator = (candidates == null ? all : candidates).getIntIterator();
+			// Without a sort the documents are in the order of the ordinals, so the rest of them aren't read.
+			while (iterator.hasNext() && (sorted || matched.size() < (long) skip + limit)) {
+				final JsonObject document = documents.get(ids.get(iterator.next()));
+				if (document != null && predicate.test(document)) {
+					matched.add(document);
+				}
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+
+		if (sorted) {
+			matched.sort(makeComparator(sort));
+		}
+
+		if (skip >= matched.size()) {
+			return new ArrayList<>();
+		}
+		return matched.subList(skip, (int) Math.min(matched.size(), (long) skip + limit));
+	}
+
+	/**
+	 * candidates narrows a query down with the indexes. The conditions on _id, type and groups at the top level
+	 * or in $and and $or are used, and the other conditions are left to the predicate.
+	 *
+	 * @param query A query
+	 * @return A bitmap of the ordinals that may be matched, or null if the query can't be narrowed down
+	 */
+	private RoaringBitmap candidates(final JsonObject query)
+	{
+		RoaringBitmap result = null;
+		for (final Map.Entry<String, Object> entry : query) {
+			final RoaringBitmap narrowed = candidates(entry.getKey(), entry.getValue());
+			if (narrowed != null) {
+				result = result == null ? narrowed : RoaringBitmap.and(result, narrowed);
+			}
+		}
+		return result;
+	}
+
+	private RoaringBitmap candidates(final String key, final Object condition)
+	{
+		switch (key) {
+		case "$and":
+			RoaringBitmap intersection = null;
+			for (final Object e : (JsonArray) condition) {
+				final RoaringBitmap narrowed = candidates((JsonObject) e);
+				if (narrowed != null) {
+					intersection = intersection == null ? narrowed : RoaringBitmap.and(intersection, narrowed);
+				}
+			}
+			return intersection;
+
+		case "$or":
+			final RoaringBitmap union = new RoaringBitmap();
+			for (final Object e : (JsonArray) condition) {
+				final RoaringBitmap narrowed = candidates((JsonObject) e);
+				if (narrowed == null) {
+					return null;
+				}
+				union.or(narrowed);
+			}
+			return union;
+
+		case Entity.FIELD_ID:
+			return lookUp(condition, this::bitmapOfId);
+
+		case Entity.FIELD_TYPE:
+			return lookUp(condition, types::get);
+
+		case GroupManipulation.FIELD_GROUPS:
+			return lookUp(condition, groups::get);
+
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * lookUp narrows down a condition on an indexed field. A string, $eq, $in and $all are used.
+	 *
+	 * @param condition A condition on the field
+	 * @param index     A function from a value to its bitmap, which gives null if no entity has the value
+	 * @return A bitmap of the candidates, or null if the condition can't be narrowed down
+	 */
+	private static RoaringBitmap lookUp(final Object condition, final Function<String, RoaringBitmap> index)
+	{
+		if (condition instanceof String) {
+			return orEmpty(index.apply((String) condition));
+		}
+		if (!(condition instanceof JsonObject)) {
+			return null;
+		}
+
+		RoaringBitmap result = null;
+		for (final Map.Entry<String, Object> entry : (JsonObject) condition) {
+			RoaringBitmap narrowed = null;
+			if (entry.getKey().equals("$eq") && entry.getValue() instanceof String) {
+				narrowed = orEmpty(index.apply((String) entry.getValue()));
+			}
+			else if (entry.getKey().equals("$in") && isStrings(entry.getValue())) {
+				narrowed = new RoaringBitmap();
+				for (final Object value : (JsonArray) entry.getValue()) {
+					final RoaringBitmap bitmap = index.apply((String) value);
+					if (bitmap != null) {
+						narrowed.or(bitmap);
+					}
+				}
+			}
+			else if (entry.getKey().equals("$all") && isStrings(entry.getValue()) && !((JsonArray) entry.getValue()).isEmpty()) {
+				for (final Object value : (JsonArray) entry.getValue()) {
+					final RoaringBitmap bitmap = orEmpty(index.apply((String) value));
+					narrowed = narrowed == null ? bitmap : RoaringBitmap.and(narrowed, bitmap);
+				}
+			}
+
+			if (narrowed != null) {
+				result = result == null ? narrowed : RoaringBitmap.and(result, narrowed);
+			}
+		}
+		return result;
+	}
+
+	private static boolean isStrings(final Object value)
+	{
+		if (!(value instanceof JsonArray)) {
+			return false;
+		}
+		for (final Object e : (JsonArray) value) {
+			if (!(e instanceof String)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static RoaringBitmap orEmpty(final RoaringBitmap bitmap)
+	{
+		return bitmap == null ? new RoaringBitmap() : bitmap;
+	}
+
+	private RoaringBitmap bitmapOfId(final String id)
+	{
+		final Integer ordinal = ordinals.get(id);
+		return ordinal == null ? null : RoaringBitmap.bitmapOf(ordinal);
+	}
+
+	/**
+	 * put stores a document and changes the indexes by the difference from the document stored before.
+	 * It should be called with the write lock.
+	 */
+	private void put(final JsonObject document)
+	{
+		final String id = document.getString(Entity.FIELD_ID);
+		Integer ordinal = ordinals.get(id);
+		if (ordinal == null) {
+			ordinal = ids.size();
+			ordinals.put(id, ordinal);
+			ids.add(id);
+		}
+
+		final JsonObject previous = documents.put(id, document);
+		reindex(ordinal, previous, document);
+	}
+
+	/**
+	 * remove removes a document and its ordinal from the indexes. It should be called with the write lock.
+	 */
+	private void remove(final String id)
+	{
+		final JsonObject previous = documents.remove(id);
+		if (previous != null) {
+			reindex(ordinals.get(id), previous, null);
+		}
+	}
+
+	/**
+	 * set sets the fields of a change to the stored document. It should be called with the write lock.
+	 */
+	private void set(final JsonObject change)
+	{
+		final JsonObject document = documents.get(change.getString(Entity.FIELD_ID));
+		if (document == null) {
+			return;
+		}
+
+		final JsonObject changed = document.copy();
+		for (final Map.Entry<String, Object> entry : change.copy()) {
+			changed.put(entry.getKey(), entry.getValue());
+		}
+		put(changed);
+	}
+
+	private void reindex(final int ordinal, final JsonObject previous, final JsonObject current)
+	{
+		if (current == null) {
+			all.remove(ordinal);
+		}
+		else {
+			all.add(ordinal);
+		}
+
+		final String previousType = previous == null ? null : previous.getString(Entity.FIELD_TYPE);
+		final String currentType = current == null ? null : current.getString(Entity.FIELD_TYPE);
+		if (!Objects.equals(previousType, currentType)) {
+			removeFrom(types, previousType, ordinal);
+			addTo(types, currentType, ordinal);
+		}
+
+		final Set<Object> previousGroups = previous == null ? Collections.emptySet() : copyTo(groupsOf(previous), new HashSet<>());
+		final Set<Object> currentGroups = current == null ? Collections.emptySet() : copyTo(groupsOf(current), new HashSet<>());
+		for (final Object group : previousGroups) {
+			if (!currentGroups.contains(group)) {
+				removeFrom(groups, (String) group, ordinal);
+			}
+		}
+		for (final Object group : currentGroups) {
+			if (!previousGroups.contains(group)) {
+				addTo(groups, (String) group, ordinal);
+			}
+		}
+	}
+
+	private static void addTo(final Map<String, RoaringBitmap> index, final String key, final int ordinal)
+	{
+		if (key != null) {
+			index.computeIfAbsent(key, k -> new RoaringBitmap()).add(ordinal);
+		}
+	}
+
+	private static void removeFrom(final Map<String, RoaringBitmap> index, final String key, final int ordinal)
+	{
+		final RoaringBitmap bitmap = key == null ? null : index.get(key);
+		if (bitmap == null) {
+			return;
+		}
+
+		bitmap.remove(ordinal);
+		if (bitmap.isEmpty()) {
+			index.remove(key);
+		}
+	}
+
+	/**
+	 * @return The stored documents of the ordinals, which are collected before any of them is changed
+	 */
+	private List<JsonObject> documentsOf(final RoaringBitmap bitmap)
+	{
+		final List<JsonObject> result = new ArrayList<>();
+		if (bitmap != null) {
+			final IntIterator iterator = bitmap.getIntIterator();
+			while (iterator.hasNext()) {
+				result.add(documents.get(ids.get(iterator.next())));
+			}
+		}
+		return result;
+	}
+
+	private static JsonArray groupsOf(final JsonObject document)
+	{
+		final JsonArray groups = document.getJsonArray(GroupManipulation.FIELD_GROUPS);
+		return groups == null ? new JsonArray() : groups;
+	}
+
+	/**
+	 * copyTo adds the values of an array to a collection. The list of a JsonArray is raw, so it isn't copied directly.
+	 *
+	 * @return The collection given
+	 */
+	private static <T extends Collection<Object>> T copyTo(final JsonArray array, final T collection)
+	{
+		array.forEach(collection::add);
+		return collection;
+	}
+
+	/**
+	 * replaceFirst replaces the first occurrence like the positional operator '$' of MongoDB.
+	 */
+	private static JsonArray replaceFirst(final JsonArray groups, final String original, final String replacement)
+	{
+		final List<Object> result = copyTo(groups, new ArrayList<>(groups.size()));
+		result.set(result.indexOf(original), replacement);
+		return new JsonArray(result);
+	}
+
+	/**
+	 * removeAll removes every occurrence like $pull of MongoDB.
+	 */
+	private static JsonArray removeAll(final JsonArray groups, final String group)
+	{
+		final List<Object> result = copyTo(groups, new ArrayList<>(groups.size()));
+		result.removeIf(group::equals);
+		return new JsonArray(result);
+	}
+
+	private static JsonObject makeGroupsResult(final String id, final JsonArray groups)
+	{
+		return new JsonObject().put(Entity.FIELD_ID, id)
+		                       .put(GroupManipulation.FIELD_GROUPS, groups.copy());
+	}
+
+	private static JsonObject makeUpdateResult(final int n)
+	{
+		return new JsonObject().put(FIELD_N, n)
+		                       .put(FIELD_N_MODIFIED, n)
+		                       .put(FIELD_OK, 1.0);
+	}
+
+	/**
+	 * project makes a copy of a document with the fields of a projection of MongoDB. The _id is included
+	 * unless it is excluded, and a projection that only excludes gives every other field.
+	 * A projection that includes the _id alone gives the _id only.
+	 *
+	 * @param document A stored document
+	 * @param fields   A projection, or null for every field
+	 * @return A copy of the document
+	 */
+	static JsonObject project(final JsonObject document, final JsonObject fields)
+	{
+		if (fields == null || fields.isEmpty()) {
+			return document.copy();
+		}
+
+		boolean inclusion = false;
+		for (final Map.Entry<String, Object> entry : fields) {
+			if (isTrue(entry.getValue())) {
+				inclusion = true;
+				break;
+			}
+		}
+
+		if (!inclusion) {
+			final JsonObject result = document.copy();
+			for (final Map.Entry<String, Object> entry : fields) {
+				result.remove(entry.getKey());
+			}
+			return result;
+		}
+
+		final JsonObject result = new JsonObject();
+		if (!fields.containsKey(Entity.FIELD_ID) || isTrue(fields.getValue(Entity.FIELD_ID))) {
+			result.put(Entity.FIELD_ID, document.getValue(Entity.FIELD_ID));
+		}
+		for (final Map.Entry<String, Object> entry : fields) {
+			if (isTrue(entry.getValue()) && document.containsKey(entry.getKey())) {
+				result.put(entry.getKey(), document.getValue(entry.getKey()));
+			}
+		}
+		return result.copy();
+	}
+
+	private static boolean isTrue(final Object value)
+	{
+		return value instanceof Boolean ? (Boolean) value : value instanceof Number && ((Number) value).doubleValue() != 0;
+	}
+
+	/**
+	 * makeComparator compares the documents by the fields of a sort of MongoDB.
+	 * A missing value comes first, then numbers, strings, and the others in that order.
+	 */
+	static Comparator<JsonObject> makeComparator(final JsonObject sort)
+	{
+		Comparator<JsonObject> comparator = null;
+		for (final Map.Entry<String, Object> entry : sort) {
+			final String[] path = entry.getKey().split("\\.");
+			final boolean descending = ((Number) entry.getValue()).intValue() < 0;
+
+			Comparator<JsonObject> byField = (a, b) -> compareValues(valueAt(a, path), valueAt(b, path));
+			if (descending) {
+				byField = byField.reversed();
+			}
+			comparator = comparator == null ? byField : comparator.thenComparing(byField);
+		}
+		return comparator;
+	}
+
+	private static Object valueAt(final JsonObject document, final String[] path)
+	{
+		Object value = document;
+		for (final String name : path) {
+			if (!(value instanceof JsonObject)) {
+				return null;
+			}
+			value = ((JsonObject) value).getValue(name);
+		}
+		return value;
+	}
+
+	private static int compareValues(final Object a, final Object b)
+	{
+		final int rankA = rankOf(a);
+		final int rankB = rankOf(b);
+		if (rankA != rankB) {
+			return Integer.compare(rankA, rankB);
+		}
+
+		if (a instanceof Number) {
+			if (isIntegral(a) && isIntegral(b)) {
+				return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+			}
+			return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+		}
+		if (a instanceof String) {
+			return ((String) a).compareTo((String) b);
+		}
+		return 0;
+	}
+
+	private static int rankOf(final Object value)
+	{
+		if (value == null) {
+			return 0;
+		}
+		if (value instanceof Number) {
+			return 1;
+		}
+		if (value instanceof String) {
+			return 2;
+		}
+		return 3;
+	}
+
+	private static boolean isIntegral(final Object value)
+	{
+		return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+	}
+}
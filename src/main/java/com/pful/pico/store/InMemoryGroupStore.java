@@ -0,0 +1,96 @@
+package com.pful.pico.store;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * InMemoryGroupStore gives the memberships of the entities in an InMemoryEntityStore.
+ * The store indexes the groups fields by itself whenever they are changed, so the memberships are always up to date
+ * and the writes here have nothing to do.
+ */
+public class InMemoryGroupStore
+		implements GroupStore
+{
+	private final InMemoryEntityStore entityStore;
+
+	/**
+	 * A constructor
+	 *
+	 * @param entityStore A store of the entities whose memberships are given
+	 */
+	public InMemoryGroupStore(final InMemoryEntityStore entityStore)
+	{
+		this.entityStore = entityStore;
+	}
+
+	@Override
+	public void add(final String group, final String entityId, final Handler<AsyncResult<Void>> handler)
+	{
+		handler.handle(Future.succeededFuture());
+	}
+
+	@Override
+	public void addAll(final String group, final List<String> entityIds, final Handler<AsyncResult<Void>> handler)
+	{
+		handler.handle(Future.succeededFuture());
+	}
+
+	@Override
+	public void remove(final String group, final String entityId, final Handler<AsyncResult<Void>> handler)
+	{
+		handler.handle(Future.succeededFuture());
+	}
+
+	@Override
+	public void removeGroup(final String group, final Handler<AsyncResult<Void>> handler)
+	{
+		handler.handle(Future.succeededFuture());
+	}
+
+	@Override
+	public void removeEntities(final Collection<String> entityIds, final Handler<AsyncResult<Void>> handler)
+	{
+		handler.handle(Future.succeededFuture());
+	}
+
+	@Override
+	public void read(final String group, final Handler<AsyncResult<List<String>>> handler)
+	{
+		handler.handle(Future.succeededFuture(entityStore.members(group)));
+	}
+
+	@Override
+	public void count(final String group, final Handler<AsyncResult<Long>> handler)
+	{
+		handler.handle(Future.succeededFuture(entityStore.cardinality(group)));
+	}
+
+	@Override
+	public void page(final JsonObject after, final int limit, final Handler<AsyncResult<List<JsonObject>>> handler)
+	{
+		handler.handle(Future.succeededFuture(entityStore.memberships(after, limit)));
+	}
+
+	@Override
+	public void rebuild(final Handler<AsyncResult<Long>> handler)
+	{
+		handler.handle(Future.succeededFuture(entityStore.membershipCount()));
+	}
+
+	@Override
+	public void load(final Handler<AsyncResult<Boolean>> handler)
+	{
+		handler.handle(Future.succeededFuture(true));
+	}
+
+	@Override
+	public boolean isComplete()
+	{
+		return true;
+	}
+}
@@ -0,0 +1,414 @@
+package com.pful.pico.store;
+
+import com.pful.pico.db.MongoDB;
+import com.pful.pico.db.querybuilder.Finder;
+import com.pful.pico.resource.Entity;
+import com.pful.pico.resource.GroupManipulation;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MongoEntityStore keeps the entities in the Entities collection of MongoDB.
+ * A batch is sent as a single write command, and a change of the groups of an entity is done by findAndModify,
+ * so that the changed groups are returned by the same round trip.
+ */
+public class MongoEntityStore
+		implements EntityStore
+{
+	private static final String DB_METHOD_INSERT = "insert";
+	private static final String DB_METHOD_UPDATE = "update";
+	private static final String DB_METHOD_DELETE = "delete";
+	private static final String DB_METHOD_FIND_AND_MODIFY = "findAndModify";
+	private static final String DB_METHOD_AGGREGATE = "aggregate";
+	private static final String DB_METHOD_GET_MORE = "getMore";
+
+	private static final String INSERT_FIELD_DOCUMENTS = "documents";
+	private static final String UPDATE_FIELD_UPDATES = "updates";
+	private static final String DELETE_FIELD_DELETES = "deletes";
+	private static final String BATCH_UPDATES_FIELD_QUERY = "q";
+	private static final String BATCH_UPDATES_FIELD_UPDATE = "u";
+	private static final String BATCH_UPDATES_FIELD_MULTI = "multi";
+	private static final String DELETE_DELETES_FIELD_LIMIT = "limit";
+	private static final String BATCH_FIELD_ORDERED = "ordered";
+	private static final String BATCH_FIELD_WRITE_ERRORS = "writeErrors";
+	private static final String WRITE_ERROR_FIELD_INDEX = "index";
+	private static final String WRITE_ERROR_FIELD_MESSAGE = "errmsg";
+
+	private static final String FIND_AND_MODIFY_FIELD_QUERY = "query";
+	private static final String FIND_AND_MODIFY_FIELD_UPDATE = "update";
+	private static final String FIND_AND_MODIFY_FIELD_NEW = "new";
+	private static final String FIND_AND_MODIFY_FIELD_FIELDS = "fields";
+	private static final String FIND_AND_MODIFY_FIELD_VALUE = "value";
+	private static final String FIND_AND_MODIFY_FIELD_LAST_ERROR_OBJECT = "lastErrorObject";
+
+	private static final String AGGREGATE_FIELD_PIPELINE = "pipeline";
+	private static final String AGGREGATE_FIELD_CURSOR = "cursor";
+	private static final String AGGREGATE_FIELD_COUNT = "count";
+	private static final String GET_MORE_FIELD_COLLECTION = "collection";
+	private static final String CURSOR_FIELD_ID = "id";
+	private static final String CURSOR_FIELD_FIRST_BATCH = "firstBatch";
+	private static final String CURSOR_FIELD_NEXT_BATCH = "nextBatch";
+
+	private final MongoClient mongoClient;
+
+	/**
+	 * A constructor
+	 *
+	 * @param mongoClient A client of the database that has the Entities collection
+	 */
+	public MongoEntityStore(final MongoClient mongoClient)
+	{
+		this.mongoClient = mongoClient;
+	}
+
+	@Override
+	public void insert(final JsonObject document, final Handler<AsyncResult<String>> handler)
+	{
+		mongoClient.save(MongoDB.COLLECTION_ENTITIES, document,
+		                 res -> {
+			                 if (res.failed()) {
+				                 handler.handle(Future.failedFuture(res.cause()));
+				                 return;
+			                 }
+
+			                 // save gives the id only when it is made by the database.
+			                 handler.handle(Future.succeededFuture(res.result() != null ? res.result()
+			                                                                            : document.getString(Entity.FIELD_ID)));
+		                 });
+	}
+
+	@Override
+	public void insertBatch(final List<JsonObject> documents,
+	                        final boolean ordered,
+	                        final Handler<AsyncResult<Map<Integer, String>>> handler)
+	{
+		final JsonObject command = new JsonObject().put(DB_METHOD_INSERT, MongoDB.COLLECTION_ENTITIES)
+		                                           .put(INSERT_FIELD_DOCUMENTS, new JsonArray(documents))
+		                                           .put(BATCH_FIELD_ORDERED, ordered);
+
+		runBatch(DB_METHOD_INSERT, command, handler);
+	}
+
+	@Override
+	public void read(final String id, final Handler<AsyncResult<JsonObject>> handler)
+	{
+		mongoClient.findOne(MongoDB.COLLECTION_ENTITIES, makeQueryById(id), null, handler);
+	}
+
+	@Override
+	public void find(final Finder.Expression query, final Handler<AsyncResult<List<JsonObject>>> handler)
+	{
+		mongoClient.findWithOptions(MongoDB.COLLECTION_ENTITIES, query.toJson(), query.toFindOptions(), handler);
+	}
+
+	@Override
+	public void count(final Finder.Query query, final Handler<AsyncResult<Long>> handler)
+	{
+		mongoClient.count(MongoDB.COLLECTION_ENTITIES, query.toJson(), handler);
+	}
+
+	@Override
+	public void update(final JsonObject change, final Handler<AsyncResult<Void>> handler)
+	{
+		mongoClient.update(MongoDB.COLLECTION_ENTITIES, makeQueryById(change.getString(Entity.FIELD_ID)), makeSet(change), handler);
+	}
+
+	@Override
+	public void updateBatch(final List<JsonObject> changes,
+	                        final boolean ordered,
+	                        final Handler<AsyncResult<Map<Integer, String>>> handler)
+	{
+		final JsonArray updates = new JsonArray();
+		for (final JsonObject change : changes) {
+			updates.add(new JsonObject().put(BATCH_UPDATES_FIELD_QUERY, makeQueryById(change.getString(Entity.FIELD_ID)))
+			                            .put(BATCH_UPDATES_FIELD_UPDATE, makeSet(change)));
+		}
+
+		final JsonObject command = new JsonObject().put(DB_METHOD_UPDATE, MongoDB.COLLECTION_ENTITIES)
+		                                           .put(UPDATE_FIELD_UPDATES, updates)
+		                                           .put(BATCH_FIELD_ORDERED, ordered);
+
+		runBatch(DB_METHOD_UPDATE, command, handler);
+	}
+
+	@Override
+	public void delete(final String id, final Handler<AsyncResult<Void>> handler)
+	{
+		mongoClient.removeOne(MongoDB.COLLECTION_ENTITIES, makeQueryById(id), handler);
+	}
+
+	@Override
+	public void deleteBatch(final List<String> ids,
+	                        final boolean ordered,
+	                        final Handler<AsyncResult<Map<Integer, String>>> handler)
+	{
+		final JsonArray deletes = new JsonArray();
+		for (final String id : ids) {
+			deletes.add(new JsonObject().put(BATCH_UPDATES_FIELD_QUERY, makeQueryById(id))
+			                            .put(DELETE_DELETES_FIELD_LIMIT, 1));
+		}
+
+		final JsonObject command = new JsonObject().put(DB_METHOD_DELETE, MongoDB.COLLECTION_ENTITIES)
+		                                           .put(DELETE_FIELD_DELETES, deletes)
+		                                           .put(BATCH_FIELD_ORDERED, ordered);
+
+		runBatch(DB_METHOD_DELETE, command, handler);
+	}
+
+	/**
+	 * runBatch sends a write command for a batch and gives the write errors in the reply by the positions of the items.
+	 *
+	 * @param commandName A name of the write command
+	 * @param command     A write command
+	 * @param handler     A handler called with the error messages by the positions of the failed items
+	 */
+	private void runBatch(final String commandName,
+	                      final JsonObject command,
+	                      final Handler<AsyncResult<Map<Integer, String>>> handler)
+	{
+		mongoClient.runCommand(commandName, command,
+		                       res -> {
+			                       if (res.failed()) {
+				                       handler.handle(Future.failedFuture(res.cause()));
+				                       return;
+			                       }
+
+			                       // writeErrors - [{index: <#index>, code: <#code>, errmsg: <#message>}, ...]
+			                       final Map<Integer, String> writeErrors = new HashMap<>();
+			                       res.result()
+			                          .getJsonArray(BATCH_FIELD_WRITE_ERRORS, new JsonArray())
+			                          .forEach(e -> {
+				                          final JsonObject writeError = (JsonObject) e;
+				                          writeErrors.put(writeError.getInteger(WRITE_ERROR_FIELD_INDEX),
+				                                          writeError.getString(WRITE_ERROR_FIELD_MESSAGE));
+			                          });
+
+			                       handler.handle(Future.succeededFuture(writeErrors));
+		                       });
+	}
+
+	@Override
+	public void addGroup(final String id, final String group, final long updatedAt, final Handler<AsyncResult<JsonObject>> handler)
+	{
+		// Only the groups of the modified entity are returned.
+		final Finder.Expression condition = Finder.newQuery()
+		                                          .field(Entity.FIELD_ID).is(id)
+		                                          .field(GroupManipulation.FIELD_GROUPS).ninStrings(group)
+		                                          .include(GroupManipulation.FIELD_GROUPS);
+
+		final JsonObject update = new JsonObject().put("$push", new JsonObject().put(GroupManipulation.FIELD_GROUPS, group))
+		                                          .put("$set", new JsonObject().put(Entity.FIELD_UPDATED_AT, updatedAt));
+
+		findAndModify(condition, update, FIND_AND_MODIFY_FIELD_VALUE, handler);
+	}
+
+	@Override
+	public void replaceGroup(final String id,
+	                         final String originalGroup,
+	                         final String newGroup,
+	                         final long updatedAt,
+	                         final Handler<AsyncResult<JsonObject>> handler)
+	{
+		// Only the groups of the modified entity are returned.
+		final Finder.Expression condition = Finder.newQuery()
+		                                          .field(Entity.FIELD_ID).is(id)
+		                                          .field(GroupManipulation.FIELD_GROUPS).inStrings(originalGroup)
+		                                          .include(GroupManipulation.FIELD_GROUPS);
+
+		final JsonObject update = new JsonObject().put("$set", new JsonObject().put(GroupManipulation.FIELD_GROUPS + ".$", newGroup)
+		                                                                       .put(Entity.FIELD_UPDATED_AT, updatedAt));
+
+		findAndModify(condition, update, FIND_AND_MODIFY_FIELD_VALUE, handler);
+	}
+
+	@Override
+	public void removeGroup(final String id, final String group, final long updatedAt, final Handler<AsyncResult<JsonObject>> handler)
+	{
+		// The modified entity isn't used, so only its id is returned.
+		final Finder.Expression condition = Finder.newQuery()
+		                                          .field(Entity.FIELD_ID).is(id)
+		                                          .include(Entity.FIELD_ID);
+
+		final JsonObject update = new JsonObject().put("$pull", new JsonObject().put(GroupManipulation.FIELD_GROUPS, group))
+		                                          .put("$set", new JsonObject().put(Entity.FIELD_UPDATED_AT, updatedAt));
+
+		// lastErrorObject - { updatedExisting: true, n : 1 }
+		findAndModify(condition, update, FIND_AND_MODIFY_FIELD_LAST_ERROR_OBJECT, handler);
+	}
+
+	/**
+	 * findAndModify modifies an entity and gives a field of the reply.
+	 *
+	 * @param condition A query with the projection of the entity returned
+	 * @param update    An update
+	 * @param field     'value' for the modified entity, or 'lastErrorObject' for the status of the write
+	 * @param handler   A handler called with the field of the reply
+	 */
+	private void findAndModify(final Finder.Expression condition,
+	                           final JsonObject update,
+	                           final String field,
+	                           final Handler<AsyncResult<JsonObject>> handler)
+	{
+		final JsonObject command = new JsonObject().put(DB_METHOD_FIND_AND_MODIFY, MongoDB.COLLECTION_ENTITIES)
+		                                           .put(FIND_AND_MODIFY_FIELD_QUERY, condition.toJson())
+		                                           .put(FIND_AND_MODIFY_FIELD_UPDATE, update)
+		                                           .put(FIND_AND_MODIFY_FIELD_NEW, true)
+		                                           .put(FIND_AND_MODIFY_FIELD_FIELDS, condition.toProjection());
+
+		mongoClient.runCommand(DB_METHOD_FIND_AND_MODIFY, command,
+		                       res -> {
+			                       if (res.failed()) {
+				                       handler.handle(Future.failedFuture(res.cause()));
+				                       return;
+			                       }
+
+			                       // res.result() - {value : updated doc, lastErrorObject: {updatedExisting: true, n: 1}, ok: 1.0}
+			                       handler.handle(Future.succeededFuture(res.result().getJsonObject(field)));
+		                       });
+	}
+
+	@Override
+	public void renameGroup(final String originalGroup,
+	                        final String newGroup,
+	                        final long updatedAt,
+	                        final Handler<AsyncResult<JsonObject>> handler)
+	{
+		final JsonObject condition = Finder.newQuery()
+		                                   .field(GroupManipulation.FIELD_GROUPS).is(originalGroup)
+		                                   .toJson();
+
+		final JsonObject update = new JsonObject().put("$set", new JsonObject().put(GroupManipulation.FIELD_GROUPS + ".$", newGroup)
+		                                                                       .put(Entity.FIELD_UPDATED_AT, updatedAt));
+
+		updateAll(condition, update, handler);
+	}
+
+	@Override
+	public void removeGroupFromAll(final String group, final long updatedAt, final Handler<AsyncResult<JsonObject>> handler)
+	{
+		final JsonObject condition = Finder.newQuery()
+		                                   .field(GroupManipulation.FIELD_GROUPS).inStrings(group)
+		                                   .toJson();
+
+		final JsonObject update = new JsonObject().put("$pull", new JsonObject().put(GroupManipulation.FIELD_GROUPS, group))
+		                                          .put("$set", new JsonObject().put(Entity.FIELD_UPDATED_AT, updatedAt));
+
+		updateAll(condition, update, handler);
+	}
+
+	/**
+	 * updateAll updates every entity matched by the condition with a single update command.
+	 *
+	 * @param handler A handler called with the reply, which has n and nModified
+	 */
+	private void updateAll(final JsonObject condition, final JsonObject update, final Handler<AsyncResult<JsonObject>> handler)
+	{
+		final JsonArray updates = new JsonArray().add(new JsonObject().put(BATCH_UPDATES_FIELD_QUERY, condition)
+		                                                              .put(BATCH_UPDATES_FIELD_UPDATE, update)
+		                                                              .put(BATCH_UPDATES_FIELD_MULTI, true));
+
+		final JsonObject command = new JsonObject().put(DB_METHOD_UPDATE, MongoDB.COLLECTION_ENTITIES)
+		                                           .put(UPDATE_FIELD_UPDATES, updates);
+
+		mongoClient.runCommand(DB_METHOD_UPDATE, command, handler);
+	}
+
+	@Override
+	public void distinctGroups(final Handler<AsyncResult<JsonArray>> handler)
+	{
+		// distinct unwinds the arrays by itself and returns each group once.
+		mongoClient.distinct(MongoDB.COLLECTION_ENTITIES, GroupManipulation.FIELD_GROUPS, String.class.getName(), handler);
+	}
+
+	@Override
+	public void countGroups(final Handler<AsyncResult<JsonObject>> handler)
+	{
+		final JsonArray pipeline =
+				new JsonArray().add(new JsonObject().put("$match", Finder.newQuery()
+				                                                         .field(GroupManipulation.FIELD_GROUPS).exists()
+				                                                         .toJson()))
+				               .add(new JsonObject().put("$project", new JsonObject().put(Entity.FIELD_ID, 0)
+				                                                                     .put(GroupManipulation.FIELD_GROUPS, 1)))
+				               .add(new JsonObject().put("$unwind", "$" + GroupManipulation.FIELD_GROUPS))
+				               .add(new JsonObject().put("$group", new JsonObject().put(Entity.FIELD_ID, "$" + GroupManipulation.FIELD_GROUPS)
+				                                                                   .put(AGGREGATE_FIELD_COUNT,
+				                                                                        new JsonObject().put("$sum", 1))));
+
+		final JsonObject command = new JsonObject().put(DB_METHOD_AGGREGATE, MongoDB.COLLECTION_ENTITIES)
+		                                           .put(AGGREGATE_FIELD_PIPELINE, pipeline)
+		                                           .put(AGGREGATE_FIELD_CURSOR, new JsonObject());
+
+		mongoClient.runCommand(DB_METHOD_AGGREGATE, command,
+		                       res -> {
+			                       if (res.failed()) {
+				                       handler.handle(Future.failedFuture(res.cause()));
+				                       return;
+			                       }
+
+			                       collectGroupCounts(res.result().getJsonObject(AGGREGATE_FIELD_CURSOR), new JsonObject(), handler);
+		                       });
+	}
+
+	/**
+	 * collectGroupCounts adds the groups in a batch of the aggregation cursor to the result and fetches the next batch
+	 * until the cursor is exhausted.
+	 *
+	 * @param cursor  A cursor document in the reply of aggregate or getMore
+	 * @param counts  The counts of the groups collected so far
+	 * @param handler
+	 */
+	private void collectGroupCounts(final JsonObject cursor, final JsonObject counts, final Handler<AsyncResult<JsonObject>> handler)
+	{
+		final JsonArray batch = cursor.containsKey(CURSOR_FIELD_FIRST_BATCH) ? cursor.getJsonArray(CURSOR_FIELD_FIRST_BATCH)
+		                                                                     : cursor.getJsonArray(CURSOR_FIELD_NEXT_BATCH);
+		for (final Object e : batch) {
+			final JsonObject groupCount = (JsonObject) e;
+			counts.put(groupCount.getString(Entity.FIELD_ID), ((Number) groupCount.getValue(AGGREGATE_FIELD_COUNT)).longValue());
+		}
+
+		final long cursorId = ((Number) cursor.getValue(CURSOR_FIELD_ID)).longValue();
+		if (cursorId == 0) {
+			handler.handle(Future.succeededFuture(counts));
+			return;
+		}
+
+		final JsonObject command = new JsonObject().put(DB_METHOD_GET_MORE, cursorId)
+		                                           .put(GET_MORE_FIELD_COLLECTION, MongoDB.COLLECTION_ENTITIES);
+
+		mongoClient.runCommand(DB_METHOD_GET_MORE, command,
+		                       res -> {
+			                       if (res.failed()) {
+				                       handler.handle(Future.failedFuture(res.cause()));
+				                       return;
+			                       }
+
+			                       collectGroupCounts(res.result().getJsonObject(AGGREGATE_FIELD_CURSOR), counts, handler);
+		                       });
+	}
+
+	private static JsonObject makeQueryById(final String id)
+	{
+		return Finder.newQuery()
+		             .field(Entity.FIELD_ID).is(id)
+		             .toJson();
+	}
+
+	/**
+	 * @param change A document that has the id of an entity and the fields to be set
+	 * @return An update that sets the fields other than the id
+	 */
+	private static JsonObject makeSet(final JsonObject change)
+	{
+		final JsonObject fields = change.copy();
+		fields.remove(Entity.FIELD_ID);
+		return new JsonObject().put("$set", fields);
+	}
+}
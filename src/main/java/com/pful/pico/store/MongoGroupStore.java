@@ -0,0 +1,377 @@
+package com.pful.pico.store;
+
+import com.pful.pico.db.MongoDB;
+import com.pful.pico.db.querybuilder.Finder;
+import com.pful.pico.resource.Entity;
+import com.pful.pico.resource.GroupManipulation;
+import com.pful.pico.resource.GroupMembers;
+import com.pful.pico.resource.QueryIndexes;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.mongo.UpdateOptions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * MongoGroupStore keeps the memberships in the GroupMembers collection of MongoDB, which has a document {group, entity_id}
+ * for every group of every entity. The members of a group are read or counted from the {group, entity_id} index only.
+ * <p>
+ * The collection may miss the memberships of the entities written before it existed or while a write to it failed,
+ * so the store isn't complete until a rebuild succeeds, and a failed write makes it incomplete again. Whether it is
+ * complete is kept in the document {_id: "GroupMembers", complete} of the States collection, so that a restart
+ * doesn't need a rebuild. A membership whose write was cut off by a crash, which never failed, isn't noticed,
+ * and the rebuild-group-members command repairs it.
+ */
+public class MongoGroupStore
+		implements GroupStore
+{
+	private static final String DB_METHOD_AGGREGATE = "aggregate";
+	private static final String DB_METHOD_INSERT = "insert";
+	private static final String AGGREGATE_FIELD_PIPELINE = "pipeline";
+	private static final String AGGREGATE_FIELD_CURSOR = "cursor";
+	private static final String AGGREGATE_FIELD_ALLOW_DISK_USE = "allowDiskUse";
+	private static final String INSERT_FIELD_DOCUMENTS = "documents";
+	private static final String INSERT_FIELD_ORDERED = "ordered";
+
+	private static final String STATE_FIELD_COMPLETE = "complete";
+
+	private static final int INSERT_BATCH_SIZE = 1000;
+
+	private final MongoClient mongoClient;
+
+	/**
+	 * failures counts the failed writes, so that the store isn't made complete by what was read before one of them.
+	 */
+	private final AtomicLong failures = new AtomicLong();
+	private volatile boolean complete;
+
+	/**
+	 * overlapped has the writes started while a rebuild runs, which may be overwritten by its $out
+	 * and are made again after it. It is null when no rebuild is running.
+	 */
+	private List<Consumer<Handler<AsyncResult<Void>>>> overlapped;
+
+	/**
+	 * A constructor
+	 *
+	 * @param mongoClient A client of the database that has the GroupMembers and the Entities collections
+	 */
+	public MongoGroupStore(final MongoClient mongoClient)
+	{
+		this.mongoClient = mongoClient;
+	}
+
+	@Override
+	public void add(final String group, final String entityId, final Handler<AsyncResult<Void>> handler)
+	{
+		final JsonObject membership = makeQuery(group, entityId);
+
+		write(h -> mongoClient.updateWithOptions(MongoDB.COLLECTION_GROUP_MEMBERS, membership,
+		                                         new JsonObject().put("$set", membership),
+		                                         new UpdateOptions().setUpsert(true),
+		                                         h),
+		      handler);
+	}
+
+	@Override
+	public void addAll(final String group, final List<String> entityIds, final Handler<AsyncResult<Void>> handler)
+	{
+		write(h -> insert(group, entityIds, 0, h), handler);
+	}
+
+	/**
+	 * insert writes the memberships from the index 'from' in batches one after another.
+	 */
+	private void insert(final String group, final List<String> entityIds, final int from, final Handler<AsyncResult<Void>> handler)
+	{
+		if (from >= entityIds.size()) {
+			handler.handle(Future.succeededFuture());
+			return;
+		}
+
+		final int to = Math.min(from + INSERT_BATCH_SIZE, entityIds.size());
+		final JsonArray documents = new JsonArray();
+		entityIds.subList(from, to)
+		         .forEach(e -> documents.add(makeQuery(group, e)));
+
+		final JsonObject command = new JsonObject().put(DB_METHOD_INSERT, MongoDB.COLLECTION_GROUP_MEMBERS)
+		                                           .put(INSERT_FIELD_DOCUMENTS, documents)
+		                                           .put(INSERT_FIELD_ORDERED, false);
+
+		mongoClient.runCommand(DB_METHOD_INSERT, command,
+		                       res -> {
+			                       if (res.failed()) {
+				                       handler.handle(Future.failedFuture(res.cause()));
+				                       return;
+			                       }
+
+			                       insert(group, entityIds, to, handler);
+		                       });
+	}
+
+	@Override
+	public void remove(final String group, final String entityId, final Handler<AsyncResult<Void>> handler)
+	{
+		write(h -> mongoClient.remove(MongoDB.COLLECTION_GROUP_MEMBERS, makeQuery(group, entityId), h), handler);
+	}
+
+	@Override
+	public void removeGroup(final String group, final Handler<AsyncResult<Void>> handler)
+	{
+		write(h -> mongoClient.remove(MongoDB.COLLECTION_GROUP_MEMBERS, makeQuery(group, null), h), handler);
+	}
+
+	@Override
+	public void removeEntities(final Collection<String> entityIds, final Handler<AsyncResult<Void>> handler)
+	{
+		final JsonObject query = Finder.newQuery()
+		                               .field(GroupMembers.FIELD_ENTITY_ID).inStringCollection(entityIds)
+		                               .toJson();
+
+		write(h -> mongoClient.remove(MongoDB.COLLECTION_GROUP_MEMBERS, query, h), handler);
+	}
+
+	@Override
+	public void read(final String group, final Handler<AsyncResult<List<String>>> handler)
+	{
+		final FindOptions options = new FindOptions().setFields(new JsonObject().put(Entity.FIELD_ID, 0)
+		                                                                        .put(GroupMembers.FIELD_ENTITY_ID, 1));
+
+		mongoClient.findWithOptions(MongoDB.COLLECTION_GROUP_MEMBERS, makeQuery(group, null), options,
+		                            res -> {
+			                            if (res.failed()) {
+				                            handler.handle(Future.failedFuture(res.cause()));
+				                            return;
+			                            }
+
+			                            final List<String> entityIds = new ArrayList<>(res.result().size());
+			                            res.result()
+			                               .forEach(e -> entityIds.add(e.getString(GroupMembers.FIELD_ENTITY_ID)));
+
+			                            handler.handle(Future.succeededFuture(entityIds));
+		                            });
+	}
+
+	@Override
+	public void count(final String group, final Handler<AsyncResult<Long>> handler)
+	{
+		mongoClient.count(MongoDB.COLLECTION_GROUP_MEMBERS, makeQuery(group, null), handler);
+	}
+
+	@Override
+	public void page(final JsonObject after, final int limit, final Handler<AsyncResult<List<JsonObject>>> handler)
+	{
+		final JsonObject query;
+		if (after == null) {
+			query = new JsonObject();
+		}
+		else {
+			final String lastGroup = after.getString(GroupMembers.FIELD_GROUP);
+			query = new JsonObject().put("$or", new JsonArray()
+					.add(new JsonObject().put(GroupMembers.FIELD_GROUP, new JsonObject().put("$gt", lastGroup)))
+					.add(new JsonObject().put(GroupMembers.FIELD_GROUP, lastGroup)
+					                     .put(GroupMembers.FIELD_ENTITY_ID,
+					                          new JsonObject().put("$gt", after.getString(GroupMembers.FIELD_ENTITY_ID)))));
+		}
+
+		final FindOptions options = new FindOptions().setFields(new JsonObject().put(Entity.FIELD_ID, 0)
+		                                                                        .put(GroupMembers.FIELD_GROUP, 1)
+		                                                                        .put(GroupMembers.FIELD_ENTITY_ID, 1))
+		                                             .setSort(new JsonObject().put(GroupMembers.FIELD_GROUP, 1)
+		                                                                      .put(GroupMembers.FIELD_ENTITY_ID, 1))
+		                                             .setLimit(limit);
+
+		mongoClient.findWithOptions(MongoDB.COLLECTION_GROUP_MEMBERS, query, options, handler);
+	}
+
+	/**
+	 * rebuild is done by a single aggregation on the database, and the new collection replaces the old one at once.
+	 * The writes started while the aggregation runs are made again on the new collection, since the memberships
+	 * it has were read before or after them.
+	 */
+	@Override
+	public void rebuild(final Handler<AsyncResult<Long>> handler)
+	{
+		// An entity can have the same group more than once after an application-wide update, so memberships are grouped.
+		final JsonArray pipeline =
+				new JsonArray().add(new JsonObject().put("$match", Finder.newQuery()
+				                                                         .field(GroupManipulation.FIELD_GROUPS).exists()
+				                                                         .toJson()))
+				               .add(new JsonObject().put("$project", new JsonObject().put(GroupManipulation.FIELD_GROUPS, 1)))
+				               .add(new JsonObject().put("$unwind", "$" + GroupManipulation.FIELD_GROUPS))
+				               .add(new JsonObject().put("$group", new JsonObject().put(Entity.FIELD_ID, new JsonObject()
+						               .put(GroupMembers.FIELD_GROUP, "$" + GroupManipulation.FIELD_GROUPS)
+						               .put(GroupMembers.FIELD_ENTITY_ID, "$" + Entity.FIELD_ID))))
+				               .add(new JsonObject().put("$project", new JsonObject()
+						               .put(Entity.FIELD_ID, 0)
+						               .put(GroupMembers.FIELD_GROUP, "$" + Entity.FIELD_ID + "." + GroupMembers.FIELD_GROUP)
+						               .put(GroupMembers.FIELD_ENTITY_ID, "$" + Entity.FIELD_ID + "." + GroupMembers.FIELD_ENTITY_ID)))
+				               .add(new JsonObject().put("$out", MongoDB.COLLECTION_GROUP_MEMBERS));
+
+		final JsonObject command = new JsonObject().put(DB_METHOD_AGGREGATE, MongoDB.COLLECTION_ENTITIES)
+		                                           .put(AGGREGATE_FIELD_PIPELINE, pipeline)
+		                                           .put(AGGREGATE_FIELD_ALLOW_DISK_USE, true)
+		                                           .put(AGGREGATE_FIELD_CURSOR, new JsonObject());
+
+		synchronized (this) {
+			if (overlapped == null) {
+				overlapped = new ArrayList<>();
+			}
+		}
+
+		mongoClient.runCommand(DB_METHOD_AGGREGATE, command,
+		                       res -> {
+			                       // The writes started from now on are made on the new collection.
+			                       final List<Consumer<Handler<AsyncResult<Void>>>> writes;
+			                       synchronized (this) {
+				                       writes = overlapped;
+				                       overlapped = null;
+			                       }
+
+			                       if (res.failed()) {
+				                       handler.handle(Future.failedFuture(res.cause()));
+				                       return;
+			                       }
+
+			                       // $out drops the indexes only if the collection didn't exist before.
+			                       QueryIndexes.ensure(mongoClient, MongoDB.COLLECTION_GROUP_MEMBERS, errorCode -> {
+			                       });
+
+			                       final long failuresBefore = failures.get();
+			                       replay(writes, 0, resReplayed -> {
+				                       if (resReplayed.failed()) {
+					                       handler.handle(Future.failedFuture(resReplayed.cause()));
+					                       return;
+				                       }
+
+				                       if (failures.get() == failuresBefore) {
+					                       complete = true;
+					                       saveState(true);
+				                       }
+
+				                       mongoClient.count(MongoDB.COLLECTION_GROUP_MEMBERS, new JsonObject(), handler);
+			                       });
+		                       });
+	}
+
+	/**
+	 * replay makes the writes from the index 'from' again one after another, in the order they were started.
+	 * The writes succeed if they are made more than once.
+	 */
+	private void replay(final List<Consumer<Handler<AsyncResult<Void>>>> writes,
+	                    final int from,
+	                    final Handler<AsyncResult<Void>> handler)
+	{
+		if (from >= writes.size()) {
+			handler.handle(Future.succeededFuture());
+			return;
+		}
+
+		writes.get(from)
+		      .accept(res -> {
+			      if (res.failed()) {
+				      markIncomplete();
+				      handler.handle(res);
+				      return;
+			      }
+
+			      replay(writes, from + 1, handler);
+		      });
+	}
+
+	@Override
+	public void load(final Handler<AsyncResult<Boolean>> handler)
+	{
+		final long failuresBefore = failures.get();
+
+		mongoClient.findOne(MongoDB.COLLECTION_STATES, new JsonObject().put(Entity.FIELD_ID, MongoDB.COLLECTION_GROUP_MEMBERS), null,
+		                    res -> {
+			                    if (res.failed()) {
+				                    handler.handle(Future.failedFuture(res.cause()));
+				                    return;
+			                    }
+
+			                    if (res.result() != null && res.result().getBoolean(STATE_FIELD_COMPLETE, false)
+			                        && failures.get() == failuresBefore) {
+				                    complete = true;
+			                    }
+
+			                    handler.handle(Future.succeededFuture(complete));
+		                    });
+	}
+
+	@Override
+	public boolean isComplete()
+	{
+		return complete;
+	}
+
+	/**
+	 * write starts a write, which is kept to be made again if a rebuild is running. The store becomes incomplete
+	 * if the write fails.
+	 *
+	 * @param write   A write to the GroupMembers collection
+	 * @param handler A handler of the write
+	 */
+	private void write(final Consumer<Handler<AsyncResult<Void>>> write, final Handler<AsyncResult<Void>> handler)
+	{
+		synchronized (this) {
+			if (overlapped != null) {
+				overlapped.add(write);
+			}
+		}
+
+		write.accept(res -> {
+			if (res.failed()) {
+				markIncomplete();
+			}
+			handler.handle(res);
+		});
+	}
+
+	private void markIncomplete()
+	{
+		failures.incrementAndGet();
+		complete = false;
+		saveState(false);
+	}
+
+	/**
+	 * saveState keeps whether the store is complete in the States collection. A failure is only logged:
+	 * a lost 'true' makes the next start rebuild the store, and a lost 'false' leaves it to the rebuild-group-members command.
+	 */
+	private void saveState(final boolean complete)
+	{
+		final JsonObject state = new JsonObject().put(Entity.FIELD_ID, MongoDB.COLLECTION_GROUP_MEMBERS)
+		                                         .put(STATE_FIELD_COMPLETE, complete);
+
+		mongoClient.save(MongoDB.COLLECTION_STATES, state, res -> {
+			if (res.failed()) {
+				System.err.println("The state of GroupMembers couldn't be saved: " + res.cause());
+			}
+		});
+	}
+
+	/**
+	 * @param group    A group
+	 * @param entityId An entity-id or null for every entity in the group
+	 * @return A query for the memberships, which is also a membership document if entityId is given
+	 */
+	private static JsonObject makeQuery(final String group, final String entityId)
+	{
+		final JsonObject query = new JsonObject().put(GroupMembers.FIELD_GROUP, group);
+		if (entityId != null) {
+			query.put(GroupMembers.FIELD_ENTITY_ID, entityId);
+		}
+		return query;
+	}
+}
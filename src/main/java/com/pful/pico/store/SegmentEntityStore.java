@@ -0,0 +1,162 @@
+package com.pful.pico.store;
+
+import io.vertx.core.json.JsonObject;
+
+import java.io.File;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SegmentEntityStore persists the entities in a SegmentLog on the local disk, for the single-node deployments
+ * without a database. The documents are read from the memory-mapped segments by their ids, and the types and the groups
+ * are indexed in memory by InMemoryEntityStore, so every query of the resources is answered as the in-memory store does.
+ * <p>
+ * The index is rebuilt from the segments when the store is opened. A change is in the page cache once it is appended,
+ * so it survives a crash of the process. It survives a crash of the machine only after the segment has been forced,
+ * which is done for every change if 'sync' is true.
+ */
+public class SegmentEntityStore
+		extends InMemoryEntityStore
+{
+	public static final String CONFIG_DIRECTORY = "directory";
+	public static final String CONFIG_SEGMENT_SIZE = "segment_size";
+	public static final String CONFIG_COMPACTION_RATIO = "compaction_ratio";
+	public static final String CONFIG_SYNC = "sync";
+	public static final String DEFAULT_DIRECTORY = "data";
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	public static final double DEFAULT_COMPACTION_RATIO = 0.5;
+	public static final boolean DEFAULT_SYNC = false;
+
+	private final SegmentLog log;
+
+	/**
+	 * SegmentDocuments shows a SegmentLog as the map of the documents that InMemoryEntityStore reads and writes.
+	 */
+	private static final class SegmentDocuments
+			extends AbstractMap<String, JsonObject>
+	{
+		private final SegmentLog log;
+		private final boolean sync;
+
+		private SegmentDocuments(final SegmentLog log, final boolean sync)
+		{
+			this.log = log;
+			this.sync = sync;
+		}
+
+		@Override
+		public JsonObject get(final Object id)
+		{
+			return log.get((String) id);
+		}
+
+		@Override
+		public boolean containsKey(final Object id)
+		{
+			return log.contains((String) id);
+		}
+
+		@Override
+		public JsonObject put(final String id, final JsonObject document)
+		{
+			final JsonObject previous = log.get(id);
+			log.put(id, document);
+			if (sync) {
+				log.force();
+			}
+			return previous;
+		}
+
+		@Override
+		public JsonObject remove(final Object id)
+		{
+			final JsonObject previous = log.get((String) id);
+			log.delete((String) id);
+			if (sync) {
+				log.force();
+			}
+			return previous;
+		}
+
+		@Override
+		public int size()
+		{
+			return log.size();
+		}
+
+		@Override
+		public Set<Entry<String, JsonObject>> entrySet()
+		{
+			final Set<String> ids = log.ids();
+			return new AbstractSet<Entry<String, JsonObject>>()
+			{
+				@Override
+				public Iterator<Entry<String, JsonObject>> iterator()
+				{
+					final Iterator<String> iterator = ids.iterator();
+					return new Iterator<Entry<String, JsonObject>>()
+					{
+						@Override
+						public boolean hasNext()
+						{
+							return iterator.hasNext();
+						}
+
+						@Override
+						public Entry<String, JsonObject> next()
+						{
+							final String id = iterator.next();
+							return new SimpleImmutableEntry<>(id, log.get(id));
+						}
+					};
+				}
+
+				@Override
+				public int size()
+				{
+					return ids.size();
+				}
+			};
+		}
+	}
+
+	/**
+	 * A constructor
+	 *
+	 * @param config A configuration that has 'directory', 'segment_size', 'compaction_ratio' and 'sync'
+	 * @throws java.io.UncheckedIOException if the segments couldn't be opened
+	 */
+	public SegmentEntityStore(final JsonObject config)
+	{
+		this(new SegmentLog(new File(config.getString(CONFIG_DIRECTORY, DEFAULT_DIRECTORY)),
+		                    config.getInteger(CONFIG_SEGMENT_SIZE, DEFAULT_SEGMENT_SIZE),
+		                    config.getDouble(CONFIG_COMPACTION_RATIO, DEFAULT_COMPACTION_RATIO)),
+		     config.getBoolean(CONFIG_SYNC, DEFAULT_SYNC));
+	}
+
+	private SegmentEntityStore(final SegmentLog log, final boolean sync)
+	{
+		super(new SegmentDocuments(log, sync));
+		this.log = log;
+	}
+
+	/**
+	 * compact rewrites the live documents of the full segments and deletes them. It is also done by itself
+	 * whenever a segment is rolled over and the garbage in the full segments exceeds 'compaction_ratio'.
+	 */
+	public void compact()
+	{
+		log.compact();
+	}
+
+	/**
+	 * close forces the segments to the disk and closes them. The store can't be used after it.
+	 */
+	public void close()
+	{
+		log.close();
+	}
+}
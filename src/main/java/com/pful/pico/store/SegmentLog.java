@@ -0,0 +1,480 @@
+package com.pful.pico.store;
+
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * SegmentLog keeps the documents of the entities in append-only segment files in a directory.
+ * A put or a delete is appended as a record to the last segment, and a segment is rolled over to a new file when it is full.
+ * The segments are mapped into memory, so a document is parsed right from the mapped pages without a read call.
+ * <p>
+ * A record is [length, crc32, op, id length, id, document], where the length and the crc32 are of the bytes after them
+ * and the document is JSON in UTF-8. A length of 0 ends a segment. The location of the latest record of every id is kept
+ * in memory as the number of its segment and its position in the segment. The index is rebuilt by replaying the segments
+ * in order when the log is opened, and the records after a torn or corrupted one in the last segment are dropped.
+ * <p>
+ * The records that are superseded by a later put or delete are garbage. When the garbage in the full segments
+ * exceeds a ratio of their size, the live documents in them are appended again and the full segments are deleted.
+ * <p>
+ * The writes are serialized by the monitor of the log. A read takes no lock, and it retries with the new location
+ * if the segment has just been compacted.
+ */
+class SegmentLog
+{
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private static final byte OP_PUT = 1;
+	private static final byte OP_DELETE = 2;
+
+	private static final int HEADER_SIZE = 8;
+
+	private final File directory;
+	private final int segmentSize;
+	private final double compactionRatio;
+
+	private final Map<String, Long> locations = new ConcurrentHashMap<>();
+	private final NavigableMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+
+	private Segment active;
+	private boolean compacting;
+
+	/**
+	 * Segment is a file of records mapped into memory. Only the active segment is written.
+	 */
+	private static final class Segment
+	{
+		private final int number;
+		private final File file;
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+
+		/**
+		 * end is the position right after the last record.
+		 */
+		private int end;
+
+		/**
+		 * garbage is the number of the bytes of the records that have been superseded.
+		 */
+		private long garbage;
+
+		private Segment(final int number, final File file, final int capacity)
+				throws IOException
+		{
+			this.number = number;
+			this.file = file;
+			this.channel = new RandomAccessFile(file, "rw").getChannel();
+			this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(capacity, channel.size()));
+		}
+	}
+
+	/**
+	 * open opens the segments in a directory and replays them. The directory is made if it doesn't exist.
+	 *
+	 * @param directory       A directory of the segment files
+	 * @param segmentSize     The size of a segment file in bytes
+	 * @param compactionRatio The ratio of the garbage in the full segments, over which they are compacted
+	 * @throws UncheckedIOException if the segments couldn't be opened
+	 */
+	SegmentLog(final File directory, final int segmentSize, final double compactionRatio)
+	{
+		checkArgument(segmentSize > HEADER_SIZE, "segmentSize should be larger than " + HEADER_SIZE + ".");
+		checkArgument(compactionRatio > 0 && compactionRatio <= 1, "compactionRatio should be in (0, 1].");
+
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.compactionRatio = compactionRatio;
+
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("The directory couldn't be made: " + directory);
+			}
+
+			final File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+			final SortedMap<Integer, File> sortedFiles = new TreeMap<>();
+			for (final File file : files == null ? new File[0] : files) {
+				final String name = file.getName();
+				sortedFiles.put(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())),
+				                file);
+			}
+
+			for (final Map.Entry<Integer, File> entry : sortedFiles.entrySet()) {
+				final Segment segment = new Segment(entry.getKey(), entry.getValue(), 0);
+				segments.put(segment.number, segment);
+				replay(segment);
+				active = segment;
+			}
+
+			if (active == null) {
+				roll(0);
+			}
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @param id An entity-id
+	 * @return The document of the id, parsed from the mapped segment, or null if there is no such document
+	 */
+	JsonObject get(final String id)
+	{
+		while (true) {
+			final Long location = locations.get(id);
+			if (location == null) {
+				return null;
+			}
+
+			final Segment segment = segments.get(segmentOf(location));
+			if (segment != null) {
+				return decode(segment.buffer, positionOf(location));
+			}
+			// The segment has been compacted after the location was read, so the new location is read again.
+		}
+	}
+
+	/**
+	 * @param id An entity-id
+	 * @return true if there is a document of the id
+	 */
+	boolean contains(final String id)
+	{
+		return locations.containsKey(id);
+	}
+
+	/**
+	 * @return The ids of the documents, which are the ones at the moment and don't follow the later changes
+	 */
+	Set<String> ids()
+	{
+		return new HashSet<>(locations.keySet());
+	}
+
+	/**
+	 * @return The number of the documents
+	 */
+	int size()
+	{
+		return locations.size();
+	}
+
+	/**
+	 * put appends a document, which supersedes the previous one of the same id.
+	 *
+	 * @param id       An entity-id
+	 * @param document A document
+	 */
+	synchronized void put(final String id, final JsonObject document)
+	{
+		supersede(locations.put(id, append(OP_PUT, id, document.encode().getBytes(StandardCharsets.UTF_8))));
+	}
+
+	/**
+	 * delete appends a deletion of a document. Nothing is appended if there is no such document.
+	 *
+	 * @param id An entity-id
+	 */
+	synchronized void delete(final String id)
+	{
+		if (!locations.containsKey(id)) {
+			return;
+		}
+
+		// The previous record is looked up after the append, which may have moved it by a compaction.
+		final long location = append(OP_DELETE, id, new byte[0]);
+		supersede(locations.remove(id));
+		// A deletion is needed only until the segments before it are compacted.
+		supersede(location);
+	}
+
+	/**
+	 * force writes the appended records to the disk.
+	 */
+	synchronized void force()
+	{
+		active.buffer.force();
+	}
+
+	/**
+	 * compact appends the live documents in the full segments again, and deletes the full segments.
+	 * The segments are deleted from the oldest, so a document deleted in a newer segment never reappears after a crash.
+	 */
+	synchronized void compact()
+	{
+		final List<Segment> full = new ArrayList<>(segments.headMap(active.number).values());
+		if (full.isEmpty() || compacting) {
+			return;
+		}
+
+		// The segments rolled over while the documents are appended again are compacted next time.
+		compacting = true;
+		try {
+			copyLive(full);
+		}
+		finally {
+			compacting = false;
+		}
+		active.buffer.force();
+
+		for (final Segment segment : full) {
+			segments.remove(segment.number);
+			close(segment);
+			if (!segment.file.delete()) {
+				System.err.println("The compacted segment couldn't be deleted: " + segment.file);
+			}
+		}
+	}
+
+	private void copyLive(final List<Segment> full)
+	{
+		for (final Segment segment : full) {
+			int position = 0;
+			while (position < segment.end) {
+				final int length = segment.buffer.getInt(position);
+				final Long location = locationOf(segment.number, position);
+				final String id = idAt(segment.buffer, position);
+				if (location.equals(locations.get(id))) {
+					final ByteBuffer document = documentAt(segment.buffer, position);
+					final byte[] bytes = new byte[document.remaining()];
+					document.get(bytes);
+					locations.put(id, append(OP_PUT, id, bytes));
+				}
+				position += HEADER_SIZE + length;
+			}
+		}
+	}
+
+	/**
+	 * close writes the appended records to the disk and closes the segment files. The log can't be used after it.
+	 */
+	synchronized void close()
+	{
+		active.buffer.force();
+		segments.values().forEach(SegmentLog::close);
+	}
+
+	/**
+	 * @return The number of the segment files
+	 */
+	int segmentCount()
+	{
+		return segments.size();
+	}
+
+	/**
+	 * replay reads the records of a segment into the index. It stops at the end of the segment or at a torn record,
+	 * and the bytes after the last record are cleared so that a new record isn't followed by a part of an old one.
+	 */
+	private void replay(final Segment segment)
+	{
+		final MappedByteBuffer buffer = segment.buffer;
+		int position = 0;
+		while (position + HEADER_SIZE <= buffer.capacity()) {
+			final int length = buffer.getInt(position);
+			if (length <= 0 || position + HEADER_SIZE + length > buffer.capacity()
+			    || buffer.getInt(position + 4) != crcOf(buffer, position + HEADER_SIZE, length)) {
+				break;
+			}
+
+			final String id = idAt(buffer, position);
+			final long location = locationOf(segment.number, position);
+			if (buffer.get(position + HEADER_SIZE) == OP_PUT) {
+				supersede(locations.put(id, location));
+			}
+			else {
+				supersede(locations.remove(id));
+				segment.garbage += HEADER_SIZE + length;
+			}
+			position += HEADER_SIZE + length;
+		}
+		segment.end = position;
+
+		for (int i = position; i < buffer.capacity() && i < position + HEADER_SIZE; i++) {
+			buffer.put(i, (byte) 0);
+		}
+	}
+
+	/**
+	 * append writes a record to the active segment, rolling it over if the record doesn't fit.
+	 * The compaction after a roll appends the live documents to the new segment too, so the fit is checked again.
+	 *
+	 * @return The location of the record
+	 */
+	private long append(final byte op, final String id, final byte[] document)
+	{
+		final byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+		final int length = 1 + 2 + idBytes.length + document.length;
+
+		while (active.end + HEADER_SIZE + length > active.buffer.capacity()) {
+			roll(HEADER_SIZE + length);
+			maybeCompact();
+		}
+
+		final MappedByteBuffer buffer = active.buffer;
+		final int position = active.end;
+		final int payload = position + HEADER_SIZE;
+
+		buffer.put(payload, op);
+		buffer.putShort(payload + 1, (short) idBytes.length);
+		put(buffer, payload + 3, idBytes);
+		put(buffer, payload + 3 + idBytes.length, document);
+		buffer.putInt(position + 4, crcOf(buffer, payload, length));
+		// The length is written last, so a record is seen by the replay only when it is complete.
+		buffer.putInt(position, length);
+
+		// The end of the segment is marked unless the record fills it up.
+		if (payload + length + 4 <= buffer.capacity()) {
+			buffer.putInt(payload + length, 0);
+		}
+
+		active.end = payload + length;
+		return locationOf(active.number, position);
+	}
+
+	/**
+	 * roll starts a new segment that can hold a record of the size at least.
+	 */
+	private void roll(final int recordSize)
+	{
+		try {
+			if (active != null) {
+				active.buffer.force();
+			}
+
+			final int number = active == null ? 0 : active.number + 1;
+			final File file = new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+			final Segment segment = new Segment(number, file, Math.max(segmentSize, recordSize + 4));
+			segments.put(number, segment);
+			active = segment;
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void maybeCompact()
+	{
+		long size = 0;
+		long garbage = 0;
+		for (final Segment segment : segments.headMap(active.number).values()) {
+			size += segment.end;
+			garbage += segment.garbage;
+		}
+
+		if (size > 0 && garbage >= size * compactionRatio) {
+			compact();
+		}
+	}
+
+	/**
+	 * supersede counts a record as garbage.
+	 *
+	 * @param location The location of a record, or null for nothing
+	 */
+	private void supersede(final Long location)
+	{
+		if (location == null) {
+			return;
+		}
+
+		final Segment segment = segments.get(segmentOf(location));
+		if (segment != null) {
+			segment.garbage += HEADER_SIZE + segment.buffer.getInt(positionOf(location));
+		}
+	}
+
+	/**
+	 * decode parses a document right from the mapped bytes.
+	 */
+	@SuppressWarnings("unchecked")
+	private static JsonObject decode(final MappedByteBuffer buffer, final int position)
+	{
+		try {
+			return new JsonObject(Json.mapper.readValue(new ByteBufferBackedInputStream(documentAt(buffer, position)), Map.class));
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static String idAt(final ByteBuffer buffer, final int position)
+	{
+		final int idLength = buffer.getShort(position + HEADER_SIZE + 1);
+		final byte[] id = new byte[idLength];
+		final ByteBuffer view = buffer.duplicate();
+		view.position(position + HEADER_SIZE + 3);
+		view.get(id);
+		return new String(id, StandardCharsets.UTF_8);
+	}
+
+	private static ByteBuffer documentAt(final ByteBuffer buffer, final int position)
+	{
+		final int length = buffer.getInt(position);
+		final int idLength = buffer.getShort(position + HEADER_SIZE + 1);
+		final ByteBuffer view = buffer.duplicate();
+		view.limit(position + HEADER_SIZE + length);
+		view.position(position + HEADER_SIZE + 3 + idLength);
+		return view.slice();
+	}
+
+	private static void put(final ByteBuffer buffer, final int position, final byte[] bytes)
+	{
+		final ByteBuffer view = buffer.duplicate();
+		view.position(position);
+		view.put(bytes);
+	}
+
+	private static int crcOf(final ByteBuffer buffer, final int position, final int length)
+	{
+		final ByteBuffer view = buffer.duplicate();
+		view.limit(position + length);
+		view.position(position);
+
+		final CRC32 crc = new CRC32();
+		crc.update(view);
+		return (int) crc.getValue();
+	}
+
+	private static void close(final Segment segment)
+	{
+		try {
+			segment.channel.close();
+		}
+		catch (IOException e) {
+			System.err.println("The segment couldn't be closed: " + segment.file);
+		}
+	}
+
+	private static long locationOf(final int segment, final int position)
+	{
+		return ((long) segment << 32) | (position & 0xFFFFFFFFL);
+	}
+
+	private static int segmentOf(final long location)
+	{
+		return (int) (location >>> 32);
+	}
+
+	private static int positionOf(final long location)
+	{
+		return (int) location;
+	}
+}
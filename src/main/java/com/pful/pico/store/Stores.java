@@ -0,0 +1,59 @@
+package com.pful.pico.store;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Stores holds the stores that the resources use. They are set once when the service starts,
+ * and shared by every event loop. The 'engine' of the configuration chooses them, which is 'mongodb' by default
+ * or 'memory' for InMemoryEntityStore, or 'segment' for SegmentEntityStore. The writes to MongoDB go through
+ * a WriteAheadEntityStore if 'write_ahead' is enabled.
+ */
+public class Stores
+{
+	public static final String CONFIG_ENGINE = "engine";
+	public static final String CONFIG_WRITE_AHEAD = "write_ahead";
+	public static final String ENGINE_MONGODB = "mongodb";
+	public static final String ENGINE_MEMORY = "memory";
+	public static final String ENGINE_SEGMENT = "segment";
+	public static final String DEFAULT_ENGINE = ENGINE_MONGODB;
+
+	private static volatile EntityStore entityStore;
+	private static volatile GroupStore groupStore;
+
+	/**
+	 * A constructor
+	 */
+	private Stores()
+	{
+	}
+
+	/**
+	 * use replaces the stores.
+	 *
+	 * @param entityStore A store of the entities
+	 * @param groupStore  A store of the memberships, which follows the entities in entityStore
+	 */
+	public static synchronized void use(final EntityStore entityStore, final GroupStore groupStore)
+	{
+		checkArgument(entityStore != null && groupStore != null, "stores shouldn't be null.");
+
+		Stores.entityStore = entityStore;
+		Stores.groupStore = groupStore;
+	}
+
+	/**
+	 * @return The store of the entities
+	 */
+	public static EntityStore entities()
+	{
+		return entityStore;
+	}
+
+	/**
+	 * @return The store of the memberships
+	 */
+	public static GroupStore groups()
+	{
+		return groupStore;
+	}
+}
@@ -0,0 +1,610 @@
+package com.pful.pico.store;
+
+import com.pful.pico.db.querybuilder.Finder;
+import com.pful.pico.resource.Entity;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.bson.types.ObjectId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WriteAheadEntityStore acknowledges the inserts and the updates of entities once they are durable in a WriteAheadLog,
+ * and writes them to another store later in bulk. It is meant for MongoEntityStore, where every write costs a round trip.
+ * <p>
+ * A single committer thread takes the writes from a queue, appends them to the log and forces it once for all of them,
+ * waiting 'commit_millis' after the first one so that more writes join the commit. The committed writes are merged by id
+ * into the unflushed changes, so that the writes to the same entity are made one. Then the committer writes all
+ * the unflushed changes with insertBatch and updateBatch of the store, unless such a flush is already in progress.
+ * An insert that is already in the store, which happens when the log is replayed, is written as an update instead.
+ * The files of the log are deleted once their changes are in the store, and the files left by a crash are replayed
+ * when the store is made.
+ * <p>
+ * A read by an id sees the unflushed changes. Every other operation waits until the writes made before it are flushed,
+ * and then it is done by the store, so it sees them as well. The handlers and the waiting operations are called back
+ * on the Vert.x context of the caller, and on the committer thread only if the caller had no context.
+ */
+public class WriteAheadEntityStore
+		implements EntityStore
+{
+	public static final String CONFIG_ENABLED = "enabled";
+	public static final String CONFIG_DIRECTORY = "directory";
+	public static final String CONFIG_COMMIT_MILLIS = "commit_millis";
+	public static final boolean DEFAULT_ENABLED = false;
+	public static final String DEFAULT_DIRECTORY = "wal";
+	public static final long DEFAULT_COMMIT_MILLIS = 2;
+
+	private static final byte OP_FLUSH = 0;
+	private static final byte OP_INSERT = 1;
+	private static final byte OP_UPDATE = 2;
+
+	/**
+	 * OP_CLOSE stops the committer. It is queued instead of interrupting the committer,
+	 * since an interrupt would close the channel of the log while it is written.
+	 */
+	private static final byte OP_CLOSE = 3;
+
+	/**
+	 * RETRY_MILLIS is the interval of the retries of a failed flush.
+	 */
+	private static final long RETRY_MILLIS = 1000;
+
+	private final EntityStore store;
+	private final WriteAheadLog log;
+	private final long commitMillis;
+
+	private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+	private final Thread committer;
+
+	private final Map<String, Change> unflushed = new HashMap<>();
+	private final List<Barrier> barriers = new ArrayList<>();
+	private long submitted;
+	private long committed;
+	private long flushed;
+	private boolean flushing;
+
+	/**
+	 * Write is an insert or an update waiting for the commit, and the context of the caller that submitted it.
+	 */
+	private static final class Write
+	{
+		private final byte op;
+		private final JsonObject document;
+		private final Handler<AsyncResult<Void>> handler;
+		private final Context context;
+
+		private Write(final byte op, final JsonObject document, final Handler<AsyncResult<Void>> handler)
+		{
+			this.op = op;
+			this.document = document;
+			this.handler = handler;
+			this.context = Vertx.currentContext();
+		}
+	}
+
+	/**
+	 * Change is the unflushed writes to an entity, which is a whole document if it is inserted or the fields to be set.
+	 * It is never changed, so a flush can tell whether a change has been replaced while it was written.
+	 */
+	private static final class Change
+	{
+		private final boolean insert;
+		private final JsonObject document;
+
+		private Change(final boolean insert, final JsonObject document)
+		{
+			this.insert = insert;
+			this.document = document;
+		}
+	}
+
+	/**
+	 * Barrier is an operation waiting until the writes up to a sequence are flushed, and the context of its caller.
+	 */
+	private static final class Barrier
+	{
+		private final long sequence;
+		private final Runnable operation;
+		private final Context context;
+
+		private Barrier(final long sequence, final Runnable operation)
+		{
+			this.sequence = sequence;
+			this.operation = operation;
+			this.context = Vertx.currentContext();
+		}
+	}
+
+	/**
+	 * A constructor. The log left in the directory is replayed into the store.
+	 *
+	 * @param store  A store to which the writes are flushed
+	 * @param config A configuration that has 'directory' and 'commit_millis'
+	 * @throws UncheckedIOException if the log couldn't be opened
+	 */
+	public WriteAheadEntityStore(final EntityStore store, final JsonObject config)
+	{
+		this(store,
+		     new WriteAheadLog(new File(config.getString(CONFIG_DIRECTORY, DEFAULT_DIRECTORY))),
+		     config.getLong(CONFIG_COMMIT_MILLIS, DEFAULT_COMMIT_MILLIS));
+	}
+
+	/**
+	 * A constructor. The log is replayed into the store.
+	 *
+	 * @param store        A store to which the writes are flushed
+	 * @param log          A log that has been opened
+	 * @param commitMillis The time to wait for more writes to join a commit
+	 */
+	WriteAheadEntityStore(final EntityStore store, final WriteAheadLog log, final long commitMillis)
+	{
+		this.store = store;
+		this.log = log;
+		this.commitMillis = commitMillis;
+
+		// The replayed writes count as committed, so that the other operations wait until they are flushed.
+		log.replay((op, document) -> {
+			merge(op, document);
+			committed++;
+		});
+		submitted = committed;
+		queue.add(new Write(OP_FLUSH, null, null));
+
+		committer = new Thread(this::commitLoop, "pico-write-ahead");
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	@Override
+	public void insert(final JsonObject document, final Handler<AsyncResult<String>> handler)
+	{
+		final JsonObject inserted = document.copy();
+		if (inserted.getString(Entity.FIELD_ID) == null) {
+			inserted.put(Entity.FIELD_ID, new ObjectId().toHexString());
+		}
+
+		submit(OP_INSERT, inserted, res -> {
+			if (res.failed()) {
+				handler.handle(Future.failedFuture(res.cause()));
+				return;
+			}
+			handler.handle(Future.succeededFuture(inserted.getString(Entity.FIELD_ID)));
+		});
+	}
+
+	@Override
+	public void update(final JsonObject change, final Handler<AsyncResult<Void>> handler)
+	{
+		submit(OP_UPDATE, change.copy(), handler);
+	}
+
+	@Override
+	public void read(final String id, final Handler<AsyncResult<JsonObject>> handler)
+	{
+		final Change change;
+		synchronized (this) {
+			change = unflushed.get(id);
+		}
+
+		if (change == null) {
+			store.read(id, handler);
+			return;
+		}
+		if (change.insert) {
+			handler.handle(Future.succeededFuture(change.document.copy()));
+			return;
+		}
+
+		store.read(id, res -> {
+			if (res.failed() || res.result() == null) {
+				handler.handle(res);
+				return;
+			}
+			handler.handle(Future.succeededFuture(set(res.result(), change.document)));
+		});
+	}
+
+	@Override
+	public void insertBatch(final List<JsonObject> documents,
+	                        final boolean ordered,
+	                        final Handler<AsyncResult<Map<Integer, String>>> handler)
+	{
+		afterFlush(() -> store.insertBatch(documents, ordered, handler));
+	}
+
+	@Override
+	public void find(final Finder.Expression query, final Handler<AsyncResult<List<JsonObject>>> handler)
+	{
+		afterFlush(() -> store.find(query, handler));
+	}
+
+	@Override
+	public void count(final Finder.Query query, final Handler<AsyncResult<Long>> handler)
+	{
+		afterFlush(() -> store.count(query, handler));
+	}
+
+	@Override
+	public void updateBatch(final List<JsonObject> changes,
+	                        final boolean ordered,
+	                        final Handler<AsyncResult<Map<Integer, String>>> handler)
+	{
+		afterFlush(() -> store.updateBatch(changes, ordered, handler));
+	}
+
+	@Override
+	public void delete(final String id, final Handler<AsyncResult<Void>> handler)
+	{
+		afterFlush(() -> store.delete(id, handler));
+	}
+
+	@Override
+	public void deleteBatch(final List<String> ids,
+	                        final boolean ordered,
+	                        final Handler<AsyncResult<Map<Integer, String>>> handler)
+	{
+		afterFlush(() -> store.deleteBatch(ids, ordered, handler));
+	}
+
+	@Override
+	public void addGroup(final String id, final String group, final long updatedAt, final Handler<AsyncResult<JsonObject>> handler)
+	{
+		afterFlush(() -> store.addGroup(id, group, updatedAt, handler));
+	}
+
+	@Override
+	public void replaceGroup(final String id,
+	                         final String originalGroup,
+	                         final String newGroup,
+	                         final long updatedAt,
+	                         final Handler<AsyncResult<JsonObject>> handler)
+	{
+		afterFlush(() -> store.replaceGroup(id, originalGroup, newGroup, updatedAt, handler));
+	}
+
+	@Override
+	public void removeGroup(final String id, final String group, final long updatedAt, final Handler<AsyncResult<JsonObject>> handler)
+	{
+		afterFlush(() -> store.removeGroup(id, group, updatedAt, handler));
+	}
+
+	@Override
+	public void renameGroup(final String originalGroup,
+	                        final String newGroup,
+	                        final long updatedAt,
+	                        final Handler<AsyncResult<JsonObject>> handler)
+	{
+		afterFlush(() -> store.renameGroup(originalGroup, newGroup, updatedAt, handler));
+	}
+
+	@Override
+	public void removeGroupFromAll(final String group, final long updatedAt, final Handler<AsyncResult<JsonObject>> handler)
+	{
+		afterFlush(() -> store.removeGroupFromAll(group, updatedAt, handler));
+	}
+
+	@Override
+	public void distinctGroups(final Handler<AsyncResult<JsonArray>> handler)
+	{
+		afterFlush(() -> store.distinctGroups(handler));
+	}
+
+	@Override
+	public void countGroups(final Handler<AsyncResult<JsonObject>> handler)
+	{
+		afterFlush(() -> store.countGroups(handler));
+	}
+
+	/**
+	 * close stops the committer after the writes in the queue are committed, and closes the log.
+	 * The unflushed changes are flushed when the log is replayed next time.
+	 */
+	public void close()
+	{
+		queue.add(new Write(OP_CLOSE, null, null));
+		try {
+			committer.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		log.close();
+	}
+
+	/**
+	 * afterFlush runs an operation once the writes submitted before it are in the store.
+	 */
+	private void afterFlush(final Runnable operation)
+	{
+		synchronized (this) {
+			if (flushed < submitted) {
+				barriers.add(new Barrier(submitted, operation));
+				return;
+			}
+		}
+		operation.run();
+	}
+
+	private void submit(final byte op, final JsonObject document, final Handler<AsyncResult<Void>> handler)
+	{
+		synchronized (this) {
+			// The sequence follows the order of the queue, which is the order of the commits.
+			submitted++;
+			queue.add(new Write(op, document, handler));
+		}
+	}
+
+	private void commitLoop()
+	{
+		boolean closing = false;
+		while (!closing) {
+			try {
+				final Write first = queue.poll(RETRY_MILLIS, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					flush();
+					continue;
+				}
+				if (first.op == OP_CLOSE) {
+					return;
+				}
+				if (commitMillis > 0) {
+					Thread.sleep(commitMillis);
+				}
+
+				final List<Write> writes = new ArrayList<>();
+				writes.add(first);
+				queue.drainTo(writes);
+
+				// The writes queued before close() are committed, and the loop ends after them.
+				closing = writes.removeIf(w -> w.op == OP_CLOSE);
+				commit(writes);
+			}
+			catch (InterruptedException e) {
+				// Nothing interrupts the committer, and the wait is made again.
+			}
+		}
+	}
+
+	/**
+	 * commit appends the writes to the log and forces it once. Then the writes are acknowledged and flushed.
+	 * If they couldn't be appended or forced, they are discarded from the log and fail.
+	 */
+	private void commit(final List<Write> writes)
+	{
+		final List<Write> changes = new ArrayList<>(writes.size());
+		for (final Write write : writes) {
+			if (write.op != OP_FLUSH) {
+				changes.add(write);
+			}
+		}
+
+		AsyncResult<Void> result = Future.succeededFuture();
+		long start = -1;
+		try {
+			start = log.position();
+			for (final Write write : changes) {
+				log.append(write.op, write.document);
+			}
+			log.force();
+		}
+		catch (IOException | UncheckedIOException e) {
+			result = Future.failedFuture(e);
+		}
+
+		// A part of a record may have been written, and the records after it wouldn't be replayed.
+		if (result.failed() && start >= 0) {
+			try {
+				log.discard(start);
+			}
+			catch (UncheckedIOException e) {
+				System.err.println("The write-ahead log couldn't discard the failed writes: " + e.getMessage());
+			}
+		}
+
+		synchronized (this) {
+			if (result.succeeded()) {
+				changes.forEach(w -> merge(w.op, w.document));
+			}
+			committed += changes.size();
+		}
+
+		final AsyncResult<Void> committedResult = result;
+		for (final Write write : changes) {
+			dispatch(write.context, () -> write.handler.handle(committedResult));
+		}
+
+		flush();
+	}
+
+	/**
+	 * merge adds a write to the unflushed changes. It should be called in the monitor, or from the constructor.
+	 */
+	private void merge(final byte op, final JsonObject document)
+	{
+		final String id = document.getString(Entity.FIELD_ID);
+		final Change previous = unflushed.get(id);
+
+		if (op == OP_INSERT || previous == null) {
+			unflushed.put(id, new Change(op == OP_INSERT, document));
+		}
+		else {
+			unflushed.put(id, new Change(previous.insert, set(previous.document, document)));
+		}
+	}
+
+	/**
+	 * flush writes the unflushed changes to the store unless a flush is in progress. It is called on the committer only,
+	 * so that no write is appended to the log between taking the changes and rotating the log.
+	 */
+	private void flush()
+	{
+		final Map<String, Change> changes;
+		final long sequence;
+		final List<Barrier> ready;
+
+		synchronized (this) {
+			if (flushing) {
+				return;
+			}
+			if (!unflushed.isEmpty()) {
+				flushing = true;
+				changes = new HashMap<>(unflushed);
+				sequence = committed;
+				ready = null;
+			}
+			else {
+				changes = null;
+				sequence = 0;
+				flushed = committed;
+				ready = release();
+			}
+		}
+
+		if (changes == null) {
+			ready.forEach(b -> dispatch(b.context, b.operation));
+			return;
+		}
+
+		final int boundary;
+		try {
+			boundary = log.rotate();
+		}
+		catch (UncheckedIOException e) {
+			System.err.println("The write-ahead log couldn't be rotated: " + e.getMessage());
+			synchronized (this) {
+				flushing = false;
+			}
+			return;
+		}
+
+		final List<JsonObject> inserts = new ArrayList<>();
+		final List<JsonObject> updates = new ArrayList<>();
+		changes.values().forEach(c -> (c.insert ? inserts : updates).add(c.document));
+
+		insertAll(inserts, 0, updates, res -> {
+			final List<Barrier> released;
+			synchronized (this) {
+				flushing = false;
+				if (res.failed()) {
+					System.err.println("The writes couldn't be flushed, and they will be retried: " + res.cause().getMessage());
+					return;
+				}
+
+				changes.forEach(unflushed::remove);
+				flushed = sequence;
+				released = release();
+				if (!unflushed.isEmpty()) {
+					queue.add(new Write(OP_FLUSH, null, null));
+				}
+			}
+
+			log.deleteBefore(boundary);
+			released.forEach(b -> dispatch(b.context, b.operation));
+		});
+	}
+
+	/**
+	 * insertAll inserts the documents from the index 'from' in batches one after another, and then updates the changes.
+	 * The documents that are already in the store are set by updates instead.
+	 */
+	private void insertAll(final List<JsonObject> documents,
+	                       final int from,
+	                       final List<JsonObject> updates,
+	                       final Handler<AsyncResult<Void>> handler)
+	{
+		if (from >= documents.size()) {
+			updateAll(updates, 0, handler);
+			return;
+		}
+
+		final List<JsonObject> batch = documents.subList(from, Math.min(from + Entity.MAX_BATCH_SIZE, documents.size()));
+		store.insertBatch(batch, false, res -> {
+			if (res.failed()) {
+				handler.handle(Future.failedFuture(res.cause()));
+				return;
+			}
+
+			res.result().forEach((i, message) -> {
+				if (message.contains("E11000")) {
+					updates.add(batch.get(i));
+				}
+				else {
+					System.err.println("The insert of " + batch.get(i).getString(Entity.FIELD_ID) + " is dropped: " + message);
+				}
+			});
+			insertAll(documents, from + batch.size(), updates, handler);
+		});
+	}
+
+	private void updateAll(final List<JsonObject> changes, final int from, final Handler<AsyncResult<Void>> handler)
+	{
+		if (from >= changes.size()) {
+			handler.handle(Future.succeededFuture());
+			return;
+		}
+
+		final List<JsonObject> batch = changes.subList(from, Math.min(from + Entity.MAX_BATCH_SIZE, changes.size()));
+		store.updateBatch(batch, false, res -> {
+			if (res.failed()) {
+				handler.handle(Future.failedFuture(res.cause()));
+				return;
+			}
+
+			res.result().forEach((i, message) -> System.err.println("The update of " + batch.get(i).getString(Entity.FIELD_ID)
+			                                                        + " is dropped: " + message));
+			updateAll(changes, from + batch.size(), handler);
+		});
+	}
+
+	/**
+	 * release takes the barriers whose writes have been flushed. It should be called in the monitor.
+	 */
+	private List<Barrier> release()
+	{
+		final List<Barrier> released = new ArrayList<>();
+		final Iterator<Barrier> iterator = barriers.iterator();
+		while (iterator.hasNext()) {
+			final Barrier barrier = iterator.next();
+			if (barrier.sequence <= flushed) {
+				released.add(barrier);
+				iterator.remove();
+			}
+		}
+		return released;
+	}
+
+	/**
+	 * dispatch runs a callback on the context of its caller, or right away if the caller had no context.
+	 */
+	private static void dispatch(final Context context, final Runnable callback)
+	{
+		if (context == null) {
+			callback.run();
+			return;
+		}
+		context.runOnContext(v -> callback.run());
+	}
+
+	/**
+	 * @return A copy of the document with the fields of the change set
+	 */
+	private static JsonObject set(final JsonObject document, final JsonObject change)
+	{
+		final JsonObject result = document.copy();
+		for (final Map.Entry<String, Object> entry : change.copy()) {
+			result.put(entry.getKey(), entry.getValue());
+		}
+		return result;
+	}
+}
@@ -0,0 +1,259 @@
+package com.pful.pico.store;
+
+import io.vertx.core.json.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * WriteAheadLog appends the changes of the entities to numbered files in a directory before they are written to a store.
+ * A record is [length, crc32, op, document], where the length and the crc32 are of the bytes after them
+ * and the document is JSON in UTF-8.
+ * <p>
+ * The records are appended to the current file and made durable by force(). rotate() starts a new file, so that the files
+ * before it can be deleted once their changes are in the store. The files left by the last run are replayed when it is opened,
+ * up to a torn or corrupted record. A batch of records that couldn't be appended and forced is truncated by discard(),
+ * so that the records appended after it aren't left behind a torn one.
+ * <p>
+ * Every method is serialized by the monitor of the log.
+ */
+class WriteAheadLog
+{
+	private static final String FILE_PREFIX = "wal-";
+	private static final String FILE_SUFFIX = ".log";
+	private static final int HEADER_SIZE = 8;
+
+	private final File directory;
+	private final SortedMap<Integer, File> replayed = new TreeMap<>();
+
+	private int number;
+	private FileChannel channel;
+
+	/**
+	 * A constructor. The files in the directory are kept for replay(), and the records are appended to a new file.
+	 *
+	 * @param directory A directory of the files, which is made if it doesn't exist
+	 * @throws UncheckedIOException if the directory couldn't be read or the new file couldn't be made
+	 */
+	WriteAheadLog(final File directory)
+	{
+		this.directory = directory;
+
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("The directory couldn't be made: " + directory);
+			}
+
+			final File[] files = directory.listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+			for (final File file : files == null ? new File[0] : files) {
+				final String name = file.getName();
+				replayed.put(Integer.parseInt(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length())), file);
+			}
+
+			number = replayed.isEmpty() ? 0 : replayed.lastKey() + 1;
+			channel = open(number);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * replay gives the records of the files left by the last run in order. They are deleted by deleteBefore().
+	 *
+	 * @param consumer A consumer of the op and the document of every record
+	 * @throws UncheckedIOException if a file couldn't be read
+	 */
+	synchronized void replay(final BiConsumer<Byte, JsonObject> consumer)
+	{
+		for (final File file : replayed.values()) {
+			final ByteBuffer buffer;
+			try {
+				buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			int position = 0;
+			while (position + HEADER_SIZE <= buffer.limit()) {
+				final int length = buffer.getInt(position);
+				if (length <= 0 || position + HEADER_SIZE + length > buffer.limit()
+				    || buffer.getInt(position + 4) != crcOf(buffer.array(), position + HEADER_SIZE, length)) {
+					System.err.println("The write-ahead log is torn at " + position + " of " + file);
+					break;
+				}
+
+				final String document = new String(buffer.array(), position + HEADER_SIZE + 1, length - 1, StandardCharsets.UTF_8);
+				consumer.accept(buffer.get(position + HEADER_SIZE), new JsonObject(document));
+				position += HEADER_SIZE + length;
+			}
+		}
+	}
+
+	/**
+	 * append writes a record to the current file. It isn't durable until force() is called.
+	 *
+	 * @param op       An operation
+	 * @param document A document of the operation
+	 * @throws IOException if the record couldn't be written
+	 */
+	synchronized void append(final byte op, final JsonObject document)
+			throws IOException
+	{
+		final byte[] bytes = document.encode().getBytes(StandardCharsets.UTF_8);
+		final byte[] payload = new byte[1 + bytes.length];
+		payload[0] = op;
+		System.arraycopy(bytes, 0, payload, 1, bytes.length);
+
+		final ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+		record.putInt(payload.length)
+		      .putInt(crcOf(payload, 0, payload.length))
+		      .put(payload)
+		      .flip();
+
+		write(record);
+	}
+
+	/**
+	 * write writes all the bytes of a record at the end of the current file.
+	 *
+	 * @param record A record to be written
+	 * @throws IOException if the record couldn't be written, in which case a part of it may have been written
+	 */
+	void write(final ByteBuffer record)
+			throws IOException
+	{
+		while (record.hasRemaining()) {
+			channel.write(record);
+		}
+	}
+
+	/**
+	 * @return The position in the current file at which the next record is appended
+	 * @throws IOException if the position couldn't be read
+	 */
+	synchronized long position()
+			throws IOException
+	{
+		return channel.position();
+	}
+
+	/**
+	 * discard drops the records appended from a position of the current file, which have failed to be appended
+	 * or forced. If the file couldn't be truncated, a new file is started, so that the records appended later
+	 * aren't behind a torn record.
+	 *
+	 * @param position A position given by position() before the records were appended
+	 * @throws UncheckedIOException if neither the file could be truncated nor a new file could be made
+	 */
+	synchronized void discard(final long position)
+	{
+		try {
+			channel.truncate(position);
+			channel.position(position);
+		}
+		catch (IOException e) {
+			System.err.println("The write-ahead log couldn't be truncated, and a new file is started: " + e.getMessage());
+			try {
+				channel.close();
+			}
+			catch (IOException closeException) {
+				System.err.println("The write-ahead log couldn't be closed: " + closeException.getMessage());
+			}
+			try {
+				channel = open(++number);
+			}
+			catch (IOException openException) {
+				throw new UncheckedIOException(openException);
+			}
+		}
+	}
+
+	/**
+	 * force makes the appended records durable.
+	 *
+	 * @throws IOException if they couldn't be forced
+	 */
+	synchronized void force()
+			throws IOException
+	{
+		channel.force(false);
+	}
+
+	/**
+	 * rotate starts a new file for the records appended after it.
+	 *
+	 * @return The number of the new file
+	 * @throws UncheckedIOException if the new file couldn't be made
+	 */
+	synchronized int rotate()
+	{
+		try {
+			channel.force(false);
+			channel.close();
+			channel = open(++number);
+			return number;
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * deleteBefore deletes the files before a file, whose changes have been written to the store.
+	 *
+	 * @param number The number of a file
+	 */
+	synchronized void deleteBefore(final int number)
+	{
+		replayed.headMap(number).clear();
+
+		final File[] files = directory.listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+		for (final File file : files == null ? new File[0] : files) {
+			final String name = file.getName();
+			if (Integer.parseInt(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length())) < number
+			    && !file.delete()) {
+				System.err.println("The write-ahead log couldn't be deleted: " + file);
+			}
+		}
+	}
+
+	/**
+	 * close forces and closes the current file.
+	 */
+	synchronized void close()
+	{
+		try {
+			channel.force(false);
+			channel.close();
+		}
+		catch (IOException e) {
+			System.err.println("The write-ahead log couldn't be closed: " + e.getMessage());
+		}
+	}
+
+	private FileChannel open(final int number)
+			throws IOException
+	{
+		final File file = new File(directory, String.format("%s%08d%s", FILE_PREFIX, number, FILE_SUFFIX));
+		return new RandomAccessFile(file, "rw").getChannel();
+	}
+
+	private static int crcOf(final byte[] bytes, final int offset, final int length)
+	{
+		final CRC32 crc = new CRC32();
+		crc.update(bytes, offset, length);
+		return (int) crc.getValue();
+	}
+}
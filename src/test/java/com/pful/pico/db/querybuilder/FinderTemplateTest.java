@@ -0,0 +1,164 @@
+package com.pful.pico.db.querybuilder;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.hamcrest.core.Is.is;
+
+/**
+ * FinderTemplateTest checks that binding the variables of a template makes a new query every time
+ * and never changes the template, even if the template is bound by many threads at once.
+ */
+public class FinderTemplateTest
+{
+	private static final String TEMPLATE_BY_TYPE_AND_AGE = "FinderTemplateTest.byTypeAndAge";
+	private static final String TEMPLATE_BY_GROUPS = "FinderTemplateTest.byGroups";
+	private static final String TEMPLATE_EXISTS = "FinderTemplateTest.exists";
+
+	@BeforeClass
+	public static void beforeClass()
+	{
+		Finder.registerTemplate(TEMPLATE_BY_TYPE_AND_AGE)
+		      .templateField("type").is()
+		      .templateField("age").gt("minAge");
+
+		Finder.registerTemplate(TEMPLATE_BY_GROUPS)
+		      .anyOf(TemplateField.field("groups").is("group1"),
+		             TemplateField.field("groups").in("groups"));
+
+		Finder.registerTemplate(TEMPLATE_EXISTS)
+		      .templateField("type").is()
+		      .templateField("property").exists();
+	}
+
+	@Test
+	public void testBind()
+			throws Exception
+	{
+		final JsonObject query1 = Finder.openQuery(TEMPLATE_BY_TYPE_AND_AGE)
+		                                .bind("type", "user")
+		                                .bind("minAge", 20)
+		                                .toJson();
+		final JsonObject query2 = Finder.openQuery(TEMPLATE_BY_TYPE_AND_AGE)
+		                                .bind("type", "device")
+		                                .bind("minAge", 30)
+		                                .toJson();
+
+		Assert.assertThat(query1, is(new JsonObject("{\"type\":\"user\",\"age\":{\"$gt\":20}}")));
+		Assert.assertThat(query2, is(new JsonObject("{\"type\":\"device\",\"age\":{\"$gt\":30}}")));
+	}
+
+	@Test
+	public void testUnboundVariableIsKept()
+			throws Exception
+	{
+		final JsonObject query = Finder.openQuery(TEMPLATE_BY_TYPE_AND_AGE)
+		                               .bind("minAge", 20)
+		                               .toJson();
+
+		Assert.assertThat(query.getString("type"), is(TemplateFieldOperation.convertNameToVariable("type")));
+	}
+
+	@Test
+	public void testQueryIsNotShared()
+			throws Exception
+	{
+		final Finder.TemplateBuilder.VariableBinder binder = Finder.openQuery(TEMPLATE_BY_GROUPS)
+		                                                           .bind("group1", "A")
+		                                                           .bindStringCollection("groups", Arrays.asList("B", "C"));
+		final JsonObject query = binder.toJson();
+		query.getJsonArray("$or").getJsonObject(1).getJsonObject("groups").getJsonArray("$in").add("D");
+
+		Assert.assertThat(binder.toJson(),
+		                  is(new JsonObject("{\"$or\":[{\"groups\":\"A\"},{\"groups\":{\"$in\":[\"B\",\"C\"]}}]}")));
+	}
+
+	@Test
+	public void testFieldNameVariable()
+			throws Exception
+	{
+		final JsonObject query = Finder.openQuery(TEMPLATE_EXISTS)
+		                               .bind("type", "user")
+		                               .bind("property", "properties.name")
+		                               .toJson();
+
+		Assert.assertThat(query, is(new JsonObject("{\"type\":\"user\",\"properties.name\":{\"$exists\":true}}")));
+
+		try {
+			Finder.openQuery(TEMPLATE_EXISTS).bind("property", 1);
+			Assert.fail();
+		}
+		catch (IllegalArgumentException e) {
+			// A field name should be a string.
+		}
+	}
+
+	@Test(expected = QueryBuilderException.class)
+	public void testUnknownTemplate()
+			throws Exception
+	{
+		Finder.openQuery("FinderTemplateTest.unknown");
+	}
+
+	@Test
+	public void testConcurrentBinding()
+			throws Exception
+	{
+		final int threads = 8;
+		final int iterations = 10000;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+
+		try {
+			final List<Future<Boolean>> results = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				final int thread = t;
+				results.add(executor.submit(() -> {
+					start.await();
+					for (int i = 0; i < iterations; i++) {
+						final String type = "type" + thread;
+						final JsonObject query = Finder.openQuery(TEMPLATE_BY_TYPE_AND_AGE)
+						                               .bind("type", type)
+						                               .bind("minAge", i)
+						                               .toJson();
+						if (!type.equals(query.getString("type"))
+						    || query.getJsonObject("age").getInteger("$gt") != i) {
+							return false;
+						}
+					}
+					return true;
+				}));
+			}
+			start.countDown();
+
+			for (final Future<Boolean> result : results) {
+				Assert.assertThat(result.get(), is(true));
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testNumberCollection()
+			throws Exception
+	{
+		Finder.registerTemplate("FinderTemplateTest.byAges")
+		      .templateField("age").nin("ages");
+
+		final JsonObject query = Finder.openQuery("FinderTemplateTest.byAges")
+		                               .bindNumberCollection("ages", Arrays.asList(1, 2))
+		                               .toJson();
+
+		Assert.assertThat(query.getJsonObject("age").getJsonArray("$nin"), is(new JsonArray().add(1).add(2)));
+	}
+}
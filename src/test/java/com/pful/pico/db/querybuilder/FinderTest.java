@@ -0,0 +1,154 @@
+package com.pful.pico.db.querybuilder;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.FindOptions;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+import static com.pful.pico.db.querybuilder.Field.field;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+
+/**
+ * FinderTest checks that the queries rendered from the cached skeletons are the same as the ones built directly,
+ * and that the shapes ignore the literals only.
+ * It also checks the options of a find carried by the queries.
+ */
+public class FinderTest
+{
+	@After
+	public void after()
+	{
+		Finder.setPlanCacheEnabled(true);
+	}
+
+	private static void assertSameWithoutCache(final Function<Integer, Finder.Expression> query)
+	{
+		Finder.setPlanCacheEnabled(false);
+		final JsonObject expected = query.apply(0).toJson();
+		final JsonObject expectedOther = query.apply(1).toJson();
+
+		Finder.setPlanCacheEnabled(true);
+		// The first query compiles the skeleton, and the second one is rendered from it.
+		Assert.assertThat(query.apply(0).toJson(), is(expected));
+		Assert.assertThat(query.apply(1).toJson(), is(expectedOther));
+		Assert.assertThat(query.apply(0).toJson(), is(expected));
+	}
+
+	@Test
+	public void testRenderedQueries()
+	{
+		assertSameWithoutCache(i -> Finder.newQuery().field("_id").is("id" + i));
+		assertSameWithoutCache(i -> Finder.newQuery().field("type").is("type" + i).field("_id").gt("id" + i));
+		assertSameWithoutCache(i -> Finder.newQuery().field("_id").is("id" + i).field("groups").ninStrings("group" + i));
+		assertSameWithoutCache(i -> Finder.newQuery().field("_id").is("id" + i).field("groups").exists());
+		assertSameWithoutCache(i -> Finder.newQuery().field("age").gte(i).field("age").lt(i + 10));
+		assertSameWithoutCache(i -> Finder.newQuery().field("groups").inStrings("group" + i, "group" + (i + 1)));
+		assertSameWithoutCache(i -> Finder.newQuery().anyOf(field("groups").is("group" + i),
+		                                                    Finder.newQuery().field("groups").allInNumbers(i, i + 1),
+		                                                    Finder.newQuery().noneOf(Finder.newQuery().field("type").is("t" + i))));
+	}
+
+	@Test
+	public void testLiterals()
+	{
+		Assert.assertThat(Finder.newQuery().field("_id").is("id0").toJson(), is(new JsonObject().put("_id", "id0")));
+		Assert.assertThat(Finder.newQuery().field("_id").is("id1").toJson(), is(new JsonObject().put("_id", "id1")));
+
+		// A null literal isn't taken for an unbound slot.
+		Assert.assertThat(Finder.newQuery().field("_id").is((String) null).toJson(), is(new JsonObject().putNull("_id")));
+
+		// A later condition on the same field overwrites the earlier one, as before.
+		Assert.assertThat(Finder.newQuery().field("_id").is("id0").field("_id").is("id1").toJson(),
+		                  is(new JsonObject().put("_id", "id1")));
+
+		// A literal that looks like a variable is a literal.
+		Assert.assertThat(Finder.newQuery().field("_id").is("<#0>").toJson(), is(new JsonObject().put("_id", "<#0>")));
+		Assert.assertThat(Finder.newQuery().field("<#0>").is("id0").toJson(), is(new JsonObject().put("<#0>", "id0")));
+	}
+
+	@Test
+	public void testShapeHash()
+	{
+		final int shape = Finder.newQuery().field("type").is("user").field("_id").gt("a").shapeHash();
+
+		Assert.assertThat(Finder.newQuery().field("type").is("device").field("_id").gt("b").shapeHash(), is(shape));
+		Assert.assertThat(Finder.newQuery().field("type").is("user").field("_id").gte("a").shapeHash(), is(not(shape)));
+		Assert.assertThat(Finder.newQuery().field("_id").gt("a").field("type").is("user").shapeHash(), is(not(shape)));
+		Assert.assertThat(Finder.newQuery().field("groups").inStrings("a").shapeHash(),
+		                  is(Finder.newQuery().field("groups").inStringCollection(Arrays.asList("a", "b", "c")).shapeHash()));
+	}
+
+	@Test
+	public void testQueriesAreNotShared()
+	{
+		final JsonObject query = Finder.newQuery().field("_id").is("id0").field("groups").exists().toJson();
+		query.getJsonObject("groups").put("$exists", false);
+
+		Assert.assertThat(Finder.newQuery().field("_id").is("id0").field("groups").exists().toJson().getJsonObject("groups"),
+		                  is(new JsonObject().put("$exists", true)));
+	}
+
+	@Test
+	public void testCacheIsBounded()
+	{
+		for (int i = 0; i < Finder.MAX_PLANS + 10; i++) {
+			Finder.newQuery().field("field" + i).is(i).toJson();
+		}
+
+		Assert.assertThat(Finder.planCount() <= Finder.MAX_PLANS, is(true));
+		Assert.assertThat(Finder.newQuery().field("field" + (Finder.MAX_PLANS + 20)).is(1).toJson(),
+		                  is(new JsonObject().put("field" + (Finder.MAX_PLANS + 20), 1)));
+	}
+
+	@Test
+	public void testFindOptions()
+	{
+		final Finder.Expression expression = Finder.newQuery()
+		                                           .field("type").is("user")
+		                                           .include("groups", "properties")
+		                                           .exclude("_id")
+		                                           .sortDescending("created_at")
+		                                           .sortAscending("_id")
+		                                           .skip(20)
+		                                           .limit(10);
+		final FindOptions options = expression.toFindOptions();
+
+		Assert.assertThat(options.getFields(), is(new JsonObject().put("groups", 1).put("properties", 1).put("_id", 0)));
+		Assert.assertThat(options.getSort().fieldNames().toString(), is("[created_at, _id]"));
+		Assert.assertThat(options.getSort(), is(new JsonObject().put("created_at", -1).put("_id", 1)));
+		Assert.assertThat(options.getSkip(), is(20));
+		Assert.assertThat(options.getLimit(), is(10));
+		Assert.assertThat(expression.toProjection(), is(options.getFields()));
+
+		// The options aren't a part of the query or its shape.
+		Assert.assertThat(expression.toJson(), is(new JsonObject().put("type", "user")));
+		Assert.assertThat(expression.shapeHash(), is(Finder.newQuery().field("type").is("device").shapeHash()));
+
+		// The options given are copies.
+		options.getFields().put("type", 1);
+		Assert.assertThat(expression.toFindOptions().getFields().containsKey("type"), is(false));
+
+		// Without the options, the defaults of MongoClient are used.
+		final FindOptions defaults = Finder.newQuery().field("type").is("user").toFindOptions();
+		Assert.assertThat(defaults, is(new FindOptions()));
+	}
+
+	@Test
+	public void testStartAfter()
+	{
+		final Finder.Expression first = Finder.newQuery().field("type").is("user").startAfter("_id", null).limit(5);
+		Assert.assertThat(first.toJson(), is(new JsonObject().put("type", "user")));
+		Assert.assertThat(first.toFindOptions().getSort(), is(new JsonObject().put("_id", 1)));
+
+		final Finder.Expression next = Finder.newQuery().field("type").is("user").startAfter("_id", "id4").limit(5);
+		Assert.assertThat(next.toJson(), is(new JsonObject().put("type", "user")
+		                                                    .put("_id", new JsonObject().put("$gt", "id4"))));
+		Assert.assertThat(next.toFindOptions().getSort(), is(new JsonObject().put("_id", 1)));
+		Assert.assertThat(next.toFindOptions().getLimit(), is(5));
+	}
+}
@@ -0,0 +1,150 @@
+package com.pful.pico.db.querybuilder;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.function.Predicate;
+
+import static com.pful.pico.db.querybuilder.Field.field;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * QueryPredicateTest checks the semantics of the queries evaluated in the JVM without the database.
+ */
+public class QueryPredicateTest
+{
+	private static final JsonObject USER = new JsonObject(
+			"{\"_id\":\"e0\",\"type\":\"user\",\"created_at\":100," +
+			"\"properties\":{\"name\":\"alice\",\"age\":30,\"score\":1.5,\"tags\":[\"a\",\"b\"]," +
+			"\"address\":{\"city\":\"seoul\"},\"pets\":[{\"kind\":\"cat\"},{\"kind\":\"dog\"}],\"nickname\":null}," +
+			"\"groups\":[\"g0\",\"g1\"]}");
+
+	private static boolean matches(final String query)
+	{
+		return QueryPredicate.compile(new JsonObject(query)).test(USER);
+	}
+
+	@Test
+	public void testEquality()
+	{
+		Assert.assertThat(matches("{\"type\":\"user\"}"), is(true));
+		Assert.assertThat(matches("{\"type\":\"device\"}"), is(false));
+		Assert.assertThat(matches("{\"type\":{\"$eq\":\"user\"}}"), is(true));
+		Assert.assertThat(matches("{\"properties.age\":30.0}"), is(true));
+		Assert.assertThat(matches("{\"properties.address.city\":\"seoul\"}"), is(true));
+		Assert.assertThat(matches("{\"properties.address\":{\"city\":\"seoul\"}}"), is(true));
+		Assert.assertThat(matches("{\"type\":\"user\",\"_id\":\"e1\"}"), is(false));
+	}
+
+	@Test
+	public void testArrays()
+	{
+		Assert.assertThat(matches("{\"groups\":\"g1\"}"), is(true));
+		Assert.assertThat(matches("{\"groups\":[\"g0\",\"g1\"]}"), is(true));
+		Assert.assertThat(matches("{\"groups\":[\"g1\",\"g0\"]}"), is(false));
+		Assert.assertThat(matches("{\"groups.1\":\"g1\"}"), is(true));
+		Assert.assertThat(matches("{\"properties.pets.kind\":\"dog\"}"), is(true));
+		Assert.assertThat(matches("{\"properties.pets.kind\":{\"$ne\":\"dog\"}}"), is(false));
+		Assert.assertThat(matches("{\"groups\":{\"$ne\":\"g2\"}}"), is(true));
+		Assert.assertThat(matches("{\"groups\":{\"$ne\":\"g0\"}}"), is(false));
+		Assert.assertThat(matches("{\"groups\":{\"$all\":[\"g1\",\"g0\"]}}"), is(true));
+		Assert.assertThat(matches("{\"groups\":{\"$all\":[\"g1\",\"g2\"]}}"), is(false));
+		Assert.assertThat(matches("{\"groups\":{\"$all\":[]}}"), is(false));
+	}
+
+	@Test
+	public void testComparisons()
+	{
+		Assert.assertThat(matches("{\"properties.age\":{\"$gt\":29,\"$lte\":30}}"), is(true));
+		Assert.assertThat(matches("{\"properties.age\":{\"$gt\":30}}"), is(false));
+		Assert.assertThat(matches("{\"properties.score\":{\"$gte\":1.5,\"$lt\":2}}"), is(true));
+		Assert.assertThat(matches("{\"properties.name\":{\"$gt\":\"a\"}}"), is(true));
+		Assert.assertThat(matches("{\"_id\":{\"$gt\":\"e0\"}}"), is(false));
+		// A number isn't compared with a string.
+		Assert.assertThat(matches("{\"properties.name\":{\"$gt\":0}}"), is(false));
+		Assert.assertThat(matches("{\"properties.unknown\":{\"$lt\":0}}"), is(false));
+	}
+
+	@Test
+	public void testInAndNin()
+	{
+		Assert.assertThat(matches("{\"type\":{\"$in\":[\"device\",\"user\"]}}"), is(true));
+		Assert.assertThat(matches("{\"properties.age\":{\"$in\":[1,30.0]}}"), is(true));
+		Assert.assertThat(matches("{\"groups\":{\"$in\":[\"g1\",\"g5\"]}}"), is(true));
+		Assert.assertThat(matches("{\"groups\":{\"$nin\":[\"g1\",\"g5\"]}}"), is(false));
+		Assert.assertThat(matches("{\"groups\":{\"$nin\":[\"g5\"]}}"), is(true));
+		Assert.assertThat(matches("{\"properties.unknown\":{\"$in\":[null]}}"), is(true));
+		Assert.assertThat(matches("{\"properties.unknown\":{\"$nin\":[1]}}"), is(true));
+	}
+
+	@Test
+	public void testExistsAndNull()
+	{
+		Assert.assertThat(matches("{\"groups\":{\"$exists\":true}}"), is(true));
+		Assert.assertThat(matches("{\"properties.unknown\":{\"$exists\":true}}"), is(false));
+		Assert.assertThat(matches("{\"properties.unknown\":{\"$exists\":false}}"), is(true));
+		Assert.assertThat(matches("{\"properties.nickname\":{\"$exists\":true}}"), is(true));
+		Assert.assertThat(matches("{\"properties.nickname\":null}"), is(true));
+		Assert.assertThat(matches("{\"properties.unknown\":null}"), is(true));
+		Assert.assertThat(matches("{\"properties.name\":null}"), is(false));
+	}
+
+	@Test
+	public void testLogicalOperators()
+	{
+		Assert.assertThat(matches("{\"$and\":[{\"type\":\"user\"},{\"groups\":\"g0\"}]}"), is(true));
+		Assert.assertThat(matches("{\"$or\":[{\"type\":\"device\"},{\"groups\":\"g5\"}]}"), is(false));
+		Assert.assertThat(matches("{\"$or\":[{\"type\":\"device\"},{\"groups\":\"g1\"}]}"), is(true));
+		Assert.assertThat(matches("{\"$nor\":[{\"type\":\"device\"},{\"groups\":\"g5\"}]}"), is(true));
+		Assert.assertThat(matches("{\"$nor\":[{\"$and\":[{\"type\":\"user\"},{\"groups\":\"g1\"}]}]}"), is(false));
+	}
+
+	@Test
+	public void testFinderQueries()
+	{
+		final Predicate<JsonObject> predicate = Finder.newQuery()
+		                                              .field("type").is("user")
+		                                              .anyOf(field("groups").is("g5"),
+		                                                     Finder.newQuery().field("properties.age").gte(30))
+		                                              .toPredicate();
+		Assert.assertThat(predicate.test(USER), is(true));
+		Assert.assertThat(predicate.test(USER.copy().put("type", "device")), is(false));
+
+		Assert.assertThat(Finder.newQuery().field("groups").ninStrings("g0").toPredicate().test(USER), is(false));
+		Assert.assertThat(Finder.newQuery().field("groups").allInStrings("g0", "g1").toPredicate().test(USER), is(true));
+		Assert.assertThat(Finder.newQuery().field("properties.tags").exists().toPredicate().test(USER), is(true));
+		Assert.assertThat(Finder.newQuery().field("properties.tags").exists().toPredicate().test(new JsonObject()), is(false));
+	}
+
+	@Test
+	public void testUnsupportedOperators()
+	{
+		final String[] queries = {
+				"{\"name\":{\"$regex\":\"^a\"}}",
+				"{\"$where\":\"true\"}",
+				"{\"$or\":[]}",
+				"{\"$and\":{\"type\":\"user\"}}",
+				"{\"groups\":{\"$in\":\"g0\"}}",
+				"{\"age\":{\"$gt\":[1]}}"
+		};
+
+		for (final String query : queries) {
+			try {
+				QueryPredicate.compile(new JsonObject(query));
+				Assert.fail(query);
+			}
+			catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testEmptyQueryMatchesEverything()
+	{
+		Assert.assertThat(QueryPredicate.compile(new JsonObject()).test(USER), is(true));
+		Assert.assertThat(QueryPredicate.compile(new JsonObject()).test(new JsonObject().put("groups", new JsonArray())), is(true));
+	}
+}
@@ -0,0 +1,270 @@
+package com.pful.pico.http;
+
+import com.pful.pico.core.PICOErrorCode;
+import com.pful.pico.resource.Entity;
+import com.pful.pico.resource.EntityCodec;
+import com.pful.pico.resource.EntityListCursor;
+import com.pful.pico.store.InMemoryEntityStore;
+import com.pful.pico.store.InMemoryGroupStore;
+import com.pful.pico.store.Stores;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+/**
+ * EntityListTest checks the list of entities in newline-delimited JSON, which is streamed batch by batch without 'limit'
+ * and is given page by page with 'limit' and the PICO-Next-Cursor header.
+ * The entities are kept in InMemoryEntityStore, and there are more of them than two batches of the stream.
+ */
+public class EntityListTest
+{
+	private static final String TYPE = "person";
+	private static final String OTHER_TYPE = "place";
+	private static final int ENTITY_COUNT = EntityCRUDHandler.LIST_BATCH_SIZE * 2 + 500;
+	private static final int PORT = 18089;
+
+	private static final List<String> ids = new ArrayList<>();
+
+	private static Vertx vertx;
+	private static HttpServer server;
+	private static HttpClient client;
+
+	/**
+	 * Page is a response read by the client.
+	 */
+	private static final class Page
+	{
+		private final HttpClientResponse response;
+		private final List<String> ids = new ArrayList<>();
+
+		private Page(final HttpClientResponse response, final Buffer body)
+		{
+			this.response = response;
+			this.ids.addAll(idsOf(body));
+		}
+	}
+
+	@BeforeClass
+	public static void setUpBefore()
+			throws Exception
+	{
+		final InMemoryEntityStore entityStore = new InMemoryEntityStore();
+		Stores.use(entityStore, new InMemoryGroupStore(entityStore));
+
+		// The ids are inserted in the reverse order to check that the list is in the order of the ids.
+		for (int i = ENTITY_COUNT - 1; i >= 0; i--) {
+			final String id = String.format("%024x", i);
+			entityStore.insert(document(id, TYPE, i), res -> Assert.assertThat(res.succeeded(), is(true)));
+			ids.add(0, id);
+		}
+		for (int i = 0; i < 3; i++) {
+			entityStore.insert(document(String.format("%024x", ENTITY_COUNT + i), OTHER_TYPE, i),
+			                   res -> Assert.assertThat(res.succeeded(), is(true)));
+		}
+
+		vertx = Vertx.vertx();
+
+		final Router router = Router.router(vertx);
+		EntityCRUDHandler.installRouters(router);
+
+		final CountDownLatch latch = new CountDownLatch(1);
+		server = vertx.createHttpServer().requestHandler(router::accept).listen(PORT, res -> latch.countDown());
+		latch.await();
+
+		client = vertx.createHttpClient();
+	}
+
+	@AfterClass
+	public static void closeAfter()
+			throws InterruptedException
+	{
+		final CountDownLatch latch = new CountDownLatch(1);
+
+		client.close();
+		server.close(res -> vertx.close(closed -> latch.countDown()));
+
+		latch.await();
+	}
+
+	private static JsonObject document(final String id, final String type, final int rank)
+	{
+		return new JsonObject().put(Entity.FIELD_ID, id)
+		                       .put(Entity.FIELD_TYPE, type)
+		                       .put(Entity.FIELD_PROPERTIES, new JsonObject().put("rank", rank))
+		                       .put(Entity.FIELD_CREATED_AT, 1450424771L)
+		                       .put(Entity.FIELD_UPDATED_AT, 1450424771L);
+	}
+
+	private static List<String> idsOf(final Buffer body)
+	{
+		final List<String> lines = new ArrayList<>();
+		final String text = body.toString(StandardCharsets.UTF_8.name());
+
+		Assert.assertThat(text.isEmpty() || text.endsWith("\n"), is(true));
+		for (final String line : text.split("\n")) {
+			if (!line.isEmpty()) {
+				final Entity entity = EntityCodec.decode(new JsonObject(line));
+				Assert.assertThat(entity.getType(), is(TYPE));
+				lines.add(entity.getId());
+			}
+		}
+		return lines;
+	}
+
+	private static Page get(final String uri)
+			throws Exception
+	{
+		final CompletableFuture<Page> page = new CompletableFuture<>();
+
+		client.getNow(PORT, "localhost", uri, response -> response.bodyHandler(body -> page.complete(new Page(response, body))));
+
+		return page.get(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testStream()
+			throws Exception
+	{
+		final Page page = get("/" + TYPE + "/list");
+
+		Assert.assertThat(page.response.statusCode(), is(200));
+		Assert.assertThat(page.response.getHeader("Transfer-Encoding"), is("chunked"));
+		Assert.assertThat(page.response.getHeader("Content-Type"), is("application/x-ndjson"));
+		Assert.assertThat(page.response.getHeader("PICO-Next-Cursor"), is(nullValue()));
+		Assert.assertThat(page.ids, is(ids));
+	}
+
+	@Test
+	public void testStreamAfterCursor()
+			throws Exception
+	{
+		final int position = EntityCRUDHandler.LIST_BATCH_SIZE + 10;
+		final Page page = get("/" + TYPE + "/list?cursor=" + EntityListCursor.encode(TYPE, ids.get(position - 1)));
+
+		Assert.assertThat(page.response.statusCode(), is(200));
+		Assert.assertThat(page.ids, is(ids.subList(position, ENTITY_COUNT)));
+	}
+
+	@Test
+	public void testStreamWithCursorOfOtherType()
+			throws Exception
+	{
+		final Page page = get("/" + TYPE + "/list?cursor=" + EntityListCursor.encode(OTHER_TYPE, ids.get(0)));
+
+		Assert.assertThat(page.response.statusCode(), is(400));
+		Assert.assertThat(page.response.getHeader("PICO-Error-Code"), is(PICOErrorCode.BadRequest.toString()));
+	}
+
+	@Test
+	public void testMalformedCursor()
+			throws Exception
+	{
+		final Page page = get("/" + TYPE + "/list?cursor=not-a-cursor");
+
+		Assert.assertThat(page.response.statusCode(), is(400));
+		Assert.assertThat(page.response.getHeader("PICO-Error-Code"), is(PICOErrorCode.BadRequest.toString()));
+	}
+
+	@Test
+	public void testPages()
+			throws Exception
+	{
+		final int limit = 700;
+		final List<String> listed = new ArrayList<>();
+		String cursor = null;
+		int pageCount = 0;
+
+		do {
+			final Page page = get("/" + TYPE + "/list?limit=" + limit + (cursor == null ? "" : "&cursor=" + cursor));
+
+			Assert.assertThat(page.response.statusCode(), is(200));
+			Assert.assertThat(page.response.getHeader("Content-Type"), is("application/x-ndjson"));
+			Assert.assertThat(page.ids.size(), is(Math.min(limit, ENTITY_COUNT - listed.size())));
+
+			listed.addAll(page.ids);
+			cursor = page.response.getHeader("PICO-Next-Cursor");
+			pageCount++;
+		}
+		while (cursor != null);
+
+		Assert.assertThat(pageCount, is((ENTITY_COUNT + limit - 1) / limit));
+		Assert.assertThat(listed, is(ids));
+	}
+
+	@Test
+	public void testLastPageHasNoCursor()
+			throws Exception
+	{
+		final Page page = get("/" + TYPE + "/list?limit=" + ENTITY_COUNT);
+
+		Assert.assertThat(page.ids, is(ids));
+		Assert.assertThat(page.response.getHeader("PICO-Next-Cursor"), is(nullValue()));
+	}
+
+	@Test
+	public void testStreamWaitsForDrain()
+			throws Exception
+	{
+		final StreamedHttpServerResponse response = new StreamedHttpServerResponse();
+		response.setWriteQueueFull(true);
+
+		new EntityCRUDHandler.EntityListStreamer(TYPE, null, response).start();
+
+		// The first batch is written, and the next one isn't read until the write queue is drained.
+		Assert.assertThat(response.isChunked(), is(true));
+		Assert.assertThat(response.headers().get("Content-Type"), is("application/x-ndjson"));
+		Assert.assertThat(response.chunks().size(), is(1));
+		Assert.assertThat(response.isWaitingForDrain(), is(true));
+		Assert.assertThat(response.ended(), is(false));
+
+		response.drain();
+
+		Assert.assertThat(response.chunks().size(), is(2));
+		Assert.assertThat(response.isWaitingForDrain(), is(true));
+		Assert.assertThat(response.ended(), is(false));
+
+		response.setWriteQueueFull(false);
+		response.drain();
+
+		Assert.assertThat(response.chunks().size(), is(3));
+		Assert.assertThat(response.isWaitingForDrain(), is(false));
+		Assert.assertThat(response.ended(), is(true));
+
+		final List<String> streamed = new ArrayList<>();
+		response.chunks().forEach(chunk -> streamed.addAll(idsOf(chunk)));
+		Assert.assertThat(streamed, is(ids));
+	}
+
+	@Test
+	public void testStreamOfFullBatches()
+			throws Exception
+	{
+		final StreamedHttpServerResponse response = new StreamedHttpServerResponse();
+
+		new EntityCRUDHandler.EntityListStreamer(TYPE, ids.get(ENTITY_COUNT - EntityCRUDHandler.LIST_BATCH_SIZE - 1), response).start();
+
+		// A batch as large as LIST_BATCH_SIZE can't tell the end, so an empty batch ends the stream.
+		Assert.assertThat(response.chunks().size(), is(2));
+		Assert.assertThat(response.chunks().get(1).length(), is(0));
+		Assert.assertThat(response.ended(), is(true));
+		Assert.assertThat(idsOf(response.chunks().get(0)), is(ids.subList(ENTITY_COUNT - EntityCRUDHandler.LIST_BATCH_SIZE, ENTITY_COUNT)));
+	}
+}
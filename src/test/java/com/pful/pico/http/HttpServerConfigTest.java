@@ -0,0 +1,54 @@
+package com.pful.pico.http;
+
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+
+/**
+ * HttpServerConfigTest checks that the options of the HTTP server follow the configuration and keep the defaults of Vert.x otherwise.
+ */
+public class HttpServerConfigTest
+{
+	@Test
+	public void testDefaults()
+	{
+		final HttpServerOptions options = HttpServerConfig.toOptions(new JsonObject());
+
+		Assert.assertThat(options.getPort(), is(HttpServerConfig.DEFAULT_PORT));
+		Assert.assertThat(options.isCompressionSupported(), is(HttpServerOptions.DEFAULT_COMPRESSION_SUPPORTED));
+		Assert.assertThat(options.isTcpNoDelay(), is(HttpServerOptions.DEFAULT_TCP_NO_DELAY));
+		Assert.assertThat(options.getSendBufferSize(), is(HttpServerOptions.DEFAULT_SEND_BUFFER_SIZE));
+	}
+
+	@Test
+	public void testConfigured()
+	{
+		final HttpServerOptions options = HttpServerConfig.toOptions(
+				new JsonObject().put(HttpServerConfig.CONFIG_PORT, 9090)
+				                .put(HttpServerConfig.CONFIG_COMPRESSION, true)
+				                .put(HttpServerConfig.CONFIG_TCP_NO_DELAY, false)
+				                .put(HttpServerConfig.CONFIG_SEND_BUFFER_SIZE, 262144)
+				                .put(HttpServerConfig.CONFIG_RECEIVE_BUFFER_SIZE, 131072)
+				                .put(HttpServerConfig.CONFIG_ACCEPT_BACKLOG, 2048)
+				                .put(HttpServerConfig.CONFIG_IDLE_TIMEOUT_SECONDS, 60)
+				                .put(HttpServerConfig.CONFIG_POOLED_BUFFERS, true));
+
+		Assert.assertThat(options.getPort(), is(9090));
+		Assert.assertThat(options.isCompressionSupported(), is(true));
+		Assert.assertThat(options.isTcpNoDelay(), is(false));
+		Assert.assertThat(options.getSendBufferSize(), is(262144));
+		Assert.assertThat(options.getReceiveBufferSize(), is(131072));
+		Assert.assertThat(options.getAcceptBacklog(), is(2048));
+		Assert.assertThat(options.getIdleTimeout(), is(60));
+		Assert.assertThat(options.isUsePooledBuffers(), is(true));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBufferSize()
+	{
+		HttpServerConfig.toOptions(new JsonObject().put(HttpServerConfig.CONFIG_SEND_BUFFER_SIZE, 0));
+	}
+}
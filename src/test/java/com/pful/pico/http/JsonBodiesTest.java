@@ -0,0 +1,48 @@
+package com.pful.pico.http;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.core.Is.is;
+
+/**
+ * JsonBodiesTest checks that the bodies written into the buffers are the same JSON as the encoded strings.
+ */
+public class JsonBodiesTest
+{
+	private final JsonObject json = new JsonObject().put("_id", "5673b9c3a5f4a2bd1c1b8e34")
+	                                                .put("type", "person")
+	                                                .put("properties", new JsonObject().put("name", "\uD64D\uAE38\uB3D9")
+	                                                                                   .put("age", 30)
+	                                                                                   .putNull("nickname"))
+	                                                .put("groups", new JsonArray().add("group0").add("group1"));
+
+	@Test
+	public void testCompact()
+	{
+		final Buffer buffer = JsonBodies.encode(json, false);
+
+		Assert.assertThat(buffer.toString(StandardCharsets.UTF_8.name()), is(json.encode()));
+		Assert.assertThat(buffer.length(), is(json.encode().getBytes(StandardCharsets.UTF_8).length));
+	}
+
+	@Test
+	public void testPretty()
+	{
+		Assert.assertThat(JsonBodies.encode(json, true).toString(StandardCharsets.UTF_8.name()), is(json.encodePrettily()));
+	}
+
+	@Test
+	public void testAppend()
+	{
+		final Buffer buffer = Buffer.buffer("[");
+		JsonBodies.append(buffer, json, false).appendString("]");
+
+		Assert.assertThat(new JsonArray(buffer.toString(StandardCharsets.UTF_8.name())), is(new JsonArray().add(json)));
+	}
+}
@@ -0,0 +1,284 @@
+package com.pful.pico.http;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StreamedHttpServerResponse keeps the chunks written to a response, so a test can check how a body is streamed.
+ * The write queue is full while writeQueueFull is set, and drain() calls the drain handler as the connection does.
+ */
+class StreamedHttpServerResponse
+		implements HttpServerResponse
+{
+	private final MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+	private final List<Buffer> chunks = new ArrayList<>();
+	private int statusCode = 200;
+	private boolean chunked = false;
+	private boolean ended = false;
+	private boolean closed = false;
+	private boolean writeQueueFull = false;
+	private Handler<Void> drainHandler;
+
+	List<Buffer> chunks()
+	{
+		return chunks;
+	}
+
+	void setWriteQueueFull(final boolean writeQueueFull)
+	{
+		this.writeQueueFull = writeQueueFull;
+	}
+
+	boolean isWaitingForDrain()
+	{
+		return drainHandler != null;
+	}
+
+	void drain()
+	{
+		drainHandler.handle(null);
+	}
+
+	@Override
+	public HttpServerResponse exceptionHandler(final Handler<Throwable> handler)
+	{
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse write(final Buffer data)
+	{
+		chunks.add(data);
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse setWriteQueueMaxSize(final int maxSize)
+	{
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse drainHandler(final Handler<Void> handler)
+	{
+		drainHandler = handler;
+		return this;
+	}
+
+	@Override
+	public int getStatusCode()
+	{
+		return statusCode;
+	}
+
+	@Override
+	public HttpServerResponse setStatusCode(final int statusCode)
+	{
+		this.statusCode = statusCode;
+		return this;
+	}
+
+	@Override
+	public String getStatusMessage()
+	{
+		return null;
+	}
+
+	@Override
+	public HttpServerResponse setStatusMessage(final String statusMessage)
+	{
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse setChunked(final boolean chunked)
+	{
+		this.chunked = chunked;
+		return this;
+	}
+
+	@Override
+	public boolean isChunked()
+	{
+		return chunked;
+	}
+
+	@Override
+	public MultiMap headers()
+	{
+		return headers;
+	}
+
+	@Override
+	public boolean writeQueueFull()
+	{
+		return writeQueueFull;
+	}
+
+	@Override
+	public HttpServerResponse putHeader(final String name, final String value)
+	{
+		headers.add(name, value);
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putHeader(final CharSequence name, final CharSequence value)
+	{
+		return putHeader(name.toString(), value.toString());
+	}
+
+	@Override
+	public HttpServerResponse putHeader(final String name, final Iterable<String> values)
+	{
+		return putHeader(name, values.toString());
+	}
+
+	@Override
+	public HttpServerResponse putHeader(final CharSequence name, final Iterable<CharSequence> values)
+	{
+		return putHeader(name.toString(), values.toString());
+	}
+
+	@Override
+	public MultiMap trailers()
+	{
+		return null;
+	}
+
+	@Override
+	public HttpServerResponse putTrailer(final String name, final String value)
+	{
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putTrailer(final CharSequence name, final CharSequence value)
+	{
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putTrailer(final String name, final Iterable<String> values)
+	{
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putTrailer(final CharSequence name, final Iterable<CharSequence> value)
+	{
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse closeHandler(final Handler<Void> handler)
+	{
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse write(final String chunk, final String enc)
+	{
+		return write(Buffer.buffer(chunk, enc));
+	}
+
+	@Override
+	public HttpServerResponse write(final String chunk)
+	{
+		return write(Buffer.buffer(chunk));
+	}
+
+	@Override
+	public HttpServerResponse writeContinue()
+	{
+		return this;
+	}
+
+	@Override
+	public void end(final String chunk)
+	{
+		end(Buffer.buffer(chunk));
+	}
+
+	@Override
+	public void end(final String chunk, final String enc)
+	{
+		end(Buffer.buffer(chunk, enc));
+	}
+
+	@Override
+	public void end(final Buffer chunk)
+	{
+		write(chunk);
+		end();
+	}
+
+	@Override
+	public void end()
+	{
+		ended = true;
+	}
+
+	@Override
+	public HttpServerResponse sendFile(final String filename, final long offset, final long length)
+	{
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse sendFile(final String filename,
+	                                   final long offset,
+	                                   final long length,
+	                                   final Handler<AsyncResult<Void>> resultHandler)
+	{
+		return this;
+	}
+
+	@Override
+	public void close()
+	{
+		closed = true;
+	}
+
+	@Override
+	public boolean ended()
+	{
+		return ended;
+	}
+
+	@Override
+	public boolean closed()
+	{
+		return closed;
+	}
+
+	@Override
+	public boolean headWritten()
+	{
+		return false;
+	}
+
+	@Override
+	public HttpServerResponse headersEndHandler(final Handler<Void> handler)
+	{
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse bodyEndHandler(final Handler<Void> handler)
+	{
+		return this;
+	}
+
+	@Override
+	public long bytesWritten()
+	{
+		return 0;
+	}
+}
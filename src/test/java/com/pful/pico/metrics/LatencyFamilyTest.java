@@ -0,0 +1,56 @@
+package com.pful.pico.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+
+/**
+ * LatencyFamilyTest checks that the histograms are found by their label values
+ * and that they are written in the text format of Prometheus.
+ */
+public class LatencyFamilyTest
+{
+	@Test
+	public void testGetGivesSameHistogram()
+	{
+		final LatencyFamily family = new LatencyFamily("test_seconds", "A test.", "method", "route");
+
+		Assert.assertThat(family.get("GET", "/entities/:id") == family.get("GET", "/entities/:id"), is(true));
+		Assert.assertThat(family.get("GET", "/entities/:id") == family.get("PUT", "/entities/:id"), is(false));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetWithWrongLabels()
+	{
+		new LatencyFamily("test_seconds", "A test.", "method", "route").get("GET");
+	}
+
+	@Test
+	public void testWriteTo()
+	{
+		final LatencyFamily family = new LatencyFamily("test_seconds", "A test.", "operation", "command");
+		for (int i = 0; i < 100; i++) {
+			family.get("runCommand", "findAndModify").recordNanos(TimeUnit.MILLISECONDS.toNanos(2));
+		}
+		family.get("find", "").recordNanos(TimeUnit.MINUTES.toNanos(5));
+		family.get("a\"b", "").recordNanos(1);
+
+		final StringBuilder builder = new StringBuilder();
+		family.writeTo(builder);
+		final String text = builder.toString();
+
+		Assert.assertThat(text.startsWith("# HELP test_seconds A test.\n# TYPE test_seconds summary\n"), is(true));
+		Assert.assertThat(text.contains("test_seconds_count{operation=\"runCommand\",command=\"findAndModify\"} 100\n"), is(true));
+		Assert.assertThat(text.contains("test_seconds{operation=\"runCommand\",command=\"findAndModify\",quantile=\"0.99\"} 0.002"),
+		                  is(true));
+		// A latency over the highest trackable one is recorded as the highest.
+		Assert.assertThat(text.contains("test_seconds_count{operation=\"find\",command=\"\"} 1\n"), is(true));
+		Assert.assertThat(text.contains("operation=\"a\\\"b\""), is(true));
+		// The series are sorted by their label values.
+		Assert.assertThat(text.indexOf("operation=\"a\\\"b\"") < text.indexOf("operation=\"find\""), is(true));
+		Assert.assertThat(text.indexOf("operation=\"find\"") < text.indexOf("operation=\"runCommand\""), is(true));
+	}
+}
@@ -0,0 +1,118 @@
+package com.pful.pico.resource;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+/**
+ * EntityCacheTest checks the bound and the invalidation of the entity cache without the database.
+ */
+public class EntityCacheTest
+{
+	private static JsonObject document(final String id)
+	{
+		return new JsonObject().put(Entity.FIELD_ID, id)
+		                       .put(Entity.FIELD_TYPE, TestConstants.VALUE_TYPE);
+	}
+
+	@After
+	public void after()
+	{
+		EntityCache.configure(new JsonObject());
+	}
+
+	@Test
+	public void testPutAndGet()
+	{
+		EntityCache.configure(new JsonObject());
+
+		EntityCache.put(document("entity0"), EntityCache.version("entity0"));
+
+		Assert.assertThat(EntityCache.get("entity0"), is(document("entity0")));
+		Assert.assertThat(EntityCache.get("entity1"), is(nullValue()));
+		Assert.assertThat(EntityCache.stats().getLong("hit_count"), is(1L));
+		Assert.assertThat(EntityCache.stats().getLong("miss_count"), is(1L));
+	}
+
+	@Test
+	public void testInvalidate()
+	{
+		EntityCache.configure(new JsonObject());
+
+		EntityCache.put(document("entity0"), EntityCache.version("entity0"));
+		EntityCache.put(document("entity1"), EntityCache.version("entity1"));
+		EntityCache.invalidate("entity0");
+
+		Assert.assertThat(EntityCache.get("entity0"), is(nullValue()));
+		Assert.assertThat(EntityCache.get("entity1"), is(document("entity1")));
+
+		EntityCache.invalidateAll();
+
+		Assert.assertThat(EntityCache.get("entity1"), is(nullValue()));
+	}
+
+	@Test
+	public void testStaleReadIsNotCached()
+	{
+		EntityCache.configure(new JsonObject());
+
+		final long version = EntityCache.version("entity0");
+		EntityCache.invalidate("entity0");
+		EntityCache.put(document("entity0"), version);
+
+		Assert.assertThat(EntityCache.get("entity0"), is(nullValue()));
+	}
+
+	@Test
+	public void testReadOfOtherEntityIsCached()
+	{
+		EntityCache.configure(new JsonObject());
+
+		// Another entity changed while entity0 was read doesn't make the read stale.
+		final long version = EntityCache.version("entity0");
+		EntityCache.invalidate("entity1");
+		EntityCache.put(document("entity0"), version);
+
+		Assert.assertThat(EntityCache.get("entity0"), is(document("entity0")));
+	}
+
+	@Test
+	public void testStaleReadIsNotCachedAfterInvalidateAll()
+	{
+		EntityCache.configure(new JsonObject());
+
+		final long version = EntityCache.version("entity0");
+		EntityCache.invalidateAll();
+		EntityCache.put(document("entity0"), version);
+
+		Assert.assertThat(EntityCache.get("entity0"), is(nullValue()));
+	}
+
+	@Test
+	public void testMaximumSize()
+	{
+		EntityCache.configure(new JsonObject().put(EntityCache.CONFIG_MAXIMUM_SIZE, 10));
+
+		for (int i = 0; i < 100; i++) {
+			EntityCache.put(document("entity" + i), EntityCache.version("entity" + i));
+		}
+
+		Assert.assertThat(EntityCache.stats().getLong("size") <= 10, is(true));
+		Assert.assertThat(EntityCache.stats().getLong("eviction_count") >= 90, is(true));
+	}
+
+	@Test
+	public void testDisabled()
+	{
+		EntityCache.configure(new JsonObject().put(EntityCache.CONFIG_ENABLED, false));
+
+		EntityCache.put(document("entity0"), EntityCache.version("entity0"));
+
+		Assert.assertThat(EntityCache.isEnabled(), is(false));
+		Assert.assertThat(EntityCache.get("entity0"), is(nullValue()));
+	}
+}
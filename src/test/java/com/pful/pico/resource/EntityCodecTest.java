@@ -0,0 +1,84 @@
+package com.pful.pico.resource;
+
+import com.google.gson.Gson;
+import com.pful.pico.db.querybuilder.Finder;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static org.hamcrest.core.Is.is;
+
+/**
+ * EntityCodecTest checks the conversion between an entity and a JsonObject without the database.
+ */
+public class EntityCodecTest
+{
+	private static final String PROPERTIES_IN_STRING = "{field0 : {sub_field0 : sub_value0, sub_field1: sub_value1}, field1 : {sub_field0 : sub_value0}}";
+	private static final Map<String, Object> PROPERTIES =
+			new Gson().fromJson(PROPERTIES_IN_STRING, new HashMap<String, Object>().getClass());
+
+	@Test
+	public void testDecode()
+			throws Exception
+	{
+		final JsonObject json = new JsonObject().put(Entity.FIELD_ID, "entity0")
+		                                        .put(Entity.FIELD_TYPE, TestConstants.VALUE_TYPE)
+		                                        .put(Entity.FIELD_PROPERTIES, new JsonObject(new Gson().toJson(PROPERTIES)))
+		                                        .put(Entity.FIELD_CREATED_AT, 100L)
+		                                        .put(Entity.FIELD_UPDATED_AT, 200)
+		                                        .put(GroupManipulation.FIELD_GROUPS, new JsonArray().add("group0").add("group1"));
+
+		final Entity entity = EntityCodec.decode(json);
+
+		Assert.assertThat(entity.getId(), is("entity0"));
+		Assert.assertThat(entity.getType(), is(TestConstants.VALUE_TYPE));
+		Assert.assertThat(entity.getProperties(), is(PROPERTIES));
+		Assert.assertThat(entity.getCreatedAt(), is(100L));
+		Assert.assertThat(entity.getUpdatedAt(), is(200L));
+		Assert.assertThat(entity.getGroups(), is(Arrays.asList("group0", "group1")));
+	}
+
+	@Test
+	public void testEncodeOmitsMissingFields()
+			throws Exception
+	{
+		final JsonObject json = EntityCodec.encode(Entity.bind("entity0"));
+
+		Assert.assertThat(json.getString(Entity.FIELD_ID), is("entity0"));
+		Assert.assertThat(json.containsKey(Entity.FIELD_TYPE), is(false));
+		Assert.assertThat(json.containsKey(Entity.FIELD_PROPERTIES), is(false));
+		Assert.assertThat(json.containsKey(GroupManipulation.FIELD_GROUPS), is(false));
+		Assert.assertThat(json.getLong(Entity.FIELD_CREATED_AT), is(0L));
+	}
+
+	@Test
+	public void testRoundTrip()
+			throws Exception
+	{
+		final Entity entity = Entity.bind("entity0", TestConstants.VALUE_TYPE, PROPERTIES);
+		final Entity decoded = EntityCodec.decode(new JsonObject(EntityCodec.encode(entity).encode()));
+
+		Assert.assertThat(decoded.getId(), is(entity.getId()));
+		Assert.assertThat(decoded.getType(), is(entity.getType()));
+		Assert.assertThat(decoded.getProperties(), is(entity.getProperties()));
+	}
+
+	@Test
+	public void testPredicate()
+			throws Exception
+	{
+		final Predicate<Entity> predicate = EntityCodec.predicate(Finder.newQuery()
+		                                                                .field(Entity.FIELD_TYPE).is(TestConstants.VALUE_TYPE)
+		                                                                .field("properties.field0.sub_field1").is("sub_value1"));
+
+		Assert.assertThat(predicate.test(Entity.bind("entity0", TestConstants.VALUE_TYPE, PROPERTIES)), is(true));
+		Assert.assertThat(predicate.test(Entity.bind("entity0", TestConstants.VALUE_TYPE, new HashMap<>())), is(false));
+		Assert.assertThat(predicate.test(Entity.bind("entity0")), is(false));
+	}
+}
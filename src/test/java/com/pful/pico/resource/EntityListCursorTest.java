@@ -0,0 +1,54 @@
+package com.pful.pico.resource;
+
+import com.pful.pico.core.PICOErrorCode;
+import com.pful.pico.core.PICOException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+
+/**
+ * EntityListCursorTest checks that a cursor points the same position after it is encoded.
+ */
+public class EntityListCursorTest
+{
+	private static final String LAST_ID = "5673b9c3a5f4a2bd1c1b8e34";
+
+	@Test
+	public void testRoundTrip()
+			throws Exception
+	{
+		final String cursor = EntityListCursor.encode(TestConstants.VALUE_TYPE, LAST_ID);
+
+		Assert.assertThat(cursor.matches("[A-Za-z0-9_-]+"), is(true));
+		Assert.assertThat(EntityListCursor.decode(TestConstants.VALUE_TYPE, cursor), is(LAST_ID));
+	}
+
+	@Test
+	public void testAnotherType()
+			throws Exception
+	{
+		final String cursor = EntityListCursor.encode(TestConstants.VALUE_TYPE, LAST_ID);
+
+		try {
+			EntityListCursor.decode("another_type", cursor);
+			Assert.fail();
+		}
+		catch (PICOException e) {
+			Assert.assertThat(e.getErrorCode(), is(PICOErrorCode.BadRequest));
+		}
+	}
+
+	@Test
+	public void testMalformed()
+			throws Exception
+	{
+		try {
+			EntityListCursor.decode(TestConstants.VALUE_TYPE, "not a cursor");
+			Assert.fail();
+		}
+		catch (PICOException e) {
+			Assert.assertThat(e.getErrorCode(), is(PICOErrorCode.BadRequest));
+		}
+	}
+}
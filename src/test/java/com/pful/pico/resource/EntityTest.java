@@ -1,17 +1,19 @@
 package com.pful.pico.resource;
 
 import com.google.gson.Gson;
-import com.pful.pico.Service;
 import com.pful.pico.core.PICOErrorCode;
 import com.pful.pico.core.PICOException;
-import com.pful.pico.db.MongoDB;
-import io.vertx.core.Vertx;
-import io.vertx.core.json.JsonObject;
+import com.pful.pico.db.querybuilder.Finder;
+import com.pful.pico.store.InMemoryEntityStore;
+import com.pful.pico.store.InMemoryGroupStore;
+import com.pful.pico.store.Stores;
 import org.bson.types.ObjectId;
 import org.junit.*;
 import org.junit.runners.MethodSorters;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 
@@ -27,38 +29,18 @@ public class EntityTest
 	private static Map<String, Object> PROPERTIES =
 			new Gson().fromJson(PROPERTIES_IN_STRING, new HashMap<String, Object>().getClass());
 
-	private static Vertx vertx = Vertx.vertx();
 	private static Entity entityBound;
 //	private static ApplicationContext context =
 //			new ApplicationContext(TestConstants.VALUE_APP_ID, TestConstants.VALUE_APP_TOKEN);
 
+	/**
+	 * The entities are kept in an InMemoryEntityStore, which is dropped with the class.
+	 */
 	@BeforeClass
 	public static void setUpBefore()
-			throws InterruptedException
 	{
-		final CountDownLatch latch = new CountDownLatch(1);
-
-		vertx.deployVerticle(Service.class.getName(), res -> {
-			latch.countDown();
-		});
-
-		latch.await();
-	}
-
-	@AfterClass
-	public static void closeAfter()
-			throws InterruptedException
-	{
-		final CountDownLatch latch = new CountDownLatch(1);
-
-		MongoDB.mongoClientSingleton.remove(MongoDB.COLLECTION_ENTITIES, new JsonObject(), res -> {
-			if (res.succeeded()) {
-				latch.countDown();
-			}
-		});
-
-		latch.await();
-		vertx.close();
+		final InMemoryEntityStore entityStore = new InMemoryEntityStore();
+		Stores.use(entityStore, new InMemoryGroupStore(entityStore));
 	}
 
 	@Before
@@ -129,29 +111,29 @@ public class EntityTest
 		final PICOErrorCode[] errorCodePassed = new PICOErrorCode[1];
 
 		try {
-			MongoDB.mongoClientSingleton.find(MongoDB.COLLECTION_ENTITIES, new JsonObject(),//.put("app_id", TestConstants.VALUE_APP_ID),
-			                                  res -> {
-				                                  if (res.succeeded()) {
-					                                  final String id = String.valueOf(res.result()
-					                                                                      .get(0)
-					                                                                      .getString("_id"));
-					                                  try {
-						                                  Entity.read(//context,
-						                                              id,
-						                                              (errorCode, entity) -> {
-							                                              entityBound = entity;
-
-							                                              errorCodePassed[0] = errorCode;
-							                                              entityPassed[0] = entity;
-
-							                                              latch.countDown();
-						                                              });
-					                                  }
-					                                  catch (PICOException e) {
-						                                  e.printStackTrace();
-					                                  }
-				                                  }
-			                                  });
+			Stores.entities().find(Finder.newQuery().field(Entity.FIELD_TYPE).is(TestConstants.VALUE_TYPE),
+			                       res -> {
+				                       if (res.succeeded()) {
+					                       final String id = String.valueOf(res.result()
+					                                                           .get(0)
+					                                                           .getString("_id"));
+					                       try {
+						                       Entity.read(//context,
+						                                   id,
+						                                   (errorCode, entity) -> {
+							                                   entityBound = entity;
+
+							                                   errorCodePassed[0] = errorCode;
+							                                   entityPassed[0] = entity;
+
+							                                   latch.countDown();
+						                                   });
+					                       }
+					                       catch (PICOException e) {
+						                       e.printStackTrace();
+					                       }
+				                       }
+			                       });
 			latch.await();
 
 			testSuccess(errorCodePassed[0], entityPassed[0]);
@@ -273,4 +255,60 @@ public class EntityTest
 			e.printStackTrace();
 		}
 	}
+
+	@Test(timeout = 5000)
+	public void test6batch()
+			throws Exception
+	{
+		final List<Entity> entities = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			entities.add(Entity.prepare(TestConstants.VALUE_TYPE, PROPERTIES));
+		}
+
+		final CountDownLatch createLatch = new CountDownLatch(1);
+		final List<EntityBatchResult> createResults = new ArrayList<>();
+
+		Entity.createBatch(entities, true, (errorCode, results) -> {
+			Assert.assertEquals(PICOErrorCode.Success, errorCode);
+			createResults.addAll(results);
+			createLatch.countDown();
+		});
+		createLatch.await();
+
+		Assert.assertEquals(3, createResults.size());
+		for (final EntityBatchResult result : createResults) {
+			testSuccess(result.getErrorCode(), result.getEntity());
+		}
+
+		final List<Entity> entitiesToUpdate = new ArrayList<>();
+		createResults.forEach(e -> entitiesToUpdate.add(Entity.bind(e.getEntity().getId(), TYPE_FOR_UPDATE)));
+
+		final CountDownLatch updateLatch = new CountDownLatch(1);
+		final List<EntityBatchResult> updateResults = new ArrayList<>();
+
+		Entity.updateBatch(entitiesToUpdate, false, (errorCode, results) -> {
+			Assert.assertEquals(PICOErrorCode.Success, errorCode);
+			updateResults.addAll(results);
+			updateLatch.countDown();
+		});
+		updateLatch.await();
+
+		updateResults.forEach(e -> Assert.assertEquals(PICOErrorCode.Success, e.getErrorCode()));
+
+		final List<String> ids = new ArrayList<>();
+		createResults.forEach(e -> ids.add(e.getEntity().getId()));
+
+		final CountDownLatch deleteLatch = new CountDownLatch(1);
+		final List<EntityBatchResult> deleteResults = new ArrayList<>();
+
+		Entity.deleteBatch(ids, true, (errorCode, results) -> {
+			Assert.assertEquals(PICOErrorCode.Success, errorCode);
+			deleteResults.addAll(results);
+			deleteLatch.countDown();
+		});
+		deleteLatch.await();
+
+		Assert.assertEquals(3, deleteResults.size());
+		deleteResults.forEach(e -> Assert.assertEquals(PICOErrorCode.Success, e.getErrorCode()));
+	}
 }
@@ -0,0 +1,185 @@
+package com.pful.pico.resource;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static com.pful.pico.resource.GroupSetExpression.difference;
+import static com.pful.pico.resource.GroupSetExpression.group;
+import static com.pful.pico.resource.GroupSetExpression.intersection;
+import static com.pful.pico.resource.GroupSetExpression.union;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * GroupBitmapIndexTest checks the set operations and the loading of the group index without the database.
+ * The memberships are given as if they had been read from the GroupMembers collection.
+ */
+public class GroupBitmapIndexTest
+{
+	private static JsonObject membership(final String group, final String entityId)
+	{
+		return new JsonObject().put(GroupMembers.FIELD_GROUP, group)
+		                       .put(GroupMembers.FIELD_ENTITY_ID, entityId);
+	}
+
+	private static void load(final JsonObject... memberships)
+	{
+		final long generation = GroupBitmapIndex.beginLoading();
+		GroupBitmapIndex.loaded(generation, Arrays.asList(memberships));
+		GroupBitmapIndex.finishLoading(generation);
+	}
+
+	private static HashSet<String> set(final String... entityIds)
+	{
+		return new HashSet<>(Arrays.asList(entityIds));
+	}
+
+	@Before
+	public void before()
+	{
+		GroupBitmapIndex.enable(true);
+
+		// group0 : {e0, e1, e2}, group1 : {e1, e2, e3}, group2 : {e1}
+		load(membership("group0", "e0"), membership("group0", "e1"), membership("group0", "e2"),
+		     membership("group1", "e1"), membership("group1", "e2"), membership("group1", "e3"),
+		     membership("group2", "e1"));
+	}
+
+	@After
+	public void after()
+	{
+		GroupBitmapIndex.enable(false);
+	}
+
+	@Test
+	public void testSetOperations()
+	{
+		Assert.assertThat(GroupBitmapIndex.isReady(), is(true));
+		Assert.assertThat(new HashSet<>(GroupBitmapIndex.evaluateIds(union(group("group0"), group("group1")))),
+		                  is(set("e0", "e1", "e2", "e3")));
+		Assert.assertThat(new HashSet<>(GroupBitmapIndex.evaluateIds(intersection(group("group0"), group("group1")))),
+		                  is(set("e1", "e2")));
+		Assert.assertThat(new HashSet<>(GroupBitmapIndex.evaluateIds(difference(group("group0"), group("group1")))),
+		                  is(set("e0")));
+		Assert.assertThat(GroupBitmapIndex.subset("group0", "group2"), is(true));
+		Assert.assertThat(GroupBitmapIndex.subset("group2", "group0"), is(false));
+		Assert.assertThat(GroupBitmapIndex.cardinality("group1"), is(3));
+		Assert.assertThat(GroupBitmapIndex.cardinality("unknown"), is(0));
+	}
+
+	@Test
+	public void testChanges()
+	{
+		GroupBitmapIndex.add("group2", "e4");
+		GroupBitmapIndex.remove("group0", "e0");
+		GroupBitmapIndex.removeEntities(Arrays.asList("e2"));
+
+		Assert.assertThat(new HashSet<>(GroupBitmapIndex.evaluateIds(group("group2"))), is(set("e1", "e4")));
+		Assert.assertThat(new HashSet<>(GroupBitmapIndex.evaluateIds(group("group0"))), is(set("e1")));
+		Assert.assertThat(new HashSet<>(GroupBitmapIndex.evaluateIds(group("group1"))), is(set("e1", "e3")));
+
+		GroupBitmapIndex.replaceGroup("group1", Arrays.asList("e0", "e5"));
+		GroupBitmapIndex.removeGroup("group2");
+
+		Assert.assertThat(new HashSet<>(GroupBitmapIndex.evaluateIds(group("group1"))), is(set("e0", "e5")));
+		Assert.assertThat(GroupBitmapIndex.cardinality("group2"), is(0));
+	}
+
+	@Test
+	public void testRemoveEntitiesAfterGroupChanges()
+	{
+		// The groups of e1 and e2 are changed before they are deleted, so only their current groups are left.
+		GroupBitmapIndex.remove("group0", "e1");
+		GroupBitmapIndex.replaceGroup("group2", Arrays.asList("e2"));
+		GroupBitmapIndex.removeEntities(Arrays.asList("e1", "e2"));
+
+		Assert.assertThat(new HashSet<>(GroupBitmapIndex.evaluateIds(group("group0"))), is(set("e0")));
+		Assert.assertThat(new HashSet<>(GroupBitmapIndex.evaluateIds(group("group1"))), is(set("e3")));
+		Assert.assertThat(GroupBitmapIndex.cardinality("group2"), is(0));
+
+		// A deleted id that is added again is given a new ordinal.
+		GroupBitmapIndex.add("group0", "e1");
+
+		Assert.assertThat(new HashSet<>(GroupBitmapIndex.evaluateIds(group("group0"))), is(set("e0", "e1")));
+	}
+
+	@Test
+	public void testChangesWhileLoadingAreAppliedAfterLoading()
+	{
+		final long generation = GroupBitmapIndex.beginLoading();
+		Assert.assertThat(GroupBitmapIndex.isReady(), is(false));
+
+		// e0 left group0 after the page below had been read, and e9 joined it.
+		GroupBitmapIndex.remove("group0", "e0");
+		GroupBitmapIndex.add("group0", "e9");
+
+		GroupBitmapIndex.loaded(generation, Arrays.asList(membership("group0", "e0"), membership("group0", "e1")));
+		GroupBitmapIndex.finishLoading(generation);
+
+		Assert.assertThat(GroupBitmapIndex.isReady(), is(true));
+		Assert.assertThat(new HashSet<>(GroupBitmapIndex.evaluateIds(group("group0"))), is(set("e1", "e9")));
+	}
+
+	@Test
+	public void testOlderLoadIsDropped()
+	{
+		final long older = GroupBitmapIndex.beginLoading();
+		final long newer = GroupBitmapIndex.beginLoading();
+
+		Assert.assertThat(GroupBitmapIndex.loaded(older, Arrays.asList(membership("group0", "e0"))), is(false));
+		GroupBitmapIndex.loaded(newer, Arrays.asList(membership("group0", "e1")));
+		GroupBitmapIndex.finishLoading(older);
+
+		Assert.assertThat(GroupBitmapIndex.isReady(), is(false));
+
+		GroupBitmapIndex.finishLoading(newer);
+
+		Assert.assertThat(GroupBitmapIndex.evaluateIds(group("group0")), is(Arrays.asList("e1")));
+	}
+
+	@Test
+	public void testReloadBetweenReads()
+	{
+		final List<String> before = GroupBitmapIndex.evaluateIds(group("group1"));
+		Assert.assertThat(new HashSet<>(before), is(set("e1", "e2", "e3")));
+
+		// A reload drops the ordinals, so the index answers nothing until it has been loaded again.
+		final long generation = GroupBitmapIndex.beginLoading();
+
+		Assert.assertThat(GroupBitmapIndex.evaluateIds(group("group1")), is((List<String>) null));
+		Assert.assertThat(GroupBitmapIndex.evaluateCardinality(group("group1")), is((Integer) null));
+		Assert.assertThat(GroupBitmapIndex.cardinality("group1"), is((Integer) null));
+		Assert.assertThat(GroupBitmapIndex.subset("group0", "group2"), is((Boolean) null));
+
+		// The entities are given other ordinals by the new load.
+		GroupBitmapIndex.loaded(generation, Arrays.asList(membership("group9", "e7"), membership("group9", "e8"),
+		                                                  membership("group1", "e3"), membership("group1", "e2")));
+		GroupBitmapIndex.finishLoading(generation);
+
+		Assert.assertThat(GroupBitmapIndex.evaluateIds(group("group1")), is(Arrays.asList("e3", "e2")));
+		Assert.assertThat(GroupBitmapIndex.evaluateIds(group("group9")), is(Arrays.asList("e7", "e8")));
+	}
+
+	@Test
+	public void testLargeGroups()
+	{
+		final List<JsonObject> memberships = new ArrayList<>();
+		for (int i = 0; i < 100000; i++) {
+			memberships.add(membership("even", "e" + (i * 2)));
+			memberships.add(membership("all", "e" + (i * 2)));
+			memberships.add(membership("all", "e" + (i * 2 + 1)));
+		}
+		load(memberships.toArray(new JsonObject[memberships.size()]));
+
+		Assert.assertThat(GroupBitmapIndex.cardinality("all"), is(200000));
+		Assert.assertThat(GroupBitmapIndex.difference("all", "even").getCardinality(), is(100000));
+		Assert.assertThat(GroupBitmapIndex.subset("all", "even"), is(true));
+	}
+}
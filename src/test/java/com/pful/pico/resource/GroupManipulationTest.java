@@ -1,9 +1,10 @@
 package com.pful.pico.resource;
 
-import com.pful.pico.Service;
 import com.pful.pico.core.PICOErrorCode;
-import com.pful.pico.db.MongoDB;
-import io.vertx.core.Vertx;
+import com.pful.pico.db.querybuilder.Finder;
+import com.pful.pico.store.InMemoryEntityStore;
+import com.pful.pico.store.InMemoryGroupStore;
+import com.pful.pico.store.Stores;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import org.junit.*;
@@ -11,8 +12,9 @@ import org.junit.runners.MethodSorters;
 
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 
 import static org.hamcrest.CoreMatchers.hasItem;
@@ -29,20 +31,17 @@ public class GroupManipulationTest
 	private static String targetEntityIdForCreateTest;
 	//	private static ApplicationContext context =
 //			new ApplicationContext(TestConstants.VALUE_APP_ID, TestConstants.VALUE_APP_TOKEN);
-	private static Vertx vertx = Vertx.vertx();
 
 	/**
-	 * deploy a PICO Service and
+	 * keep the entities in an InMemoryEntityStore, which is dropped with the class, and
 	 * save a base entity without the groups field, whose _id is contained in entityIdBeforeClass,
 	 * and an additional entity without it, which is going to be used in testing create()
-	 *
-	 * @throws InterruptedException
 	 */
 	@BeforeClass
 	public static void setUpBefore()
-			throws InterruptedException
 	{
-		final CountDownLatch latch = new CountDownLatch(1);
+		final InMemoryEntityStore entityStore = new InMemoryEntityStore();
+		Stores.use(entityStore, new InMemoryGroupStore(entityStore));
 
 		final long createdAt = Instant.now()
 		                              .getEpochSecond();
@@ -51,97 +50,45 @@ public class GroupManipulationTest
 		                                          .put(Entity.FIELD_CREATED_AT, createdAt)
 		                                          .put(Entity.FIELD_UPDATED_AT, createdAt);
 
-		vertx.deployVerticle(Service.class.getName(), res -> {
-			if (res.failed()) {
-				System.err.println(res.cause());
-				System.exit(1);
-			}
-
-			MongoDB.mongoClientSingleton.save(MongoDB.COLLECTION_ENTITIES, entity,
-			                                  resInserted -> {
-				                                  entityIdBeforeClass = resInserted.result();
-//				                                  System.out.println(entityIdBeforeClass);
-
-				                                  final long newCreatedAt = Instant.now()
-				                                                                   .getEpochSecond();
-				                                  final JsonObject newEntity = new JsonObject()//.put(Entity.FIELD_APP_ID, TestConstants.VALUE_APP_ID)
-				                                                                               .put(Entity.FIELD_TYPE,
-				                                                                                    TestConstants.VALUE_TYPE)
-				                                                                               .put(Entity.FIELD_CREATED_AT, newCreatedAt)
-				                                                                               .put(Entity.FIELD_UPDATED_AT, newCreatedAt);
-
-				                                  MongoDB.mongoClientSingleton.save(MongoDB.COLLECTION_ENTITIES, newEntity,
-				                                                                    resultInserted -> {
-					                                                                    if (resInserted.failed()) {
-						                                                                    System.out.println(resultInserted.cause());
-						                                                                    Assert.fail();
-						                                                                    System.exit(1);
-					                                                                    }
-					                                                                    targetEntityIdForCreateTest = resultInserted.result();
-//					                                                                    System.out.println(resultInserted.result());
-					                                                                    latch.countDown();
-				                                                                    });
-			                                  });
-		});
-
-		latch.await();
-	}
-
-	/**
-	 * remove all the documents created while testing.
-	 *
-	 * @throws InterruptedException
-	 */
-	@AfterClass
-	public static void closeAfter()
-			throws InterruptedException
-	{
-		final CountDownLatch latch = new CountDownLatch(1);
-
-		MongoDB.mongoClientSingleton.remove(MongoDB.COLLECTION_ENTITIES, new JsonObject(), res -> {
-			if (res.succeeded()) {
-				latch.countDown();
-			}
-		});
-
-		latch.await();
-		vertx.close();
+		entityIdBeforeClass = insert(entity);
+		targetEntityIdForCreateTest = insert(entity.copy());
 	}
 
 	/**
 	 * save a new entity with the groups field
 	 * whenever before starting a new test.
 	 * The created _ids are added in the list, entityIdsInBeforeMethod.
-	 *
-	 * @throws Exception
 	 */
 	@Before
 	public void before()
-			throws Exception
 	{
-		final CountDownLatch latch = new CountDownLatch(1);
 		final long createdAt = Instant.now()
 		                              .getEpochSecond();
 		final JsonObject entity = new JsonObject()//.put(Entity.FIELD_APP_ID, TestConstants.VALUE_APP_ID)
 		                                          .put(Entity.FIELD_TYPE, TestConstants.VALUE_TYPE)
 		                                          .put(Entity.FIELD_CREATED_AT, createdAt)
 		                                          .put(Entity.FIELD_UPDATED_AT, createdAt)
-		                                          .put(GroupManipulation.FIELD_GROUPS, new ArrayList(Arrays.asList(entityIdBeforeClass)));
-
-		vertx.deployVerticle(Service.class.getName(), res -> {
-			MongoDB.mongoClientSingleton.save(MongoDB.COLLECTION_ENTITIES, entity,
-			                                  resInserted -> {
-				                                  if (resInserted.failed()) {
-					                                  System.out.println(resInserted.cause());
-					                                  Assert.fail();
-					                                  System.exit(1);
-				                                  }
-				                                  entityIdsInBeforeMethod.add(resInserted.result());
-				                                  latch.countDown();
-			                                  });
+		                                          .put(GroupManipulation.FIELD_GROUPS, new JsonArray().add(entityIdBeforeClass));
+
+		entityIdsInBeforeMethod.add(insert(entity));
+	}
+
+	/**
+	 * save an entity directly in the store, which calls the handler on the calling thread.
+	 *
+	 * @param entity an entity document without _id
+	 * @return the _id of the entity
+	 */
+	private static String insert(final JsonObject entity)
+	{
+		final String[] idPassed = new String[1];
+
+		Stores.entities().insert(entity, resInserted -> {
+			Assert.assertThat(resInserted.succeeded(), is(true));
+			idPassed[0] = resInserted.result();
 		});
 
-		latch.await();
+		return idPassed[0];
 	}
 
 	@After
@@ -292,6 +239,84 @@ public class GroupManipulationTest
 		Assert.assertThat(resultPassed[0].getInteger("n"), is(1));
 	}
 
+	/**
+	 * read all the groups in the app with the number of the entities in each group.
+	 * it should return the json object result in the format of {groups: [id...], counts: {id: count...}}.
+	 * Every entity saved in before() has entityIdBeforeClass as a group.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void test5readGroupsWithCountsInApp()
+			throws Exception
+	{
+		final CountDownLatch latch = new CountDownLatch(1);
+		final PICOErrorCode[] errorCodePassed = new PICOErrorCode[1];
+		final JsonObject[] resultPassed = new JsonObject[1];
+
+		GroupManipulation.read(//context,
+		                       true,
+		                       (errorCode, result) -> {
+			                       errorCodePassed[0] = errorCode;
+			                       resultPassed[0] = result;
+
+			                       latch.countDown();
+		                       });
+
+		latch.await();
+
+		final List<String> groupList = getList(GroupManipulation.FIELD_GROUPS, resultPassed[0]);
+		Assert.assertEquals(PICOErrorCode.Success, errorCodePassed[0]);
+		Assert.assertThat(groupList, hasItem(entityIdBeforeClass));
+		Assert.assertThat(resultPassed[0].getJsonObject(GroupManipulation.FIELD_COUNTS)
+		                                 .getLong(entityIdBeforeClass) > 0, is(true));
+	}
+
+	/**
+	 * read and count the entities in a group.
+	 * They are the entities whose groups field has the group, whether they joined it by GroupManipulation
+	 * as targetEntityIdForCreateTest did in test01create() or they were saved directly in the store.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void test6readAndCountEntitiesInGroup()
+			throws Exception
+	{
+		final CountDownLatch latch = new CountDownLatch(2);
+		final PICOErrorCode[] errorCodePassed = new PICOErrorCode[2];
+		final JsonObject[] resultPassed = new JsonObject[2];
+
+		GroupManipulation.readEntities(//context,
+		                               entityIdBeforeClass,
+		                               (errorCode, result) -> {
+			                               errorCodePassed[0] = errorCode;
+			                               resultPassed[0] = result;
+
+			                               latch.countDown();
+		                               });
+		GroupManipulation.countEntities(//context,
+		                                entityIdBeforeClass,
+		                                (errorCode, result) -> {
+			                                errorCodePassed[1] = errorCode;
+			                                resultPassed[1] = result;
+
+			                                latch.countDown();
+		                                });
+
+		latch.await();
+
+		Assert.assertEquals(PICOErrorCode.Success, errorCodePassed[0]);
+		Assert.assertEquals(PICOErrorCode.Success, errorCodePassed[1]);
+		final Set<String> members = new HashSet<>();
+		Stores.entities().find(Finder.newQuery().field(GroupManipulation.FIELD_GROUPS).is(entityIdBeforeClass),
+		                       res -> res.result().forEach(e -> members.add(e.getString(Entity.FIELD_ID))));
+
+		Assert.assertThat(members, hasItem(targetEntityIdForCreateTest));
+		Assert.assertThat(new HashSet<>(getList("elemsInGroup", resultPassed[0])), is(members));
+		Assert.assertThat(resultPassed[1].getLong(GroupMembers.FIELD_COUNT), is((long) members.size()));
+	}
+
 //	/**
 //	 * read all the list of the ids contained in a specified group.
 //	 * it should return the json object result in the format of {elemsInGroup: [id...]}.
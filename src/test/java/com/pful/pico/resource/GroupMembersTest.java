@@ -0,0 +1,261 @@
+package com.pful.pico.resource;
+
+import com.pful.pico.core.PICOErrorCode;
+import com.pful.pico.core.PICOException;
+import com.pful.pico.store.InMemoryEntityStore;
+import com.pful.pico.store.InMemoryGroupStore;
+import com.pful.pico.store.Stores;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+
+/**
+ * GroupMembersTest checks that the members of the groups follow the groups fields of the entities
+ * while the GroupStore isn't complete, and that a membership that couldn't be written is reported
+ * and isn't made in GroupBitmapIndex.
+ */
+public class GroupMembersTest
+{
+	private static final String GROUP = "group0";
+
+	private StaleGroupStore groupStore;
+	private String memberId;
+	private String otherId;
+
+	/**
+	 * StaleGroupStore is a GroupStore that has no memberships until it is rebuilt, as the GroupMembers collection
+	 * of a deployment made before it was introduced, and whose writes fail while failing is set.
+	 */
+	private static final class StaleGroupStore
+			extends InMemoryGroupStore
+	{
+		private boolean complete = false;
+		private boolean failing = false;
+
+		private StaleGroupStore(final InMemoryEntityStore entityStore)
+		{
+			super(entityStore);
+		}
+
+		@Override
+		public void add(final String group, final String entityId, final Handler<AsyncResult<Void>> handler)
+		{
+			if (failing) {
+				complete = false;
+				handler.handle(Future.failedFuture("failing"));
+				return;
+			}
+			super.add(group, entityId, handler);
+		}
+
+		@Override
+		public void read(final String group, final Handler<AsyncResult<List<String>>> handler)
+		{
+			if (!complete) {
+				handler.handle(Future.succeededFuture(new ArrayList<>()));
+				return;
+			}
+			super.read(group, handler);
+		}
+
+		@Override
+		public void count(final String group, final Handler<AsyncResult<Long>> handler)
+		{
+			if (!complete) {
+				handler.handle(Future.succeededFuture(0L));
+				return;
+			}
+			super.count(group, handler);
+		}
+
+		@Override
+		public void rebuild(final Handler<AsyncResult<Long>> handler)
+		{
+			complete = true;
+			super.rebuild(handler);
+		}
+
+		@Override
+		public void load(final Handler<AsyncResult<Boolean>> handler)
+		{
+			handler.handle(Future.succeededFuture(complete));
+		}
+
+		@Override
+		public boolean isComplete()
+		{
+			return complete;
+		}
+	}
+
+	private static String insert(final JsonObject entity)
+	{
+		final String[] idPassed = new String[1];
+
+		Stores.entities().insert(entity, resInserted -> {
+			Assert.assertThat(resInserted.succeeded(), is(true));
+			idPassed[0] = resInserted.result();
+		});
+
+		return idPassed[0];
+	}
+
+	private static JsonObject entity(final String... groups)
+	{
+		final long createdAt = Instant.now()
+		                              .getEpochSecond();
+
+		return new JsonObject().put(Entity.FIELD_TYPE, TestConstants.VALUE_TYPE)
+		                       .put(Entity.FIELD_CREATED_AT, createdAt)
+		                       .put(Entity.FIELD_UPDATED_AT, createdAt)
+		                       .put(GroupManipulation.FIELD_GROUPS, new JsonArray(Arrays.asList((Object[]) groups)));
+	}
+
+	private static JsonArray readEntities(final String group)
+			throws PICOException
+	{
+		final JsonObject[] resultPassed = new JsonObject[1];
+
+		GroupManipulation.readEntities(group, (errorCode, result) -> {
+			Assert.assertThat(errorCode, is(PICOErrorCode.Success));
+			resultPassed[0] = result;
+		});
+
+		return resultPassed[0].getJsonArray("elemsInGroup");
+	}
+
+	private static long countEntities(final String group)
+			throws PICOException
+	{
+		final JsonObject[] resultPassed = new JsonObject[1];
+
+		GroupManipulation.countEntities(group, (errorCode, result) -> {
+			Assert.assertThat(errorCode, is(PICOErrorCode.Success));
+			resultPassed[0] = result;
+		});
+
+		return resultPassed[0].getLong(GroupMembers.FIELD_COUNT);
+	}
+
+	@Before
+	public void before()
+	{
+		final InMemoryEntityStore entityStore = new InMemoryEntityStore();
+		groupStore = new StaleGroupStore(entityStore);
+		Stores.use(entityStore, groupStore);
+
+		memberId = insert(entity(GROUP));
+		otherId = insert(entity());
+	}
+
+	@After
+	public void after()
+	{
+		GroupBitmapIndex.enable(false);
+	}
+
+	@Test
+	public void testReadFromEntitiesUntilRebuilt()
+			throws PICOException
+	{
+		Assert.assertThat(readEntities(GROUP), is(new JsonArray().add(memberId)));
+		Assert.assertThat(countEntities(GROUP), is(1L));
+
+		final PICOErrorCode[] errorCodePassed = new PICOErrorCode[1];
+		GroupMembers.rebuild((errorCode, result) -> errorCodePassed[0] = errorCode);
+
+		Assert.assertThat(errorCodePassed[0], is(PICOErrorCode.Success));
+		Assert.assertThat(groupStore.isComplete(), is(true));
+		Assert.assertThat(readEntities(GROUP), is(new JsonArray().add(memberId)));
+		Assert.assertThat(countEntities(GROUP), is(1L));
+	}
+
+	@Test
+	public void testLoadRebuildsIncompleteStore()
+			throws PICOException
+	{
+		final PICOErrorCode[] errorCodePassed = new PICOErrorCode[1];
+		final JsonObject[] resultPassed = new JsonObject[1];
+		GroupMembers.load((errorCode, result) -> {
+			errorCodePassed[0] = errorCode;
+			resultPassed[0] = result;
+		});
+
+		Assert.assertThat(errorCodePassed[0], is(PICOErrorCode.Success));
+		Assert.assertThat(resultPassed[0].getLong(GroupMembers.FIELD_COUNT), is(1L));
+		Assert.assertThat(groupStore.isComplete(), is(true));
+
+		// Once it is complete, loading it again doesn't rebuild it.
+		GroupMembers.load((errorCode, result) -> {
+			errorCodePassed[0] = errorCode;
+			resultPassed[0] = result;
+		});
+
+		Assert.assertThat(errorCodePassed[0], is(PICOErrorCode.Success));
+		Assert.assertThat(resultPassed[0], is((JsonObject) null));
+		Assert.assertThat(readEntities(GROUP), is(new JsonArray().add(memberId)));
+	}
+
+	@Test
+	public void testIndexNotLoadedUntilRebuilt()
+	{
+		GroupBitmapIndex.enable(true);
+		GroupBitmapIndex.reload();
+
+		Assert.assertThat(GroupBitmapIndex.isReady(), is(false));
+
+		GroupMembers.rebuild((errorCode, result) -> Assert.assertThat(errorCode, is(PICOErrorCode.Success)));
+
+		Assert.assertThat(GroupBitmapIndex.isReady(), is(true));
+		Assert.assertThat(GroupBitmapIndex.evaluateIds(GroupSetExpression.group(GROUP)), is(Arrays.asList(memberId)));
+	}
+
+	@Test
+	public void testWrittenMembership()
+			throws PICOException
+	{
+		GroupMembers.rebuild((errorCode, result) -> Assert.assertThat(errorCode, is(PICOErrorCode.Success)));
+		GroupBitmapIndex.enable(true);
+		GroupBitmapIndex.reload();
+
+		final PICOErrorCode[] errorCodePassed = new PICOErrorCode[1];
+		GroupManipulation.create(otherId, GROUP, (errorCode, result) -> errorCodePassed[0] = errorCode);
+
+		Assert.assertThat(errorCodePassed[0], is(PICOErrorCode.Success));
+		Assert.assertThat(GroupBitmapIndex.isReady(), is(true));
+		Assert.assertThat(GroupBitmapIndex.cardinality(GROUP), is(2));
+	}
+
+	@Test
+	public void testFailedMembership()
+			throws PICOException
+	{
+		GroupMembers.rebuild((errorCode, result) -> Assert.assertThat(errorCode, is(PICOErrorCode.Success)));
+		GroupBitmapIndex.enable(true);
+		GroupBitmapIndex.reload();
+		Assert.assertThat(GroupBitmapIndex.isReady(), is(true));
+
+		groupStore.failing = true;
+
+		final PICOErrorCode[] errorCodePassed = new PICOErrorCode[1];
+		GroupManipulation.create(otherId, GROUP, (errorCode, result) -> errorCodePassed[0] = errorCode);
+
+		// The entity has joined the group, but the membership couldn't be written, so the index is dropped.
+		Assert.assertThat(errorCodePassed[0], is(PICOErrorCode.InternalError));
+		Assert.assertThat(GroupBitmapIndex.isReady(), is(false));
+		Assert.assertThat(countEntities(GROUP), is(2L));
+	}
+}
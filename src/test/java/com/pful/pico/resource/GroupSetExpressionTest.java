@@ -0,0 +1,139 @@
+package com.pful.pico.resource;
+
+import com.pful.pico.core.PICOErrorCode;
+import com.pful.pico.core.PICOException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static com.pful.pico.resource.GroupSetExpression.*;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * GroupSetExpressionTest checks the compilation of the set expressions into queries and their evaluation on bitmaps
+ * without the database.
+ */
+public class GroupSetExpressionTest
+{
+	/**
+	 * ((A or B) and C) but not D
+	 */
+	private static final GroupSetExpression EXPRESSION = difference(intersection(union(group("A"), group("B")), group("C")),
+	                                                                group("D"));
+
+	@After
+	public void after()
+	{
+		GroupBitmapIndex.enable(false);
+	}
+
+	@Test
+	public void testToQuery()
+	{
+		final JsonObject query = EXPRESSION.toQuery().toJson();
+
+		final JsonObject expected = new JsonObject(
+				"{\"$and\":[" +
+				"{\"$and\":[{\"groups\":{\"$in\":[\"A\",\"B\"]}},{\"groups\":{\"$all\":[\"C\"]}}]}," +
+				"{\"groups\":{\"$nin\":[\"D\"]}}]}");
+
+		Assert.assertThat(query, is(expected));
+	}
+
+	@Test
+	public void testToQueryOfNestedSubtrahends()
+	{
+		final JsonObject query = difference(group("A"), intersection(group("B"), group("C")), group("D")).toQuery().toJson();
+
+		final JsonObject expected = new JsonObject(
+				"{\"$and\":[" +
+				"{\"groups\":\"A\"}," +
+				"{\"groups\":{\"$nin\":[\"D\"]}}," +
+				"{\"$nor\":[{\"groups\":{\"$all\":[\"B\",\"C\"]}}]}]}");
+
+		Assert.assertThat(query, is(expected));
+	}
+
+	@Test
+	public void testJson()
+			throws Exception
+	{
+		final JsonObject json = EXPRESSION.toJson();
+
+		Assert.assertThat(json.getJsonArray(FIELD_DIFFERENCE).size(), is(2));
+		Assert.assertThat(fromJson(json), is(EXPRESSION));
+		Assert.assertThat(fromJson(new JsonObject(json.encode())), is(EXPRESSION));
+	}
+
+	@Test
+	public void testInvalidJson()
+	{
+		final JsonObject[] invalids = {
+				new JsonObject(),
+				new JsonObject().put(FIELD_GROUP, ""),
+				new JsonObject().put(FIELD_UNION, new JsonArray()),
+				new JsonObject().put(FIELD_UNION, "A"),
+				new JsonObject().put(FIELD_UNION, new JsonArray().add("A")),
+				new JsonObject().put(FIELD_GROUP, "A").put(FIELD_UNION, new JsonArray()),
+				new JsonObject().put("complement", new JsonArray().add(new JsonObject().put(FIELD_GROUP, "A")))
+		};
+
+		for (final JsonObject invalid : invalids) {
+			try {
+				fromJson(invalid);
+				Assert.fail(invalid.encode());
+			}
+			catch (PICOException e) {
+				Assert.assertThat(e.getErrorCode(), is(PICOErrorCode.BadRequest));
+			}
+		}
+	}
+
+	@Test
+	public void testTooDeepJson()
+	{
+		JsonObject json = new JsonObject().put(FIELD_GROUP, "A");
+		for (int i = 0; i < MAX_DEPTH; i++) {
+			json = new JsonObject().put(FIELD_UNION, new JsonArray().add(json));
+		}
+
+		try {
+			fromJson(json);
+			Assert.fail();
+		}
+		catch (PICOException e) {
+			Assert.assertThat(e.getErrorCode(), is(PICOErrorCode.BadRequest));
+		}
+	}
+
+	@Test
+	public void testEvaluate()
+	{
+		GroupBitmapIndex.enable(true);
+
+		final long generation = GroupBitmapIndex.beginLoading();
+		GroupBitmapIndex.loaded(generation, Arrays.asList(membership("A", "e0"), membership("A", "e1"),
+		                                                  membership("B", "e2"), membership("B", "e3"),
+		                                                  membership("C", "e1"), membership("C", "e2"), membership("C", "e3"),
+		                                                  membership("D", "e3")));
+		GroupBitmapIndex.finishLoading(generation);
+
+		Assert.assertThat(new HashSet<>(GroupBitmapIndex.evaluateIds(EXPRESSION)),
+		                  is(new HashSet<>(Arrays.asList("e1", "e2"))));
+
+		// The result of a single group is a copy, so changing it doesn't change the index.
+		GroupBitmapIndex.evaluate(union(group("A"))).clear();
+		Assert.assertThat(GroupBitmapIndex.cardinality("A"), is(2));
+	}
+
+	private static JsonObject membership(final String group, final String entityId)
+	{
+		return new JsonObject().put(GroupMembers.FIELD_GROUP, group)
+		                       .put(GroupMembers.FIELD_ENTITY_ID, entityId);
+	}
+}
@@ -1,9 +1,9 @@
 package com.pful.pico.resource;
 
-import com.pful.pico.Service;
 import com.pful.pico.core.PICOErrorCode;
-import com.pful.pico.db.MongoDB;
-import io.vertx.core.Vertx;
+import com.pful.pico.store.InMemoryEntityStore;
+import com.pful.pico.store.InMemoryGroupStore;
+import com.pful.pico.store.Stores;
 import io.vertx.core.json.JsonObject;
 import org.junit.*;
 import org.junit.runners.MethodSorters;
@@ -40,7 +40,6 @@ public class GroupSetOperationTest
 	private static boolean isElemSettingDone;
 	//	private static ApplicationContext context =
 //			new ApplicationContext(TestConstants.VALUE_APP_ID, TestConstants.VALUE_APP_TOKEN);
-	private static Vertx vertx = Vertx.vertx();
 
 	private static List<? super String> GROUP_LIST = new ArrayList<>();
 	private static List<String> ELEMS_IN_GROUP0 = new ArrayList<>();
@@ -50,34 +49,23 @@ public class GroupSetOperationTest
 	@BeforeClass
 	public static void makeTestGroup()
 	{
+		final InMemoryEntityStore entityStore = new InMemoryEntityStore();
+		Stores.use(entityStore, new InMemoryGroupStore(entityStore));
+
 		final CountDownLatch latch = new CountDownLatch(3);
 
 		try {
-			vertx.deployVerticle(Service.class.getName(),
-			                     res -> {
-				                     if (res.failed()) {
-					                     System.err.println("@BeforeClass : " + res.cause());
-					                     System.exit(1);
-				                     }
-
-				                     try {
-					                     TestGroupMaker group1 = new TestGroupMaker(latch);
-					                     new Thread(group1).start();
-					                     Thread.sleep(500);
-
-					                     TestGroupMaker group2 = new TestGroupMaker(latch);
-					                     new Thread(group2).start();
-					                     Thread.sleep(500);
-
-					                     TestGroupMaker group3 = new TestGroupMaker(latch);
-					                     new Thread(group3).start();
-					                     Thread.sleep(500);
-
-				                     }
-				                     catch (InterruptedException e) {
-					                     e.printStackTrace();
-				                     }
-			                     });
+			TestGroupMaker group1 = new TestGroupMaker(latch);
+			new Thread(group1).start();
+			Thread.sleep(500);
+
+			TestGroupMaker group2 = new TestGroupMaker(latch);
+			new Thread(group2).start();
+			Thread.sleep(500);
+
+			TestGroupMaker group3 = new TestGroupMaker(latch);
+			new Thread(group3).start();
+			Thread.sleep(500);
 
 			latch.await();
 		}
@@ -87,22 +75,6 @@ public class GroupSetOperationTest
 
 	}
 
-	@AfterClass
-	public static void closeMongodb()
-			throws InterruptedException
-	{
-//		final CountDownLatch latch = new CountDownLatch(1);
-//
-//		MongoDB.mongoClientSingleton.remove(MongoDB.COLLECTION_ENTITIES, new JsonObject(), res -> {
-//			if (res.succeeded()) {
-//				latch.countDown();
-//			}
-//		});
-//
-//		latch.await();
-		vertx.close();
-	}
-
 	@Before
 	public void makeTestElems()
 	{
@@ -137,6 +109,12 @@ public class GroupSetOperationTest
 				new Thread(elem4).start();
 
 				latch.await();
+
+				// The elements are saved directly in the database, so GroupMembers is rebuilt for them.
+				final CountDownLatch rebuilt = new CountDownLatch(1);
+				GroupMembers.rebuild((errorCode, result) -> rebuilt.countDown());
+				rebuilt.await();
+
 				isElemSettingDone = true;
 			}
 			catch (InterruptedException e) {
@@ -290,6 +268,90 @@ public class GroupSetOperationTest
 		System.out.println("Subset2: " + resultInBoolPassed[0]);
 	}
 
+	@Test
+	public void test5Counts()
+			throws Exception
+	{
+		final CountDownLatch latch = new CountDownLatch(3);
+
+		final PICOErrorCode[] errorCodePassed = new PICOErrorCode[3];
+		final long[] countPassed = new long[3];
+
+		final String group0 = String.valueOf(GROUP_LIST.get(0));
+		final String group1 = String.valueOf(GROUP_LIST.get(1));
+		final String group2 = String.valueOf(GROUP_LIST.get(2));
+
+		GroupSetOperation.unionCount(group0, group1,
+		                             (errorCode, count) -> {
+			                             errorCodePassed[0] = errorCode;
+			                             countPassed[0] = count;
+			                             latch.countDown();
+		                             });
+		GroupSetOperation.intersectionCount(group0, group1,
+		                                    (errorCode, count) -> {
+			                                    errorCodePassed[1] = errorCode;
+			                                    countPassed[1] = count;
+			                                    latch.countDown();
+		                                    });
+		GroupSetOperation.differenceCount(group1, group2,
+		                                  (errorCode, count) -> {
+			                                  errorCodePassed[2] = errorCode;
+			                                  countPassed[2] = count;
+			                                  latch.countDown();
+		                                  });
+		latch.await();
+
+		Assert.assertThat(errorCodePassed, is(new PICOErrorCode[]{PICOErrorCode.Success, PICOErrorCode.Success, PICOErrorCode.Success}));
+		Assert.assertThat(countPassed, is(new long[]{5, 2, 2}));
+	}
+
+	@Test
+	public void test6Ids()
+			throws Exception
+	{
+		final CountDownLatch latch = new CountDownLatch(3);
+
+		final PICOErrorCode[] errorCodePassed = new PICOErrorCode[3];
+		final List<Set<String>> idsPassed = new ArrayList<>(Arrays.asList(null, null, null));
+
+		final String group0 = String.valueOf(GROUP_LIST.get(0));
+		final String group1 = String.valueOf(GROUP_LIST.get(1));
+		final String group2 = String.valueOf(GROUP_LIST.get(2));
+
+		GroupSetOperation.unionIds(group0, group1,
+		                           (errorCode, entityIds) -> {
+			                           errorCodePassed[0] = errorCode;
+			                           idsPassed.set(0, new HashSet<>(entityIds));
+			                           latch.countDown();
+		                           });
+		GroupSetOperation.intersectionIds(group0, group1,
+		                                  (errorCode, entityIds) -> {
+			                                  errorCodePassed[1] = errorCode;
+			                                  idsPassed.set(1, new HashSet<>(entityIds));
+			                                  latch.countDown();
+		                                  });
+		GroupSetOperation.differenceIds(group1, group2,
+		                                (errorCode, entityIds) -> {
+			                                errorCodePassed[2] = errorCode;
+			                                idsPassed.set(2, new HashSet<>(entityIds));
+			                                latch.countDown();
+		                                });
+		latch.await();
+
+		Assert.assertThat(errorCodePassed, is(new PICOErrorCode[]{PICOErrorCode.Success, PICOErrorCode.Success, PICOErrorCode.Success}));
+
+		final Set<String> union = new HashSet<>(ELEMS_IN_GROUP0);
+		union.addAll(ELEMS_IN_GROUP1);
+		final Set<String> intersection = new HashSet<>(ELEMS_IN_GROUP0);
+		intersection.retainAll(ELEMS_IN_GROUP1);
+		final Set<String> difference = new HashSet<>(ELEMS_IN_GROUP1);
+		difference.removeAll(ELEMS_IN_GROUP2);
+
+		Assert.assertThat(idsPassed.get(0), is(union));
+		Assert.assertThat(idsPassed.get(1), is(intersection));
+		Assert.assertThat(idsPassed.get(2), is(difference));
+	}
+
 	static class TestGroupMaker
 			implements Runnable
 	{
@@ -309,15 +371,15 @@ public class GroupSetOperationTest
 		@Override
 		public void run()
 		{
-			MongoDB.mongoClientSingleton.save(MongoDB.COLLECTION_ENTITIES, entity,
-			                                  resInserted -> {
-				                                  if (resInserted.failed()) {
-					                                  System.err.println("Class TestGroupMaker: " + resInserted.cause());
-					                                  System.exit(1);
-				                                  }
-				                                  GROUP_LIST.add(resInserted.result());
-				                                  latch.countDown();
-			                                  });
+			Stores.entities().insert(entity,
+			                         resInserted -> {
+				                         if (resInserted.failed()) {
+					                         System.err.println("Class TestGroupMaker: " + resInserted.cause());
+					                         System.exit(1);
+				                         }
+				                         GROUP_LIST.add(resInserted.result());
+				                         latch.countDown();
+			                         });
 
 		}
 	}
@@ -344,24 +406,24 @@ public class GroupSetOperationTest
 		@Override
 		public void run()
 		{
-			MongoDB.mongoClientSingleton.save(MongoDB.COLLECTION_ENTITIES, entity,
-			                                  resInserted -> {
-				                                  if (resInserted.failed()) {
-					                                  System.err.println("Class TestGroupElementMaker: " + resInserted.cause());
-					                                  System.exit(1);
-				                                  }
-
-				                                  if (this.groupList.contains(GROUP_LIST.get(0))) {
-					                                  ELEMS_IN_GROUP0.add(resInserted.result());
-				                                  }
-				                                  if (this.groupList.contains(GROUP_LIST.get(1))) {
-					                                  ELEMS_IN_GROUP1.add(resInserted.result());
-				                                  }
-				                                  if (this.groupList.contains(GROUP_LIST.get(2))) {
-					                                  ELEMS_IN_GROUP2.add(resInserted.result());
-				                                  }
-				                                  latch.countDown();
-			                                  });
+			Stores.entities().insert(entity,
+			                         resInserted -> {
+				                         if (resInserted.failed()) {
+					                         System.err.println("Class TestGroupElementMaker: " + resInserted.cause());
+					                         System.exit(1);
+				                         }
+
+				                         if (this.groupList.contains(GROUP_LIST.get(0))) {
+					                         ELEMS_IN_GROUP0.add(resInserted.result());
+				                         }
+				                         if (this.groupList.contains(GROUP_LIST.get(1))) {
+					                         ELEMS_IN_GROUP1.add(resInserted.result());
+				                         }
+				                         if (this.groupList.contains(GROUP_LIST.get(2))) {
+					                         ELEMS_IN_GROUP2.add(resInserted.result());
+				                         }
+				                         latch.countDown();
+			                         });
 		}
 	}
 
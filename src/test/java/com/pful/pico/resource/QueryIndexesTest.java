@@ -0,0 +1,59 @@
+package com.pful.pico.resource;
+
+import com.pful.pico.db.MongoDB;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+
+/**
+ * QueryIndexesTest checks the indexes declared for the queries without the database.
+ */
+public class QueryIndexesTest
+{
+	private static List<String> names(final JsonArray indexes)
+	{
+		final List<String> names = new ArrayList<>();
+		for (int i = 0; i < indexes.size(); i++) {
+			names.add(indexes.getJsonObject(i).getString("name"));
+		}
+		return names;
+	}
+
+	@Test
+	public void testNames()
+	{
+		Assert.assertThat(QueryIndexes.nameOf(new JsonObject().put("type", 1).put("_id", 1)), is("type_1__id_1"));
+		Assert.assertThat(QueryIndexes.nameOf(new JsonObject().put("created_at", -1)), is("created_at_-1"));
+	}
+
+	@Test
+	public void testDeclaredIndexes()
+	{
+		final JsonArray entities = QueryIndexes.declaredIndexes(MongoDB.COLLECTION_ENTITIES);
+		Assert.assertThat(names(entities).toString(), is("[type_1__id_1, groups_1]"));
+		Assert.assertThat(entities.getJsonObject(0).getJsonObject("key"),
+		                  is(new JsonObject().put(Entity.FIELD_TYPE, 1).put(Entity.FIELD_ID, 1)));
+
+		// The indexes of GroupMembers keep the names that they were created with.
+		final JsonArray groupMembers = QueryIndexes.declaredIndexes(MongoDB.COLLECTION_GROUP_MEMBERS);
+		Assert.assertThat(names(groupMembers).get(0), is(GroupMembers.INDEX_GROUP_ENTITY_ID));
+		Assert.assertThat(names(groupMembers).get(1), is(GroupMembers.INDEX_ENTITY_ID_GROUP));
+		Assert.assertThat(groupMembers.getJsonObject(0).getBoolean("unique"), is(true));
+
+		Assert.assertThat(QueryIndexes.declaredIndexes("unknown").size(), is(0));
+	}
+
+	@Test
+	public void testDeclaredIndexesAreCopies()
+	{
+		QueryIndexes.declaredIndexes(MongoDB.COLLECTION_ENTITIES).getJsonObject(0).put("name", "changed");
+
+		Assert.assertThat(names(QueryIndexes.declaredIndexes(MongoDB.COLLECTION_ENTITIES)).get(0), is("type_1__id_1"));
+	}
+}
@@ -0,0 +1,230 @@
+package com.pful.pico.store;
+
+import com.pful.pico.db.querybuilder.Finder;
+import com.pful.pico.resource.Entity;
+import com.pful.pico.resource.GroupManipulation;
+import com.pful.pico.resource.GroupMembers;
+import com.pful.pico.resource.GroupSetExpression;
+import com.pful.pico.store.StoreFixtures.Result;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.pful.pico.resource.GroupSetExpression.group;
+import static com.pful.pico.store.StoreFixtures.document;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+/**
+ * InMemoryEntityStoreTest checks that the in-memory store answers the operations of the resources
+ * the way the MongoDB store does. The handlers are called on the calling thread, so the results are read at once.
+ */
+public class InMemoryEntityStoreTest
+{
+	private InMemoryEntityStore entityStore;
+	private InMemoryGroupStore groupStore;
+
+	private Map<Integer, String> insertBatch(final boolean ordered, final JsonObject... documents)
+	{
+		final Result<Map<Integer, String>> result = new Result<>();
+		entityStore.insertBatch(Arrays.asList(documents), ordered, result);
+		return result.get();
+	}
+
+	private JsonObject read(final String id)
+	{
+		final Result<JsonObject> result = new Result<>();
+		entityStore.read(id, result);
+		return result.get();
+	}
+
+	private List<JsonObject> find(final Finder.Expression query)
+	{
+		final Result<List<JsonObject>> result = new Result<>();
+		entityStore.find(query, result);
+		return result.get();
+	}
+
+	private List<String> idsOf(final Finder.Expression query)
+	{
+		final List<String> ids = new ArrayList<>();
+		find(query).forEach(e -> ids.add(e.getString(Entity.FIELD_ID)));
+		return ids;
+	}
+
+	private long count(final Finder.Query query)
+	{
+		final Result<Long> result = new Result<>();
+		entityStore.count(query, result);
+		return result.get();
+	}
+
+	private JsonArray distinctGroups()
+	{
+		final Result<JsonArray> result = new Result<>();
+		entityStore.distinctGroups(result);
+		return result.get();
+	}
+
+	private List<String> members(final String group)
+	{
+		final Result<List<String>> result = new Result<>();
+		groupStore.read(group, result);
+		return result.get();
+	}
+
+	private List<JsonObject> page(final JsonObject after, final int limit)
+	{
+		final Result<List<JsonObject>> result = new Result<>();
+		groupStore.page(after, limit, result);
+		return result.get();
+	}
+
+	@Before
+	public void before()
+	{
+		entityStore = new InMemoryEntityStore();
+		groupStore = new InMemoryGroupStore(entityStore);
+
+		insertBatch(true,
+		            document("c", "person", 3, "g1"),
+		            document("a", "person", 1, "g1", "g2"),
+		            document("b", "animal", 2, "g2"),
+		            document("d", "person", 4));
+	}
+
+	@Test
+	public void testInsertReadUpdateDelete()
+	{
+		final Result<String> inserted = new Result<>();
+		entityStore.insert(new JsonObject().put(Entity.FIELD_TYPE, "person"), inserted);
+		final String id = inserted.get();
+
+		Assert.assertThat(read(id).getString(Entity.FIELD_TYPE), is("person"));
+
+		entityStore.update(new JsonObject().put(Entity.FIELD_ID, id)
+		                                   .put(Entity.FIELD_TYPE, "animal"),
+		                   new Result<>());
+		Assert.assertThat(idsOf(Finder.newQuery().field(Entity.FIELD_TYPE).is("animal")), is(Arrays.asList("b", id)));
+
+		entityStore.delete(id, new Result<>());
+		Assert.assertThat(read(id), is(nullValue()));
+		Assert.assertThat(idsOf(Finder.newQuery().field(Entity.FIELD_TYPE).is("animal")), is(Arrays.asList("b")));
+	}
+
+	@Test
+	public void testInsertBatchReportsDuplicates()
+	{
+		final Map<Integer, String> ordered = insertBatch(true,
+		                                                 document("e", "person", 5),
+		                                                 document("a", "person", 1),
+		                                                 document("f", "person", 6));
+		Assert.assertThat(ordered.keySet(), is(Collections.singleton(1)));
+		Assert.assertThat(read("e") != null, is(true));
+		Assert.assertThat(read("f"), is(nullValue()));
+
+		final Map<Integer, String> unordered = insertBatch(false,
+		                                                   document("a", "person", 1),
+		                                                   document("f", "person", 6));
+		Assert.assertThat(unordered.keySet(), is(Collections.singleton(0)));
+		Assert.assertThat(read("f") != null, is(true));
+	}
+
+	@Test
+	public void testFindWithOptions()
+	{
+		Assert.assertThat(idsOf(Finder.newQuery()
+		                              .field(Entity.FIELD_TYPE).is("person")),
+		                  is(Arrays.asList("c", "a", "d")));
+		Assert.assertThat(idsOf(Finder.newQuery()
+		                              .field(Entity.FIELD_TYPE).is("person")
+		                              .startAfter(Entity.FIELD_ID, "a")
+		                              .limit(1)),
+		                  is(Arrays.asList("c")));
+		Assert.assertThat(idsOf(Finder.newQuery()
+		                              .field(Entity.FIELD_TYPE).is("person")
+		                              .sortDescending(Entity.FIELD_PROPERTIES + ".rank")
+		                              .skip(1)
+		                              .limit(5)),
+		                  is(Arrays.asList("c", "a")));
+
+		final List<JsonObject> projected = find(Finder.newQuery()
+		                                              .field(Entity.FIELD_ID).is("a")
+		                                              .include(GroupManipulation.FIELD_GROUPS)
+		                                              .exclude(Entity.FIELD_ID));
+		Assert.assertThat(projected, is(Arrays.asList(new JsonObject().put(GroupManipulation.FIELD_GROUPS,
+		                                                                   new JsonArray().add("g1").add("g2")))));
+		Assert.assertThat(find(Finder.newQuery()
+		                             .field(Entity.FIELD_ID).is("a")
+		                             .include(Entity.FIELD_ID)),
+		                  is(Arrays.asList(new JsonObject().put(Entity.FIELD_ID, "a"))));
+
+		Assert.assertThat(count(GroupSetExpression.difference(group("g1"), group("g2")).toQuery()), is(1L));
+		Assert.assertThat(count(GroupSetExpression.union(group("g1"), group("g2")).toQuery()), is(3L));
+		Assert.assertThat(count(GroupSetExpression.intersection(group("g1"), group("g2")).toQuery()), is(1L));
+	}
+
+	@Test
+	public void testGroups()
+	{
+		final Result<JsonObject> added = new Result<>();
+		entityStore.addGroup("d", "g3", 10, added);
+		Assert.assertThat(added.get(), is(new JsonObject().put(Entity.FIELD_ID, "d")
+		                                                 .put(GroupManipulation.FIELD_GROUPS, new JsonArray().add("g3"))));
+
+		final Result<JsonObject> addedAgain = new Result<>();
+		entityStore.addGroup("d", "g3", 10, addedAgain);
+		Assert.assertThat(addedAgain.get(), is(nullValue()));
+
+		final Result<JsonObject> renamed = new Result<>();
+		entityStore.renameGroup("g1", "g4", 20, renamed);
+		Assert.assertThat(renamed.get().getInteger("n"), is(2));
+		Assert.assertThat(renamed.get().getInteger("nModified"), is(2));
+		Assert.assertThat(read("a").getLong(Entity.FIELD_UPDATED_AT), is(20L));
+
+		final Result<JsonObject> removedFromNothing = new Result<>();
+		entityStore.removeGroup("x", "g2", 30, removedFromNothing);
+		Assert.assertThat(removedFromNothing.get().getBoolean("updatedExisting"), is(false));
+
+		final Result<JsonObject> removed = new Result<>();
+		entityStore.removeGroup("a", "g2", 30, removed);
+		Assert.assertThat(removed.get().getBoolean("updatedExisting"), is(true));
+
+		Assert.assertThat(distinctGroups(), is(new JsonArray().add("g2").add("g3").add("g4")));
+
+		final Result<JsonObject> counts = new Result<>();
+		entityStore.countGroups(counts);
+		Assert.assertThat(counts.get(), is(new JsonObject().put("g2", 1L).put("g3", 1L).put("g4", 2L)));
+
+		entityStore.removeGroupFromAll("g4", 40, new Result<>());
+		Assert.assertThat(distinctGroups(), is(new JsonArray().add("g2").add("g3")));
+	}
+
+	@Test
+	public void testMemberships()
+	{
+		Assert.assertThat(members("g1"), is(Arrays.asList("c", "a")));
+
+		final List<JsonObject> first = page(null, 3);
+		Assert.assertThat(first.size(), is(3));
+		Assert.assertThat(first.get(2), is(new JsonObject().put(GroupMembers.FIELD_GROUP, "g2")
+		                                                  .put(GroupMembers.FIELD_ENTITY_ID, "a")));
+		Assert.assertThat(page(first.get(2), 3), is(Arrays.asList(new JsonObject().put(GroupMembers.FIELD_GROUP, "g2")
+		                                                                          .put(GroupMembers.FIELD_ENTITY_ID, "b"))));
+
+		final Result<Long> rebuilt = new Result<>();
+		groupStore.rebuild(rebuilt);
+		Assert.assertThat(rebuilt.get(), is(4L));
+
+		entityStore.delete("a", new Result<>());
+		Assert.assertThat(members("g1"), is(Arrays.asList("c")));
+	}
+}
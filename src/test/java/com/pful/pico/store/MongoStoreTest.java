@@ -0,0 +1,250 @@
+package com.pful.pico.store;
+
+import com.pful.pico.db.MongoDB;
+import com.pful.pico.resource.Entity;
+import com.pful.pico.resource.GroupManipulation;
+import com.pful.pico.resource.GroupMembers;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.pful.pico.store.StoreFixtures.document;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+/**
+ * MongoStoreTest checks the commands that MongoEntityStore and MongoGroupStore send to MongoDB on a running server,
+ * with the same entities as InMemoryEntityStoreTest. It runs only if the system property pico.test.mongo has
+ * a connection string, which is given by 'gradle test -Pmongo=mongodb://localhost:27017', and uses the database pico_test.
+ */
+public class MongoStoreTest
+{
+	private static final String PROPERTY_CONNECTION_STRING = "pico.test.mongo";
+	private static final String DB_NAME = "pico_test";
+
+	private static Vertx vertx;
+	private static MongoClient mongoClient;
+
+	private MongoEntityStore entityStore;
+	private MongoGroupStore groupStore;
+
+	@BeforeClass
+	public static void beforeClass()
+	{
+		final String connectionString = System.getProperty(PROPERTY_CONNECTION_STRING);
+		Assume.assumeTrue(connectionString != null && !connectionString.isEmpty());
+
+		vertx = Vertx.vertx();
+		mongoClient = MongoClient.createNonShared(vertx, new JsonObject().put("connection_string", connectionString)
+		                                                                 .put("db_name", DB_NAME));
+	}
+
+	@AfterClass
+	public static void afterClass()
+	{
+		if (vertx != null) {
+			mongoClient.close();
+			vertx.close();
+		}
+	}
+
+	private static <T> T await(final Consumer<Handler<AsyncResult<T>>> operation)
+			throws Exception
+	{
+		final CompletableFuture<T> done = new CompletableFuture<>();
+		operation.accept(res -> {
+			if (res.failed()) {
+				done.completeExceptionally(res.cause());
+				return;
+			}
+			done.complete(res.result());
+		});
+		return done.get(10, TimeUnit.SECONDS);
+	}
+
+	private static List<String> sorted(final List<String> ids)
+	{
+		final List<String> sorted = new ArrayList<>(ids);
+		Collections.sort(sorted);
+		return sorted;
+	}
+
+	private Map<Integer, String> insertBatch(final boolean ordered, final JsonObject... documents)
+			throws Exception
+	{
+		return MongoStoreTest.<Map<Integer, String>>await(h -> entityStore.insertBatch(Arrays.asList(documents), ordered, h));
+	}
+
+	private JsonObject read(final String id)
+			throws Exception
+	{
+		return MongoStoreTest.<JsonObject>await(h -> entityStore.read(id, h));
+	}
+
+	private List<String> members(final String group)
+			throws Exception
+	{
+		return sorted(MongoStoreTest.<List<String>>await(h -> groupStore.read(group, h)));
+	}
+
+	@Before
+	public void before()
+			throws Exception
+	{
+		for (final String collection : Arrays.asList(MongoDB.COLLECTION_ENTITIES, MongoDB.COLLECTION_GROUP_MEMBERS,
+		                                             MongoDB.COLLECTION_STATES)) {
+			MongoStoreTest.<Void>await(h -> mongoClient.remove(collection, new JsonObject(), h));
+		}
+
+		entityStore = new MongoEntityStore(mongoClient);
+		groupStore = new MongoGroupStore(mongoClient);
+
+		insertBatch(true,
+		            document("c", "person", 3, "g1"),
+		            document("a", "person", 1, "g1", "g2"),
+		            document("b", "animal", 2, "g2"),
+		            document("d", "person", 4));
+	}
+
+	@Test
+	public void testBatchWriteErrors()
+			throws Exception
+	{
+		final Map<Integer, String> ordered = insertBatch(true,
+		                                                 document("e", "person", 5),
+		                                                 document("a", "person", 1),
+		                                                 document("f", "person", 6));
+		Assert.assertThat(ordered.keySet(), is(Collections.singleton(1)));
+		Assert.assertThat(read("e") != null, is(true));
+		Assert.assertThat(read("f"), is(nullValue()));
+
+		final Map<Integer, String> unordered = insertBatch(false,
+		                                                   document("a", "person", 1),
+		                                                   document("f", "person", 6));
+		Assert.assertThat(unordered.keySet(), is(Collections.singleton(0)));
+		Assert.assertThat(read("f") != null, is(true));
+
+		// A field can't be made under a number, so the change in the middle fails alone.
+		final List<JsonObject> changes = Arrays.asList(new JsonObject().put(Entity.FIELD_ID, "a")
+		                                                               .put(Entity.FIELD_TYPE, "animal"),
+		                                               new JsonObject().put(Entity.FIELD_ID, "b")
+		                                                               .put(Entity.FIELD_PROPERTIES + ".rank.x", 1),
+		                                               new JsonObject().put(Entity.FIELD_ID, "c")
+		                                                               .put(Entity.FIELD_TYPE, "animal"));
+		final Map<Integer, String> updated =
+				MongoStoreTest.<Map<Integer, String>>await(h -> entityStore.updateBatch(changes, false, h));
+		Assert.assertThat(updated.keySet(), is(Collections.singleton(1)));
+		Assert.assertThat(read("a").getString(Entity.FIELD_TYPE), is("animal"));
+		Assert.assertThat(read("c").getString(Entity.FIELD_TYPE), is("animal"));
+
+		final Map<Integer, String> deleted =
+				MongoStoreTest.<Map<Integer, String>>await(h -> entityStore.deleteBatch(Arrays.asList("e", "x", "f"), true, h));
+		Assert.assertThat(deleted.isEmpty(), is(true));
+		Assert.assertThat(read("e"), is(nullValue()));
+		Assert.assertThat(read("f"), is(nullValue()));
+	}
+
+	@Test
+	public void testGroups()
+			throws Exception
+	{
+		final JsonObject added = MongoStoreTest.<JsonObject>await(h -> entityStore.addGroup("d", "g3", 10, h));
+		Assert.assertThat(added, is(new JsonObject().put(Entity.FIELD_ID, "d")
+		                                            .put(GroupManipulation.FIELD_GROUPS, new JsonArray().add("g3"))));
+		Assert.assertThat(MongoStoreTest.<JsonObject>await(h -> entityStore.addGroup("d", "g3", 10, h)), is(nullValue()));
+
+		final JsonObject replaced = MongoStoreTest.<JsonObject>await(h -> entityStore.replaceGroup("d", "g3", "g5", 15, h));
+		Assert.assertThat(replaced, is(new JsonObject().put(Entity.FIELD_ID, "d")
+		                                               .put(GroupManipulation.FIELD_GROUPS, new JsonArray().add("g5"))));
+
+		final JsonObject renamed = MongoStoreTest.<JsonObject>await(h -> entityStore.renameGroup("g1", "g4", 20, h));
+		Assert.assertThat(renamed.getInteger("n"), is(2));
+		Assert.assertThat(renamed.getInteger("nModified"), is(2));
+		Assert.assertThat(read("a").getLong(Entity.FIELD_UPDATED_AT), is(20L));
+
+		final JsonObject removedFromNothing = MongoStoreTest.<JsonObject>await(h -> entityStore.removeGroup("x", "g2", 30, h));
+		Assert.assertThat(removedFromNothing.getBoolean("updatedExisting"), is(false));
+		final JsonObject removed = MongoStoreTest.<JsonObject>await(h -> entityStore.removeGroup("a", "g2", 30, h));
+		Assert.assertThat(removed.getBoolean("updatedExisting"), is(true));
+
+		Assert.assertThat(MongoStoreTest.<JsonObject>await(h -> entityStore.countGroups(h)),
+		                  is(new JsonObject().put("g2", 1L).put("g4", 2L).put("g5", 1L)));
+	}
+
+	@Test
+	public void testCountGroupsOverBatches()
+			throws Exception
+	{
+		// The first batch of an aggregation cursor has 101 documents, so the rest is read by getMore.
+		final String[] groups = new String[250];
+		for (int i = 0; i < groups.length; i++) {
+			groups[i] = String.format("many%03d", i);
+		}
+		insertBatch(true, document("e", "person", 5, groups));
+
+		final JsonObject counts = MongoStoreTest.<JsonObject>await(h -> entityStore.countGroups(h));
+		Assert.assertThat(counts.size(), is(groups.length + 2));
+		Assert.assertThat(counts.getLong("many249"), is(1L));
+		Assert.assertThat(counts.getLong("g1"), is(2L));
+	}
+
+	@Test
+	public void testMemberships()
+			throws Exception
+	{
+		Assert.assertThat(groupStore.isComplete(), is(false));
+		Assert.assertThat(MongoStoreTest.<Long>await(h -> groupStore.rebuild(h)), is(4L));
+		Assert.assertThat(groupStore.isComplete(), is(true));
+		Assert.assertThat(members("g1"), is(Arrays.asList("a", "c")));
+
+		final List<JsonObject> first = MongoStoreTest.<List<JsonObject>>await(h -> groupStore.page(null, 3, h));
+		Assert.assertThat(first.size(), is(3));
+		Assert.assertThat(first.get(2), is(new JsonObject().put(GroupMembers.FIELD_GROUP, "g2")
+		                                                  .put(GroupMembers.FIELD_ENTITY_ID, "a")));
+		Assert.assertThat(MongoStoreTest.<List<JsonObject>>await(h -> groupStore.page(first.get(2), 3, h)),
+		                  is(Arrays.asList(new JsonObject().put(GroupMembers.FIELD_GROUP, "g2")
+		                                                   .put(GroupMembers.FIELD_ENTITY_ID, "b"))));
+
+		MongoStoreTest.<Void>await(h -> groupStore.addAll("g3", Arrays.asList("b", "d"), h));
+		MongoStoreTest.<Void>await(h -> groupStore.remove("g1", "c", h));
+		MongoStoreTest.<Void>await(h -> groupStore.removeEntities(Collections.singletonList("b"), h));
+		Assert.assertThat(members("g1"), is(Arrays.asList("a")));
+		Assert.assertThat(members("g3"), is(Arrays.asList("d")));
+		Assert.assertThat(MongoStoreTest.<Long>await(h -> groupStore.count("g2", h)), is(1L));
+
+		// The state is kept in the database, so a store of the next process doesn't need a rebuild.
+		Assert.assertThat(MongoStoreTest.<Boolean>await(h -> new MongoGroupStore(mongoClient).load(h)), is(true));
+	}
+
+	@Test
+	public void testWriteOverlappingRebuild()
+			throws Exception
+	{
+		// The membership isn't in the groups fields, so it is kept only if the write is made again after $out.
+		final CompletableFuture<Long> rebuilt = new CompletableFuture<>();
+		groupStore.rebuild(res -> rebuilt.complete(res.result()));
+		MongoStoreTest.<Void>await(h -> groupStore.add("g9", "d", h));
+
+		Assert.assertThat(rebuilt.get(10, TimeUnit.SECONDS), is(5L));
+		Assert.assertThat(groupStore.isComplete(), is(true));
+		Assert.assertThat(members("g9"), is(Arrays.asList("d")));
+	}
+}
@@ -0,0 +1,186 @@
+package com.pful.pico.store;
+
+import com.google.common.base.Strings;
+import com.pful.pico.db.querybuilder.Finder;
+import com.pful.pico.resource.Entity;
+import com.pful.pico.resource.GroupManipulation;
+import com.pful.pico.store.StoreFixtures.Result;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static com.pful.pico.store.StoreFixtures.document;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+/**
+ * SegmentEntityStoreTest checks that the entities are read back from the segments after the store is opened again,
+ * and that neither a compaction nor a torn record at the end loses a change.
+ */
+public class SegmentEntityStoreTest
+{
+	private static final int SEGMENT_SIZE = 1024;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+	private SegmentEntityStore store;
+
+	private SegmentEntityStore open()
+	{
+		return new SegmentEntityStore(new JsonObject().put(SegmentEntityStore.CONFIG_DIRECTORY, directory.getPath())
+		                                              .put(SegmentEntityStore.CONFIG_SEGMENT_SIZE, SEGMENT_SIZE));
+	}
+
+	private void reopen()
+	{
+		store.close();
+		store = open();
+	}
+
+	private static JsonObject padded(final int size)
+	{
+		return new JsonObject().put("p", Strings.repeat("x", size));
+	}
+
+	private void insert(final JsonObject document)
+	{
+		store.insert(document, new Result<>());
+	}
+
+	private JsonObject read(final String id)
+	{
+		final Result<JsonObject> result = new Result<>();
+		store.read(id, result);
+		return result.get();
+	}
+
+	private long count(final Finder.Query query)
+	{
+		final Result<Long> result = new Result<>();
+		store.count(query, result);
+		return result.get();
+	}
+
+	private int segmentCount()
+	{
+		final File[] files = directory.listFiles();
+		return files == null ? 0 : files.length;
+	}
+
+	@Before
+	public void before()
+			throws IOException
+	{
+		directory = folder.newFolder("segments");
+		store = open();
+	}
+
+	@After
+	public void after()
+	{
+		store.close();
+	}
+
+	@Test
+	public void testReplay()
+	{
+		insert(document("a", "person", 1, "g1"));
+		insert(document("b", "person", 2, "g1", "g2"));
+		insert(document("c", "person", 3));
+		store.update(new JsonObject().put(Entity.FIELD_ID, "a")
+		                             .put(Entity.FIELD_PROPERTIES, new JsonObject().put("rank", 10)),
+		             new Result<>());
+		store.delete("c", new Result<>());
+
+		reopen();
+
+		Assert.assertThat(read("a").getJsonObject(Entity.FIELD_PROPERTIES).getInteger("rank"), is(10));
+		Assert.assertThat(read("b"), is(document("b", "person", 2, "g1", "g2")));
+		Assert.assertThat(read("c"), is(nullValue()));
+		Assert.assertThat(count(Finder.newQuery().field(GroupManipulation.FIELD_GROUPS).is("g1")), is(2L));
+		Assert.assertThat(count(Finder.newQuery().field(Entity.FIELD_TYPE).is("person")), is(2L));
+	}
+
+	@Test
+	public void testCompaction()
+	{
+		insert(document("kept", "person", 0, "g1"));
+		for (int i = 0; i < 200; i++) {
+			insert(document("changed", "person", i, "g1"));
+		}
+		store.delete("kept", new Result<>());
+		insert(document("kept", "person", 1, "g2"));
+		store.compact();
+
+		// Only the active segment is left, holding the live documents and the latest changes.
+		Assert.assertThat(segmentCount(), is(1));
+
+		reopen();
+
+		Assert.assertThat(read("changed").getJsonObject(Entity.FIELD_PROPERTIES).getInteger("rank"), is(199));
+		Assert.assertThat(read("kept"), is(document("kept", "person", 1, "g2")));
+		Assert.assertThat(count(Finder.newQuery().field(GroupManipulation.FIELD_GROUPS).is("g1")), is(1L));
+	}
+
+	@Test
+	public void testCompactionBeforeLargeRecord()
+	{
+		final SegmentLog log = new SegmentLog(new File(directory, "small"), 200, 0.1);
+		final JsonObject b = padded(40);
+		final JsonObject c = padded(41);
+		final JsonObject a = padded(100);
+
+		// The records of b and c are about 60 bytes, and the record of a is 120 bytes.
+		log.put("b", b);
+		log.put("c", padded(40));
+		log.put("c", c);
+		// a doesn't fit in the first segment, and the compaction copies b and c to the new segment, which leaves no room for a.
+		log.put("a", a);
+
+		Assert.assertThat(log.get("a"), is(a));
+		Assert.assertThat(log.get("b"), is(b));
+		Assert.assertThat(log.get("c"), is(c));
+		log.close();
+
+		final SegmentLog reopened = new SegmentLog(new File(directory, "small"), 200, 0.1);
+		Assert.assertThat(reopened.get("a"), is(a));
+		Assert.assertThat(reopened.get("b"), is(b));
+		Assert.assertThat(reopened.get("c"), is(c));
+		reopened.close();
+	}
+
+	@Test
+	public void testTornRecord()
+			throws IOException
+	{
+		insert(document("a", "person", 1));
+		insert(document("b", "person", 2));
+		store.close();
+
+		// The crc of the last record is broken, as if the machine had stopped before its bytes were written.
+		final File segment = directory.listFiles()[0];
+		final int secondRecord = document("a", "person", 1).encode().length() + 8 + 3 + 1;
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			file.seek(secondRecord + 4);
+			file.writeInt(0);
+		}
+
+		store = open();
+		Assert.assertThat(read("a"), is(document("a", "person", 1)));
+		Assert.assertThat(read("b"), is(nullValue()));
+
+		insert(document("c", "person", 3));
+		reopen();
+		Assert.assertThat(read("c"), is(document("c", "person", 3)));
+	}
+}
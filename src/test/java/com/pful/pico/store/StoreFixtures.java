@@ -0,0 +1,55 @@
+package com.pful.pico.store;
+
+import com.pful.pico.resource.Entity;
+import com.pful.pico.resource.GroupManipulation;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+
+/**
+ * StoreFixtures has the handler and the documents shared by the tests of the stores whose handlers are called on the calling thread.
+ */
+final class StoreFixtures
+{
+	private StoreFixtures()
+	{
+	}
+
+	/**
+	 * Result keeps the result given to a handler, which should be called once with a success.
+	 */
+	static final class Result<T>
+			implements Handler<AsyncResult<T>>
+	{
+		private final List<T> results = new ArrayList<>();
+
+		@Override
+		public void handle(final AsyncResult<T> res)
+		{
+			Assert.assertThat(res.succeeded(), is(true));
+			results.add(res.result());
+		}
+
+		T get()
+		{
+			Assert.assertThat(results.size(), is(1));
+			return results.get(0);
+		}
+	}
+
+	static JsonObject document(final String id, final String type, final int rank, final String... groups)
+	{
+		return new JsonObject().put(Entity.FIELD_ID, id)
+		                       .put(Entity.FIELD_TYPE, type)
+		                       .put(Entity.FIELD_PROPERTIES, new JsonObject().put("rank", rank))
+		                       .put(GroupManipulation.FIELD_GROUPS, new JsonArray(Arrays.asList((Object[]) groups)));
+	}
+}
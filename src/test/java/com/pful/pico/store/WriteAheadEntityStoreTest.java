@@ -0,0 +1,247 @@
+package com.pful.pico.store;
+
+import com.pful.pico.db.querybuilder.Finder;
+import com.pful.pico.resource.Entity;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.hamcrest.core.Is.is;
+
+/**
+ * WriteAheadEntityStoreTest checks that the acknowledged writes reach the store behind the log,
+ * even if the process stops before they are flushed. The store behind the log is an InMemoryEntityStore,
+ * and the handlers are called on the committer thread unless the caller has a Vert.x context, so the results are awaited.
+ */
+public class WriteAheadEntityStoreTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+	private InMemoryEntityStore backing;
+	private WriteAheadEntityStore store;
+
+	/**
+	 * StalledEntityStore never finishes a batch, as if the database had stopped answering.
+	 */
+	private static final class StalledEntityStore
+			extends InMemoryEntityStore
+	{
+		@Override
+		public void insertBatch(final List<JsonObject> documents,
+		                        final boolean ordered,
+		                        final Handler<AsyncResult<Map<Integer, String>>> handler)
+		{
+		}
+
+		@Override
+		public void updateBatch(final List<JsonObject> changes,
+		                        final boolean ordered,
+		                        final Handler<AsyncResult<Map<Integer, String>>> handler)
+		{
+		}
+	}
+
+	/**
+	 * FailingLog writes only a half of the next record and fails while failNext is set, as if the disk had been full.
+	 */
+	private static final class FailingLog
+			extends WriteAheadLog
+	{
+		private volatile boolean failNext;
+
+		private FailingLog(final File directory)
+		{
+			super(directory);
+		}
+
+		@Override
+		void write(final ByteBuffer record)
+				throws IOException
+		{
+			if (failNext) {
+				failNext = false;
+				record.limit(record.limit() / 2);
+				super.write(record);
+				throw new IOException("No space left on device");
+			}
+			super.write(record);
+		}
+	}
+
+	private static <T> T await(final Consumer<Handler<AsyncResult<T>>> operation)
+			throws Exception
+	{
+		final CompletableFuture<T> done = new CompletableFuture<>();
+		operation.accept(res -> {
+			if (res.failed()) {
+				done.completeExceptionally(res.cause());
+				return;
+			}
+			done.complete(res.result());
+		});
+		return done.get(5, TimeUnit.SECONDS);
+	}
+
+	private WriteAheadEntityStore open(final EntityStore backing)
+	{
+		return new WriteAheadEntityStore(backing, new JsonObject().put(WriteAheadEntityStore.CONFIG_DIRECTORY, directory.getPath()));
+	}
+
+	private static JsonObject document(final String id, final int rank)
+	{
+		return new JsonObject().put(Entity.FIELD_ID, id)
+		                       .put(Entity.FIELD_TYPE, "person")
+		                       .put(Entity.FIELD_PROPERTIES, new JsonObject().put("rank", rank));
+	}
+
+	private static JsonObject rankOf(final String id, final int rank)
+	{
+		return new JsonObject().put(Entity.FIELD_ID, id)
+		                       .put(Entity.FIELD_PROPERTIES, new JsonObject().put("rank", rank));
+	}
+
+	private long countPeople(final EntityStore store)
+			throws Exception
+	{
+		return WriteAheadEntityStoreTest.<Long>await(h -> store.count(Finder.newQuery().field(Entity.FIELD_TYPE).is("person"), h));
+	}
+
+	@Before
+	public void before()
+			throws IOException
+	{
+		directory = folder.newFolder("wal");
+		backing = new InMemoryEntityStore();
+		store = open(backing);
+	}
+
+	@After
+	public void after()
+	{
+		store.close();
+	}
+
+	@Test
+	public void testWritesAreFlushed()
+			throws Exception
+	{
+		final String id = WriteAheadEntityStoreTest.<String>await(h -> store.insert(new JsonObject().put(Entity.FIELD_TYPE, "person"), h));
+		WriteAheadEntityStoreTest.<Void>await(h -> store.update(rankOf(id, 1), h));
+		WriteAheadEntityStoreTest.<String>await(h -> store.insert(document("b", 2), h));
+		WriteAheadEntityStoreTest.<Void>await(h -> store.update(rankOf("b", 3), h));
+
+		Assert.assertThat(WriteAheadEntityStoreTest.<JsonObject>await(h -> store.read("b", h)), is(document("b", 3)));
+
+		// A count waits for the flush, so the store behind the log has every write after it.
+		Assert.assertThat(countPeople(store), is(2L));
+		Assert.assertThat(WriteAheadEntityStoreTest.<JsonObject>await(h -> backing.read(id, h))
+		                                             .getJsonObject(Entity.FIELD_PROPERTIES).getInteger("rank"), is(1));
+		Assert.assertThat(WriteAheadEntityStoreTest.<JsonObject>await(h -> backing.read("b", h)), is(document("b", 3)));
+	}
+
+	@Test
+	public void testInsertOfExistingEntityIsUpdate()
+			throws Exception
+	{
+		WriteAheadEntityStoreTest.<String>await(h -> backing.insert(document("a", 1), h));
+		WriteAheadEntityStoreTest.<String>await(h -> store.insert(document("a", 2), h));
+
+		Assert.assertThat(countPeople(store), is(1L));
+		Assert.assertThat(WriteAheadEntityStoreTest.<JsonObject>await(h -> backing.read("a", h)), is(document("a", 2)));
+	}
+
+	@Test
+	public void testHandlersOnCallerContext()
+			throws Exception
+	{
+		final Vertx vertx = Vertx.vertx();
+		try {
+			final Context context = vertx.getOrCreateContext();
+			final CompletableFuture<Context> inserted = new CompletableFuture<>();
+			final CompletableFuture<Context> counted = new CompletableFuture<>();
+
+			// The count waits for the insert to be flushed, which is done on the committer thread.
+			context.runOnContext(v -> {
+				store.insert(document("a", 1), res -> inserted.complete(Vertx.currentContext()));
+				store.count(Finder.newQuery().field(Entity.FIELD_TYPE).is("person"), res -> counted.complete(Vertx.currentContext()));
+			});
+
+			Assert.assertThat(inserted.get(5, TimeUnit.SECONDS), is(context));
+			Assert.assertThat(counted.get(5, TimeUnit.SECONDS), is(context));
+		}
+		finally {
+			vertx.close();
+		}
+	}
+
+	@Test
+	public void testFailedAppendIsDiscarded()
+			throws Exception
+	{
+		store.close();
+
+		final FailingLog log = new FailingLog(directory);
+		store = new WriteAheadEntityStore(new StalledEntityStore(), log, 0);
+		WriteAheadEntityStoreTest.<String>await(h -> store.insert(document("a", 1), h));
+
+		log.failNext = true;
+		try {
+			WriteAheadEntityStoreTest.<String>await(h -> store.insert(document("b", 2), h));
+			Assert.fail();
+		}
+		catch (ExecutionException e) {
+			Assert.assertThat(e.getCause() instanceof IOException, is(true));
+		}
+
+		// The write after the failed one is acknowledged, so it should be replayed.
+		WriteAheadEntityStoreTest.<String>await(h -> store.insert(document("c", 3), h));
+		store.close();
+
+		store = open(backing);
+
+		Assert.assertThat(countPeople(store), is(2L));
+		Assert.assertThat(WriteAheadEntityStoreTest.<JsonObject>await(h -> backing.read("c", h)), is(document("c", 3)));
+		Assert.assertThat(WriteAheadEntityStoreTest.<JsonObject>await(h -> backing.read("b", h)), is((JsonObject) null));
+	}
+
+	@Test
+	public void testReplay()
+			throws Exception
+	{
+		store.close();
+		store = open(new StalledEntityStore());
+		WriteAheadEntityStoreTest.<String>await(h -> store.insert(document("a", 1), h));
+		WriteAheadEntityStoreTest.<Void>await(h -> store.update(rankOf("a", 2), h));
+		WriteAheadEntityStoreTest.<String>await(h -> store.insert(document("b", 3), h));
+		store.close();
+
+		store = open(backing);
+
+		Assert.assertThat(countPeople(store), is(2L));
+		Assert.assertThat(WriteAheadEntityStoreTest.<JsonObject>await(h -> backing.read("a", h)), is(document("a", 2)));
+
+		// The files of the last run are deleted once their writes are flushed, and only the current one is left.
+		final File[] files = directory.listFiles();
+		Assert.assertThat(files == null ? 0 : files.length, is(1));
+	}
+}